@@ -0,0 +1,67 @@
+package de.pinguparty.geopingu.bot.codec;
+
+import de.pinguparty.geopingu.bot.actions.BotAction;
+import de.pinguparty.geopingu.bot.actions.text.TextMessageAction;
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the formats of the {@link MessageCodec} with respect to encoding and decoding times of typical
+ * {@link UserMessage}s and {@link BotAction}s. The sizes of the encoded messages in bytes are printed during
+ * the setup of each format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MessageCodecBenchmark {
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    private MessageCodec codec;
+    private UserMessage userMessage;
+    private BotAction botAction;
+    private byte[] encodedUserMessage;
+    private byte[] encodedBotAction;
+
+    @Setup
+    public void setup() {
+        codec = MessageCodec.forFormat(format);
+
+        userMessage = new UserMessage().setChatID(-1001234567890L).setUserID(123456789L)
+                .setUsername("pingu").setFirstName("Pingu").setLastName("Party")
+                .setTimestamp(Instant.ofEpochSecond(1660000000L)).setText("/formula GC8XYZ1");
+        botAction = new TextMessageAction(-1001234567890L, "Please choose the geocache for which you want to set the formula:")
+                .setKeyboardButtons(List.of(List.of("GC8XYZ1 Pingu's Bonus"), List.of("GC9ABC2 Mystery at the Lake"), List.of("Cancel")));
+
+        encodedUserMessage = codec.encode(userMessage);
+        encodedBotAction = codec.encode(botAction);
+        System.out.printf("%n%s: UserMessage %d bytes, TextMessageAction %d bytes%n", format, encodedUserMessage.length, encodedBotAction.length);
+    }
+
+    @Benchmark
+    public byte[] encodeUserMessage() {
+        return codec.encode(userMessage);
+    }
+
+    @Benchmark
+    public UserMessage decodeUserMessage() {
+        return codec.decode(encodedUserMessage, UserMessage.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBotAction() {
+        return codec.encode(botAction);
+    }
+
+    @Benchmark
+    public BotAction decodeBotAction() {
+        return codec.decode(encodedBotAction, BotAction.class);
+    }
+}
@@ -0,0 +1,243 @@
+package de.pinguparty.geopingu.bot.config;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.AMQImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark of the {@link ListenerSettings}, which runs a listener container against a simulated broker with a
+ * fixed round trip time and measures the throughput of consuming a backlog of messages as well as the latency
+ * of a single message on an idle queue. The broker delivers messages only while fewer than the prefetch are
+ * unacknowledged, so that small prefetches and batch sizes cost a round trip per message, while consumer
+ * batching delays single messages until the receive timeout expires.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ListenerSettingsBenchmark {
+    private static final int MESSAGES = 2000;
+    private static final long ROUND_TRIP_MICROS = 1000;
+    private static final String QUEUE_NAME = "benchmark";
+
+    @Param({"1", "50"})
+    private int prefetch;
+
+    @Param({"1", "10"})
+    private int batchSize;
+
+    @Param({"false", "true"})
+    private boolean consumerBatch;
+
+    private SimulatedBroker broker;
+    private SimpleMessageListenerContainer container;
+    private final AtomicInteger processed = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        broker = new SimulatedBroker();
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(broker.createConnectionFactory());
+        new ListenerSettings().setPrefetch(prefetch).setBatchSize(batchSize).setConsumerBatch(consumerBatch).applyTo(factory);
+
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setQueueNames(QUEUE_NAME);
+        endpoint.setConcurrency("1");
+        endpoint.setBatchListener(true);
+        endpoint.setMessageListener(new BatchMessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                onMessageBatch(Collections.singletonList(message));
+            }
+
+            @Override
+            public void onMessageBatch(List<Message> messages) {
+                //Simulate a small amount of work per message
+                messages.forEach(m -> Blackhole.consumeCPU(500));
+                processed.addAndGet(messages.size());
+            }
+        });
+
+        container = factory.createListenerContainer(endpoint);
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        container.stop();
+        broker.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(MESSAGES)
+    public void consumeBacklog() {
+        int target = processed.get() + MESSAGES;
+        broker.publish(MESSAGES);
+        awaitProcessed(target);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void consumeSingle() {
+        int target = processed.get() + 1;
+        broker.publish(1);
+        awaitProcessed(target);
+    }
+
+    private void awaitProcessed(int target) {
+        while (processed.get() < target) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Broker with a single queue, which simulates the round trip time between the broker and the consumer and
+     * respects the prefetch of the consumer. All state is confined to the thread of the broker.
+     */
+    private static class SimulatedBroker {
+        private final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor();
+        private final ArrayDeque<byte[]> backlog = new ArrayDeque<>();
+        private final ArrayDeque<Long> unacknowledged = new ArrayDeque<>();
+        private volatile Consumer consumer;
+        private String consumerTag;
+        private int prefetch = Integer.MAX_VALUE;
+        private long deliveryTag = 0;
+
+        private void publish(int count) {
+            thread.execute(() -> {
+                for (int i = 0; i < count; i++) {
+                    backlog.add(ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime()).array());
+                }
+                deliver();
+            });
+        }
+
+        private void deliver() {
+            while ((consumer != null) && !backlog.isEmpty() && (unacknowledged.size() < prefetch)) {
+                byte[] body = backlog.poll();
+                long tag = ++deliveryTag;
+                unacknowledged.add(tag);
+
+                Consumer target = consumer;
+                String targetTag = consumerTag;
+                thread.schedule(() -> {
+                    try {
+                        target.handleDelivery(targetTag, new Envelope(tag, false, "", QUEUE_NAME), new AMQP.BasicProperties(), body);
+                    } catch (Exception ignored) {
+                    }
+                }, ROUND_TRIP_MICROS / 2, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        private void acknowledge(long tag, boolean multiple) {
+            thread.schedule(() -> {
+                if (multiple) {
+                    while (!unacknowledged.isEmpty() && (unacknowledged.peek() <= tag)) unacknowledged.poll();
+                } else {
+                    unacknowledged.remove(tag);
+                }
+                deliver();
+            }, ROUND_TRIP_MICROS / 2, TimeUnit.MICROSECONDS);
+        }
+
+        private void shutdown() {
+            thread.shutdownNow();
+        }
+
+        private ConnectionFactory createConnectionFactory() {
+            Channel channel = proxy(Channel.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "isOpen":
+                        return true;
+                    case "basicQos":
+                        int count = (int) args[(args.length == 3) ? 1 : 0];
+                        thread.execute(() -> prefetch = (count == 0) ? Integer.MAX_VALUE : count);
+                        return null;
+                    case "basicConsume":
+                        Consumer callback = (Consumer) args[args.length - 1];
+                        String tag = "consumer";
+                        thread.execute(() -> {
+                            consumer = callback;
+                            consumerTag = tag;
+                            deliver();
+                        });
+                        callback.handleConsumeOk(tag);
+                        return tag;
+                    case "basicAck":
+                        acknowledge((long) args[0], (boolean) args[1]);
+                        return null;
+                    case "basicCancel":
+                        thread.execute(() -> consumer = null);
+                        Consumer cancelled = consumer;
+                        if (cancelled != null) cancelled.handleCancelOk((String) args[0]);
+                        return null;
+                    case "queueDeclarePassive":
+                        return new AMQImpl.Queue.DeclareOk((String) args[0], 0, 1);
+                    default:
+                        return null;
+                }
+            });
+            Connection connection = proxy(Connection.class, (method, args) ->
+                    "createChannel".equals(method.getName()) ? channel : "isOpen".equals(method.getName()) ? Boolean.TRUE : null);
+            return proxy(ConnectionFactory.class, (method, args) ->
+                    "createConnection".equals(method.getName()) ? connection : null);
+        }
+    }
+
+    /**
+     * Handler of the invocations on a proxy.
+     */
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Exception;
+    }
+
+    /**
+     * Creates a proxy for a given interface, which returns default values for all methods whose invocations are not
+     * answered by a given handler.
+     */
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+            //Identity semantics, since proxies may be used as keys
+            if ("equals".equals(method.getName()) && (args != null) && (args.length == 1)) return p == args[0];
+            if ("hashCode".equals(method.getName()) && (args == null)) return System.identityHashCode(p);
+
+            Object result = handler.handle(method, (args == null) ? new Object[0] : args);
+            if ((result != null) || !method.getReturnType().isPrimitive()) return result;
+
+            //Default values of primitive return types
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) return false;
+            if (returnType == void.class) return null;
+            if (returnType == long.class) return 0L;
+            return 0;
+        });
+        return type.cast(proxy);
+    }
+}
@@ -0,0 +1,31 @@
+package de.pinguparty.geopingu.bot.actions;
+
+/**
+ * Lanes in which {@link BotAction}s are transferred to and executed by the bot. Each lane is backed by its own
+ * queue. Actions in the interactive lane are latency-sensitive replies to user messages and are executed ahead of
+ * the actions in the bulk lane, such as notifications or command updates, which may be deferred for a limited time.
+ */
+public enum ActionLane {
+    INTERACTIVE(""), BULK(".bulk");
+
+    private final String queueSuffix;
+
+    /**
+     * Creates a new {@link ActionLane} with a given suffix for the name of its queue.
+     *
+     * @param queueSuffix The suffix to append to the base name of the actions queue
+     */
+    ActionLane(String queueSuffix) {
+        this.queueSuffix = queueSuffix;
+    }
+
+    /**
+     * Returns the name of the queue that backs the lane, given the base name of the actions queue.
+     *
+     * @param baseName The base name of the actions queue
+     * @return The name of the queue
+     */
+    public String getQueueName(String baseName) {
+        return baseName + queueSuffix;
+    }
+}
@@ -1,14 +1,15 @@
 package de.pinguparty.geopingu.bot.actions;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.*;
 import de.pinguparty.geopingu.bot.telegram.TelegramBot;
 
 /**
- * Model interface for bot actions.
+ * Model interface for bot actions. The type name is written as first property, so that the class of a serialized
+ * bot action can be determined by a single streaming pass.
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "type")
+@JsonPropertyOrder({"type"})
 public abstract class BotAction {
     //Always required fields
     protected long chatID;
@@ -1,20 +1,19 @@
 package de.pinguparty.geopingu.bot.actions;
 
+import de.pinguparty.geopingu.bot.codec.NegotiatingMessageConverter;
+import de.pinguparty.geopingu.bot.config.ListenerSettings;
 import de.pinguparty.geopingu.bot.config.MessagingConfig;
 import de.pinguparty.geopingu.bot.telegram.TelegramBot;
-import de.pinguparty.geopingu.bot.util.JSONConverter;
-import org.json.JSONObject;
-import org.reflections.Reflections;
-import org.reflections.util.ConfigurationBuilder;
+import de.pinguparty.geopingu.bot.tracing.HopRecorder;
+import de.pinguparty.geopingu.bot.tracing.MessageTrace;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 
-import java.lang.reflect.Modifier;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import javax.annotation.PostConstruct;
+import java.util.List;
 
 /**
  * Service for handling incoming {@link BotAction}s which where received on the corresponding queue form the worker
@@ -22,63 +21,91 @@ import java.util.Set;
  */
 @Service
 public class BotActionsHandler {
-    private static final String BOT_ACTIONS_PACKAGE = "de.pinguparty.geopingu.bot.actions";
-    private static final Map<String, Class<? extends BotAction>> BOT_ACTION_MAP = new HashMap<>();
-    private static final String JSON_ACTION_TYPE_KEY = "type";
 
     @Autowired
     private TelegramBot telegramBot;
 
-    static {
-        //Initialize reflections
-        Reflections reflections = new Reflections(new ConfigurationBuilder().forPackages(BOT_ACTIONS_PACKAGE));
-        //Find all available bot action classes
-        Set<Class<? extends BotAction>> botActionClasses = reflections.getSubTypesOf(BotAction.class);
-
-        //Iterate over all Interaction subclasses
-        for (Class<? extends BotAction> botActionClass : botActionClasses) {
-            //Skip class if interface or abstract
-            if (botActionClass.isInterface() || Modifier.isAbstract(botActionClass.getModifiers())) continue;
-
-            //Add class to map of bot actions
-            try {
-                BOT_ACTION_MAP.put(botActionClass.getDeclaredConstructor().newInstance().getTypeName(), botActionClass);
-            } catch (Exception ignored) {
-            }
-        }
+    @Autowired
+    private NegotiatingMessageConverter messageConverter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LaneScheduler laneScheduler;
+
+    //Records the timings of the actions hop
+    private HopRecorder hopRecorder;
+
+    /**
+     * Initializes the handler.
+     */
+    @PostConstruct
+    public void initialize() {
+        this.hopRecorder = new HopRecorder(meterRegistry, "botActions");
     }
 
     /**
-     * Listens to the actions queue and handles the incoming actions by executing them on a {@link TelegramBot}.
+     * Listens to the queue of the interactive {@link ActionLane} and handles batches of incoming actions by
+     * executing them in order on a {@link TelegramBot}. Depending on the {@link ListenerSettings}, a batch consists
+     * of one or multiple actions. The actions are announced to the {@link LaneScheduler} on reception, so that
+     * bulk actions are deferred until they are executed.
      *
-     * @param payload The payload of the incoming action
+     * @param messages The messages that contain the incoming actions
      */
-    @RabbitListener(queues = {"${bot.queue.actions}"}, concurrency = MessagingConfig.CONSUMER_CONCURRENCY)
-    public void receiveAction(@Payload String payload) {
+    @RabbitListener(queues = {"#{botActionsQueue.name}"}, concurrency = MessagingConfig.CONSUMER_CONCURRENCY)
+    public void receiveActions(List<Message> messages) {
         //Sanity check
-        if ((payload == null) || payload.isEmpty() || (telegramBot == null)) return;
+        if (messages == null) return;
 
-        //Try to convert payload to JSON object
-        JSONObject actionJSON;
-        try {
-            actionJSON = new JSONObject(payload);
-        } catch (Exception e) {
-            return;
+        laneScheduler.announceInteractive(messages.size());
+        messages.forEach(m -> laneScheduler.runInteractive(() -> receiveAction(m)));
+    }
+
+    /**
+     * Listens to the queue of the bulk {@link ActionLane} and handles batches of incoming actions by executing them
+     * in order on a {@link TelegramBot}, as soon as the {@link LaneScheduler} permits.
+     *
+     * @param messages The messages that contain the incoming actions
+     * @throws InterruptedException In case the thread is interrupted while waiting for interactive actions
+     */
+    @RabbitListener(queues = {"#{botActionsBulkQueue.name}"}, concurrency = "${bot.lanes.bulk.concurrency}")
+    public void receiveBulkActions(List<Message> messages) throws InterruptedException {
+        //Sanity check
+        if (messages == null) return;
+
+        for (Message message : messages) {
+            laneScheduler.runBulk(() -> receiveAction(message));
         }
+    }
 
-        //Extract type from payload
-        String actionType = actionJSON.optString(JSON_ACTION_TYPE_KEY, null);
+    /**
+     * Handles an incoming action by executing it on a {@link TelegramBot}. The time that the action waited in
+     * the queue, the execution time and the end-to-end latency since the origin of the triggering user message
+     * are recorded.
+     *
+     * @param message The message that contains the incoming action
+     */
+    public void receiveAction(Message message) {
+        //Sanity check
+        if ((message == null) || (telegramBot == null)) return;
 
-        //Check whether an action of this type exists
-        if ((actionType == null) || (!BOT_ACTION_MAP.containsKey(actionType))) return;
+        hopRecorder.recordQueueWait(message);
+        MessageTrace trace = MessageTrace.of(message);
+        long startTime = System.nanoTime();
 
-        //Convert payload into object of the class corresponding to the action type
-        BotAction botAction = JSONConverter.fromJSON(actionJSON, BOT_ACTION_MAP.get(actionType));
+        //Decode the action from the message body, based on its content type and type name
+        BotAction botAction = messageConverter.decode(message, BotAction.class);
 
-        //Sanity check
+        //Sanity check, unknown action types result in null
         if (botAction == null) return;
 
         //Execute the action
-        botAction.execute(telegramBot);
+        try {
+            botAction.execute(telegramBot);
+        } finally {
+            hopRecorder.recordProcessing(trace, startTime);
+            hopRecorder.recordEndToEnd(trace);
+        }
     }
 }
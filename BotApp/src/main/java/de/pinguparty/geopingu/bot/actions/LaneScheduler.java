@@ -0,0 +1,91 @@
+package de.pinguparty.geopingu.bot.actions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schedules the execution of {@link BotAction}s of the different {@link ActionLane}s, such that interactive actions
+ * are executed ahead of bulk actions. Interactive actions are announced as pending as soon as they are received and
+ * executed right away. Bulk actions are only executed once no interactive actions are pending, but wait at most for
+ * a maximum delay, so that they are not starved by a continuous stream of interactive actions.
+ */
+public class LaneScheduler {
+    private final long maxBulkDelay;
+
+    //Number of received, but not yet executed interactive actions
+    private int pendingInteractive = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition interactiveDone = lock.newCondition();
+
+    /**
+     * Creates a new {@link LaneScheduler} with a given maximum delay for bulk actions.
+     *
+     * @param maxBulkDelay The maximum time in milliseconds that bulk actions wait for interactive actions
+     */
+    public LaneScheduler(long maxBulkDelay) {
+        //Sanity check
+        if (maxBulkDelay < 0) throw new IllegalArgumentException("The maximum bulk delay must not be negative.");
+
+        this.maxBulkDelay = maxBulkDelay;
+    }
+
+    /**
+     * Announces a given number of received interactive actions, which are executed subsequently.
+     *
+     * @param count The number of interactive actions
+     */
+    public void announceInteractive(int count) {
+        lock.lock();
+        try {
+            pendingInteractive += count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Executes a previously announced interactive action by running a given task.
+     *
+     * @param task The task to run
+     */
+    public void runInteractive(Runnable task) {
+        try {
+            task.run();
+        } finally {
+            lock.lock();
+            try {
+                pendingInteractive--;
+                if (pendingInteractive <= 0) {
+                    pendingInteractive = 0;
+                    interactiveDone.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Executes a bulk action by running a given task once no interactive actions are pending, or after the maximum
+     * bulk delay has passed.
+     *
+     * @param task The task to run
+     * @throws InterruptedException In case the thread is interrupted while waiting
+     */
+    public void runBulk(Runnable task) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(maxBulkDelay);
+
+        lock.lock();
+        try {
+            while ((pendingInteractive > 0) && (remaining > 0)) {
+                remaining = interactiveDone.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        task.run();
+    }
+}
@@ -16,6 +16,11 @@ import java.util.stream.Collectors;
  * A {@link BotAction} that allows to send a text message to a certain chat, given by its chat ID.
  */
 public class TextMessageAction extends BotAction {
+    //Maximum length of message texts that is accepted by Telegram
+    public static final int MAX_TEXT_LENGTH = 4096;
+
+    //Separator between the texts of merged actions
+    private static final String MERGE_SEPARATOR = "\n\n";
 
     private String text = "";
     private boolean notify = true;
@@ -102,6 +107,48 @@ public class TextMessageAction extends BotAction {
         bot.executeActionSafely(sendMessage);
     }
 
+    /**
+     * Checks whether a given {@link TextMessageAction} that is supposed to be executed directly after this action
+     * can be merged with it into a single action. This is the case if both actions target the same chat with the same
+     * notification and formatting settings, this action does not configure the keyboard and the merged text does
+     * not exceed {@link #MAX_TEXT_LENGTH}.
+     *
+     * @param next The subsequent {@link TextMessageAction}
+     * @return True, if the actions can be merged; false otherwise
+     */
+    public boolean canMergeWith(TextMessageAction next) {
+        //Only plain text actions are merged, since subclasses may carry additional data
+        if ((next == null) || (getClass() != TextMessageAction.class) || (next.getClass() != TextMessageAction.class))
+            return false;
+
+        //Keyboard changes must stay attached to their own message
+        if ((keyboardButtonNames != null) || removeKeyboard) return false;
+
+        return (chatID == next.chatID) && (notify == next.notify) && (isHTML == next.isHTML)
+                && (text != null) && (next.text != null)
+                && (text.length() + MERGE_SEPARATOR.length() + next.text.length() <= MAX_TEXT_LENGTH);
+    }
+
+    /**
+     * Merges a given subsequent {@link TextMessageAction} with this action into a new action, which contains both
+     * texts, separated by a blank line, and the keyboard settings of the subsequent action.
+     *
+     * @param next The subsequent {@link TextMessageAction}
+     * @return The resulting {@link TextMessageAction}
+     */
+    public TextMessageAction mergeWith(TextMessageAction next) {
+        //Sanity check
+        if (!canMergeWith(next)) throw new IllegalArgumentException("The actions cannot be merged.");
+
+        return new TextMessageAction(chatID, text + MERGE_SEPARATOR + next.text)
+                .setNotify(notify)
+                .setHTML(isHTML)
+                .setKeyboardButtons(next.keyboardButtonNames)
+                .setOneTimeKeyboard(next.isOneTimeKeyboard)
+                .setSelectiveKeyboard(next.selectiveKeyboard)
+                .setRemoveKeyboard(next.removeKeyboard);
+    }
+
     /**
      * Returns the text that is supposed to be sent.
      *
@@ -0,0 +1,183 @@
+package de.pinguparty.geopingu.bot.codec;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import de.pinguparty.geopingu.bot.actions.BotAction;
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import org.reflections.Reflections;
+import org.reflections.util.ConfigurationBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codec for the objects that are exchanged between the applications, such as {@link UserMessage}s and
+ * {@link BotAction}s. Objects are written to and read from the bodies of AMQP messages as bytes in a single pass,
+ * using {@link ObjectWriter}s and {@link ObjectReader}s that are created once and reused. Besides UTF-8 encoded JSON,
+ * the binary formats Smile and CBOR are available, which are more compact and faster to process.
+ * {@link BotAction}s are read polymorphically, based on their "type" property, which is mapped to all
+ * {@link BotAction} classes that are available in the actions package.
+ */
+public class MessageCodec {
+    private static final String BOT_ACTIONS_PACKAGE = "de.pinguparty.geopingu.bot.actions";
+
+    //Type names of all available bot actions
+    private static final List<NamedType> BOT_ACTION_TYPES = findBotActionTypes();
+
+    //Content types of the available formats
+    public static final String CONTENT_TYPE_JSON = MessageProperties.CONTENT_TYPE_JSON;
+    public static final String CONTENT_TYPE_SMILE = "application/x-jackson-smile";
+    public static final String CONTENT_TYPE_CBOR = "application/cbor";
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter objectWriter;
+    private final String contentType;
+
+    //Reusable readers for the target classes
+    private final Map<Class<?>, ObjectReader> objectReaders = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link MessageCodec} for JSON.
+     */
+    public MessageCodec() {
+        this(new ObjectMapper(), CONTENT_TYPE_JSON);
+    }
+
+    /**
+     * Creates a new {@link MessageCodec} that uses a given {@link ObjectMapper}, which is configured by the codec
+     * and produces bytes of a given content type.
+     *
+     * @param objectMapper The {@link ObjectMapper} to use
+     * @param contentType  The content type of the produced bytes
+     */
+    protected MessageCodec(ObjectMapper objectMapper, String contentType) {
+        //Sanity checks
+        if (objectMapper == null) throw new IllegalArgumentException("The object mapper must not be null.");
+        if ((contentType == null) || contentType.isEmpty())
+            throw new IllegalArgumentException("The content type must not be empty.");
+
+        this.objectMapper = objectMapper;
+        this.contentType = contentType;
+
+        //Find and register additional modules
+        objectMapper.findAndRegisterModules();
+
+        //Ignore bot actions of unknown types instead of failing
+        objectMapper.configure(DeserializationFeature.FAIL_ON_INVALID_SUBTYPE, false);
+
+        //Register the type names of all available bot actions
+        objectMapper.registerSubtypes(BOT_ACTION_TYPES.toArray(new NamedType[0]));
+
+        this.objectWriter = objectMapper.writer();
+    }
+
+    /**
+     * Creates a new {@link MessageCodec} for the format with a given name, which is either "json", "smile"
+     * or "cbor".
+     *
+     * @param format The name of the format
+     * @return The resulting {@link MessageCodec}
+     */
+    public static MessageCodec forFormat(String format) {
+        //Sanity check
+        if (format == null) throw new IllegalArgumentException("The format must not be null.");
+
+        switch (format.toLowerCase(Locale.ROOT)) {
+            case "json":
+                return new MessageCodec();
+            case "smile":
+                return new MessageCodec(new SmileMapper(), CONTENT_TYPE_SMILE);
+            case "cbor":
+                return new MessageCodec(new CBORMapper(), CONTENT_TYPE_CBOR);
+            default:
+                throw new IllegalArgumentException(String.format("The format \"%s\" is not supported.", format));
+        }
+    }
+
+    /**
+     * Encodes a given object to bytes.
+     *
+     * @param object The object to encode
+     * @return The resulting bytes
+     * @throws MessageConversionException In case the object cannot be encoded
+     */
+    public byte[] encode(Object object) {
+        //Sanity check
+        if (object == null) throw new IllegalArgumentException("The object must not be null.");
+
+        try {
+            return objectWriter.writeValueAsBytes(object);
+        } catch (IOException e) {
+            throw new MessageConversionException("The object could not be encoded.", e);
+        }
+    }
+
+    /**
+     * Decodes an object of a given {@link Class} from given bytes. For {@link BotAction}s, the actual class of
+     * the object is determined by its type name. In case of failures, null is returned.
+     *
+     * @param bytes The bytes to decode
+     * @param clazz Reference to the target class of the object
+     * @param <T>   The target class of the object
+     * @return The resulting object or null
+     */
+    public <T> T decode(byte[] bytes, Class<T> clazz) {
+        //Sanity check
+        if ((bytes == null) || (bytes.length == 0) || (clazz == null)) return null;
+
+        try {
+            return getReader(clazz).readValue(bytes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the content type of the encoded bytes.
+     *
+     * @return The content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the reusable {@link ObjectReader} for a given target class.
+     */
+    private ObjectReader getReader(Class<?> clazz) {
+        return objectReaders.computeIfAbsent(clazz, objectMapper::readerFor);
+    }
+
+    /**
+     * Finds all non-abstract {@link BotAction} classes within the actions package and returns them together with
+     * their type names.
+     */
+    private static List<NamedType> findBotActionTypes() {
+        List<NamedType> types = new ArrayList<>();
+
+        Reflections reflections = new Reflections(new ConfigurationBuilder().forPackages(BOT_ACTIONS_PACKAGE));
+        for (Class<? extends BotAction> botActionClass : reflections.getSubTypesOf(BotAction.class)) {
+            //Skip class if interface or abstract
+            if (botActionClass.isInterface() || Modifier.isAbstract(botActionClass.getModifiers())) continue;
+
+            try {
+                types.add(new NamedType(botActionClass, botActionClass.getDeclaredConstructor().newInstance().getTypeName()));
+            } catch (Exception ignored) {
+            }
+        }
+
+        return types;
+    }
+}
@@ -0,0 +1,116 @@
+package de.pinguparty.geopingu.bot.codec;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link MessageConverter} that encodes outgoing messages with a configurable {@link MessageCodec} and decodes
+ * incoming messages with the {@link MessageCodec} that matches their content type header. Messages without
+ * content type or with a text content type are decoded as JSON. This way, nodes that send different formats can
+ * coexist, as long as all receiving nodes support the formats that are sent.
+ */
+public class NegotiatingMessageConverter implements MessageConverter {
+    //Names of the formats that can be decoded
+    private static final String[] FORMATS = {"json", "smile", "cbor"};
+
+    private final MessageCodec outgoingCodec;
+    private final MessageCodec jsonCodec;
+
+    //Codecs by their content type
+    private final Map<String, MessageCodec> codecs = new HashMap<>();
+
+    /**
+     * Creates a new {@link NegotiatingMessageConverter} that encodes outgoing messages in the format with a given
+     * name and decodes incoming messages in all available formats.
+     *
+     * @param outgoingFormat The name of the format of outgoing messages, as accepted by
+     *                       {@link MessageCodec#forFormat(String)}
+     */
+    public NegotiatingMessageConverter(String outgoingFormat) {
+        //Sanity check
+        if (outgoingFormat == null) throw new IllegalArgumentException("The outgoing format must not be null.");
+
+        MessageCodec outgoing = null;
+        for (String format : FORMATS) {
+            MessageCodec codec = MessageCodec.forFormat(format);
+            codecs.put(codec.getContentType(), codec);
+            if (format.equalsIgnoreCase(outgoingFormat)) outgoing = codec;
+        }
+
+        //Check whether the outgoing format is supported
+        if (outgoing == null)
+            throw new IllegalArgumentException(String.format("The format \"%s\" is not supported.", outgoingFormat));
+
+        this.jsonCodec = codecs.get(MessageCodec.CONTENT_TYPE_JSON);
+        this.outgoingCodec = outgoing;
+    }
+
+    /**
+     * Decodes an object of a given {@link Class} from the body of a given {@link Message}, using the
+     * {@link MessageCodec} that matches its content type. In case of failures or unsupported content types,
+     * null is returned.
+     *
+     * @param message The {@link Message} to decode
+     * @param clazz   Reference to the target class of the object
+     * @param <T>     The target class of the object
+     * @return The resulting object or null
+     */
+    public <T> T decode(Message message, Class<T> clazz) {
+        //Sanity check
+        if (message == null) return null;
+
+        MessageCodec codec = getCodec(message.getMessageProperties().getContentType());
+        return (codec == null) ? null : codec.decode(message.getBody(), clazz);
+    }
+
+    /**
+     * Returns the {@link MessageCodec} that is used for encoding outgoing messages.
+     *
+     * @return The {@link MessageCodec}
+     */
+    public MessageCodec getOutgoingCodec() {
+        return outgoingCodec;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        byte[] body = outgoingCodec.encode(object);
+        messageProperties.setContentType(outgoingCodec.getContentType());
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        //Decode into the type that the listener expects, if known
+        Type targetType = message.getMessageProperties().getInferredArgumentType();
+        if (!(targetType instanceof Class) || (targetType == byte[].class)) return message.getBody();
+
+        Object object = decode(message, (Class<?>) targetType);
+        if (object == null) throw new MessageConversionException("The message could not be decoded.");
+        return object;
+    }
+
+    /**
+     * Returns the {@link MessageCodec} for a given content type, ignoring its parameters, or null if the content
+     * type is not supported.
+     */
+    private MessageCodec getCodec(String contentType) {
+        if (contentType == null) return jsonCodec;
+
+        //Strip parameters such as the charset
+        int separator = contentType.indexOf(';');
+        String mediaType = ((separator < 0) ? contentType : contentType.substring(0, separator)).trim().toLowerCase(Locale.ROOT);
+
+        //Text was sent by nodes that predate the codecs
+        if (mediaType.startsWith("text/")) return jsonCodec;
+        return codecs.get(mediaType);
+    }
+}
@@ -0,0 +1,168 @@
+package de.pinguparty.geopingu.bot.config;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+
+import java.util.Locale;
+
+/**
+ * Settings for the containers of the message listeners, which determine how many messages are fetched from the
+ * broker and acknowledged at once. The prefetch limits the number of unacknowledged messages per consumer, so that
+ * the broker can deliver further messages while previous ones are still processed. The batch size determines how
+ * many messages are acknowledged together. If consumer batching is enabled, the listeners additionally receive up to
+ * batch size messages in one call, which are collected for at most the receive timeout. Larger values increase the
+ * throughput at the expense of the latency of single messages. All listeners are batch listeners, which receive
+ * lists of one message if consumer batching is disabled.
+ */
+public class ListenerSettings {
+    private int prefetch = 50;
+    private int batchSize = 10;
+    private boolean consumerBatch = false;
+    private AcknowledgeMode acknowledgeMode = AcknowledgeMode.AUTO;
+    private long receiveTimeout = 100;
+
+    /**
+     * Creates new {@link ListenerSettings} with default values.
+     */
+    public ListenerSettings() {
+
+    }
+
+    /**
+     * Applies the settings to a given {@link SimpleRabbitListenerContainerFactory}.
+     *
+     * @param factory The {@link SimpleRabbitListenerContainerFactory} to configure
+     * @return The same {@link SimpleRabbitListenerContainerFactory}
+     */
+    public SimpleRabbitListenerContainerFactory applyTo(SimpleRabbitListenerContainerFactory factory) {
+        //Sanity check
+        if (factory == null) throw new IllegalArgumentException("The factory must not be null.");
+
+        factory.setPrefetchCount(prefetch);
+        factory.setBatchSize(batchSize);
+        factory.setConsumerBatchEnabled(consumerBatch);
+        factory.setBatchListener(true);
+        factory.setAcknowledgeMode(acknowledgeMode);
+        factory.setReceiveTimeout(receiveTimeout);
+        return factory;
+    }
+
+    /**
+     * Returns the maximum number of unacknowledged messages per consumer.
+     *
+     * @return The prefetch
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Sets the maximum number of unacknowledged messages per consumer.
+     *
+     * @param prefetch The prefetch to set
+     * @return The {@link ListenerSettings}
+     */
+    public ListenerSettings setPrefetch(int prefetch) {
+        //Sanity check
+        if (prefetch < 1) throw new IllegalArgumentException("The prefetch must be positive.");
+
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * Returns the number of messages that are acknowledged together and delivered together in case of consumer
+     * batching.
+     *
+     * @return The batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of messages that are acknowledged together and delivered together in case of consumer
+     * batching.
+     *
+     * @param batchSize The batch size to set
+     * @return The {@link ListenerSettings}
+     */
+    public ListenerSettings setBatchSize(int batchSize) {
+        //Sanity check
+        if (batchSize < 1) throw new IllegalArgumentException("The batch size must be positive.");
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Returns whether the listeners receive batches of messages that are collected by the consumers.
+     *
+     * @return True, if consumer batching is enabled; false otherwise
+     */
+    public boolean isConsumerBatch() {
+        return consumerBatch;
+    }
+
+    /**
+     * Sets whether the listeners receive batches of messages that are collected by the consumers.
+     *
+     * @param consumerBatch True, if consumer batching should be enabled; false otherwise
+     * @return The {@link ListenerSettings}
+     */
+    public ListenerSettings setConsumerBatch(boolean consumerBatch) {
+        this.consumerBatch = consumerBatch;
+        return this;
+    }
+
+    /**
+     * Returns the {@link AcknowledgeMode} of the containers.
+     *
+     * @return The {@link AcknowledgeMode}
+     */
+    public AcknowledgeMode getAcknowledgeMode() {
+        return acknowledgeMode;
+    }
+
+    /**
+     * Sets the {@link AcknowledgeMode} of the containers by its name, which is either "auto" or "none". Manual
+     * acknowledgements cannot be configured, since only listeners that acknowledge their messages themselves can
+     * use them; such listeners override the mode of their endpoints instead.
+     *
+     * @param acknowledgeMode The name of the {@link AcknowledgeMode} to set
+     * @return The {@link ListenerSettings}
+     */
+    public ListenerSettings setAcknowledgeMode(String acknowledgeMode) {
+        //Sanity check
+        if (acknowledgeMode == null) throw new IllegalArgumentException("The acknowledge mode must not be null.");
+
+        AcknowledgeMode mode = AcknowledgeMode.valueOf(acknowledgeMode.toUpperCase(Locale.ROOT));
+        if (mode.isManual()) throw new IllegalArgumentException("Manual acknowledgements are not supported.");
+
+        this.acknowledgeMode = mode;
+        return this;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds that the consumers wait for further messages to complete a batch.
+     *
+     * @return The receive timeout in milliseconds
+     */
+    public long getReceiveTimeout() {
+        return receiveTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds that the consumers wait for further messages to complete a batch.
+     *
+     * @param receiveTimeout The receive timeout in milliseconds to set
+     * @return The {@link ListenerSettings}
+     */
+    public ListenerSettings setReceiveTimeout(long receiveTimeout) {
+        //Sanity check
+        if (receiveTimeout < 1) throw new IllegalArgumentException("The receive timeout must be positive.");
+
+        this.receiveTimeout = receiveTimeout;
+        return this;
+    }
+}
@@ -1,10 +1,18 @@
 package de.pinguparty.geopingu.bot.config;
 
+import de.pinguparty.geopingu.bot.codec.NegotiatingMessageConverter;
 import de.pinguparty.geopingu.bot.messages.UserMessage;
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
 import de.pinguparty.geopingu.bot.telegram.TelegramBot;
+import de.pinguparty.geopingu.bot.actions.ActionLane;
 import de.pinguparty.geopingu.bot.actions.BotAction;
+import de.pinguparty.geopingu.bot.actions.LaneScheduler;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -19,27 +27,119 @@ public class MessagingConfig {
     @Value("${bot.queue.messages}")
     private String userMessagesQueueName;
 
+    @Value("${bot.queue.messages.shards}")
+    private int userMessagesShards;
+
     @Value("${bot.queue.actions}")
     private String botActionsQueueName;
 
+    @Value("${bot.lanes.bulk.max-delay}")
+    private long maxBulkDelay;
+
+    @Value("${bot.queue.format}")
+    private String messageFormat;
+
+    @Value("${bot.listener.prefetch}")
+    private int listenerPrefetch;
+
+    @Value("${bot.listener.batch-size}")
+    private int listenerBatchSize;
+
+    @Value("${bot.listener.consumer-batch}")
+    private boolean listenerConsumerBatch;
+
+    @Value("${bot.listener.ack-mode}")
+    private String listenerAckMode;
+
+    @Value("${bot.listener.receive-timeout}")
+    private long listenerReceiveTimeout;
+
     /**
-     * Creates a {@link Queue} for outgoing {@link UserMessage}s that were received by a {@link TelegramBot}.
+     * Creates the {@link UserMessageShards} that describe the partitioning of the {@link UserMessage}s that were
+     * received by a {@link TelegramBot} into per-chat ordered queues.
      *
-     * @return The resulting {@link Queue}
+     * @return The resulting {@link UserMessageShards}
      */
     @Bean
-    public Queue userMessagesQueue() {
-        return new Queue(userMessagesQueueName, true);
+    public UserMessageShards userMessageShards() {
+        return new UserMessageShards(userMessagesQueueName, userMessagesShards);
     }
 
     /**
-     * Creates a {@link Queue} for incoming {@link BotAction}s that are supposed to be executed by a
-     * {@link TelegramBot}.
+     * Creates the {@link Declarables} for the exchange and the queues of the {@link UserMessageShards}.
+     *
+     * @param userMessageShards The {@link UserMessageShards} to declare
+     * @return The resulting {@link Declarables}
+     */
+    @Bean
+    public Declarables userMessagesTopology(UserMessageShards userMessageShards) {
+        return userMessageShards.createDeclarables();
+    }
+
+    /**
+     * Creates a {@link Queue} for incoming {@link BotAction}s of the interactive {@link ActionLane} that are
+     * supposed to be executed by a {@link TelegramBot}.
      *
      * @return The resulting {@link Queue}
      */
     @Bean
     public Queue botActionsQueue() {
-        return new Queue(botActionsQueueName, true);
+        return new Queue(ActionLane.INTERACTIVE.getQueueName(botActionsQueueName), true);
+    }
+
+    /**
+     * Creates a {@link Queue} for incoming {@link BotAction}s of the bulk {@link ActionLane} that are supposed to be
+     * executed by a {@link TelegramBot}.
+     *
+     * @return The resulting {@link Queue}
+     */
+    @Bean
+    public Queue botActionsBulkQueue() {
+        return new Queue(ActionLane.BULK.getQueueName(botActionsQueueName), true);
+    }
+
+    /**
+     * Creates the {@link LaneScheduler} that executes interactive {@link BotAction}s ahead of bulk actions.
+     *
+     * @return The resulting {@link LaneScheduler}
+     */
+    @Bean
+    public LaneScheduler laneScheduler() {
+        return new LaneScheduler(maxBulkDelay);
+    }
+
+    /**
+     * Creates the {@link NegotiatingMessageConverter} for encoding and decoding the {@link UserMessage}s and
+     * {@link BotAction}s, which is used by the rabbit templates and listeners. Outgoing messages are encoded in
+     * the configured format, incoming messages are decoded based on their content type.
+     *
+     * @return The resulting {@link NegotiatingMessageConverter}
+     */
+    @Bean
+    public NegotiatingMessageConverter messageConverter() {
+        return new NegotiatingMessageConverter(messageFormat);
+    }
+
+    /**
+     * Creates the {@link SimpleRabbitListenerContainerFactory} for the containers of all message listeners, which
+     * applies the configured {@link ListenerSettings} on top of the default configuration.
+     *
+     * @param configurer        The configurer for applying the default configuration
+     * @param connectionFactory The {@link ConnectionFactory} to use
+     * @return The resulting {@link SimpleRabbitListenerContainerFactory}
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                               ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+
+        return new ListenerSettings()
+                .setPrefetch(listenerPrefetch)
+                .setBatchSize(listenerBatchSize)
+                .setConsumerBatch(listenerConsumerBatch)
+                .setAcknowledgeMode(listenerAckMode)
+                .setReceiveTimeout(listenerReceiveTimeout)
+                .applyTo(factory);
     }
 }
@@ -1,13 +1,17 @@
 package de.pinguparty.geopingu.bot.messages;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import de.pinguparty.geopingu.bot.telegram.TelegramBot;
 
 import java.time.Instant;
 
 /**
- * Model class for {@link UserMessage} that were received by a {@link TelegramBot} from users.
+ * Model class for {@link UserMessage} that were received by a {@link TelegramBot} from users. Unknown properties
+ * are ignored, so that workers still decode the messages of bots that already add further properties.
  */
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class UserMessage {
+    private String messageID;
     private long chatID;
     private String username;
     private String firstName;
@@ -23,6 +27,27 @@ public class UserMessage {
 
     }
 
+    /**
+     * Returns the stable ID of the {@link UserMessage}, which is derived from the Telegram update that contained
+     * it and thus remains the same for all deliveries of the message.
+     *
+     * @return The message ID or null, if not available
+     */
+    public String getMessageID() {
+        return messageID;
+    }
+
+    /**
+     * Sets the stable ID of the {@link UserMessage}, which is derived from the Telegram update that contained it.
+     *
+     * @param messageID The message ID to set
+     * @return The {@link UserMessage}
+     */
+    public UserMessage setMessageID(String messageID) {
+        this.messageID = messageID;
+        return this;
+    }
+
     /**
      * Returns the ID of the chat to which the {@link UserMessage} was sent.
      *
@@ -172,4 +197,13 @@ public class UserMessage {
         return (this.text != null) && (!this.text.isEmpty());
     }
 
+    /**
+     * Returns whether the {@link UserMessage} carries a stable message ID.
+     *
+     * @return True, if a message ID is available; false otherwise
+     */
+    public boolean hasMessageID() {
+        return (this.messageID != null) && (!this.messageID.isEmpty());
+    }
+
 }
@@ -0,0 +1,134 @@
+package de.pinguparty.geopingu.bot.messages;
+
+import org.springframework.amqp.core.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the partitioning of {@link UserMessage}s into a fixed number of shards, based on the IDs of the chats
+ * to which the messages were sent. Each shard is backed by its own queue, which is bound to a common direct exchange
+ * with the number of the shard as routing key. All messages of a chat are thus delivered via the same queue and
+ * retain their order, while messages of different chats can be processed in parallel.
+ * The queues are declared with a single active consumer, so that only one consumer processes the messages of a shard
+ * at the same time, even if multiple worker instances consume from it. Messages that are rejected by the consumers
+ * are dead-lettered to a fanout exchange, which parks them in a separate queue for inspection. Publishers and
+ * consumers must use the same base name and number of shards.
+ */
+public class UserMessageShards {
+    private static final String SINGLE_ACTIVE_CONSUMER_ARGUMENT = "x-single-active-consumer";
+    private static final String PARKED_SUFFIX = ".parked";
+
+    private final String name;
+    private final int count;
+
+    /**
+     * Creates a new {@link UserMessageShards} description from a given base name and number of shards.
+     *
+     * @param name  The base name, which is used as name of the exchange and as prefix of the queue names
+     * @param count The number of shards
+     */
+    public UserMessageShards(String name, int count) {
+        //Sanity checks
+        if ((name == null) || name.isEmpty()) throw new IllegalArgumentException("The name must not be empty.");
+        if (count < 1) throw new IllegalArgumentException("The number of shards must be positive.");
+
+        this.name = name;
+        this.count = count;
+    }
+
+    /**
+     * Returns the number of the shard to which the messages of a certain chat, given by its chat ID, are assigned.
+     *
+     * @param chatID The ID of the chat
+     * @return The number of the shard
+     */
+    public int getShard(long chatID) {
+        //Spread the bits of the ID, since chat IDs of groups and users differ in their sign and magnitude only
+        long hash = chatID * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(hash ^ (hash >>> 32), (long) count);
+    }
+
+    /**
+     * Returns the routing key with which the messages of a certain chat, given by its chat ID, need to be published
+     * to the exchange.
+     *
+     * @param chatID The ID of the chat
+     * @return The routing key
+     */
+    public String getRoutingKey(long chatID) {
+        return Integer.toString(getShard(chatID));
+    }
+
+    /**
+     * Returns the name of the exchange to which the messages are published.
+     *
+     * @return The name of the exchange
+     */
+    public String getExchangeName() {
+        return name;
+    }
+
+    /**
+     * Returns the name of the queue that backs a given shard.
+     *
+     * @param shard The number of the shard
+     * @return The name of the queue
+     */
+    public String getQueueName(int shard) {
+        //Sanity check
+        if ((shard < 0) || (shard >= count)) throw new IllegalArgumentException("The shard does not exist.");
+
+        return name + "." + shard;
+    }
+
+    /**
+     * Returns the name of the exchange to which rejected messages are dead-lettered in order to park them.
+     *
+     * @return The name of the exchange
+     */
+    public String getParkedExchangeName() {
+        return name + PARKED_SUFFIX;
+    }
+
+    /**
+     * Returns the name of the queue in which rejected messages are parked.
+     *
+     * @return The name of the queue
+     */
+    public String getParkedQueueName() {
+        return name + PARKED_SUFFIX;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Creates the {@link Declarables} for the exchange, the queues of all shards and their bindings, as well as for
+     * the exchange and the queue for parking rejected messages.
+     *
+     * @return The resulting {@link Declarables}
+     */
+    public Declarables createDeclarables() {
+        DirectExchange exchange = new DirectExchange(name, true, false);
+        FanoutExchange parkedExchange = new FanoutExchange(getParkedExchangeName(), true, false);
+        Queue parkedQueue = QueueBuilder.durable(getParkedQueueName()).build();
+
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(exchange);
+        declarables.add(parkedExchange);
+        declarables.add(parkedQueue);
+        declarables.add(BindingBuilder.bind(parkedQueue).to(parkedExchange));
+        for (int shard = 0; shard < count; shard++) {
+            Queue queue = QueueBuilder.durable(getQueueName(shard))
+                    .withArgument(SINGLE_ACTIVE_CONSUMER_ARGUMENT, true)
+                    .deadLetterExchange(getParkedExchangeName())
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(Integer.toString(shard)));
+        }
+
+        return new Declarables(declarables);
+    }
+}
@@ -1,9 +1,7 @@
 package de.pinguparty.geopingu.bot.messages;
 
 import de.pinguparty.geopingu.bot.telegram.TelegramBot;
-import de.pinguparty.geopingu.bot.util.JSONConverter;
-import org.json.JSONObject;
-import org.springframework.amqp.core.Queue;
+import de.pinguparty.geopingu.bot.tracing.MessageTrace;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -21,29 +19,26 @@ public class UserMessagesHandler {
     private RabbitTemplate rabbitTemplate;
 
     @Autowired
-    private Queue userMessagesQueue;
+    private UserMessageShards userMessageShards;
 
     /**
      * Handles a given {@link Message} by transforming it to a {@link UserMessage} and forwarding it to the
-     * corresponding queue.
+     * queue of the shard to which the chat of the message is assigned. A new {@link MessageTrace} is started for
+     * the message, which is propagated to all resulting bot actions. The ID of the update that contained the message
+     * is used as stable message ID, so that the workers can recognize repeated deliveries of the message.
      *
-     * @param message The {@link Message} to handle
+     * @param updateID The ID of the Telegram update that contained the message
+     * @param message  The {@link Message} to handle
      */
-    public void handleMessage(Message message) {
+    public void handleMessage(int updateID, Message message) {
         //Sanity check
         if (message == null) return;
 
         //Create corresponding user message
-        UserMessage userMessage = transformMessage(message);
+        UserMessage userMessage = transformMessage(message).setMessageID(Integer.toString(updateID));
 
-        //Convert user message to JSON
-        JSONObject messageJSON = JSONConverter.toJSON(userMessage);
-
-        //Sanity check
-        if (messageJSON.isEmpty()) return;
-
-        //Send user message to queue
-        rabbitTemplate.convertAndSend(userMessagesQueue.getName(), messageJSON.toString());
+        //Send user message to the queue of its shard, so that the messages of a chat are processed in order
+        rabbitTemplate.convertAndSend(userMessageShards.getExchangeName(), userMessageShards.getRoutingKey(userMessage.getChatID()), userMessage, MessageTrace.start());
     }
 
     /**
@@ -42,7 +42,7 @@ public class TelegramBot extends TelegramLongPollingBot {
         }
 
         //Handle the message
-        userMessagesHandler.handleMessage(update.getMessage());
+        userMessagesHandler.handleMessage(update.getUpdateId(), update.getMessage());
     }
 
     /**
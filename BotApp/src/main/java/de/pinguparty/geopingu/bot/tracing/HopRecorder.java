@@ -0,0 +1,106 @@
+package de.pinguparty.geopingu.bot.tracing;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the timings of a single hop of traced messages, i.e. of the consumption of messages from a certain queue.
+ * For each hop, the time that the messages waited in the queue and the time that their processing took are
+ * recorded, tagged by the name of the hop. Additionally, the end-to-end latency since the origin of the
+ * {@link MessageTrace} can be recorded at the final hop. The timings of individual traces are logged on debug level.
+ */
+public class HopRecorder {
+    //Names of the metrics
+    public static final String METRIC_QUEUE_WAIT = "geopingu.hop.queue.wait";
+    public static final String METRIC_PROCESSING = "geopingu.hop.processing";
+    public static final String METRIC_END_TO_END = "geopingu.hop.end.to.end";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HopRecorder.class);
+
+    private final String hop;
+    private final Timer queueWaitTimer;
+    private final Timer processingTimer;
+    private final Timer endToEndTimer;
+
+    /**
+     * Creates a new {@link HopRecorder} for the hop with a given name, which records to a given
+     * {@link MeterRegistry}.
+     *
+     * @param meterRegistry The {@link MeterRegistry} to record to
+     * @param hop           The name of the hop
+     */
+    public HopRecorder(MeterRegistry meterRegistry, String hop) {
+        //Sanity checks
+        if (meterRegistry == null) throw new IllegalArgumentException("The meter registry must not be null.");
+        if ((hop == null) || hop.isEmpty()) throw new IllegalArgumentException("The hop name must not be empty.");
+
+        this.hop = hop;
+        this.queueWaitTimer = meterRegistry.timer(METRIC_QUEUE_WAIT, "hop", hop);
+        this.processingTimer = meterRegistry.timer(METRIC_PROCESSING, "hop", hop);
+        this.endToEndTimer = meterRegistry.timer(METRIC_END_TO_END, "hop", hop);
+    }
+
+    /**
+     * Records the time that a given received {@link Message} waited in the queue, if it carries its publication
+     * timestamp.
+     *
+     * @param message The received {@link Message}
+     */
+    public void recordQueueWait(Message message) {
+        long queueWait = MessageTrace.getQueueWait(message);
+        if (queueWait < 0) return;
+
+        queueWaitTimer.record(queueWait, TimeUnit.MILLISECONDS);
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("[{}] {} waited {} ms in the queue.", correlationIDOf(message), hop, queueWait);
+    }
+
+    /**
+     * Records the processing time of a message of a given {@link MessageTrace}, which started at a given
+     * value of {@link System#nanoTime()}.
+     *
+     * @param trace     The {@link MessageTrace} of the message or null, if not available
+     * @param startTime The start time of the processing as given by {@link System#nanoTime()}
+     */
+    public void recordProcessing(MessageTrace trace, long startTime) {
+        long duration = System.nanoTime() - startTime;
+
+        processingTimer.record(duration, TimeUnit.NANOSECONDS);
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("[{}] {} was processed in {} ms.", correlationIDOf(trace), hop, TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    /**
+     * Records the end-to-end latency of a given {@link MessageTrace}, i.e. the time since its origin.
+     *
+     * @param trace The {@link MessageTrace} to record or null, if not available
+     */
+    public void recordEndToEnd(MessageTrace trace) {
+        //Sanity check
+        if (trace == null) return;
+
+        long elapsedTime = trace.getElapsedTime();
+        endToEndTimer.record(elapsedTime, TimeUnit.MILLISECONDS);
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("[{}] {} was completed {} ms after the origin.", trace.getCorrelationID(), hop, elapsedTime);
+    }
+
+    /**
+     * Returns the correlation ID of a given {@link Message} for logging.
+     */
+    private static String correlationIDOf(Message message) {
+        return (message == null) ? null : message.getMessageProperties().getCorrelationId();
+    }
+
+    /**
+     * Returns the correlation ID of a given {@link MessageTrace} for logging.
+     */
+    private static String correlationIDOf(MessageTrace trace) {
+        return (trace == null) ? null : trace.getCorrelationID();
+    }
+}
@@ -0,0 +1,165 @@
+package de.pinguparty.geopingu.bot.tracing;
+
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.UUID;
+
+/**
+ * Trace of a user message that is propagated through the AMQP headers of all messages that result from it, from
+ * the user message that is published by the bot application to the bot actions that are published by the worker
+ * applications in response. A trace consists of a correlation ID and the origin timestamp, which describes when the
+ * user message was received by the bot application. Additionally, each message carries the timestamp of its
+ * publication, which allows to determine how long it waited in its queue. As {@link MessagePostProcessor}, a trace
+ * can be applied to outgoing messages directly.
+ */
+public final class MessageTrace implements MessagePostProcessor {
+    //Names of the headers
+    public static final String HEADER_ORIGIN_TIMESTAMP = "x-origin-timestamp";
+    public static final String HEADER_PUBLISHED_TIMESTAMP = "x-published-timestamp";
+
+    //Trace of the message that is currently processed by the thread
+    private static final ThreadLocal<MessageTrace> CURRENT = new ThreadLocal<>();
+
+    private final String correlationID;
+    private final long originTimestamp;
+
+    /**
+     * Creates a new {@link MessageTrace} from a given correlation ID and origin timestamp.
+     *
+     * @param correlationID   The correlation ID
+     * @param originTimestamp The origin timestamp in milliseconds since the epoch
+     */
+    public MessageTrace(String correlationID, long originTimestamp) {
+        //Sanity check
+        if ((correlationID == null) || correlationID.isEmpty())
+            throw new IllegalArgumentException("The correlation ID must not be empty.");
+
+        this.correlationID = correlationID;
+        this.originTimestamp = originTimestamp;
+    }
+
+    /**
+     * Starts a new {@link MessageTrace} with a random correlation ID that originates now.
+     *
+     * @return The resulting {@link MessageTrace}
+     */
+    public static MessageTrace start() {
+        return new MessageTrace(UUID.randomUUID().toString(), System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the {@link MessageTrace} that is carried by a given {@link Message} or null, if the message does
+     * not carry a trace, e.g. because it was published by a node that predates the tracing.
+     *
+     * @param message The {@link Message} to read the trace from
+     * @return The {@link MessageTrace} or null
+     */
+    public static MessageTrace of(Message message) {
+        //Sanity check
+        if (message == null) return null;
+
+        MessageProperties properties = message.getMessageProperties();
+        Long originTimestamp = readTimestamp(properties, HEADER_ORIGIN_TIMESTAMP);
+        if ((properties.getCorrelationId() == null) || (originTimestamp == null)) return null;
+
+        return new MessageTrace(properties.getCorrelationId(), originTimestamp);
+    }
+
+    /**
+     * Returns the time in milliseconds that a given {@link Message} waited between its publication and now, or -1
+     * if the message does not carry its publication timestamp.
+     *
+     * @param message The {@link Message} to check
+     * @return The waiting time in milliseconds or -1
+     */
+    public static long getQueueWait(Message message) {
+        //Sanity check
+        if (message == null) return -1;
+
+        Long publishedTimestamp = readTimestamp(message.getMessageProperties(), HEADER_PUBLISHED_TIMESTAMP);
+        return (publishedTimestamp == null) ? -1 : Math.max(0, System.currentTimeMillis() - publishedTimestamp);
+    }
+
+    /**
+     * Returns the {@link MessageTrace} of the message that is currently processed by the calling thread or null,
+     * if no message is processed.
+     *
+     * @return The current {@link MessageTrace} or null
+     */
+    public static MessageTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs a given task with this {@link MessageTrace} as current trace of the calling thread, so that all
+     * messages that are published by the task can be assigned to it.
+     *
+     * @param task The task to run
+     */
+    public void run(Runnable task) {
+        //Sanity check
+        if (task == null) throw new IllegalArgumentException("The task must not be null.");
+
+        MessageTrace previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Writes the trace and the publication timestamp to the headers of a given outgoing {@link Message}.
+     *
+     * @param message The {@link Message} to write the trace to
+     * @return The same {@link Message}
+     */
+    @Override
+    public Message postProcessMessage(Message message) throws AmqpException {
+        MessageProperties properties = message.getMessageProperties();
+        properties.setCorrelationId(correlationID);
+        properties.setHeader(HEADER_ORIGIN_TIMESTAMP, originTimestamp);
+        properties.setHeader(HEADER_PUBLISHED_TIMESTAMP, System.currentTimeMillis());
+        return message;
+    }
+
+    /**
+     * Returns the time in milliseconds that passed between the origin of the trace and now.
+     *
+     * @return The elapsed time in milliseconds
+     */
+    public long getElapsedTime() {
+        return Math.max(0, System.currentTimeMillis() - originTimestamp);
+    }
+
+    /**
+     * Returns the correlation ID of the trace.
+     *
+     * @return The correlation ID
+     */
+    public String getCorrelationID() {
+        return correlationID;
+    }
+
+    /**
+     * Returns the origin timestamp of the trace in milliseconds since the epoch.
+     *
+     * @return The origin timestamp
+     */
+    public long getOriginTimestamp() {
+        return originTimestamp;
+    }
+
+    /**
+     * Reads a timestamp from a header of given {@link MessageProperties}, or returns null if it is not available.
+     */
+    private static Long readTimestamp(MessageProperties properties, String header) {
+        Object value = properties.getHeader(header);
+        return (value instanceof Number) ? ((Number) value).longValue() : null;
+    }
+}
@@ -0,0 +1,82 @@
+package de.pinguparty.geopingu.bot.actions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaneSchedulerTest {
+
+    @Test
+    void testBulkWithoutInteractive() throws Exception {
+        //Bulk actions run right away if no interactive actions are pending
+        LaneScheduler scheduler = new LaneScheduler(TimeUnit.MINUTES.toMillis(1));
+        AtomicBoolean executed = new AtomicBoolean();
+        scheduler.runBulk(() -> executed.set(true));
+        assertTrue(executed.get());
+    }
+
+    @Test
+    void testBulkWaitsForInteractive() throws Exception {
+        LaneScheduler scheduler = new LaneScheduler(TimeUnit.MINUTES.toMillis(1));
+        scheduler.announceInteractive(2);
+
+        //Bulk actions wait until all announced interactive actions were executed
+        AtomicBoolean executed = new AtomicBoolean();
+        CompletableFuture<Void> bulk = runBulkAsync(scheduler, () -> executed.set(true));
+        scheduler.runInteractive(() -> {
+        });
+        assertThrows(TimeoutException.class, () -> bulk.get(200, TimeUnit.MILLISECONDS));
+        assertFalse(executed.get());
+
+        scheduler.runInteractive(() -> {
+        });
+        bulk.get(5, TimeUnit.SECONDS);
+        assertTrue(executed.get());
+    }
+
+    @Test
+    void testFailedInteractive() throws Exception {
+        LaneScheduler scheduler = new LaneScheduler(TimeUnit.MINUTES.toMillis(1));
+        scheduler.announceInteractive(1);
+
+        //Failed interactive actions no longer hold back bulk actions
+        assertThrows(IllegalStateException.class, () -> scheduler.runInteractive(() -> {
+            throw new IllegalStateException("Failure");
+        }));
+        runBulkAsync(scheduler, () -> {
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testMaximumBulkDelay() throws Exception {
+        //Bulk actions are not starved by interactive actions that are never executed
+        LaneScheduler scheduler = new LaneScheduler(100);
+        scheduler.announceInteractive(1);
+
+        long start = System.nanoTime();
+        AtomicBoolean executed = new AtomicBoolean();
+        scheduler.runBulk(() -> executed.set(true));
+        assertTrue(executed.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new LaneScheduler(-1));
+    }
+
+    private static CompletableFuture<Void> runBulkAsync(LaneScheduler scheduler, Runnable task) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                scheduler.runBulk(task);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package de.pinguparty.geopingu.bot.actions.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextMessageActionTest {
+
+    @Test
+    void testMerging() {
+        List<List<String>> keyboard = List.of(List.of("Yes", "No"));
+        TextMessageAction first = new TextMessageAction(1, "First").setNotify(false);
+        TextMessageAction second = new TextMessageAction(1, "Second").setNotify(false)
+                .setKeyboardButtons(keyboard).setOneTimeKeyboard(false).setSelectiveKeyboard(true);
+        assertTrue(first.canMergeWith(second));
+
+        //The texts are joined and the keyboard of the subsequent action is retained
+        TextMessageAction merged = first.mergeWith(second);
+        assertEquals(1, merged.getChatID());
+        assertEquals("First\n\nSecond", merged.getText());
+        assertFalse(merged.isNotify());
+        assertFalse(merged.isHTML());
+        assertEquals(keyboard, merged.getKeyboardButtonNames());
+        assertFalse(merged.isOneTimeKeyboard());
+        assertTrue(merged.isSelectiveKeyboard());
+
+        //Merged actions can be merged further, unless they configure a keyboard
+        assertFalse(merged.canMergeWith(new TextMessageAction(1, "Third").setNotify(false)));
+        TextMessageAction chained = new TextMessageAction(1, "First")
+                .mergeWith(new TextMessageAction(1, "Second"))
+                .mergeWith(new TextMessageAction(1, "Third").setRemoveKeyboard(true));
+        assertEquals("First\n\nSecond\n\nThird", chained.getText());
+        assertTrue(chained.isRemoveKeyboard());
+    }
+
+    @Test
+    void testNoMerging() {
+        TextMessageAction action = new TextMessageAction(1, "Text");
+
+        //Different chats, notification or formatting settings
+        assertFalse(action.canMergeWith(new TextMessageAction(2, "Text")));
+        assertFalse(action.canMergeWith(new TextMessageAction(1, "Text").setNotify(false)));
+        assertFalse(action.canMergeWith(new TextMessageAction(1, "Text").setHTML(true)));
+        assertFalse(action.canMergeWith(null));
+
+        //Keyboard changes stay attached to their own message
+        assertFalse(new TextMessageAction(1, "Text").setKeyboardButtons(List.of(List.of("Yes"))).canMergeWith(action));
+        assertFalse(new TextMessageAction(1, "Text").setRemoveKeyboard(true).canMergeWith(action));
+
+        //Subclasses and missing texts
+        assertFalse(action.canMergeWith(new TextMessageAction(1, "Text") {
+        }));
+        assertFalse(action.canMergeWith(new TextMessageAction(1, null)));
+        assertThrows(IllegalArgumentException.class, () -> action.mergeWith(new TextMessageAction(2, "Text")));
+    }
+
+    @Test
+    void testMaximumLength() {
+        //The merged text must not exceed the maximum length, including the separator
+        String half = "a".repeat((TextMessageAction.MAX_TEXT_LENGTH - 2) / 2);
+        TextMessageAction action = new TextMessageAction(1, half);
+        assertTrue(action.canMergeWith(new TextMessageAction(1, half)));
+        assertEquals(TextMessageAction.MAX_TEXT_LENGTH, action.mergeWith(new TextMessageAction(1, half)).getText().length());
+        assertFalse(action.canMergeWith(new TextMessageAction(1, half + "a")));
+    }
+}
@@ -0,0 +1,96 @@
+package de.pinguparty.geopingu.bot.codec;
+
+import de.pinguparty.geopingu.bot.actions.BotAction;
+import de.pinguparty.geopingu.bot.actions.text.TextMessageAction;
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+
+    @Test
+    void testUserMessages() {
+        MessageCodec codec = new MessageCodec();
+        assertEquals(MessageCodec.CONTENT_TYPE_JSON, codec.getContentType());
+
+        //All properties survive the round trip
+        UserMessage userMessage = new UserMessage().setMessageID("1:2").setChatID(1).setUserID(2).setUsername("pingu")
+                .setFirstName("Pingu").setLastName("Party").setTimestamp(Instant.ofEpochSecond(1000)).setText("/help");
+        UserMessage decoded = codec.decode(codec.encode(userMessage), UserMessage.class);
+        assertEquals("1:2", decoded.getMessageID());
+        assertEquals(1, decoded.getChatID());
+        assertEquals(2, decoded.getUserID());
+        assertEquals("pingu", decoded.getUsername());
+        assertEquals("Pingu", decoded.getFirstName());
+        assertEquals("Party", decoded.getLastName());
+        assertEquals(Instant.ofEpochSecond(1000), decoded.getTimestamp());
+        assertEquals("/help", decoded.getText());
+
+        //Unknown properties of newer nodes are ignored
+        String json = "{\"chatID\":1,\"text\":\"Hi\",\"unknown\":true}";
+        assertEquals("Hi", codec.decode(json.getBytes(StandardCharsets.UTF_8), UserMessage.class).getText());
+    }
+
+    @Test
+    void testBotActions() {
+        MessageCodec codec = new MessageCodec();
+
+        //Bot actions are decoded into their actual class by their type name, which is written first
+        byte[] bytes = codec.encode(new TextMessageAction(1, "Text").setNotify(false));
+        assertTrue(new String(bytes, StandardCharsets.UTF_8).startsWith("{\"type\":\"TextMessage\""));
+        BotAction decoded = codec.decode(bytes, BotAction.class);
+        assertInstanceOf(TextMessageAction.class, decoded);
+        assertEquals(1, decoded.getChatID());
+        assertEquals("Text", ((TextMessageAction) decoded).getText());
+        assertFalse(((TextMessageAction) decoded).isNotify());
+
+        //Bot actions of unknown types are ignored
+        String json = "{\"type\":\"Unknown\",\"chatID\":1}";
+        assertNull(codec.decode(json.getBytes(StandardCharsets.UTF_8), BotAction.class));
+    }
+
+    @Test
+    void testFormats() {
+        //Each format has its own content type and decodes what it encoded
+        assertEquals(MessageCodec.CONTENT_TYPE_JSON, MessageCodec.forFormat("json").getContentType());
+        assertEquals(MessageCodec.CONTENT_TYPE_SMILE, MessageCodec.forFormat("SMILE").getContentType());
+        assertEquals(MessageCodec.CONTENT_TYPE_CBOR, MessageCodec.forFormat("cbor").getContentType());
+        for (String format : new String[]{"json", "smile", "cbor"}) {
+            MessageCodec codec = MessageCodec.forFormat(format);
+            UserMessage userMessage = new UserMessage().setChatID(1).setTimestamp(Instant.ofEpochSecond(1000)).setText("Hi");
+            UserMessage decoded = codec.decode(codec.encode(userMessage), UserMessage.class);
+            assertEquals(1, decoded.getChatID(), format);
+            assertEquals(Instant.ofEpochSecond(1000), decoded.getTimestamp(), format);
+            assertEquals("Hi", decoded.getText(), format);
+
+            BotAction action = codec.decode(codec.encode(new TextMessageAction(1, "Text")), BotAction.class);
+            assertEquals("Text", ((TextMessageAction) action).getText(), format);
+        }
+
+        //The binary formats are not readable as JSON
+        byte[] smile = MessageCodec.forFormat("smile").encode(new UserMessage().setText("Hi"));
+        assertNull(new MessageCodec().decode(smile, UserMessage.class));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.forFormat("xml"));
+    }
+
+    @Test
+    void testDecodingFailures() {
+        MessageCodec codec = new MessageCodec();
+
+        //Missing and malformed bytes result in null
+        assertNull(codec.decode(null, UserMessage.class));
+        assertNull(codec.decode(new byte[0], UserMessage.class));
+        assertNull(codec.decode("{".getBytes(StandardCharsets.UTF_8), UserMessage.class));
+        assertNull(codec.decode("{}".getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new MessageCodec().encode(null));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.forFormat(null));
+    }
+}
@@ -0,0 +1,85 @@
+package de.pinguparty.geopingu.bot.codec;
+
+import de.pinguparty.geopingu.bot.actions.BotAction;
+import de.pinguparty.geopingu.bot.actions.text.TextMessageAction;
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NegotiatingMessageConverterTest {
+
+    @Test
+    void testRoundTrips() {
+        //Messages of all formats are decoded by converters of any outgoing format
+        for (String format : new String[]{"json", "smile", "cbor"}) {
+            NegotiatingMessageConverter sender = new NegotiatingMessageConverter(format);
+            Message message = sender.toMessage(new UserMessage().setChatID(1).setText("Hi"), new MessageProperties());
+            assertEquals(MessageCodec.forFormat(format).getContentType(), message.getMessageProperties().getContentType());
+            assertEquals(message.getBody().length, message.getMessageProperties().getContentLength());
+
+            for (String receivingFormat : new String[]{"json", "smile", "cbor"}) {
+                UserMessage decoded = new NegotiatingMessageConverter(receivingFormat).decode(message, UserMessage.class);
+                assertEquals("Hi", decoded.getText(), format + " to " + receivingFormat);
+            }
+        }
+    }
+
+    @Test
+    void testFromMessage() {
+        NegotiatingMessageConverter converter = new NegotiatingMessageConverter("cbor");
+
+        //Messages are decoded into the type that the listener expects
+        Message message = converter.toMessage(new TextMessageAction(1, "Text"), new MessageProperties());
+        message.getMessageProperties().setInferredArgumentType(BotAction.class);
+        assertEquals("Text", ((TextMessageAction) converter.fromMessage(message)).getText());
+
+        //Listeners that expect bytes or an unknown type receive the body as it is
+        message.getMessageProperties().setInferredArgumentType(byte[].class);
+        assertSame(message.getBody(), converter.fromMessage(message));
+        message.getMessageProperties().setInferredArgumentType(null);
+        assertSame(message.getBody(), converter.fromMessage(message));
+
+        //Messages that cannot be decoded fail the conversion
+        Message unknown = message(new byte[]{1, 2, 3}, "application/xml");
+        unknown.getMessageProperties().setInferredArgumentType(BotAction.class);
+        assertThrows(MessageConversionException.class, () -> converter.fromMessage(unknown));
+    }
+
+    @Test
+    void testContentTypes() {
+        NegotiatingMessageConverter converter = new NegotiatingMessageConverter("smile");
+        byte[] json = "{\"chatID\":1,\"text\":\"Hi\"}".getBytes(StandardCharsets.UTF_8);
+
+        //Messages without or with text content type were sent by nodes that predate the codecs and contain JSON
+        assertEquals("Hi", converter.decode(message(json, null), UserMessage.class).getText());
+        assertEquals("Hi", converter.decode(message(json, "text/plain"), UserMessage.class).getText());
+
+        //Parameters and case of content types are ignored
+        assertEquals("Hi", converter.decode(message(json, "Application/JSON; charset=UTF-8"), UserMessage.class).getText());
+        byte[] cbor = MessageCodec.forFormat("cbor").encode(new UserMessage().setText("Hi"));
+        assertEquals("Hi", converter.decode(message(cbor, "application/cbor;v=1"), UserMessage.class).getText());
+
+        //Messages of unknown content types are not decoded
+        assertNull(converter.decode(message(json, "application/xml"), UserMessage.class));
+        assertNull(converter.decode(null, UserMessage.class));
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new NegotiatingMessageConverter(null));
+        assertThrows(IllegalArgumentException.class, () -> new NegotiatingMessageConverter("xml"));
+        assertEquals(MessageCodec.CONTENT_TYPE_SMILE, new NegotiatingMessageConverter("Smile").getOutgoingCodec().getContentType());
+    }
+
+    private static Message message(byte[] body, String contentType) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(contentType);
+        return new Message(body, properties);
+    }
+}
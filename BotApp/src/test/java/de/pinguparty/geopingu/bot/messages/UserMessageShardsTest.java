@@ -0,0 +1,81 @@
+package de.pinguparty.geopingu.bot.messages;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Queue;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserMessageShardsTest {
+
+    @Test
+    void testShardRange() {
+        UserMessageShards shards = new UserMessageShards("userMessages", 16);
+
+        //User IDs are positive, group IDs are negative and may exceed the range of integers
+        long[] chatIDs = {0, 1, -1, 42, 123456789, -123456789, -1001234567890L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long chatID : chatIDs) {
+            int shard = shards.getShard(chatID);
+            assertTrue((shard >= 0) && (shard < 16), "Shard out of range for chat " + chatID);
+            assertEquals(shard, shards.getShard(chatID));
+            assertEquals(Integer.toString(shard), shards.getRoutingKey(chatID));
+        }
+
+        //A single shard receives all chats
+        UserMessageShards single = new UserMessageShards("userMessages", 1);
+        for (long chatID : chatIDs) assertEquals(0, single.getShard(chatID));
+    }
+
+    @Test
+    void testShardDistribution() {
+        UserMessageShards shards = new UserMessageShards("userMessages", 16);
+
+        //Consecutive user and group IDs are spread evenly across the shards
+        int[] userCounts = new int[16];
+        int[] groupCounts = new int[16];
+        for (long i = 0; i < 16000; i++) {
+            userCounts[shards.getShard(100000000L + i)]++;
+            groupCounts[shards.getShard(-1001000000000L - i)]++;
+        }
+        for (int shard = 0; shard < 16; shard++) {
+            assertTrue(Math.abs(userCounts[shard] - 1000) < 250, "Uneven distribution of users: " + userCounts[shard]);
+            assertTrue(Math.abs(groupCounts[shard] - 1000) < 250, "Uneven distribution of groups: " + groupCounts[shard]);
+        }
+    }
+
+    @Test
+    void testDeclarables() {
+        UserMessageShards shards = new UserMessageShards("userMessages", 4);
+        assertEquals("userMessages.3", shards.getQueueName(3));
+        assertThrows(IllegalArgumentException.class, () -> shards.getQueueName(4));
+        assertThrows(IllegalArgumentException.class, () -> shards.getQueueName(-1));
+
+        //Each shard queue has a single active consumer and dead-letters to the parked exchange
+        List<Queue> queues = shards.createDeclarables().getDeclarablesByType(Queue.class);
+        assertEquals(5, queues.size());
+        for (int shard = 0; shard < 4; shard++) {
+            String queueName = shards.getQueueName(shard);
+            Queue queue = queues.stream().filter(q -> q.getName().equals(queueName)).findFirst().orElseThrow();
+            assertEquals(true, queue.getArguments().get("x-single-active-consumer"));
+            assertEquals(shards.getParkedExchangeName(), queue.getArguments().get("x-dead-letter-exchange"));
+        }
+
+        //Each shard queue is bound with the number of its shard as routing key
+        List<Binding> bindings = shards.createDeclarables().getDeclarablesByType(Binding.class);
+        for (int shard = 0; shard < 4; shard++) {
+            String queueName = shards.getQueueName(shard);
+            String routingKey = Integer.toString(shard);
+            assertTrue(bindings.stream().anyMatch(b -> b.getDestination().equals(queueName)
+                    && b.getExchange().equals("userMessages") && b.getRoutingKey().equals(routingKey)));
+        }
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageShards("", 4));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageShards(null, 4));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageShards("userMessages", 0));
+    }
+}
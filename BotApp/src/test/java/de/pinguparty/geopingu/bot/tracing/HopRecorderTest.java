@@ -0,0 +1,60 @@
+package de.pinguparty.geopingu.bot.tracing;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HopRecorderTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final HopRecorder recorder = new HopRecorder(meterRegistry, "botActions");
+
+    @Test
+    void testQueueWait() {
+        //The queue wait is recorded for messages that carry their publication timestamp
+        Message message = new Message(new byte[0], new MessageProperties());
+        message.getMessageProperties().setHeader(MessageTrace.HEADER_PUBLISHED_TIMESTAMP, System.currentTimeMillis() - 5000);
+        recorder.recordQueueWait(message);
+        assertEquals(1, timer(HopRecorder.METRIC_QUEUE_WAIT).count());
+        assertTrue(timer(HopRecorder.METRIC_QUEUE_WAIT).totalTime(TimeUnit.MILLISECONDS) >= 5000);
+
+        //Messages of nodes that predate the tracing are skipped
+        recorder.recordQueueWait(new Message(new byte[0], new MessageProperties()));
+        recorder.recordQueueWait(null);
+        assertEquals(1, timer(HopRecorder.METRIC_QUEUE_WAIT).count());
+    }
+
+    @Test
+    void testProcessing() {
+        //The processing time is recorded with and without trace
+        recorder.recordProcessing(MessageTrace.start(), System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20));
+        recorder.recordProcessing(null, System.nanoTime());
+        assertEquals(2, timer(HopRecorder.METRIC_PROCESSING).count());
+        assertTrue(timer(HopRecorder.METRIC_PROCESSING).totalTime(TimeUnit.MILLISECONDS) >= 20);
+    }
+
+    @Test
+    void testEndToEnd() {
+        //The end-to-end latency is measured from the origin of the trace
+        recorder.recordEndToEnd(new MessageTrace("correlation", System.currentTimeMillis() - 3000));
+        recorder.recordEndToEnd(null);
+        assertEquals(1, timer(HopRecorder.METRIC_END_TO_END).count());
+        assertTrue(timer(HopRecorder.METRIC_END_TO_END).totalTime(TimeUnit.MILLISECONDS) >= 3000);
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new HopRecorder(null, "hop"));
+        assertThrows(IllegalArgumentException.class, () -> new HopRecorder(meterRegistry, null));
+        assertThrows(IllegalArgumentException.class, () -> new HopRecorder(meterRegistry, ""));
+    }
+
+    private Timer timer(String name) {
+        return meterRegistry.get(name).tag("hop", "botActions").timer();
+    }
+}
@@ -0,0 +1,84 @@
+package de.pinguparty.geopingu.bot.tracing;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTraceTest {
+
+    @Test
+    void testPropagation() {
+        MessageTrace trace = new MessageTrace("correlation", 1000);
+
+        //The trace is written to the headers of outgoing messages, together with their publication timestamp
+        long before = System.currentTimeMillis();
+        Message message = trace.postProcessMessage(new Message(new byte[0], new MessageProperties()));
+        MessageProperties properties = message.getMessageProperties();
+        assertEquals("correlation", properties.getCorrelationId());
+        assertEquals(1000L, (Long) properties.getHeader(MessageTrace.HEADER_ORIGIN_TIMESTAMP));
+        long published = properties.getHeader(MessageTrace.HEADER_PUBLISHED_TIMESTAMP);
+        assertTrue(published >= before);
+
+        //Receiving nodes read the same trace from the headers
+        MessageTrace received = MessageTrace.of(message);
+        assertEquals("correlation", received.getCorrelationID());
+        assertEquals(1000, received.getOriginTimestamp());
+        assertTrue(received.getElapsedTime() >= before - 1000);
+        assertTrue(MessageTrace.getQueueWait(message) >= 0);
+
+        //Timestamps may arrive as integers, depending on the sending client
+        properties.setHeader(MessageTrace.HEADER_ORIGIN_TIMESTAMP, 2000);
+        assertEquals(2000, MessageTrace.of(message).getOriginTimestamp());
+    }
+
+    @Test
+    void testMessagesWithoutTrace() {
+        //Messages of nodes that predate the tracing carry no trace and no publication timestamp
+        Message message = new Message(new byte[0], new MessageProperties());
+        assertNull(MessageTrace.of(message));
+        assertEquals(-1, MessageTrace.getQueueWait(message));
+        assertNull(MessageTrace.of(null));
+        assertEquals(-1, MessageTrace.getQueueWait(null));
+
+        //Incomplete traces are ignored as well
+        message.getMessageProperties().setCorrelationId("correlation");
+        assertNull(MessageTrace.of(message));
+        message.getMessageProperties().setCorrelationId(null);
+        message.getMessageProperties().setHeader(MessageTrace.HEADER_ORIGIN_TIMESTAMP, 1000L);
+        assertNull(MessageTrace.of(message));
+        message.getMessageProperties().setCorrelationId("correlation");
+        message.getMessageProperties().setHeader(MessageTrace.HEADER_ORIGIN_TIMESTAMP, "1000");
+        assertNull(MessageTrace.of(message));
+    }
+
+    @Test
+    void testCurrentTrace() {
+        MessageTrace outer = new MessageTrace("outer", 1000);
+        MessageTrace inner = new MessageTrace("inner", 2000);
+        assertNull(MessageTrace.current());
+
+        //Nested traces are current while they run and restore the enclosing trace afterwards
+        outer.run(() -> {
+            assertSame(outer, MessageTrace.current());
+            inner.run(() -> assertSame(inner, MessageTrace.current()));
+            assertSame(outer, MessageTrace.current());
+        });
+        assertNull(MessageTrace.current());
+
+        //The enclosing trace is restored when the task fails
+        assertThrows(IllegalStateException.class, () -> outer.run(() -> inner.run(() -> {
+            throw new IllegalStateException();
+        })));
+        assertNull(MessageTrace.current());
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new MessageTrace(null, 0));
+        assertThrows(IllegalArgumentException.class, () -> new MessageTrace("", 0));
+        assertThrows(IllegalArgumentException.class, () -> MessageTrace.start().run(null));
+        assertNotEquals(MessageTrace.start().getCorrelationID(), MessageTrace.start().getCorrelationID());
+    }
+}
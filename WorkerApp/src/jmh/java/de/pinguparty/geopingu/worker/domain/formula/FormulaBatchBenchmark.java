@@ -0,0 +1,79 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the column-wise batch evaluation of a coordinate formula for 10k variable bindings with evaluating
+ * the formula row by row, both through the formula and by executing the compiled programs directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaBatchBenchmark {
+    private static final String FORMULA = "N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E]";
+    private static final String[] VARIABLES = {"A", "B", "C", "D", "E", "F", "G"};
+    private static final int ROWS = 10_000;
+
+    private Formula formula;
+    private Map<String, double[]> columns;
+    private Literal[][] literals;
+    private double[][] rows;
+    private OperandStack operandStack;
+
+    @Setup
+    public void setup() {
+        formula = new Formula(FORMULA);
+        columns = new HashMap<>();
+        literals = new Literal[VARIABLES.length][ROWS];
+        for (int i = 0; i < VARIABLES.length; i++) {
+            double[] column = new double[ROWS];
+            for (int row = 0; row < ROWS; row++) {
+                column[row] = 1 + (row * 7 + i) % 9;
+                literals[i][row] = new Literal(column[row]);
+            }
+            columns.put(VARIABLES[i], column);
+        }
+
+        //Row-major copy of the values, indexed by slot
+        rows = new double[ROWS][VARIABLES.length];
+        for (int i = 0; i < VARIABLES.length; i++) {
+            int slot = formula.getVariableSlot(VARIABLES[i]);
+            for (int row = 0; row < ROWS; row++) rows[row][slot] = columns.get(VARIABLES[i])[row];
+        }
+        operandStack = new OperandStack();
+    }
+
+    @Benchmark
+    public double[][] batch() {
+        return formula.evaluateBatch(columns);
+    }
+
+    @Benchmark
+    public void compiledRowByRow(Blackhole blackhole) {
+        List<Expression> expressions = formula.getExpressions();
+        for (int row = 0; row < ROWS; row++) {
+            for (int i = 0; i < expressions.size(); i++) {
+                blackhole.consume(expressions.get(i).getProgram().evaluateNumber(operandStack, rows[row]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void rowByRow(Blackhole blackhole) {
+        for (int row = 0; row < ROWS; row++) {
+            for (int i = 0; i < VARIABLES.length; i++) formula.setVariable(VARIABLES[i], literals[i][row]);
+            blackhole.consume(formula.evaluate());
+        }
+    }
+}
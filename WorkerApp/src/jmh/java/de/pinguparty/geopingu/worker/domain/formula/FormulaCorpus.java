@@ -0,0 +1,96 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Corpus of realistic coordinate formulas together with variable values that solve them, which is loaded
+ * from the formula-corpus.txt resource and shared by the formula benchmarks.
+ */
+public final class FormulaCorpus {
+    private static final String RESOURCE = "/formula-corpus.txt";
+
+    private FormulaCorpus() {
+
+    }
+
+    /**
+     * Loads all entries of the corpus.
+     *
+     * @return The {@link List} of {@link Entry}s
+     */
+    public static List<Entry> load() {
+        InputStream stream = FormulaCorpus.class.getResourceAsStream(RESOURCE);
+        if (stream == null) throw new IllegalStateException(String.format("The resource \"%s\" is missing.", RESOURCE));
+
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                //Skip comments and blank lines
+                if (line.isBlank() || line.startsWith("#")) continue;
+                entries.add(parseEntry(line));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private static Entry parseEntry(String line) {
+        int separator = line.lastIndexOf('|');
+        String formula = line.substring(0, separator).trim();
+
+        Map<String, Literal> values = new LinkedHashMap<>();
+        for (String assignment : line.substring(separator + 1).split(",")) {
+            String[] parts = assignment.split("=", 2);
+            String value = parts[1].trim();
+            values.put(parts[0].trim(), value.startsWith("\"") ?
+                    new Literal(value.substring(1, value.length() - 1)) : new Literal(Double.parseDouble(value)));
+        }
+        return new Entry(formula, values);
+    }
+
+    /**
+     * Single formula of the corpus with the values of its variables.
+     */
+    public static class Entry {
+        private final String formula;
+        private final Map<String, Literal> values;
+
+        private Entry(String formula, Map<String, Literal> values) {
+            this.formula = formula;
+            this.values = Collections.unmodifiableMap(values);
+        }
+
+        public String getFormula() {
+            return formula;
+        }
+
+        public Map<String, Literal> getValues() {
+            return values;
+        }
+
+        /**
+         * Creates a new {@link Formula} for the entry with all variable values set.
+         *
+         * @return The resulting {@link Formula}
+         */
+        public Formula createFormula() {
+            Formula result = new Formula(formula);
+            values.forEach(result::setVariable);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.functions.operators.WordValueFunction;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaLexer;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaTokens;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stages of the formula subsystem on the whole {@link FormulaCorpus}: tokenizing, parsing,
+ * a single uncached evaluation of all expressions and the word value function (BWW). Each invocation processes
+ * all formulas of the corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaCorpusBenchmark {
+    private List<FormulaCorpus.Entry> corpus;
+    private List<Formula> formulas;
+    private List<double[]> variableNumbers;
+    private List<String[]> variableTexts;
+    private List<Literal> words;
+    private FormulaTokens tokens;
+    private OperandStack operandStack;
+    private StringBuilder builder;
+    private WordValueFunction wordValueFunction;
+
+    @Setup
+    public void setup() {
+        corpus = FormulaCorpus.load();
+        formulas = new ArrayList<>();
+        variableNumbers = new ArrayList<>();
+        variableTexts = new ArrayList<>();
+        words = new ArrayList<>();
+
+        for (FormulaCorpus.Entry entry : corpus) {
+            Formula formula = entry.createFormula();
+            formulas.add(formula);
+
+            //Slot-indexed variable values for executing the compiled programs directly
+            double[] numbers = new double[formula.getVariables().size()];
+            String[] texts = new String[numbers.length];
+            entry.getValues().forEach((name, value) -> {
+                int slot = formula.getVariableSlot(name);
+                if (value.isNumber()) numbers[slot] = value.getNumber();
+                else texts[slot] = value.getString();
+                if (!value.isNumber()) words.add(value);
+            });
+            variableNumbers.add(numbers);
+            variableTexts.add(texts);
+        }
+
+        tokens = new FormulaTokens();
+        operandStack = new OperandStack();
+        builder = new StringBuilder();
+        wordValueFunction = new WordValueFunction();
+    }
+
+    @Benchmark
+    public int tokenize() {
+        int count = 0;
+        for (int i = 0; i < corpus.size(); i++) {
+            FormulaLexer.tokenize(corpus.get(i).getFormula(), tokens);
+            count += tokens.size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (int i = 0; i < corpus.size(); i++) {
+            blackhole.consume(FormulaTemplate.parse(corpus.get(i).getFormula()));
+        }
+    }
+
+    @Benchmark
+    public int evaluate() {
+        int length = 0;
+        for (int i = 0; i < formulas.size(); i++) {
+            Formula formula = formulas.get(i);
+            List<String> textSegments = formula.getTextSegments();
+            List<Expression> expressions = formula.getExpressions();
+
+            //Execute all programs without the result cache of the formula
+            builder.setLength(0);
+            for (int j = 0; j < expressions.size(); j++) {
+                builder.append(textSegments.get(j));
+                expressions.get(j).getProgram().execute(operandStack, variableNumbers.get(i), variableTexts.get(i));
+                operandStack.popInto(builder);
+            }
+            builder.append(textSegments.get(expressions.size()));
+            length += builder.length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public void evaluateCached(Blackhole blackhole) {
+        for (int i = 0; i < formulas.size(); i++) {
+            blackhole.consume(formulas.get(i).evaluate());
+        }
+    }
+
+    @Benchmark
+    public double bww() {
+        double sum = 0;
+        for (int i = 0; i < words.size(); i++) {
+            operandStack.clear();
+            operandStack.pushText(words.get(i).getString());
+            wordValueFunction.evaluate(operandStack);
+            sum += operandStack.popNumber();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double bwwInterpreted() {
+        double sum = 0;
+        for (int i = 0; i < words.size(); i++) {
+            sum += wordValueFunction.evaluate(List.of(words.get(i))).getNumber();
+        }
+        return sum;
+    }
+}
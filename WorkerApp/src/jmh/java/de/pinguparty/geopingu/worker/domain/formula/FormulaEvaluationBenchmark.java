@@ -0,0 +1,87 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import de.pinguparty.geopingu.worker.domain.formula.variables.Variable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the evaluation of formulas by interpreting the reverse polish notation with {@link List}s of
+ * {@link Literal}s against the execution of the compiled programs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaEvaluationBenchmark {
+    private static final String FORMULA = "N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E]";
+
+    private Formula formula;
+    private List<Expression> expressions;
+    private Map<String, Variable> variables;
+    private double[] variableNumbers;
+    private OperandStack operandStack;
+    private Literal[] values;
+    private int counter = 0;
+
+    @Setup
+    public void setup() {
+        formula = new Formula(FORMULA);
+        formula.setVariable("A", new Literal(8));
+        formula.setVariable("B", new Literal(2));
+        formula.setVariable("C", new Literal(3));
+        formula.setVariable("D", new Literal(1));
+        formula.setVariable("E", new Literal(8));
+        formula.setVariable("F", new Literal(6));
+        formula.setVariable("G", new Literal(8));
+
+        expressions = formula.getExpressions();
+        variables = new HashMap<>();
+        variableNumbers = new double[formula.getVariables().size()];
+        for (Variable variable : formula.getVariables()) {
+            variables.put(variable.getName(), variable);
+            variableNumbers[formula.getVariableSlot(variable.getName())] = variable.getValue().getNumber();
+        }
+        operandStack = new OperandStack();
+        values = new Literal[]{new Literal(8), new Literal(9)};
+    }
+
+    @Benchmark
+    public void interpretedExpressions(Blackhole blackhole) {
+        for (int i = 0; i < expressions.size(); i++) {
+            blackhole.consume(expressions.get(i).interpret(variables));
+        }
+    }
+
+    @Benchmark
+    public void compiledExpressions(Blackhole blackhole) {
+        for (int i = 0; i < expressions.size(); i++) {
+            blackhole.consume(expressions.get(i).getProgram().evaluateNumber(operandStack, variableNumbers));
+        }
+    }
+
+    @Benchmark
+    public String interpretedFormula() {
+        return formula.evaluateInterpreted();
+    }
+
+    @Benchmark
+    public String compiledFormula() {
+        return formula.evaluate();
+    }
+
+    @Benchmark
+    public String incrementalFormula() {
+        //Changing a single variable only re-evaluates the three expressions that depend on it
+        formula.setVariable("E", values[counter++ & 1]);
+        return formula.evaluate();
+    }
+}
@@ -0,0 +1,47 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaLexer;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaTokens;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures tokenizing and parsing of a long coordinate formula, as well as creating a formula from a
+ * cached template.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaParsingBenchmark {
+    //Coordinate formula with about 200 characters
+    private static final String FORMULA = "N48 4[(B + D) * 2 - C].[(F / C) + (A * 0)][G / B][D + A] " +
+            "E008 5[(A - B) * (C - 2)].[bww(\"PINGU\") - 72 + E - 8][A * 1][E + (B - 2) * 3] " +
+            "Check: [A + B + C + D + E + F + G]";
+
+    private FormulaTokens tokens;
+
+    @Setup
+    public void setup() {
+        tokens = new FormulaTokens();
+    }
+
+    @Benchmark
+    public FormulaTokens tokenize() {
+        FormulaLexer.tokenize(FORMULA, tokens);
+        return tokens;
+    }
+
+    @Benchmark
+    public FormulaTemplate parse() {
+        return FormulaTemplate.parse(FORMULA);
+    }
+
+    @Benchmark
+    public Formula createFromCache() {
+        return new Formula(FORMULA);
+    }
+}
@@ -0,0 +1,40 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
+import de.pinguparty.geopingu.worker.domain.formula.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.reflections.Reflections;
+
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the cold start of the first formula within a fresh JVM, which includes loading the functions
+ * from the generated registry, and compares it to the classpath scan that was used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class FormulaStartupBenchmark {
+    private static final String FUNCTIONS_PACKAGE = "de.pinguparty.geopingu.worker.domain.formula.functions";
+
+    @Benchmark
+    public Formula firstFormula() {
+        return new Formula("N48 43.333 E008 52.[BWW(A#B) + 25]");
+    }
+
+    @Benchmark
+    public List<Function> reflectionsScan() {
+        return new Reflections(FUNCTIONS_PACKAGE).getSubTypesOf(Function.class).stream()
+                .filter(f -> !Modifier.isAbstract(f.getModifiers()))
+                .map(Utils::instantiateClass)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,99 @@
+package de.pinguparty.geopingu.worker.domain.formula.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.Formula;
+import de.pinguparty.geopingu.worker.domain.formula.functions.coordinates.DistanceFunction;
+import de.pinguparty.geopingu.worker.domain.formula.functions.coordinates.ProjectionFunction;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import de.pinguparty.geopingu.worker.domain.formula.solver.FormulaSolver;
+import de.pinguparty.geopingu.worker.domain.formula.solver.SolutionConstraint;
+import de.pinguparty.geopingu.worker.domain.formula.solver.VariableRange;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the coordinate functions on their own and within the brute-force solving loop. Run with "-prof gc" to
+ * verify that the great-circle math and the distance function do not allocate, so that the solver cost per
+ * assignment is dominated by the evaluation of the formula and not by the coordinate math.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CoordinateFunctionsBenchmark {
+    private static final String START = "N48 43.249 E8 56.088";
+    private static final String TARGET = "N48 43.312 E8 56.201";
+
+    //Projection with five unknown digits for bearing and distance, i.e. 10^5 assignments
+    private static final String PROJECTION_FORMULA = "[project(\"" + START + "\", A*100+B*10+C, D*100+E*10)]";
+
+    //The same arithmetic without the projection as reference
+    private static final String PLAIN_FORMULA = "[A*100+B*10+C] [D*100+E*10]";
+
+    private final DistanceFunction distanceFunction = new DistanceFunction();
+    private final ProjectionFunction projectionFunction = new ProjectionFunction();
+    private final OperandStack stack = new OperandStack();
+
+    private Formula projectionFormula;
+    private Formula plainFormula;
+
+    @Setup
+    public void setup() {
+        projectionFormula = new Formula(PROJECTION_FORMULA);
+        plainFormula = new Formula(PLAIN_FORMULA);
+    }
+
+    @Benchmark
+    public double distanceMath() {
+        return GreatCircle.distance(48.72082, 8.93480, 48.72187, 8.93668);
+    }
+
+    @Benchmark
+    public double projectionMath() {
+        return GreatCircle.projectLatitude(48.72082, 8.93480, 45, 150) + GreatCircle.projectLongitude(48.72082, 8.93480, 45, 150);
+    }
+
+    @Benchmark
+    public double distanceFunction() {
+        stack.pushText(START);
+        stack.pushText(TARGET);
+        distanceFunction.evaluate(stack);
+        return stack.popNumber();
+    }
+
+    @Benchmark
+    public String projectionFunction() {
+        stack.pushText(START);
+        stack.pushNumber(45);
+        stack.pushNumber(150);
+        projectionFunction.evaluate(stack);
+        return stack.popText();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long solveProjection() {
+        return createSolver(projectionFormula).solve(s -> {
+        });
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long solvePlain() {
+        return createSolver(plainFormula).solve(s -> {
+        });
+    }
+
+    private FormulaSolver createSolver(Formula formula) {
+        //Undecided constraint, so that all assignments are evaluated and the cost per assignment is comparable
+        FormulaSolver solver = new FormulaSolver(formula).setConstraint((text, complete) -> SolutionConstraint.Decision.UNDECIDED);
+        for (String name : new String[]{"A", "B", "C", "D", "E"}) solver.setRange(name, VariableRange.digit());
+        return solver;
+    }
+}
@@ -0,0 +1,71 @@
+package de.pinguparty.geopingu.worker.domain.formula.literals;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares arithmetic on typed {@link Literal}s with the previous string-backed representation, which parsed
+ * the value on every access and formatted every intermediate result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiteralBenchmark {
+    //Number of chained operations, similar to a longer formula expression
+    private static final int OPERATIONS = 16;
+
+    private Literal operand;
+    private StringLiteral stringOperand;
+
+    @Setup
+    public void setup() {
+        operand = new Literal("1.5");
+        stringOperand = new StringLiteral("1.5");
+    }
+
+    @Benchmark
+    public double typedLiterals() {
+        Literal result = new Literal(1);
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (result.isNumber() && operand.isNumber()) result = new Literal(result.getNumber() * operand.getNumber() + i);
+        }
+        return result.getNumber();
+    }
+
+    @Benchmark
+    public double stringLiterals() {
+        StringLiteral result = new StringLiteral(Double.toString(1));
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (result.isNumber() && stringOperand.isNumber()) result = new StringLiteral(Double.toString(result.getNumber() * stringOperand.getNumber() + i));
+        }
+        return result.getNumber();
+    }
+
+    /**
+     * Replica of the previous string-backed literal.
+     */
+    private static class StringLiteral {
+        private final String value;
+
+        private StringLiteral(String value) {
+            this.value = value;
+        }
+
+        private double getNumber() {
+            return Double.parseDouble(value);
+        }
+
+        private boolean isNumber() {
+            try {
+                Double.parseDouble(value);
+            } catch (Exception e) {
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.pinguparty.geopingu.worker.domain.formula.solver;
+
+import de.pinguparty.geopingu.worker.domain.formula.Formula;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures solving a coordinate formula with seven unknown digits, i.e. 10^7 assignments, with and without
+ * a bounding box that allows pruning.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FormulaSolverBenchmark {
+    private static final String FORMULA = "N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E]";
+
+    private Formula formula;
+
+    @Setup
+    public void setup() {
+        formula = new Formula(FORMULA);
+    }
+
+    @Benchmark
+    public long boundingBox() {
+        return createSolver().setConstraint(BoundingBox.around(48.72082, 8.93480, 500)).solve(s -> {
+        });
+    }
+
+    @Benchmark
+    public long exhaustive() {
+        return createSolver().setConstraint((text, complete) -> SolutionConstraint.Decision.UNDECIDED).solve(s -> {
+        });
+    }
+
+    private FormulaSolver createSolver() {
+        FormulaSolver solver = new FormulaSolver(formula);
+        for (String name : new String[]{"A", "B", "C", "D", "E", "F", "G"}) solver.setRange(name, VariableRange.digit());
+        return solver;
+    }
+}
@@ -0,0 +1,91 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import com.sun.net.httpserver.HttpServer;
+import de.pinguparty.geopingu.worker.services.fetching.GeocacheDetailsFetcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for the {@link ChatTaskExecutor}, which compares the throughput of dispatching messages that block on
+ * a geocache details fetch at 5 and 500 messages in flight. The fetches are answered by a local stub endpoint
+ * with a fixed latency, so that the results do not depend on the network. Four messages are sent per chat,
+ * which are executed in order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class DispatcherLoadBenchmark {
+    private static final int MESSAGES = 500;
+    private static final int MESSAGES_PER_CHAT = 4;
+    private static final int FETCH_LATENCY = 20;
+    private static final byte[] DETAILS_PAGE = "<html><body><span id=\"ctl00_ContentBody_CacheName\">Stub</span></body></html>".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"5", "500"})
+    private int maxInFlight;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private GeocacheDetailsFetcher fetcher;
+    private ChatTaskExecutor executor;
+
+    @Setup
+    public void setup() throws IOException {
+        //Start the stub endpoint, which answers each request after the fetch latency
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+        server.setExecutor(serverExecutor);
+        server.createContext("/geocache/", exchange -> {
+            try {
+                Thread.sleep(FETCH_LATENCY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, DETAILS_PAGE.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(DETAILS_PAGE);
+            }
+        });
+        server.start();
+
+        fetcher = new GeocacheDetailsFetcher("http://localhost:" + server.getAddress().getPort() + "/geocache/%s");
+        executor = new ChatTaskExecutor(maxInFlight);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdown(10000);
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void dispatch() throws InterruptedException {
+        CountDownLatch completed = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            String geocacheId = "GC" + Integer.toString(i, 36).toUpperCase();
+            executor.execute(i / MESSAGES_PER_CHAT, () -> {
+                try {
+                    fetcher.fetchById(geocacheId);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    completed.countDown();
+                }
+            });
+        }
+        completed.await();
+    }
+}
@@ -0,0 +1,146 @@
+package de.pinguparty.geopingu.worker.services.registry;
+
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import de.pinguparty.geopingu.worker.interactions.Interaction;
+import de.pinguparty.geopingu.worker.interactions.add.AddGeocacheInteraction;
+import de.pinguparty.geopingu.worker.persistence.InteractionRegistrationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Benchmark of the {@link InteractionRegistrationCache}, which compares the throughput of handling the registry
+ * operations of user messages with and without the cache. Each chat goes through a three-step interaction: a start
+ * command that resets and registers the interaction, a reply that looks it up and registers it again and a final
+ * reply that looks it up and unregisters it. The repository is simulated in memory with a fixed round trip time
+ * per call, so that the results do not depend on a database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class InteractionRegistryBenchmark {
+    private static final int SHARDS = 16;
+    private static final int CHATS = 1000;
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private final Map<Long, InteractionRegistration> store = new ConcurrentHashMap<>();
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final Interaction interaction = new AddGeocacheInteraction();
+    private InteractionRegistrationRepository repository;
+    private InteractionRegistrationCache cache;
+    private long message = 0;
+
+    @Setup
+    public void setup() {
+        repository = createRepository();
+        if (!cached) return;
+
+        UserMessageShards shards = new UserMessageShards("benchmark", SHARDS);
+        cache = new InteractionRegistrationCache(repository, shards, 100000, TimeUnit.HOURS.toMillis(1), 1000, 10000,
+                new SimpleMeterRegistry());
+        for (int shard = 0; shard < SHARDS; shard++) cache.acquire(shard);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (cache != null) cache.shutdown();
+        System.out.printf("%n%d round trips to the repository%n", roundTrips.get());
+    }
+
+    @Benchmark
+    public Optional<Interaction> handleMessage() {
+        long chatID = (message % CHATS) + 1;
+        long step = (message / CHATS) % 3;
+        message++;
+
+        switch ((int) step) {
+            case 0:
+                //Start command
+                unregister(chatID);
+                register(chatID);
+                return Optional.empty();
+            case 1:
+                //Intermediate reply
+                Optional<Interaction> active = lookup(chatID);
+                register(chatID);
+                return active;
+            default:
+                //Final reply
+                Optional<Interaction> last = lookup(chatID);
+                unregister(chatID);
+                return last;
+        }
+    }
+
+    private Optional<Interaction> lookup(long chatID) {
+        if (cache != null) return cache.get(chatID);
+        return repository.findById(chatID).map(InteractionRegistration::getInteraction);
+    }
+
+    private void register(long chatID) {
+        if (cache != null) cache.put(chatID, interaction);
+        else repository.save(new InteractionRegistration(chatID, interaction));
+    }
+
+    private void unregister(long chatID) {
+        if (cache != null) cache.remove(chatID);
+        else repository.deleteById(chatID);
+    }
+
+    /**
+     * Creates a repository that keeps the registrations in memory and simulates a round trip for each call.
+     */
+    @SuppressWarnings("unchecked")
+    private InteractionRegistrationRepository createRepository() {
+        return (InteractionRegistrationRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{InteractionRegistrationRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findById":
+                            roundTrip();
+                            return Optional.ofNullable(store.get((Long) args[0]));
+                        case "save":
+                            roundTrip();
+                            InteractionRegistration registration = (InteractionRegistration) args[0];
+                            store.put(registration.getChatId(), registration);
+                            return registration;
+                        case "deleteById":
+                            roundTrip();
+                            store.remove((Long) args[0]);
+                            return null;
+                        case "acquireEpoch":
+                            roundTrip();
+                            return 1L;
+                        case "writeAll":
+                            roundTrip();
+                            ((Collection<InteractionRegistration>) args[0]).forEach(r -> store.put(r.getChatId(), r));
+                            return new HashSet<Long>();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private void roundTrip() {
+        roundTrips.incrementAndGet();
+        LockSupport.parkNanos(ROUND_TRIP_NANOS);
+    }
+}
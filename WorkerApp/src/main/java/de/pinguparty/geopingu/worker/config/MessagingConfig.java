@@ -1,10 +1,19 @@
 package de.pinguparty.geopingu.worker.config;
 
+import de.pinguparty.geopingu.bot.actions.ActionLane;
 import de.pinguparty.geopingu.bot.actions.BotAction;
+import de.pinguparty.geopingu.bot.codec.NegotiatingMessageConverter;
+import de.pinguparty.geopingu.bot.config.ListenerSettings;
 import de.pinguparty.geopingu.bot.messages.UserMessage;
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
 import de.pinguparty.geopingu.bot.telegram.TelegramBot;
+import de.pinguparty.geopingu.worker.services.dispatcher.UserMessageRetries;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -13,33 +22,141 @@ import org.springframework.context.annotation.Configuration;
  */
 @Configuration
 public class MessagingConfig {
-    //Maximum number of concurrent consumptions from queues
-    public static final String CONSUMER_CONCURRENCY = "5";
-
     @Value("${worker.queue.messages}")
     private String userMessagesQueueName;
 
+    @Value("${worker.queue.messages.shards}")
+    private int userMessagesShards;
+
+    @Value("${worker.queue.messages.max-retries}")
+    private int userMessagesMaxRetries;
+
+    @Value("${worker.queue.messages.retry-delay}")
+    private long userMessagesRetryDelay;
+
+    @Value("${worker.queue.messages.retry-multiplier}")
+    private double userMessagesRetryMultiplier;
+
     @Value("${worker.queue.actions}")
     private String botActionsQueueName;
 
+    @Value("${worker.queue.format}")
+    private String messageFormat;
+
+    @Value("${worker.listener.prefetch}")
+    private int listenerPrefetch;
+
+    @Value("${worker.listener.batch-size}")
+    private int listenerBatchSize;
+
+    @Value("${worker.listener.consumer-batch}")
+    private boolean listenerConsumerBatch;
+
+    @Value("${worker.listener.ack-mode}")
+    private String listenerAckMode;
+
+    @Value("${worker.listener.receive-timeout}")
+    private long listenerReceiveTimeout;
+
     /**
-     * Creates a {@link Queue} for incoming {@link UserMessage}s that were received by a {@link TelegramBot}.
+     * Creates the {@link UserMessageShards} that describe the partitioning of the {@link UserMessage}s that were
+     * received by a {@link TelegramBot} into per-chat ordered queues.
      *
-     * @return The corresponding {@link Queue}
+     * @return The resulting {@link UserMessageShards}
+     */
+    @Bean
+    public UserMessageShards userMessageShards() {
+        return new UserMessageShards(userMessagesQueueName, userMessagesShards);
+    }
+
+    /**
+     * Creates the {@link Declarables} for the exchange and the queues of the {@link UserMessageShards}.
+     *
+     * @param userMessageShards The {@link UserMessageShards} to declare
+     * @return The resulting {@link Declarables}
+     */
+    @Bean
+    public Declarables userMessagesTopology(UserMessageShards userMessageShards) {
+        return userMessageShards.createDeclarables();
+    }
+
+    /**
+     * Creates the {@link UserMessageRetries} that describe the delayed retrying of {@link UserMessage}s whose
+     * handling failed due to transient failures.
+     *
+     * @param userMessageShards The {@link UserMessageShards} to which retried messages are returned
+     * @return The resulting {@link UserMessageRetries}
+     */
+    @Bean
+    public UserMessageRetries userMessageRetries(UserMessageShards userMessageShards) {
+        return new UserMessageRetries(userMessageShards, userMessagesMaxRetries, userMessagesRetryDelay, userMessagesRetryMultiplier);
+    }
+
+    /**
+     * Creates the {@link Declarables} for the exchange and the delay queues of the {@link UserMessageRetries}.
+     *
+     * @param userMessageRetries The {@link UserMessageRetries} to declare
+     * @return The resulting {@link Declarables}
      */
     @Bean
-    public Queue userMessagesQueue() {
-        return new Queue(userMessagesQueueName, true);
+    public Declarables userMessageRetriesTopology(UserMessageRetries userMessageRetries) {
+        return userMessageRetries.createDeclarables();
     }
 
     /**
-     * Creates a {@link Queue} for outgoing {@link BotAction}s that are supposed to be executed by a
-     * {@link TelegramBot}.
+     * Creates a {@link Queue} for outgoing {@link BotAction}s of the interactive {@link ActionLane} that are
+     * supposed to be executed by a {@link TelegramBot}.
      *
      * @return The corresponding {@link Queue}
      */
     @Bean
     public Queue botActionsQueue() {
-        return new Queue(botActionsQueueName, true);
+        return new Queue(ActionLane.INTERACTIVE.getQueueName(botActionsQueueName), true);
+    }
+
+    /**
+     * Creates a {@link Queue} for outgoing {@link BotAction}s of the bulk {@link ActionLane} that are supposed to be
+     * executed by a {@link TelegramBot}.
+     *
+     * @return The corresponding {@link Queue}
+     */
+    @Bean
+    public Queue botActionsBulkQueue() {
+        return new Queue(ActionLane.BULK.getQueueName(botActionsQueueName), true);
+    }
+
+    /**
+     * Creates the {@link NegotiatingMessageConverter} for encoding and decoding the {@link UserMessage}s and
+     * {@link BotAction}s, which is used by the rabbit templates and listeners. Outgoing messages are encoded in
+     * the configured format, incoming messages are decoded based on their content type.
+     *
+     * @return The resulting {@link NegotiatingMessageConverter}
+     */
+    @Bean
+    public NegotiatingMessageConverter messageConverter() {
+        return new NegotiatingMessageConverter(messageFormat);
+    }
+
+    /**
+     * Creates the {@link SimpleRabbitListenerContainerFactory} for the containers of all message listeners, which
+     * applies the configured {@link ListenerSettings} on top of the default configuration.
+     *
+     * @param configurer        The configurer for applying the default configuration
+     * @param connectionFactory The {@link ConnectionFactory} to use
+     * @return The resulting {@link SimpleRabbitListenerContainerFactory}
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                               ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+
+        return new ListenerSettings()
+                .setPrefetch(listenerPrefetch)
+                .setBatchSize(listenerBatchSize)
+                .setConsumerBatch(listenerConsumerBatch)
+                .setAcknowledgeMode(listenerAckMode)
+                .setReceiveTimeout(listenerReceiveTimeout)
+                .applyTo(factory);
     }
 }
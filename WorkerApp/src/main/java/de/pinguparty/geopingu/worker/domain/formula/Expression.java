@@ -0,0 +1,76 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.FormulaProgram;
+import de.pinguparty.geopingu.worker.domain.formula.variables.Variable;
+
+import java.util.*;
+
+/**
+ * A single expression of a {@link Formula}, i.e. the content of a pair of square brackets. The expression is
+ * held in reverse polish notation and additionally compiled to a {@link FormulaProgram}.
+ */
+public class Expression {
+    private final String source;
+    private final List<FormulaElement> reversePolishNotation;
+    private final Set<String> variableNames;
+    private FormulaProgram program;
+
+    Expression(String source, List<FormulaElement> reversePolishNotation, Set<String> variableNames) {
+        this.source = source;
+        this.reversePolishNotation = Collections.unmodifiableList(reversePolishNotation);
+        this.variableNames = Collections.unmodifiableSet(variableNames);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public List<FormulaElement> getReversePolishNotation() {
+        return reversePolishNotation;
+    }
+
+    public Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    public FormulaProgram getProgram() {
+        return program;
+    }
+
+    void compile(Map<String, Integer> variableSlots) throws IllegalFormulaSyntaxException {
+        this.program = FormulaProgram.compile(reversePolishNotation, variableSlots);
+    }
+
+    /**
+     * Evaluates the expression by interpreting its reverse polish notation, passing the arguments of each
+     * {@link Function} as {@link List} of {@link Literal}s.
+     *
+     * @param variables Map (name --> variable) of the variables of the formula
+     * @return The resulting {@link Literal}
+     */
+    Literal interpret(Map<String, Variable> variables) {
+        Deque<Literal> stack = new ArrayDeque<>();
+        for (FormulaElement element : reversePolishNotation) {
+            if (element instanceof Literal) {
+                stack.push((Literal) element);
+            } else if (element instanceof Variable) {
+                stack.push(variables.get(((Variable) element).getName()).getValue());
+            } else {
+                Function function = (Function) element;
+                LinkedList<Literal> arguments = new LinkedList<>();
+                for (int i = 0; i < function.getNumberOfArguments(); i++) {
+                    arguments.addFirst(stack.pop());
+                }
+                stack.push(function.evaluate(arguments));
+            }
+        }
+        return stack.pop();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -1,41 +1,40 @@
 package de.pinguparty.geopingu.worker.domain.formula;
 
-import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
 import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.ColumnStack;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import de.pinguparty.geopingu.worker.domain.formula.solver.FormulaSolver;
+import de.pinguparty.geopingu.worker.domain.formula.solver.Solution;
+import de.pinguparty.geopingu.worker.domain.formula.solver.SolutionConstraint;
+import de.pinguparty.geopingu.worker.domain.formula.solver.VariableRange;
 import de.pinguparty.geopingu.worker.domain.formula.utils.Utils;
 import de.pinguparty.geopingu.worker.domain.formula.variables.Variable;
-import org.reflections.Reflections;
 
-import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class Formula {
+    private String formula;
 
-    private static final String FUNCTIONS_PACKAGE = "de.pinguparty.geopingu.worker.domain.formula.functions";
-    private static final Map<String, Function> FUNCTIONS_MAP = new HashMap<>();
-
-    private static final String OPENING_BRACKET = "(";
-    private static final String CLOSING_BRACKET = ")";
-    private static final String DECIMAL_SEPARATOR = ".";
-    private static final String ARGUMENT_SEPARATOR = ",";
-    private static final String STRING_VALUE = "\"";
-    private static final String IDENTIFIERS_PATTERN = "[A-z][A-z0-9]*";
-    private static final String STRING_VALUE_PATTERN = "\"[a-zA-Z]+\"";
-    private static final String NUMBER_PATTERN = "[0-9]+.?[0-9]*";
-
-    static {
-        Reflections reflections = new Reflections(FUNCTIONS_PACKAGE);
-        reflections.getSubTypesOf(Function.class).stream()
-                .filter(f -> !f.isInterface())
-                .filter(f -> !Modifier.isAbstract(f.getModifiers()))
-                .map(Utils::instantiateClass)
-                .filter(Objects::nonNull)
-                .forEach(f -> FUNCTIONS_MAP.put(f.getName(), f));
-    }
+    //Shared, immutable parsing result; resolved lazily from the formula text after deserialization
+    private transient FormulaTemplate template;
 
-    private String formula;
-    private Stack<FormulaElement> reversePolishNotation = new Stack<>();
-    private Set<Variable> variables = new HashSet<>();
+    //Text segments and expression sources of this formula, which may differ from the template in their whitespace
+    private transient List<String> textSegments;
+    private transient List<String> expressionSources;
+
+    //Per-formula variable bindings in the order of their first occurrence
+    private Map<String, Variable> variables = new LinkedHashMap<>();
+
+    //Variable values for the execution of the compiled programs, indexed by slot
+    private transient double[] variableNumbers;
+    private transient String[] variableTexts;
+    private transient boolean[] variablesBound;
+    private transient OperandStack operandStack;
+    private transient ColumnStack columnStack;
+
+    //Cached results of the expressions, which are invalidated when one of their variables changes
+    private transient String[] expressionResults;
 
     public Formula(String formula) throws IllegalFormulaSyntaxException {
         setFormula(formula);
@@ -46,221 +45,319 @@ public class Formula {
     }
 
     public void setFormula(String formula) throws IllegalFormulaSyntaxException {
-        //Sanity check
-        if ((formula == null) || formula.isEmpty())
-            throw new IllegalFormulaSyntaxException("The formula must not be null or empty.");
+        //Retrieve the shared template, which also checks the syntax
+        FormulaTemplate newTemplate = FormulaTemplateCache.getDefault().get(formula);
 
-        //Check whether the formula syntax is valid
-        checkFormulaSyntax(formula);
+        //Create fresh bindings for the variables of the formula
+        Map<String, Variable> newVariables = new LinkedHashMap<>();
+        for (String name : newTemplate.getVariableNames()) newVariables.put(name, new Variable(name));
 
-        //Set formula
         this.formula = formula;
+        this.template = newTemplate;
+        this.textSegments = null;
+        this.variables = newVariables;
+        this.variableNumbers = null;
+        this.expressionResults = null;
+    }
 
-        //Parse to formula to extract variables
-        parse();
+    /**
+     * Returns the shared {@link FormulaTemplate} of the formula.
+     *
+     * @return The {@link FormulaTemplate}
+     */
+    public FormulaTemplate getTemplate() {
+        if (template == null) template = FormulaTemplateCache.getDefault().get(formula);
+        return template;
     }
 
+    /**
+     * Returns the text segments of the formula itself, which are split from its text when it differs from the text
+     * of the shared template, so that the template cache never changes the literal text of the formula.
+     */
+    private List<String> getOwnTextSegments() {
+        if (textSegments != null) return textSegments;
+
+        FormulaTemplate sharedTemplate = getTemplate();
+        List<String> newTextSegments = new ArrayList<>();
+        List<String> newExpressionSources = new ArrayList<>();
+        if (formula.equals(sharedTemplate.getSource())) {
+            newTextSegments.addAll(sharedTemplate.getTextSegments());
+            for (Expression expression : sharedTemplate.getExpressions()) newExpressionSources.add(expression.getSource());
+        } else {
+            //Segments alternate between text and expression sources, starting and ending with text
+            List<String> segments = FormulaTemplate.split(formula);
+            for (int i = 0; i < segments.size(); i++) {
+                ((i % 2 == 0) ? newTextSegments : newExpressionSources).add(segments.get(i));
+            }
+        }
+
+        this.expressionSources = Collections.unmodifiableList(newExpressionSources);
+        this.textSegments = Collections.unmodifiableList(newTextSegments);
+        return textSegments;
+    }
 
     public List<Variable> getVariables() {
-        //TODO
-        return List.of();
+        return new ArrayList<>(variables.values());
     }
 
     public Variable getVariable(String name) {
-        //TODO
-        return null;
+        Variable variable = variables.get(name);
+
+        //Check whether the variable exists
+        if (variable == null)
+            throw new NotExistingVariableException(String.format("The variable \"%s\" does not exist.", name));
+
+        return variable;
     }
 
     public void setVariable(String name, Literal value) {
-        //TODO
+        //Sanity check
+        if (value == null) throw new IllegalArgumentException("The value must not be null.");
+
+        //Nothing to do if the value does not change
+        Variable variable = getVariable(name);
+        if (value.equals(variable.getValue())) return;
+
+        //Update the variable and its slot
+        variable.setValue(value);
+        if (variableNumbers == null) return;
+        int slot = getTemplate().getVariableSlot(name);
+        bind(slot, value);
+
+        //Invalidate the cached results of the dependent expressions only
+        for (int expression : getTemplate().getDependentExpressions(slot)) expressionResults[expression] = null;
     }
 
     public boolean allVariablesSet() {
-        //TODO
-        return false;
+        return variables.values().stream().allMatch(v -> v.getValue() != null);
     }
 
+    /**
+     * Evaluates the formula. Only expressions whose variables have changed since the previous evaluation are
+     * executed again, the results of all other expressions are reused.
+     *
+     * @return The evaluated formula
+     */
     public String evaluate() {
         if (!allVariablesSet())
             throw new IllegalStateException("The formula cannot be evaluated, because some variable values are still missing.");
-        //TODO
-        return "";
-    }
 
-    private void checkFormulaSyntax(String formula) throws IllegalFormulaSyntaxException {
-        //TODO
+        return render();
     }
 
-    private void parse() throws IllegalFormulaSyntaxException {
+    /**
+     * Evaluates the formula as far as possible. Expressions whose variables are all set are replaced by their
+     * results, while all other expressions are kept in square brackets. As for {@link #evaluate()}, only expressions
+     * whose variables have changed since the previous evaluation are executed again.
+     *
+     * @return The partially evaluated formula
+     */
+    public String evaluatePartially() {
+        return render();
+    }
 
-        //TODO
-        System.out.println("parsi parse");
-        if ((1 + 2) == 3) {
-            return;
+    /**
+     * Renders the formula, using the results of all resolvable expressions and the sources of all others.
+     */
+    private String render() {
+        prepareBindings();
+        List<String> textSegments = getOwnTextSegments();
+        List<Expression> expressions = getTemplate().getExpressions();
+
+        StringBuilder builder = new StringBuilder(formula.length());
+        for (int i = 0; i < expressions.size(); i++) {
+            builder.append(textSegments.get(i));
+
+            String result = resolve(i);
+            if (result != null) builder.append(result);
+            else builder.append('[').append(expressionSources.get(i)).append(']');
         }
+        builder.append(textSegments.get(expressions.size()));
 
-        /*
-        Preparations
-         */
-        reversePolishNotation.clear();
-
-        //Pre-process the formula
-        String preprocessedFormula = preprocessFormula(formula);
-        //Tokenize the formula
-        List<String> tokens = tokenizeFormula(preprocessedFormula);
-
-        /*
-        Parsing the formula by iterating over the previously extracted tokens
-         */
-
-        Stack<Function> functionStack = new Stack<>();
-        for (int i = 0; i < tokens.size(); i++) {
-            //Get the current token
-            String token = tokens.get(i);
-
-            //Check for argument separator
-            if (token.equals(ARGUMENT_SEPARATOR)) {
-                while (!functionStack.isEmpty()) {
-                    reversePolishNotation.push(functionStack.pop());
-                }
-                continue;
-            }
-            //Check for function
-            if (isFunction(token)) {
-                functionStack.push(FUNCTIONS_MAP.get(token));
-                continue;
-            }
+        return builder.toString();
+    }
 
-            //Check for variable
-            if (token.matches(IDENTIFIERS_PATTERN)) {
-                variables.add(new Variable(token));
-                continue;
-            }
+    /**
+     * Returns the result of the expression with a given index, which is only computed if no valid result is cached.
+     * If not all variables of the expression are set, null is returned.
+     */
+    private String resolve(int expression) {
+        if (expressionResults[expression] != null) return expressionResults[expression];
 
-            //Check for value ("Test" or 3.2232)
-            if (token.matches(STRING_VALUE_PATTERN) || token.matches(NUMBER_PATTERN)) {
-                token = token.replaceAll("\"", "");
-                reversePolishNotation.push(new Literal(token));
-                //Now create a new literal and give it a String or Double depending on the value
-                continue;
-            }
-
-            //Check for operator
-            if (FUNCTIONS_MAP.containsKey(token)) {
-                while (!functionStack.isEmpty() && !functionStack.peek().getName().equals(OPENING_BRACKET) &&
-                        (functionStack.peek().getPrecedence() > FUNCTIONS_MAP.get(token).getPrecedence() || (
-                                functionStack.peek().getPrecedence() == FUNCTIONS_MAP.get(token).getPrecedence() && FUNCTIONS_MAP.get(token).isRightAssociative()
-                        ))
-                ) {
-                    reversePolishNotation.push(functionStack.pop());
-                }
-                functionStack.push(FUNCTIONS_MAP.get(token));
-                continue;
-            }
+        //Check whether all inputs of the expression are known
+        for (int slot : getTemplate().getExpressionSlots(expression)) {
+            if (!variablesBound[slot]) return null;
+        }
 
-            //Check for left brackets
-            if (token.equals(OPENING_BRACKET)) {
-                functionStack.push(FUNCTIONS_MAP.get(token));
-                continue;
-            }
+        //Execute the compiled program of the expression and cache its result
+        getTemplate().getExpressions().get(expression).getProgram().execute(operandStack, variableNumbers, variableTexts);
+        expressionResults[expression] = operandStack.popText();
+        return expressionResults[expression];
+    }
 
-            //check for right brackets
-            if (token.equals(CLOSING_BRACKET)) {
-                while (!functionStack.isEmpty() && !functionStack.peek().getName().equals(OPENING_BRACKET)) {
-                    reversePolishNotation.push(functionStack.pop());
-                }
-                if (!functionStack.peek().getName().equals(OPENING_BRACKET)) {
-                    throw new IllegalFormulaSyntaxException("No opening brackets found!");
-                }
-                functionStack.pop();
-                if (!functionStack.isEmpty() && isFunction(functionStack.peek().getName())) {
-                    reversePolishNotation.push(functionStack.pop());
-                }
-                continue;
-            }
+    /**
+     * Evaluates the expressions of the formula for a batch of variable bindings, which are given as one column of
+     * values per variable. Variables without a column keep their current value for all rows. The compiled programs
+     * are executed column-wise, which is much faster than evaluating the formula row by row. The results of
+     * the expressions must be numeric and can be rendered with {@link #renderBatchRow(double[][], int)}.
+     *
+     * @param columns Map (name --> values) of the columns of variable values, which must all have the same length
+     * @return The results, indexed by expression and row
+     */
+    public double[][] evaluateBatch(Map<String, double[]> columns) {
+        //Sanity check
+        if (columns == null) throw new IllegalArgumentException("The columns must not be null.");
+
+        prepareBindings();
+        if (columnStack == null) columnStack = new ColumnStack();
+
+        //Assign the columns to the variable slots
+        int rows = -1;
+        double[][] variableColumns = new double[variables.size()][];
+        for (Map.Entry<String, double[]> column : columns.entrySet()) {
+            if (column.getValue() == null) throw new IllegalArgumentException("The columns must not be null.");
+            if ((rows >= 0) && (column.getValue().length != rows))
+                throw new IllegalArgumentException("All columns must have the same length.");
+            rows = column.getValue().length;
+            variableColumns[getVariableSlot(column.getKey())] = column.getValue();
+        }
+        for (int slot = 0; slot < variableColumns.length; slot++) {
+            if ((variableColumns[slot] == null) && !variablesBound[slot])
+                throw new IllegalStateException(String.format("Neither a column nor a value is given for the variable \"%s\".", getTemplate().getVariableNames().get(slot)));
+        }
+        if (rows < 0) rows = 1;
 
-            //Token wasn't a function, operator, variable or value
-            throw new IllegalFormulaSyntaxException("No match found!");
+        //Execute the programs of all expressions column-wise
+        List<Expression> expressions = getTemplate().getExpressions();
+        double[][] results = new double[expressions.size()][rows];
+        for (int i = 0; i < expressions.size(); i++) {
+            expressions.get(i).getProgram().executeBatch(columnStack, variableColumns, variableNumbers, variableTexts, rows, results[i]);
         }
+        return results;
+    }
 
-        while (!functionStack.isEmpty()) {
-            reversePolishNotation.push(functionStack.pop());
+    /**
+     * Renders the formula for a single row of the results of {@link #evaluateBatch(Map)}.
+     *
+     * @param results The results, indexed by expression and row
+     * @param row     The row to render
+     * @return The evaluated formula for the row
+     */
+    public String renderBatchRow(double[][] results, int row) {
+        List<String> textSegments = getOwnTextSegments();
+
+        StringBuilder builder = new StringBuilder(formula.length());
+        for (int i = 0; i < results.length; i++) {
+            builder.append(textSegments.get(i));
+            Utils.appendNumber(builder, results[i][row]);
         }
+        builder.append(textSegments.get(results.length));
 
-        System.out.println(reversePolishNotation);
-        //System.out.println(reversePolishNotation.stream().map(FormulaElement::toString).collect(Collectors.joining(", ")));
+        return builder.toString();
     }
 
-    private String preprocessFormula(String formula) {
-        return formula.trim().replaceAll("\\s", "");
+    /**
+     * Finds values for the unknown variables of the formula within given ranges, such that the evaluated formula
+     * satisfies a given {@link SolutionConstraint}. The found solutions are passed to the given consumer as soon
+     * as they are found. Use a {@link FormulaSolver} directly for reporting the progress or limiting the number
+     * of solutions.
+     *
+     * @param ranges     Map (name --> range) of the values to try for the unknown variables
+     * @param constraint The {@link SolutionConstraint} that solutions need to satisfy
+     * @param consumer   The consumer to pass the solutions to
+     * @return The number of found solutions
+     */
+    public long solve(Map<String, VariableRange> ranges, SolutionConstraint constraint, Consumer<Solution> consumer) {
+        //Sanity check
+        if (ranges == null) throw new IllegalArgumentException("The ranges must not be null.");
+
+        FormulaSolver solver = new FormulaSolver(this).setConstraint(constraint);
+        ranges.forEach(solver::setRange);
+        return solver.solve(consumer);
     }
 
-    private List<String> tokenizeFormula(String formula) throws IllegalFormulaSyntaxException {
-        List<String> tokens = new LinkedList<>();
-        StringBuilder currentToken = new StringBuilder();
-        boolean isCurrentTokenNumeric = false;
-
-        //Iterate over the formula character for character
-        for (int i = 0; i < formula.length(); i++) {
-            //Get current character
-            char currentCharacter = formula.charAt(i);
-
-            //Check whether token is quotation marks at the beginning of a String
-            if (Character.toString(currentCharacter).equals(STRING_VALUE)) {
-                if (currentToken.length() != 0 && currentToken.toString().matches("\"[a-zA-Z]+")) {
-                    currentToken.append(currentCharacter);
-                    tokens.add(currentToken.toString());
-                    currentToken.setLength(0);
-                } else if (currentToken.length() == 0) {
-                    currentToken.append(currentCharacter);
-                } else {
-                    tokens.add(currentToken.toString());
-                    currentToken.setLength(0);
-                    currentToken.append(currentCharacter);
-                }
-                continue;
-            }
+    /**
+     * Evaluates the formula by interpreting the reverse polish notations of its expressions instead of executing
+     * the compiled programs.
+     *
+     * @return The evaluated formula
+     */
+    String evaluateInterpreted() {
+        if (!allVariablesSet())
+            throw new IllegalStateException("The formula cannot be evaluated, because some variable values are still missing.");
 
-            //Check whether token is decimal separator
-            if (Character.toString(currentCharacter).equals(DECIMAL_SEPARATOR)) {
-                if (!isCurrentTokenNumeric) {
-                    throw new IllegalFormulaSyntaxException(String.format("The '%s' character is only allowed within numbers.", DECIMAL_SEPARATOR));
-                }
-                currentToken.append(currentCharacter);
-                continue;
-            }
+        List<String> textSegments = getOwnTextSegments();
+        List<Expression> expressions = getTemplate().getExpressions();
 
-            //If the character is alphanumeric or numeric, it may be part of a larger token
-            if (Character.isDigit(currentCharacter)) {
-                if (currentToken.length() == 0) isCurrentTokenNumeric = true;
-                currentToken.append(currentCharacter);
-                continue;
-            } else if (Character.isAlphabetic(currentCharacter)) {
-                if ((currentToken.length() != 0) && isCurrentTokenNumeric)
-                    throw new IllegalFormulaSyntaxException("Numbers must not contain letters.");
-                currentToken.append(currentCharacter);
-                isCurrentTokenNumeric = false;
-                continue;
-            }
+        StringBuilder builder = new StringBuilder(formula.length());
+        for (int i = 0; i < expressions.size(); i++) {
+            builder.append(textSegments.get(i));
 
-            //Character is special character, so it is a separate token and finishes the previous token (if existing)
-            if (currentToken.length() != 0) tokens.add(currentToken.toString());
-            tokens.add(Character.toString(currentCharacter));
-            isCurrentTokenNumeric = false;
-            currentToken.setLength(0);
+            Literal result = expressions.get(i).interpret(variables);
+            builder.append(result.isNumber() ? Utils.formatNumber(result.getNumber()) : result.getString());
         }
+        builder.append(textSegments.get(expressions.size()));
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns the expressions of the formula, i.e. the contents of all pairs of square brackets.
+     *
+     * @return The {@link List} of {@link Expression}s
+     */
+    public List<Expression> getExpressions() {
+        return getTemplate().getExpressions();
+    }
 
-        //Check whether the current token still contains characters
-        if (currentToken.length() != 0) tokens.add(currentToken.toString());
+    /**
+     * Returns the text segments of the formula that surround its expressions. The list contains exactly one
+     * element more than the list of expressions.
+     *
+     * @return The {@link List} of text segments
+     */
+    public List<String> getTextSegments() {
+        return getOwnTextSegments();
+    }
 
-        return tokens;
+    /**
+     * Returns the slot of a given variable within the compiled programs of the formula.
+     *
+     * @param name The name of the variable
+     * @return The slot of the variable
+     */
+    public int getVariableSlot(String name) {
+        //Make sure that the variable exists
+        getVariable(name);
+
+        return getTemplate().getVariableSlot(name);
     }
 
-    private boolean isFunction(String token) {
-        return token.matches(IDENTIFIERS_PATTERN) && FUNCTIONS_MAP.containsKey(token);
+    /**
+     * Creates the operand stack, the slot-indexed variable values and the result cache from the variable bindings,
+     * unless this has already been done. This is also required after the formula has been restored from its
+     * persisted fields.
+     */
+    private void prepareBindings() {
+        if (operandStack == null) operandStack = new OperandStack();
+        if (variableNumbers != null) return;
+
+        variableNumbers = new double[variables.size()];
+        variableTexts = new String[variables.size()];
+        variablesBound = new boolean[variables.size()];
+        expressionResults = new String[getTemplate().getExpressions().size()];
+        for (Variable variable : variables.values()) {
+            if (variable.getValue() != null) bind(getTemplate().getVariableSlot(variable.getName()), variable.getValue());
+        }
     }
 
-    private boolean isSpecialCharacter(char c) {
-        return !(Character.isAlphabetic(c) || Character.isDigit(c));
+    private void bind(int slot, Literal value) {
+        variablesBound[slot] = true;
+        if (value.isNumber()) {
+            variableNumbers[slot] = value.getNumber();
+            variableTexts[slot] = null;
+        } else {
+            variableTexts[slot] = value.getString();
+        }
     }
 }
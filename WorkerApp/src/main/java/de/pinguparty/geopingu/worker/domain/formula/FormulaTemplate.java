@@ -0,0 +1,401 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
+import de.pinguparty.geopingu.worker.domain.formula.functions.FunctionRegistry;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaLexer;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaTokens;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.TokenKind;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.variables.Variable;
+
+import java.util.*;
+
+/**
+ * Immutable result of parsing a formula, consisting of its text segments, its compiled {@link Expression}s and
+ * the names and slots of its variables. A template does not hold any variable values, so that a single instance
+ * can be shared by all {@link Formula}s with the same text. The {@link Variable}s that are referenced by the
+ * reverse polish notations of the expressions only serve as placeholders and must not be assigned any values.
+ */
+public class FormulaTemplate {
+    //Lookup tables for the parser: operators by their character and functions that are called by their name
+    private static final Function[] OPERATORS = new Function[128];
+    private static final List<Function> NAMED_FUNCTIONS = new ArrayList<>();
+    private static final Function OPENING_BRACKET_FUNCTION;
+
+    //Reusable token buffers, so that tokenizing does not allocate
+    private static final ThreadLocal<FormulaTokens> TOKENS = ThreadLocal.withInitial(FormulaTokens::new);
+
+    static {
+        //The functions are registered at build time, so that no classpath scanning is necessary
+        for (Function function : FunctionRegistry.FUNCTIONS) {
+            if (isNamedFunction(function)) NAMED_FUNCTIONS.add(function);
+            else if (function.getName().length() == 1) OPERATORS[function.getName().charAt(0)] = function;
+        }
+        OPENING_BRACKET_FUNCTION = OPERATORS[FormulaLexer.OPENING_BRACKET];
+        OPERATORS[FormulaLexer.OPENING_BRACKET] = null;
+    }
+
+    private final String source;
+
+    //The formula is split into text segments and expressions: text[0] expression[0] text[1] ... text[n]
+    private List<String> textSegments;
+    private List<Expression> expressions;
+
+    //Variables in the order of their first occurrence and their slots within the compiled programs
+    private List<String> variableNames;
+    private Map<String, Integer> variableSlots;
+
+    //Dependencies between variables and expressions: slots read by each expression and expressions reading each slot
+    private int[][] expressionSlots;
+    private int[][] dependentExpressions;
+
+    private FormulaTemplate(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Parses a given formula into a new {@link FormulaTemplate}. Consider using a {@link FormulaTemplateCache}
+     * instead, in order to share templates between formulas with the same text.
+     *
+     * @param formula The formula to parse
+     * @return The resulting {@link FormulaTemplate}
+     * @throws IllegalFormulaSyntaxException In case the formula is syntactically invalid
+     */
+    public static FormulaTemplate parse(String formula) throws IllegalFormulaSyntaxException {
+        //Sanity check
+        if ((formula == null) || formula.isEmpty())
+            throw new IllegalFormulaSyntaxException("The formula must not be null or empty.");
+
+        //Tokenize the formula, which also checks the basic syntax
+        FormulaTokens tokens = TOKENS.get();
+        FormulaLexer.tokenize(formula, tokens);
+
+        FormulaTemplate template = new FormulaTemplate(formula);
+        template.parse(tokens);
+        return template;
+    }
+
+    /**
+     * Normalizes the whitespace of a given formula by removing leading and trailing whitespace and replacing
+     * all other sequences of whitespace with a single space. Within expressions, whitespace is removed unless it
+     * separates two identifiers or numbers, and whitespace within string values is preserved.
+     *
+     * @param formula The formula to normalize
+     * @return The normalized formula
+     */
+    public static String normalize(String formula) {
+        //Sanity check
+        if (formula == null) throw new IllegalArgumentException("The formula must not be null.");
+
+        StringBuilder builder = new StringBuilder(formula.length());
+        boolean expression = false;
+        boolean quoted = false;
+        boolean whitespace = false;
+        for (int i = 0; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                whitespace = true;
+                continue;
+            }
+
+            //Within expressions, whitespace is only significant between two identifiers or numbers
+            if (whitespace && (builder.length() > 0) && (!expression ||
+                    (Character.isLetterOrDigit(builder.charAt(builder.length() - 1)) && Character.isLetterOrDigit(c)))) {
+                builder.append(' ');
+            }
+            whitespace = false;
+            builder.append(c);
+
+            //Keep track of expressions and string values within them
+            if (c == FormulaLexer.EXPRESSION_START) expression = true;
+            else if ((c == FormulaLexer.EXPRESSION_END) && !quoted) expression = false;
+            else if ((c == FormulaLexer.STRING_VALUE) && expression) quoted = !quoted;
+        }
+
+        //Avoid copies of formulas that are already normalized
+        return formula.contentEquals(builder) ? formula : builder.toString();
+    }
+
+    /**
+     * Splits a given, syntactically valid formula into its text segments and the sources of its expressions without
+     * parsing them. The resulting list alternates between text segments and expression sources, starting and ending
+     * with a text segment, which allows formulas that share a template to keep their own whitespace.
+     *
+     * @param formula The formula to split
+     * @return The {@link List} of segments
+     */
+    static List<String> split(String formula) {
+        List<String> segments = new ArrayList<>();
+        boolean expression = false;
+        boolean quoted = false;
+        int segmentStart = 0;
+        for (int i = 0; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            if (!expression && (c == FormulaLexer.EXPRESSION_START)) {
+                segments.add(formula.substring(segmentStart, i));
+                segmentStart = i + 1;
+                expression = true;
+            } else if (expression && (c == FormulaLexer.STRING_VALUE)) {
+                quoted = !quoted;
+            } else if (expression && !quoted && (c == FormulaLexer.EXPRESSION_END)) {
+                segments.add(formula.substring(segmentStart, i));
+                segmentStart = i + 1;
+                expression = false;
+            }
+        }
+        segments.add(formula.substring(segmentStart));
+        return segments;
+    }
+
+    /**
+     * Returns the text of the formula from which the template was parsed.
+     *
+     * @return The text of the formula
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the text segments of the formula that surround its expressions. The list contains exactly one
+     * element more than the list of expressions.
+     *
+     * @return The {@link List} of text segments
+     */
+    public List<String> getTextSegments() {
+        return textSegments;
+    }
+
+    /**
+     * Returns the expressions of the formula, i.e. the contents of all pairs of square brackets.
+     *
+     * @return The {@link List} of {@link Expression}s
+     */
+    public List<Expression> getExpressions() {
+        return expressions;
+    }
+
+    /**
+     * Returns the names of the variables of the formula in the order of their first occurrence, which is also
+     * the order of their slots.
+     *
+     * @return The {@link List} of variable names
+     */
+    public List<String> getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * Returns the slot of a given variable within the compiled programs of the formula.
+     *
+     * @param name The name of the variable
+     * @return The slot of the variable or null, if the variable does not exist
+     */
+    public Integer getVariableSlot(String name) {
+        return variableSlots.get(name);
+    }
+
+    /**
+     * Returns the slots of the variables that are read by the expression with a given index.
+     *
+     * @param expression The index of the expression
+     * @return The slots of the variables, which must not be modified
+     */
+    int[] getExpressionSlots(int expression) {
+        return expressionSlots[expression];
+    }
+
+    /**
+     * Returns the indices of the expressions that read the variable with a given slot and therefore need to be
+     * re-evaluated when its value changes.
+     *
+     * @param slot The slot of the variable
+     * @return The indices of the dependent expressions, which must not be modified
+     */
+    int[] getDependentExpressions(int slot) {
+        return dependentExpressions[slot];
+    }
+
+    private void parse(FormulaTokens tokens) throws IllegalFormulaSyntaxException {
+        List<String> newTextSegments = new ArrayList<>();
+        List<Expression> newExpressions = new ArrayList<>();
+        Map<String, Variable> newVariables = new LinkedHashMap<>();
+
+        /*
+        Split the formula into text segments and expressions
+         */
+        String currentText = "";
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.getKind(i) == TokenKind.TEXT) {
+                currentText = source.substring(tokens.getStart(i), tokens.getEnd(i));
+                continue;
+            }
+
+            //Expression start, find the corresponding end
+            int expressionEnd = i + 1;
+            while (tokens.getKind(expressionEnd) != TokenKind.EXPRESSION_END) expressionEnd++;
+
+            newTextSegments.add(currentText);
+            newExpressions.add(parseExpression(tokens, i, expressionEnd, newVariables));
+            currentText = "";
+            i = expressionEnd;
+        }
+        newTextSegments.add(currentText);
+
+        /*
+        Assign slots to the variables and compile the expressions
+         */
+        Map<String, Integer> newVariableSlots = new HashMap<>();
+        for (String name : newVariables.keySet()) {
+            newVariableSlots.put(name, newVariableSlots.size());
+        }
+        for (Expression expression : newExpressions) {
+            expression.compile(newVariableSlots);
+        }
+
+        /*
+        Index the dependencies between variables and expressions
+         */
+        int[][] newExpressionSlots = new int[newExpressions.size()][];
+        List<List<Integer>> dependents = new ArrayList<>();
+        for (int i = 0; i < newVariableSlots.size(); i++) dependents.add(new ArrayList<>());
+        for (int i = 0; i < newExpressions.size(); i++) {
+            newExpressionSlots[i] = newExpressions.get(i).getVariableNames().stream().mapToInt(newVariableSlots::get).toArray();
+            for (int slot : newExpressionSlots[i]) dependents.get(slot).add(i);
+        }
+        int[][] newDependentExpressions = dependents.stream()
+                .map(d -> d.stream().mapToInt(Integer::intValue).toArray())
+                .toArray(int[][]::new);
+
+        //Apply the parsing results
+        this.expressionSlots = newExpressionSlots;
+        this.dependentExpressions = newDependentExpressions;
+        this.textSegments = Collections.unmodifiableList(newTextSegments);
+        this.expressions = Collections.unmodifiableList(newExpressions);
+        this.variableNames = Collections.unmodifiableList(new ArrayList<>(newVariables.keySet()));
+        this.variableSlots = Collections.unmodifiableMap(newVariableSlots);
+    }
+
+    private Expression parseExpression(FormulaTokens tokens, int expressionStart, int expressionEnd, Map<String, Variable> variables) throws IllegalFormulaSyntaxException {
+        //Sanity check
+        if (expressionEnd == expressionStart + 1) throw new IllegalFormulaSyntaxException("Expressions must not be empty.");
+
+        List<FormulaElement> reversePolishNotation = new ArrayList<>();
+        Set<String> expressionVariables = new LinkedHashSet<>();
+
+        /*
+        Parsing the expression by iterating over its tokens
+         */
+
+        Deque<Function> functionStack = new ArrayDeque<>();
+        for (int i = expressionStart + 1; i < expressionEnd; i++) {
+            int start = tokens.getStart(i);
+            int end = tokens.getEnd(i);
+
+            switch (tokens.getKind(i)) {
+                case ARGUMENT_SEPARATOR:
+                    while (!functionStack.isEmpty() && !isOpeningBracket(functionStack.peek())) {
+                        reversePolishNotation.add(functionStack.pop());
+                    }
+                    if (functionStack.isEmpty())
+                        throw new IllegalFormulaSyntaxException("Argument separators are only allowed within functions.");
+                    break;
+
+                case IDENTIFIER:
+                    //Check for function
+                    Function function = findNamedFunction(start, end);
+                    if ((function != null) && (i + 1 < expressionEnd) && (tokens.getKind(i + 1) == TokenKind.OPENING_BRACKET)) {
+                        functionStack.push(function);
+                        break;
+                    }
+
+                    //Variable
+                    Variable variable = findVariable(variables, start, end);
+                    if (variable == null) {
+                        variable = new Variable(source.substring(start, end));
+                        variables.put(variable.getName(), variable);
+                    }
+                    expressionVariables.add(variable.getName());
+                    reversePolishNotation.add(variable);
+                    break;
+
+                case NUMBER:
+                    reversePolishNotation.add(new Literal(FormulaLexer.parseNumber(source, start, end)));
+                    break;
+
+                case STRING:
+                    //Strip the quotation marks
+                    reversePolishNotation.add(new Literal(source.substring(start + 1, end - 1)));
+                    break;
+
+                case OPENING_BRACKET:
+                    functionStack.push(OPENING_BRACKET_FUNCTION);
+                    break;
+
+                case CLOSING_BRACKET:
+                    while (!functionStack.isEmpty() && !isOpeningBracket(functionStack.peek())) {
+                        reversePolishNotation.add(functionStack.pop());
+                    }
+                    if (functionStack.isEmpty()) {
+                        throw new IllegalFormulaSyntaxException("No opening brackets found!");
+                    }
+                    functionStack.pop();
+                    if (!functionStack.isEmpty() && isNamedFunction(functionStack.peek())) {
+                        reversePolishNotation.add(functionStack.pop());
+                    }
+                    break;
+
+                case OPERATOR:
+                    char character = source.charAt(start);
+                    Function operator = (character < OPERATORS.length) ? OPERATORS[character] : null;
+                    if (operator == null)
+                        throw new IllegalFormulaSyntaxException(String.format("Unknown token \"%s\".", character));
+
+                    while (!functionStack.isEmpty() && !isOpeningBracket(functionStack.peek()) &&
+                            (functionStack.peek().getPrecedence() > operator.getPrecedence() || (
+                                    functionStack.peek().getPrecedence() == operator.getPrecedence() && !operator.isRightAssociative()
+                            ))
+                    ) {
+                        reversePolishNotation.add(functionStack.pop());
+                    }
+                    functionStack.push(operator);
+                    break;
+
+                default:
+                    //Token wasn't a function, operator, variable or value
+                    throw new IllegalFormulaSyntaxException(String.format("Unexpected token \"%s\".", source.substring(start, end)));
+            }
+        }
+
+        while (!functionStack.isEmpty()) {
+            if (isOpeningBracket(functionStack.peek()))
+                throw new IllegalFormulaSyntaxException("No closing brackets found!");
+            reversePolishNotation.add(functionStack.pop());
+        }
+
+        String expressionSource = source.substring(tokens.getEnd(expressionStart), tokens.getStart(expressionEnd));
+        return new Expression(expressionSource, reversePolishNotation, expressionVariables);
+    }
+
+    private Function findNamedFunction(int start, int end) {
+        for (Function function : NAMED_FUNCTIONS) {
+            if (FormulaLexer.regionEqualsIgnoreCase(source, start, end, function.getName())) return function;
+        }
+        return null;
+    }
+
+    private Variable findVariable(Map<String, Variable> variables, int start, int end) {
+        for (Variable variable : variables.values()) {
+            if (FormulaLexer.regionEquals(source, start, end, variable.getName())) return variable;
+        }
+        return null;
+    }
+
+    private static boolean isNamedFunction(Function function) {
+        return Character.isLetter(function.getName().charAt(0));
+    }
+
+    private static boolean isOpeningBracket(Function function) {
+        return function == OPENING_BRACKET_FUNCTION;
+    }
+}
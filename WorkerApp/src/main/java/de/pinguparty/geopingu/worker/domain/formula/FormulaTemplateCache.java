@@ -0,0 +1,140 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of {@link FormulaTemplate}s, keyed by the whitespace-normalized text of the formulas.
+ * Each distinct formula is parsed only once, even if it is requested concurrently, and all {@link Formula}s with
+ * the same normalized text share the same template. Since only the compiled expressions are shared, each formula
+ * keeps its own text segments, so that the cache does not change the literal text of evaluated formulas. When the
+ * capacity is exceeded, templates are evicted in insertion order, but templates that were requested since their
+ * last check get a second chance.
+ */
+public class FormulaTemplateCache {
+    //Cache that is used by formulas by default
+    private static final FormulaTemplateCache DEFAULT_CACHE = new FormulaTemplateCache(1024);
+
+    private final int capacity;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<String> evictionQueue = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a new {@link FormulaTemplateCache} with a given capacity.
+     *
+     * @param capacity The maximum number of templates to keep
+     */
+    public FormulaTemplateCache(int capacity) {
+        //Sanity check
+        if (capacity < 1) throw new IllegalArgumentException("The capacity must be positive.");
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the {@link FormulaTemplateCache} that is used by {@link Formula}s by default.
+     *
+     * @return The default {@link FormulaTemplateCache}
+     */
+    public static FormulaTemplateCache getDefault() {
+        return DEFAULT_CACHE;
+    }
+
+    /**
+     * Returns the {@link FormulaTemplate} for a given formula, which is parsed from the normalized text of the
+     * formula if it is not already cached.
+     *
+     * @param formula The formula
+     * @return The {@link FormulaTemplate}
+     * @throws IllegalFormulaSyntaxException In case the formula is syntactically invalid
+     */
+    public FormulaTemplate get(String formula) throws IllegalFormulaSyntaxException {
+        //Sanity check
+        if (formula == null) throw new IllegalFormulaSyntaxException("The formula must not be null or empty.");
+
+        String key = FormulaTemplate.normalize(formula);
+
+        //Check for cached template
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.referenced = true;
+            hits.increment();
+            return entry.template;
+        }
+
+        //Parse the formula, at most once per key; invalid formulas are not cached
+        Entry[] created = new Entry[1];
+        entry = entries.computeIfAbsent(key, k -> created[0] = new Entry(FormulaTemplate.parse(k)));
+        if (entry != created[0]) {
+            hits.increment();
+            return entry.template;
+        }
+
+        misses.increment();
+        evictionQueue.add(key);
+        evict();
+        return entry.template;
+    }
+
+    /**
+     * Removes all templates from the cache.
+     */
+    public void clear() {
+        entries.clear();
+        evictionQueue.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Evicts templates until the capacity is no longer exceeded.
+     */
+    private void evict() {
+        while (entries.size() > capacity) {
+            String key = evictionQueue.poll();
+            if (key == null) return;
+
+            Entry entry = entries.get(key);
+            if (entry == null) continue;
+
+            //Give recently requested templates a second chance
+            if (entry.referenced) {
+                entry.referenced = false;
+                evictionQueue.add(key);
+            } else {
+                entries.remove(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Cached template together with a flag that indicates whether it was requested since its last check.
+     */
+    private static class Entry {
+        private final FormulaTemplate template;
+        private volatile boolean referenced = false;
+
+        private Entry(FormulaTemplate template) {
+            this.template = template;
+        }
+    }
+}
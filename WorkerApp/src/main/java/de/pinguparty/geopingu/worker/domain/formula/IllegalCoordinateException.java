@@ -0,0 +1,7 @@
+package de.pinguparty.geopingu.worker.domain.formula;
+
+public class IllegalCoordinateException extends RuntimeException {
+    public IllegalCoordinateException(String message) {
+        super(message);
+    }
+}
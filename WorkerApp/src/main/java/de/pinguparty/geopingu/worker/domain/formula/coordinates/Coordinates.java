@@ -0,0 +1,306 @@
+package de.pinguparty.geopingu.worker.domain.formula.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaLexer;
+
+/**
+ * Collection of allocation-free utility methods for parsing coordinates from texts such as
+ * "N48 43.249 E8 56.088" (degrees and decimal minutes), "N48 43 14.9 E8 56 5.3" (degrees, minutes and seconds)
+ * or "N48.72082 E8.93480" (decimal degrees). The hemisphere letters are required, so that partially
+ * resolved texts can be recognized reliably. Coordinates can also be formatted in each of these notations,
+ * such that the resulting texts can be parsed again.
+ */
+public final class Coordinates {
+    private static final int MINUTES_PER_DEGREE = 60;
+    private static final int SECONDS_PER_DEGREE = 3600;
+
+    //Resolution of the formatted notations
+    private static final int MINUTE_DECIMAL_PLACES = 3;
+    private static final int SECOND_DECIMAL_PLACES = 2;
+    private static final int DEGREE_DECIMAL_PLACES = 5;
+
+    private Coordinates() {
+
+    }
+
+    /**
+     * Parses the latitude in decimal degrees from a given text. The latitude is only considered complete if it is
+     * followed by the hemisphere letter of the longitude, otherwise {@link Double#NaN} is returned.
+     *
+     * @param text The text to parse
+     * @return The latitude or {@link Double#NaN}
+     */
+    public static double parseLatitude(CharSequence text) {
+        int start = findHemisphere(text, 0, 'N', 'S');
+        if (start < 0) return Double.NaN;
+
+        int end = scanComponent(text, start);
+        if ((end < 0) || (findHemisphere(text, end, 'E', 'W') != skipSeparators(text, end))) return Double.NaN;
+
+        return parseComponent(text, start, end);
+    }
+
+    /**
+     * Parses the longitude in decimal degrees from a given text. The longitude is only considered complete if
+     * the text ends after it, otherwise {@link Double#NaN} is returned.
+     *
+     * @param text The text to parse
+     * @return The longitude or {@link Double#NaN}
+     */
+    public static double parseLongitude(CharSequence text) {
+        int start = findLongitude(text);
+        if (start < 0) return Double.NaN;
+
+        int end = scanComponent(text, start);
+        if ((end < 0) || (skipSeparators(text, end) != text.length())) return Double.NaN;
+
+        return parseComponent(text, start, end);
+    }
+
+    /**
+     * Returns a lower or upper bound for the latitude of a prefix of a text, which ends within the decimal places
+     * of the latitude, such as "N48 43.2". The bound holds for all texts that continue the prefix with further
+     * decimal places. If the prefix does not end within the decimal places of the latitude,
+     * {@link Double#NaN} is returned.
+     *
+     * @param text  The prefix to parse
+     * @param upper True, if the upper bound is requested; false for the lower bound
+     * @return The bound of the latitude or {@link Double#NaN}
+     */
+    public static double boundLatitude(CharSequence text, boolean upper) {
+        return boundComponent(text, findHemisphere(text, 0, 'N', 'S'), upper);
+    }
+
+    /**
+     * Returns a lower or upper bound for the longitude of a prefix of a text, which ends within the decimal places
+     * of the longitude, such as "N48 43.249 E8 56.0". The bound holds for all texts that continue the prefix with
+     * further decimal places. If the prefix does not end within the decimal places of the longitude,
+     * {@link Double#NaN} is returned.
+     *
+     * @param text  The prefix to parse
+     * @param upper True, if the upper bound is requested; false for the lower bound
+     * @return The bound of the longitude or {@link Double#NaN}
+     */
+    public static double boundLongitude(CharSequence text, boolean upper) {
+        return boundComponent(text, findLongitude(text), upper);
+    }
+
+    /**
+     * Appends a coordinate in degrees and decimal minutes, such as "N48 43.249 E008 56.088", to a given
+     * {@link StringBuilder}.
+     *
+     * @param builder   The {@link StringBuilder} to append to
+     * @param latitude  The latitude in decimal degrees
+     * @param longitude The longitude in decimal degrees
+     */
+    public static void appendDecimalMinutes(StringBuilder builder, double latitude, double longitude) {
+        appendDecimalMinutes(builder, latitude, 'N', 'S', 2);
+        builder.append(' ');
+        appendDecimalMinutes(builder, longitude, 'E', 'W', 3);
+    }
+
+    /**
+     * Appends a coordinate in degrees, minutes and seconds, such as "N48&deg; 43' 14.94" E008&deg; 56' 05.28"", to a given
+     * {@link StringBuilder}.
+     *
+     * @param builder   The {@link StringBuilder} to append to
+     * @param latitude  The latitude in decimal degrees
+     * @param longitude The longitude in decimal degrees
+     */
+    public static void appendDegreesMinutesSeconds(StringBuilder builder, double latitude, double longitude) {
+        appendDegreesMinutesSeconds(builder, latitude, 'N', 'S', 2);
+        builder.append(' ');
+        appendDegreesMinutesSeconds(builder, longitude, 'E', 'W', 3);
+    }
+
+    /**
+     * Appends a coordinate in decimal degrees, such as "N48.72082 E8.93480", to a given {@link StringBuilder}.
+     *
+     * @param builder   The {@link StringBuilder} to append to
+     * @param latitude  The latitude in decimal degrees
+     * @param longitude The longitude in decimal degrees
+     */
+    public static void appendDecimalDegrees(StringBuilder builder, double latitude, double longitude) {
+        appendDecimalDegrees(builder, latitude, 'N', 'S');
+        builder.append(' ');
+        appendDecimalDegrees(builder, longitude, 'E', 'W');
+    }
+
+    private static void appendDecimalMinutes(StringBuilder builder, double value, char positive, char negative, int degreeDigits) {
+        //Round once to whole units of the last decimal place, so that carries propagate into minutes and degrees
+        long scale = pow10(MINUTE_DECIMAL_PLACES);
+        long units = Math.round(Math.abs(value) * MINUTES_PER_DEGREE * scale);
+
+        builder.append(((value < 0) && (units > 0)) ? negative : positive);
+        appendPadded(builder, units / (MINUTES_PER_DEGREE * scale), degreeDigits);
+        builder.append(' ');
+        appendPadded(builder, units % (MINUTES_PER_DEGREE * scale) / scale, 2);
+        builder.append('.');
+        appendPadded(builder, units % scale, MINUTE_DECIMAL_PLACES);
+    }
+
+    private static void appendDegreesMinutesSeconds(StringBuilder builder, double value, char positive, char negative, int degreeDigits) {
+        long scale = pow10(SECOND_DECIMAL_PLACES);
+        long units = Math.round(Math.abs(value) * SECONDS_PER_DEGREE * scale);
+
+        builder.append(((value < 0) && (units > 0)) ? negative : positive);
+        appendPadded(builder, units / (SECONDS_PER_DEGREE * scale), degreeDigits);
+        builder.append("\u00B0 ");
+        appendPadded(builder, units % (SECONDS_PER_DEGREE * scale) / (MINUTES_PER_DEGREE * scale), 2);
+        builder.append("' ");
+        appendPadded(builder, units % (MINUTES_PER_DEGREE * scale) / scale, 2);
+        builder.append('.');
+        appendPadded(builder, units % scale, SECOND_DECIMAL_PLACES);
+        builder.append('"');
+    }
+
+    private static void appendDecimalDegrees(StringBuilder builder, double value, char positive, char negative) {
+        long scale = pow10(DEGREE_DECIMAL_PLACES);
+        long units = Math.round(Math.abs(value) * scale);
+
+        builder.append(((value < 0) && (units > 0)) ? negative : positive);
+        builder.append(units / scale).append('.');
+        appendPadded(builder, units % scale, DEGREE_DECIMAL_PLACES);
+    }
+
+    /**
+     * Appends a non-negative number with leading zeros up to a given number of digits.
+     */
+    private static void appendPadded(StringBuilder builder, long number, int digits) {
+        for (long limit = pow10(digits - 1); (limit > 1) && (number < limit); limit /= 10) builder.append('0');
+        builder.append(number);
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) result *= 10;
+        return result;
+    }
+
+    /**
+     * Returns the position of the hemisphere letter of the longitude, which must directly follow the latitude,
+     * or -1 if no such letter exists.
+     */
+    private static int findLongitude(CharSequence text) {
+        int latitudeStart = findHemisphere(text, 0, 'N', 'S');
+        if (latitudeStart < 0) return -1;
+
+        int latitudeEnd = scanComponent(text, latitudeStart);
+        if (latitudeEnd < 0) return -1;
+
+        int start = findHemisphere(text, latitudeEnd, 'E', 'W');
+        return (start == skipSeparators(text, latitudeEnd)) ? start : -1;
+    }
+
+    /**
+     * Returns a bound for the component that starts at a given position and whose last number is cut off within
+     * its decimal places at the end of the text.
+     */
+    private static double boundComponent(CharSequence text, int start, boolean upper) {
+        if (start < 0) return Double.NaN;
+
+        int end = scanComponent(text, start);
+        if (end != text.length()) return Double.NaN;
+
+        //Find the start of the last number and count its decimal places
+        int numberStart = end;
+        while (isDigit(text.charAt(numberStart - 1)) || (text.charAt(numberStart - 1) == '.')) numberStart--;
+        int decimalPlaces = -1;
+        for (int i = numberStart; i < end; i++) {
+            if (text.charAt(i) == '.') decimalPlaces = 0;
+            else if (decimalPlaces >= 0) decimalPlaces++;
+        }
+        if (decimalPlaces < 0) return Double.NaN;
+
+        //Determine the unit of the last number from the count of preceding numbers
+        int divisor = 1;
+        for (int position = skipSeparators(text, start + 1); position < numberStart; position = skipSeparators(text, skipNumber(text, position))) {
+            divisor = (divisor == 1) ? MINUTES_PER_DEGREE : SECONDS_PER_DEGREE;
+        }
+
+        //Further decimal places can add less than one unit of the last decimal place
+        double value = parseComponent(text, start, end);
+        double width = Math.pow(10, -decimalPlaces) / divisor;
+        if (value < 0) return upper ? value : value - width;
+        return upper ? value + width : value;
+    }
+
+    /**
+     * Returns the position of the first hemisphere letter at or after a given position that is followed by
+     * a number, or -1 if no such letter exists.
+     */
+    private static int findHemisphere(CharSequence text, int position, char positive, char negative) {
+        for (int i = position; i < text.length(); i++) {
+            char c = Character.toUpperCase(text.charAt(i));
+            if ((c != positive) && (c != negative)) continue;
+
+            int next = skipSeparators(text, i + 1);
+            if ((next < text.length()) && isDigit(text.charAt(next))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Scans the coordinate component (hemisphere letter and up to three numbers) that starts at a given position
+     * and returns the position after its last number, or -1 if the component is malformed.
+     */
+    private static int scanComponent(CharSequence text, int start) {
+        int position = start + 1;
+        int end = -1;
+
+        for (int numbers = 0; numbers < 3; numbers++) {
+            position = skipSeparators(text, position);
+            if ((position >= text.length()) || !isDigit(text.charAt(position))) break;
+
+            position = skipNumber(text, position);
+            if (position < 0) return -1;
+            end = position;
+        }
+
+        return end;
+    }
+
+    /**
+     * Converts the previously scanned component between given positions to decimal degrees.
+     */
+    private static double parseComponent(CharSequence text, int start, int end) {
+        double sign = ((Character.toUpperCase(text.charAt(start)) == 'S') || (Character.toUpperCase(text.charAt(start)) == 'W')) ? -1 : 1;
+        double value = 0;
+        int divisor = 1;
+
+        int position = start + 1;
+        while (position < end) {
+            position = skipSeparators(text, position);
+            int numberEnd = skipNumber(text, position);
+            value += FormulaLexer.parseNumber(text, position, numberEnd) / divisor;
+            divisor = (divisor == 1) ? MINUTES_PER_DEGREE : SECONDS_PER_DEGREE;
+            position = numberEnd;
+        }
+
+        return sign * value;
+    }
+
+    private static int skipNumber(CharSequence text, int position) {
+        while ((position < text.length()) && isDigit(text.charAt(position))) position++;
+        if ((position < text.length()) && (text.charAt(position) == '.')) {
+            position++;
+            while ((position < text.length()) && isDigit(text.charAt(position))) position++;
+        }
+
+        //A second decimal separator makes the number invalid
+        if ((position < text.length()) && (text.charAt(position) == '.')) return -1;
+        return position;
+    }
+
+    private static int skipSeparators(CharSequence text, int position) {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (!Character.isWhitespace(c) && (c != '\u00B0') && (c != '\'') && (c != '"') && (c != ',')) break;
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+}
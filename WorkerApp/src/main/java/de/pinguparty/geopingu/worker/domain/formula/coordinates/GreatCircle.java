@@ -0,0 +1,117 @@
+package de.pinguparty.geopingu.worker.domain.formula.coordinates;
+
+/**
+ * Collection of allocation-free utility methods for computations on great circles of a spherical earth model.
+ * All coordinates and bearings are given in decimal degrees and all distances in meters. Methods that compute
+ * a coordinate are split into one method for the latitude and one for the longitude, so that no result objects
+ * need to be created.
+ */
+public final class GreatCircle {
+    /**
+     * Mean radius of the earth in meters.
+     */
+    public static final double EARTH_RADIUS = 6371000.0;
+
+    private GreatCircle() {
+
+    }
+
+    /**
+     * Calculates the distance between two coordinates, using the haversine formula.
+     *
+     * @param latitude1  The latitude of the first coordinate
+     * @param longitude1 The longitude of the first coordinate
+     * @param latitude2  The latitude of the second coordinate
+     * @param longitude2 The longitude of the second coordinate
+     * @return The distance in meters
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        double sinHalfDeltaLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+
+        double a = sinHalfDeltaPhi * sinHalfDeltaPhi + Math.cos(phi1) * Math.cos(phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+        return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Calculates the latitude of the coordinate that is reached from a given coordinate by following
+     * a given bearing for a given distance.
+     *
+     * @param latitude  The latitude of the start coordinate
+     * @param longitude The longitude of the start coordinate
+     * @param bearing   The initial bearing in degrees, clockwise from north
+     * @param distance  The distance in meters
+     * @return The latitude of the projected coordinate
+     */
+    public static double projectLatitude(double latitude, double longitude, double bearing, double distance) {
+        double phi = Math.toRadians(latitude);
+        double delta = distance / EARTH_RADIUS;
+        double theta = Math.toRadians(bearing);
+
+        return Math.toDegrees(Math.asin(Math.sin(phi) * Math.cos(delta) + Math.cos(phi) * Math.sin(delta) * Math.cos(theta)));
+    }
+
+    /**
+     * Calculates the longitude of the coordinate that is reached from a given coordinate by following
+     * a given bearing for a given distance.
+     *
+     * @param latitude  The latitude of the start coordinate
+     * @param longitude The longitude of the start coordinate
+     * @param bearing   The initial bearing in degrees, clockwise from north
+     * @param distance  The distance in meters
+     * @return The longitude of the projected coordinate, normalized to [-180, 180)
+     */
+    public static double projectLongitude(double latitude, double longitude, double bearing, double distance) {
+        double phi = Math.toRadians(latitude);
+        double delta = distance / EARTH_RADIUS;
+        double theta = Math.toRadians(bearing);
+        double sinProjectedPhi = Math.sin(phi) * Math.cos(delta) + Math.cos(phi) * Math.sin(delta) * Math.cos(theta);
+
+        double deltaLambda = Math.atan2(Math.sin(theta) * Math.sin(delta) * Math.cos(phi), Math.cos(delta) - Math.sin(phi) * sinProjectedPhi);
+        return normalizeLongitude(longitude + Math.toDegrees(deltaLambda));
+    }
+
+    /**
+     * Calculates the latitude of the midpoint on the great circle between two coordinates.
+     *
+     * @param latitude1  The latitude of the first coordinate
+     * @param longitude1 The longitude of the first coordinate
+     * @param latitude2  The latitude of the second coordinate
+     * @param longitude2 The longitude of the second coordinate
+     * @return The latitude of the midpoint
+     */
+    public static double midpointLatitude(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double deltaLambda = Math.toRadians(longitude2 - longitude1);
+        double bx = Math.cos(phi2) * Math.cos(deltaLambda);
+        double by = Math.cos(phi2) * Math.sin(deltaLambda);
+
+        return Math.toDegrees(Math.atan2(Math.sin(phi1) + Math.sin(phi2), Math.sqrt((Math.cos(phi1) + bx) * (Math.cos(phi1) + bx) + by * by)));
+    }
+
+    /**
+     * Calculates the longitude of the midpoint on the great circle between two coordinates.
+     *
+     * @param latitude1  The latitude of the first coordinate
+     * @param longitude1 The longitude of the first coordinate
+     * @param latitude2  The latitude of the second coordinate
+     * @param longitude2 The longitude of the second coordinate
+     * @return The longitude of the midpoint, normalized to [-180, 180)
+     */
+    public static double midpointLongitude(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double deltaLambda = Math.toRadians(longitude2 - longitude1);
+        double bx = Math.cos(phi2) * Math.cos(deltaLambda);
+        double by = Math.cos(phi2) * Math.sin(deltaLambda);
+
+        return normalizeLongitude(longitude1 + Math.toDegrees(Math.atan2(by, Math.cos(phi1) + bx)));
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        return ((longitude + 540) % 360) - 180;
+    }
+}
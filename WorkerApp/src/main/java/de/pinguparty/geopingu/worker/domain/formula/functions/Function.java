@@ -2,7 +2,10 @@ package de.pinguparty.geopingu.worker.domain.formula.functions;
 
 import de.pinguparty.geopingu.worker.domain.formula.FormulaElement;
 import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.Opcodes;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
 
+import java.util.Arrays;
 import java.util.List;
 
 public abstract class Function implements FormulaElement {
@@ -15,6 +18,33 @@ public abstract class Function implements FormulaElement {
 
     public abstract Literal evaluate(List<Literal> arguments);
 
+    /**
+     * Evaluates the function on a given {@link OperandStack} by popping its arguments and pushing the result.
+     * Subclasses should override this method with an implementation that works on primitive operands; the default
+     * implementation falls back to {@link #evaluate(List)}.
+     *
+     * @param stack The {@link OperandStack} to work on
+     */
+    public void evaluate(OperandStack stack) {
+        //Pop the arguments in reverse order
+        Literal[] arguments = new Literal[getNumberOfArguments()];
+        for (int i = arguments.length - 1; i >= 0; i--) {
+            arguments[i] = stack.popLiteral();
+        }
+
+        stack.pushLiteral(evaluate(Arrays.asList(arguments)));
+    }
+
+    /**
+     * Returns the opcode with which the function is compiled into a program. Functions that do not have
+     * a dedicated opcode are invoked via {@link Opcodes#CALL}.
+     *
+     * @return The opcode
+     */
+    public int getOpcode() {
+        return Opcodes.CALL;
+    }
+
     public int getPrecedence() {
         return MAX_PRECEDENCE;
     }
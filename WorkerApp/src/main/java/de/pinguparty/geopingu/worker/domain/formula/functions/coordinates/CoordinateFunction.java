@@ -0,0 +1,74 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.IllegalCoordinateException;
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.Coordinates;
+import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+
+import java.util.List;
+
+/**
+ * Base class for functions that work on coordinates. Coordinates are passed as text operands in any notation
+ * that is understood by {@link Coordinates}, such as "N48 43.249 E8 56.088", and are parsed without creating any
+ * objects. Subclasses implement {@link #evaluate(OperandStack)} on primitive operands, while {@link #evaluate(List)}
+ * is derived from it.
+ */
+public abstract class CoordinateFunction extends Function {
+
+    @Override
+    public Literal evaluate(List<Literal> arguments) {
+        //Sanity check
+        if (arguments.size() != getNumberOfArguments())
+            throw new IllegalArgumentException(String.format("This function can only handle exactly %d arguments.", getNumberOfArguments()));
+
+        OperandStack stack = new OperandStack(arguments.size());
+        for (Literal argument : arguments) stack.pushLiteral(argument);
+        evaluate(stack);
+        return stack.popLiteral();
+    }
+
+    @Override
+    public abstract void evaluate(OperandStack stack);
+
+    /**
+     * Parses the latitude of a given coordinate text.
+     *
+     * @param coordinate The coordinate text
+     * @return The latitude in decimal degrees
+     * @throws IllegalCoordinateException In case the text is not a complete coordinate
+     */
+    protected static double parseLatitude(String coordinate) {
+        double latitude = Coordinates.parseLatitude(coordinate);
+        if (Double.isNaN(latitude) || (Math.abs(latitude) > 90))
+            throw new IllegalCoordinateException(String.format("The value \"%s\" is not a valid coordinate.", coordinate));
+        return latitude;
+    }
+
+    /**
+     * Parses the longitude of a given coordinate text.
+     *
+     * @param coordinate The coordinate text
+     * @return The longitude in decimal degrees
+     * @throws IllegalCoordinateException In case the text is not a complete coordinate
+     */
+    protected static double parseLongitude(String coordinate) {
+        double longitude = Coordinates.parseLongitude(coordinate);
+        if (Double.isNaN(longitude) || (Math.abs(longitude) > 180))
+            throw new IllegalCoordinateException(String.format("The value \"%s\" is not a valid coordinate.", coordinate));
+        return longitude;
+    }
+
+    /**
+     * Formats a coordinate in degrees and decimal minutes, which is the usual notation of geocaches.
+     *
+     * @param latitude  The latitude in decimal degrees
+     * @param longitude The longitude in decimal degrees
+     * @return The formatted coordinate
+     */
+    protected static String formatCoordinate(double latitude, double longitude) {
+        StringBuilder builder = new StringBuilder(24);
+        Coordinates.appendDecimalMinutes(builder, latitude, longitude);
+        return builder.toString();
+    }
+}
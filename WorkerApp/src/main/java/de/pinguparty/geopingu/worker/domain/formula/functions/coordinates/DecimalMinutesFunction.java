@@ -0,0 +1,28 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.Coordinates;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+
+/**
+ * Converts a coordinate in any notation to degrees and decimal minutes, e.g. dmm("N48.72082 E8.93480").
+ */
+public class DecimalMinutesFunction extends CoordinateFunction {
+    @Override
+    public String getName() {
+        return "dmm";
+    }
+
+    @Override
+    public int getNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public void evaluate(OperandStack stack) {
+        String coordinate = stack.popText();
+
+        StringBuilder builder = new StringBuilder(32);
+        Coordinates.appendDecimalMinutes(builder, parseLatitude(coordinate), parseLongitude(coordinate));
+        stack.pushText(builder.toString());
+    }
+}
@@ -0,0 +1,28 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.Coordinates;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+
+/**
+ * Converts a coordinate in any notation to degrees, minutes and seconds, e.g. dms("N48 43.249 E8 56.088").
+ */
+public class DegreesMinutesSecondsFunction extends CoordinateFunction {
+    @Override
+    public String getName() {
+        return "dms";
+    }
+
+    @Override
+    public int getNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public void evaluate(OperandStack stack) {
+        String coordinate = stack.popText();
+
+        StringBuilder builder = new StringBuilder(32);
+        Coordinates.appendDegreesMinutesSeconds(builder, parseLatitude(coordinate), parseLongitude(coordinate));
+        stack.pushText(builder.toString());
+    }
+}
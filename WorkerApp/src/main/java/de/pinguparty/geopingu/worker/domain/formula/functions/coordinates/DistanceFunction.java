@@ -0,0 +1,27 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.GreatCircle;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+
+/**
+ * Calculates the distance between two coordinates in meters, e.g. distance("N48 43.249 E8 56.088", "N48 43.3 E8 56").
+ */
+public class DistanceFunction extends CoordinateFunction {
+    @Override
+    public String getName() {
+        return "distance";
+    }
+
+    @Override
+    public int getNumberOfArguments() {
+        return 2;
+    }
+
+    @Override
+    public void evaluate(OperandStack stack) {
+        String second = stack.popText();
+        String first = stack.popText();
+
+        stack.pushNumber(GreatCircle.distance(parseLatitude(first), parseLongitude(first), parseLatitude(second), parseLongitude(second)));
+    }
+}
@@ -0,0 +1,33 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.GreatCircle;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+
+/**
+ * Calculates the midpoint on the great circle between two coordinates,
+ * e.g. midpoint("N48 43.249 E8 56.088", "N48 43.3 E8 56").
+ */
+public class MidpointFunction extends CoordinateFunction {
+    @Override
+    public String getName() {
+        return "midpoint";
+    }
+
+    @Override
+    public int getNumberOfArguments() {
+        return 2;
+    }
+
+    @Override
+    public void evaluate(OperandStack stack) {
+        String second = stack.popText();
+        String first = stack.popText();
+
+        double latitude1 = parseLatitude(first);
+        double longitude1 = parseLongitude(first);
+        double latitude2 = parseLatitude(second);
+        double longitude2 = parseLongitude(second);
+        stack.pushText(formatCoordinate(GreatCircle.midpointLatitude(latitude1, longitude1, latitude2, longitude2),
+                GreatCircle.midpointLongitude(latitude1, longitude1, latitude2, longitude2)));
+    }
+}
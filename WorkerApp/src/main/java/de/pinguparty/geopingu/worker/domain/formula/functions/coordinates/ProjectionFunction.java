@@ -0,0 +1,32 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions.coordinates;
+
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.GreatCircle;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+
+/**
+ * Projects a waypoint from a coordinate, a bearing in degrees and a distance in meters,
+ * e.g. project("N48 43.249 E8 56.088", 45, 150).
+ */
+public class ProjectionFunction extends CoordinateFunction {
+    @Override
+    public String getName() {
+        return "project";
+    }
+
+    @Override
+    public int getNumberOfArguments() {
+        return 3;
+    }
+
+    @Override
+    public void evaluate(OperandStack stack) {
+        double distance = stack.popNumber();
+        double bearing = stack.popNumber();
+        String coordinate = stack.popText();
+
+        double latitude = parseLatitude(coordinate);
+        double longitude = parseLongitude(coordinate);
+        stack.pushText(formatCoordinate(GreatCircle.projectLatitude(latitude, longitude, bearing, distance),
+                GreatCircle.projectLongitude(latitude, longitude, bearing, distance)));
+    }
+}
@@ -0,0 +1,37 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions.operators;
+
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import de.pinguparty.geopingu.worker.domain.formula.utils.Utils;
+
+import java.util.List;
+
+public class ConcatenationOperator extends BinaryOperator {
+    @Override
+    public String getName() {
+        return "#";
+    }
+
+    @Override
+    public Literal evaluate(List<Literal> arguments) {
+        //Sanity check
+        if (arguments.size() != 2)
+            throw new IllegalArgumentException("This operator can only handle exactly two arguments.");
+
+        return new Literal(toText(arguments.get(0)) + toText(arguments.get(1)));
+    }
+
+    @Override
+    public void evaluate(OperandStack stack) {
+        String right = stack.popText();
+        stack.pushText(stack.popText() + right);
+    }
+
+    public int getPrecedence() {
+        return -1;
+    }
+
+    private String toText(Literal literal) {
+        return literal.isNumber() ? Utils.formatNumber(literal.getNumber()) : literal.getString();
+    }
+}
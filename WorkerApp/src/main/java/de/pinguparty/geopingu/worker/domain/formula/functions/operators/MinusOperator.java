@@ -1,6 +1,7 @@
 package de.pinguparty.geopingu.worker.domain.formula.functions.operators;
 
 import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.Opcodes;
 
 import java.util.List;
 
@@ -19,6 +20,11 @@ public class MinusOperator extends BinaryOperator {
         return new Literal(arguments.get(0).getNumber() - arguments.get(1).getNumber());
     }
 
+    @Override
+    public int getOpcode() {
+        return Opcodes.SUBTRACT;
+    }
+
     public int getPrecedence() {
         return 0;
     }
@@ -1,6 +1,7 @@
 package de.pinguparty.geopingu.worker.domain.formula.functions.operators;
 
 import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.Opcodes;
 import java.util.List;
 
 public class MultiplicationOperator extends BinaryOperator {
@@ -18,6 +19,11 @@ public class MultiplicationOperator extends BinaryOperator {
         return new Literal(arguments.get(0).getNumber() * arguments.get(1).getNumber());
     }
 
+    @Override
+    public int getOpcode() {
+        return Opcodes.MULTIPLY;
+    }
+
     public int getPrecedence() {
         return 1;
     }
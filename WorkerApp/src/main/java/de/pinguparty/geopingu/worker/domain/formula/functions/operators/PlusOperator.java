@@ -1,6 +1,7 @@
 package de.pinguparty.geopingu.worker.domain.formula.functions.operators;
 
 import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.Opcodes;
 import java.util.List;
 
 public class PlusOperator extends BinaryOperator{
@@ -14,6 +15,11 @@ public class PlusOperator extends BinaryOperator{
         return new Literal(arguments.stream().mapToDouble(Literal::getNumber).sum());
     }
 
+    @Override
+    public int getOpcode() {
+        return Opcodes.ADD;
+    }
+
     public int getPrecedence() {
         return 0;
     }
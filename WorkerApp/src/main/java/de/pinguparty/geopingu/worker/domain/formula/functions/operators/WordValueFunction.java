@@ -2,6 +2,7 @@ package de.pinguparty.geopingu.worker.domain.formula.functions.operators;
 
 import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
 import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
 
 import java.util.List;
 
@@ -30,4 +31,19 @@ public class WordValueFunction extends Function {
 
         return new Literal(sum);
     }
+
+    @Override
+    public void evaluate(OperandStack stack) {
+        String text = stack.popText();
+
+        //Sum up the values of the characters without creating intermediate strings
+        int sum = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ' ') continue;
+            sum += Character.toLowerCase(c) - 96;
+        }
+
+        stack.pushNumber(sum);
+    }
 }
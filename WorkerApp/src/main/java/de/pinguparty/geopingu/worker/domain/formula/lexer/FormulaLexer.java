@@ -0,0 +1,223 @@
+package de.pinguparty.geopingu.worker.domain.formula.lexer;
+
+import de.pinguparty.geopingu.worker.domain.formula.IllegalFormulaSyntaxException;
+
+/**
+ * Hand-written lexer that splits a formula into typed tokens within a single pass. Plain text outside of square
+ * brackets results in {@link TokenKind#TEXT} tokens, the content of square brackets is split into the tokens of
+ * an expression. All tokens are described by offsets into the original formula, so that no regex matching and no
+ * substring copies are required.
+ */
+public final class FormulaLexer {
+    public static final char EXPRESSION_START = '[';
+    public static final char EXPRESSION_END = ']';
+    public static final char OPENING_BRACKET = '(';
+    public static final char CLOSING_BRACKET = ')';
+    public static final char ARGUMENT_SEPARATOR = ',';
+    public static final char DECIMAL_SEPARATOR = '.';
+    public static final char STRING_VALUE = '"';
+
+    //Powers of ten that can be represented exactly as double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    //Maximum number of digits whose value is guaranteed to be exactly representable as double, i.e. below 2^53
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private FormulaLexer() {
+
+    }
+
+    /**
+     * Tokenizes a given formula and writes the resulting tokens to a given {@link FormulaTokens} buffer, which is
+     * cleared beforehand.
+     *
+     * @param formula The formula to tokenize
+     * @param tokens  The buffer to write the tokens to
+     * @throws IllegalFormulaSyntaxException In case the formula is syntactically invalid
+     */
+    public static void tokenize(CharSequence formula, FormulaTokens tokens) throws IllegalFormulaSyntaxException {
+        //Sanity checks
+        if (formula == null) throw new IllegalArgumentException("The formula must not be null.");
+        if (tokens == null) throw new IllegalArgumentException("The tokens buffer must not be null.");
+
+        tokens.clear();
+        int length = formula.length();
+        int position = 0;
+
+        while (position < length) {
+            //Consume plain text until the start of the next expression
+            int textStart = position;
+            while ((position < length) && (formula.charAt(position) != EXPRESSION_START)) {
+                if (formula.charAt(position) == EXPRESSION_END)
+                    throw new IllegalFormulaSyntaxException("No opening square bracket found!");
+                position++;
+            }
+            if (position > textStart) tokens.add(TokenKind.TEXT, textStart, position);
+            if (position == length) break;
+
+            //Consume the expression
+            tokens.add(TokenKind.EXPRESSION_START, position, position + 1);
+            position = tokenizeExpression(formula, position + 1, tokens);
+        }
+    }
+
+    /**
+     * Tokenizes the expression that starts at a given position and returns the position after its closing
+     * square bracket.
+     */
+    private static int tokenizeExpression(CharSequence formula, int position, FormulaTokens tokens) throws IllegalFormulaSyntaxException {
+        int length = formula.length();
+
+        while (position < length) {
+            char c = formula.charAt(position);
+            int start = position;
+
+            //Check for the end of the expression
+            if (c == EXPRESSION_END) {
+                tokens.add(TokenKind.EXPRESSION_END, position, position + 1);
+                return position + 1;
+            }
+
+            //Whitespace only separates tokens
+            if (Character.isWhitespace(c)) {
+                position++;
+                continue;
+            }
+
+            if (isDigit(c)) {
+                //Number with optional decimal places
+                position = skipDigits(formula, position);
+                if ((position < length) && (formula.charAt(position) == DECIMAL_SEPARATOR)) {
+                    position = skipDigits(formula, position + 1);
+                }
+                if ((position < length) && (formula.charAt(position) == DECIMAL_SEPARATOR))
+                    throw new IllegalFormulaSyntaxException(String.format("Numbers must not contain more than one '%s' character.", DECIMAL_SEPARATOR));
+                if ((position < length) && Character.isLetter(formula.charAt(position)))
+                    throw new IllegalFormulaSyntaxException("Numbers must not contain letters.");
+                tokens.add(TokenKind.NUMBER, start, position);
+            } else if (Character.isLetter(c)) {
+                //Identifier of a variable or function
+                do {
+                    position++;
+                } while ((position < length) && Character.isLetterOrDigit(formula.charAt(position)));
+                tokens.add(TokenKind.IDENTIFIER, start, position);
+            } else if (c == STRING_VALUE) {
+                //String value, including the quotation marks
+                do {
+                    position++;
+                } while ((position < length) && (formula.charAt(position) != STRING_VALUE));
+                if (position == length)
+                    throw new IllegalFormulaSyntaxException("No closing quotation marks found!");
+                tokens.add(TokenKind.STRING, start, ++position);
+            } else if (c == DECIMAL_SEPARATOR) {
+                throw new IllegalFormulaSyntaxException(String.format("The '%s' character is only allowed within numbers.", DECIMAL_SEPARATOR));
+            } else if (c == EXPRESSION_START) {
+                throw new IllegalFormulaSyntaxException("Expressions must not be nested.");
+            } else {
+                //Single-character tokens
+                tokens.add(singleCharacterKind(c), start, ++position);
+            }
+        }
+
+        throw new IllegalFormulaSyntaxException("No closing square bracket found!");
+    }
+
+    /**
+     * Parses the number that is located between given offsets of a formula without creating a substring.
+     *
+     * @param formula The formula
+     * @param start   The start offset (inclusive)
+     * @param end     The end offset (exclusive)
+     * @return The parsed number
+     */
+    public static double parseNumber(CharSequence formula, int start, int end) {
+        long digits = 0;
+        int digitCount = 0;
+        int decimalPlaces = -1;
+
+        for (int i = start; i < end; i++) {
+            char c = formula.charAt(i);
+            if (c == DECIMAL_SEPARATOR) {
+                decimalPlaces = 0;
+                continue;
+            }
+            //Leading zeros do not count towards the precision
+            if ((digitCount == 0) && (c == '0')) {
+                if (decimalPlaces >= 0) decimalPlaces++;
+                continue;
+            }
+            digits = digits * 10 + (c - '0');
+            digitCount++;
+            if (decimalPlaces >= 0) decimalPlaces++;
+        }
+
+        //Fall back to the JDK for numbers whose digits or power of ten are not exactly representable as double
+        if ((digitCount > MAX_EXACT_DIGITS) || (decimalPlaces >= POWERS_OF_TEN.length)) {
+            return Double.parseDouble(formula.subSequence(start, end).toString());
+        }
+
+        //Both the digits and the power of ten are exactly representable, so the single division is correctly rounded
+        return (decimalPlaces <= 0) ? digits : digits / POWERS_OF_TEN[decimalPlaces];
+    }
+
+    /**
+     * Returns whether the region between given offsets of a formula equals a given {@link String}, ignoring case.
+     *
+     * @param formula The formula
+     * @param start   The start offset (inclusive)
+     * @param end     The end offset (exclusive)
+     * @param other   The {@link String} to compare with
+     * @return True, if the region equals the {@link String}; false otherwise
+     */
+    public static boolean regionEqualsIgnoreCase(CharSequence formula, int start, int end, String other) {
+        if ((end - start) != other.length()) return false;
+        for (int i = 0; i < other.length(); i++) {
+            char a = formula.charAt(start + i);
+            char b = other.charAt(i);
+            if ((a != b) && (Character.toLowerCase(a) != Character.toLowerCase(b))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the region between given offsets of a formula equals a given {@link String}.
+     *
+     * @param formula The formula
+     * @param start   The start offset (inclusive)
+     * @param end     The end offset (exclusive)
+     * @param other   The {@link String} to compare with
+     * @return True, if the region equals the {@link String}; false otherwise
+     */
+    public static boolean regionEquals(CharSequence formula, int start, int end, String other) {
+        if ((end - start) != other.length()) return false;
+        for (int i = 0; i < other.length(); i++) {
+            if (formula.charAt(start + i) != other.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static TokenKind singleCharacterKind(char c) {
+        switch (c) {
+            case OPENING_BRACKET:
+                return TokenKind.OPENING_BRACKET;
+            case CLOSING_BRACKET:
+                return TokenKind.CLOSING_BRACKET;
+            case ARGUMENT_SEPARATOR:
+                return TokenKind.ARGUMENT_SEPARATOR;
+            default:
+                return TokenKind.OPERATOR;
+        }
+    }
+
+    private static int skipDigits(CharSequence formula, int position) {
+        while ((position < formula.length()) && isDigit(formula.charAt(position))) position++;
+        return position;
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+}
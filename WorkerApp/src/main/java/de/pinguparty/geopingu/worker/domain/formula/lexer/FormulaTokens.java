@@ -0,0 +1,63 @@
+package de.pinguparty.geopingu.worker.domain.formula.lexer;
+
+/**
+ * Reusable buffer for the tokens that are produced by the {@link FormulaLexer}. Each token is described by its
+ * {@link TokenKind} and its start (inclusive) and end (exclusive) offsets within the tokenized formula, so that
+ * no substrings need to be created.
+ */
+public class FormulaTokens {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private TokenKind[] kinds = new TokenKind[DEFAULT_CAPACITY];
+    private int[] starts = new int[DEFAULT_CAPACITY];
+    private int[] ends = new int[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenKind getKind(int index) {
+        checkIndex(index);
+        return kinds[index];
+    }
+
+    public int getStart(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    void add(TokenKind kind, int start, int end) {
+        //Grow the arrays if necessary
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            TokenKind[] newKinds = new TokenKind[capacity];
+            int[] newStarts = new int[capacity];
+            int[] newEnds = new int[capacity];
+            System.arraycopy(kinds, 0, newKinds, 0, size);
+            System.arraycopy(starts, 0, newStarts, 0, size);
+            System.arraycopy(ends, 0, newEnds, 0, size);
+            kinds = newKinds;
+            starts = newStarts;
+            ends = newEnds;
+        }
+
+        kinds[size] = kind;
+        starts[size] = start;
+        ends[size++] = end;
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= size))
+            throw new IndexOutOfBoundsException(String.format("Token index %d is out of bounds.", index));
+    }
+}
@@ -0,0 +1,20 @@
+package de.pinguparty.geopingu.worker.domain.formula.lexer;
+
+/**
+ * Kinds of the tokens that are produced by the {@link FormulaLexer}.
+ */
+public enum TokenKind {
+    //Plain text outside of expressions
+    TEXT,
+    //Square brackets that enclose an expression
+    EXPRESSION_START,
+    EXPRESSION_END,
+    //Tokens within expressions
+    NUMBER,
+    STRING,
+    IDENTIFIER,
+    OPERATOR,
+    OPENING_BRACKET,
+    CLOSING_BRACKET,
+    ARGUMENT_SEPARATOR
+}
@@ -2,50 +2,141 @@ package de.pinguparty.geopingu.worker.domain.formula.literals;
 
 import de.pinguparty.geopingu.worker.domain.formula.FormulaElement;
 import de.pinguparty.geopingu.worker.domain.formula.LiteralNotNumericException;
+import de.pinguparty.geopingu.worker.domain.formula.utils.Utils;
 
-import java.util.Objects;
-
+/**
+ * Literal value of a formula, which is either a number or a text. Numbers are stored as primitive doubles and
+ * texts as strings, tagged by their kind. Conversions between both representations are only performed on demand
+ * and their results are kept, so that numeric literals are never formatted unless their text is requested and
+ * texts are parsed at most once.
+ */
 public class Literal implements FormulaElement {
-    private String value = "";
+    //States of the lazy conversion of texts to numbers
+    private static final byte UNPARSED = 0;
+    private static final byte NUMERIC = 1;
+    private static final byte NOT_NUMERIC = 2;
+
+    private final boolean text;
+    private final double number;
+    private final String string;
+
+    //Results of the lazy conversions
+    private transient String formattedNumber = null;
+    private transient double parsedNumber = 0;
+    private transient byte parseState = UNPARSED;
 
     public Literal(double value) {
-        setValue(value);
+        this.text = false;
+        this.number = value;
+        this.string = null;
     }
 
     public Literal(String value) {
-        setValue(value);
+        //Sanity check
+        if (value == null) throw new IllegalArgumentException("The value must not be null.");
+
+        this.text = true;
+        this.number = 0;
+        this.string = value;
     }
 
+    /**
+     * Returns the value of the literal as text. Numbers are formatted on the first call only.
+     *
+     * @return The value as text
+     */
     public String getString() {
-        return value;
+        if (text) return string;
+        if (formattedNumber == null) formattedNumber = Utils.formatNumber(number);
+        return formattedNumber;
     }
 
+    /**
+     * Returns the value of the literal as number. Texts are parsed on the first call only.
+     *
+     * @return The value as number
+     * @throws LiteralNotNumericException In case the literal is a text that does not represent a number
+     */
     public double getNumber() {
+        if (!text) return number;
+
         //Check if value can be converted to number
-        if (!isNumber()) throw new LiteralNotNumericException(String.format("The value \"%s\" is not numeric.", value));
+        if (!isNumber()) throw new LiteralNotNumericException(String.format("The value \"%s\" is not numeric.", string));
 
-        //Convert value to double
-        return Double.parseDouble(value);
+        return parsedNumber;
     }
 
+    /**
+     * Returns whether the literal is a number or a text that represents a number.
+     *
+     * @return True, if the literal is numeric; false otherwise
+     */
     public boolean isNumber() {
-        try {
-            Double.parseDouble(value);
-        } catch (Exception e) {
-            return false;
+        if (!text) return true;
+
+        if (parseState == UNPARSED) {
+            if (isNumeric(string)) {
+                parsedNumber = Double.parseDouble(string);
+                parseState = NUMERIC;
+            } else {
+                parseState = NOT_NUMERIC;
+            }
         }
-        return true;
+        return parseState == NUMERIC;
     }
 
-    private void setValue(double value) {
-        this.value = Double.toString(value);
+    /**
+     * Returns whether the literal was created from a text, regardless of whether the text represents a number.
+     *
+     * @return True, if the literal is a text; false otherwise
+     */
+    public boolean isText() {
+        return text;
     }
 
-    private void setValue(String value) {
-        //Sanity check
-        if (value == null) throw new IllegalArgumentException("The value must not be null.");
+    /**
+     * Checks whether a given text represents a decimal number, optionally with sign and exponent, without
+     * relying on exceptions.
+     */
+    private static boolean isNumeric(String value) {
+        int position = 0;
+        int end = value.length();
+
+        //Surrounding whitespace is ignored
+        while ((position < end) && Character.isWhitespace(value.charAt(position))) position++;
+        while ((end > position) && Character.isWhitespace(value.charAt(end - 1))) end--;
+
+        if ((position < end) && ((value.charAt(position) == '+') || (value.charAt(position) == '-'))) position++;
+
+        //Mantissa with at least one digit
+        int digits = 0;
+        while ((position < end) && isDigit(value.charAt(position))) {
+            position++;
+            digits++;
+        }
+        if ((position < end) && (value.charAt(position) == '.')) {
+            position++;
+            while ((position < end) && isDigit(value.charAt(position))) {
+                position++;
+                digits++;
+            }
+        }
+        if (digits == 0) return false;
+
+        //Optional exponent
+        if ((position < end) && ((value.charAt(position) == 'e') || (value.charAt(position) == 'E'))) {
+            position++;
+            if ((position < end) && ((value.charAt(position) == '+') || (value.charAt(position) == '-'))) position++;
+            int exponentStart = position;
+            while ((position < end) && isDigit(value.charAt(position))) position++;
+            if (position == exponentStart) return false;
+        }
+
+        return position == end;
+    }
 
-        this.value = value;
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
     }
 
     @Override
@@ -53,15 +144,16 @@ public class Literal implements FormulaElement {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Literal literal = (Literal) o;
-        return Objects.equals(value, literal.value);
+        if (text != literal.text) return false;
+        return text ? string.equals(literal.string) : (Double.compare(number, literal.number) == 0);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(value);
+        return text ? string.hashCode() : Double.hashCode(number);
     }
 
     public String toString() {
-        return this.value;
+        return getString();
     }
 }
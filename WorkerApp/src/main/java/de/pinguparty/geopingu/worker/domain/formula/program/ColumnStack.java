@@ -0,0 +1,102 @@
+package de.pinguparty.geopingu.worker.domain.formula.program;
+
+import de.pinguparty.geopingu.worker.domain.formula.LiteralNotNumericException;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+
+import java.util.Arrays;
+
+/**
+ * Reusable stack of operand columns for the batch execution of {@link FormulaProgram}s. Each entry holds the values
+ * of one operand for a block of up to {@link #BLOCK_SIZE} rows as primitive doubles, so that arithmetic can be
+ * performed in tight loops over whole columns. Rows with text values, which can only result from functions,
+ * are marked in an additional, lazily allocated text column.
+ */
+public class ColumnStack {
+    //Number of rows that are processed at once, small enough for the columns to stay in the CPU caches
+    public static final int BLOCK_SIZE = 1024;
+
+    private double[][] numbers = new double[0][];
+    private String[][] texts = new String[0][];
+    private boolean[] hasTexts = new boolean[0];
+
+    //Operand stack for the row-wise invocation of functions
+    private final OperandStack operandStack = new OperandStack();
+
+    /**
+     * Ensures that the stack can hold at least a given number of columns without growing.
+     *
+     * @param capacity The required capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= numbers.length) return;
+
+        double[][] newNumbers = new double[capacity][];
+        String[][] newTexts = new String[capacity][];
+        boolean[] newHasTexts = new boolean[capacity];
+        System.arraycopy(numbers, 0, newNumbers, 0, numbers.length);
+        System.arraycopy(texts, 0, newTexts, 0, texts.length);
+        System.arraycopy(hasTexts, 0, newHasTexts, 0, hasTexts.length);
+        for (int i = numbers.length; i < capacity; i++) newNumbers[i] = new double[BLOCK_SIZE];
+        numbers = newNumbers;
+        texts = newTexts;
+        hasTexts = newHasTexts;
+    }
+
+    /**
+     * Returns the numeric column of a given stack entry, converting rows with text values to numbers if necessary.
+     *
+     * @param index The index of the entry
+     * @param rows  The number of rows of the current block
+     * @return The numeric column
+     * @throws LiteralNotNumericException In case a text value does not represent a number
+     */
+    double[] numbers(int index, int rows) {
+        if (hasTexts[index]) {
+            double[] column = numbers[index];
+            String[] textColumn = texts[index];
+            for (int row = 0; row < rows; row++) {
+                if (textColumn[row] == null) continue;
+                column[row] = new Literal(textColumn[row]).getNumber();
+                textColumn[row] = null;
+            }
+            hasTexts[index] = false;
+        }
+        return numbers[index];
+    }
+
+    /**
+     * Returns the numeric column of a given stack entry for writing numbers to all of its rows.
+     */
+    double[] numbersForWriting(int index) {
+        hasTexts[index] = false;
+        return numbers[index];
+    }
+
+    /**
+     * Returns the text column of a given stack entry, in which rows with text values have a non-null entry.
+     */
+    String[] texts(int index) {
+        return hasTexts[index] ? texts[index] : null;
+    }
+
+    /**
+     * Returns the text column of a given stack entry for writing texts, with all rows being cleared.
+     */
+    String[] textsForWriting(int index, int rows) {
+        if (texts[index] == null) texts[index] = new String[BLOCK_SIZE];
+        else Arrays.fill(texts[index], 0, rows, null);
+        hasTexts[index] = true;
+        return texts[index];
+    }
+
+    /**
+     * Returns the numeric column of a given stack entry without converting rows with text values.
+     */
+    double[] rawNumbers(int index) {
+        return numbers[index];
+    }
+
+    OperandStack getOperandStack() {
+        return operandStack;
+    }
+}
@@ -0,0 +1,305 @@
+package de.pinguparty.geopingu.worker.domain.formula.program;
+
+import de.pinguparty.geopingu.worker.domain.formula.FormulaElement;
+import de.pinguparty.geopingu.worker.domain.formula.IllegalFormulaSyntaxException;
+import de.pinguparty.geopingu.worker.domain.formula.LiteralNotNumericException;
+import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.variables.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, compiled representation of an expression in reverse polish notation. The expression is flattened into
+ * an array of instructions (see {@link Opcodes}) that operates on a primitive {@link OperandStack}, so that the same
+ * program can be executed over and over again for different variable values without allocating any objects.
+ * Variables are referenced by their slots, i.e. their indices within the arrays of variable values that are
+ * passed on execution.
+ */
+public class FormulaProgram {
+    private final int[] instructions;
+    private final double[] numberConstants;
+    private final String[] textConstants;
+    private final Function[] functions;
+    private final int maxStackSize;
+
+    private FormulaProgram(int[] instructions, double[] numberConstants, String[] textConstants, Function[] functions, int maxStackSize) {
+        this.instructions = instructions;
+        this.numberConstants = numberConstants;
+        this.textConstants = textConstants;
+        this.functions = functions;
+        this.maxStackSize = maxStackSize;
+    }
+
+    /**
+     * Compiles a given expression in reverse polish notation to a {@link FormulaProgram}.
+     *
+     * @param reversePolishNotation The expression in reverse polish notation
+     * @param variableSlots         Map (variable name --> slot) of the slots of all variables
+     * @return The compiled {@link FormulaProgram}
+     * @throws IllegalFormulaSyntaxException In case the expression is not well-formed
+     */
+    public static FormulaProgram compile(List<FormulaElement> reversePolishNotation, Map<String, Integer> variableSlots) throws IllegalFormulaSyntaxException {
+        //Sanity checks
+        if ((reversePolishNotation == null) || reversePolishNotation.isEmpty())
+            throw new IllegalFormulaSyntaxException("The expression must not be empty.");
+        if (variableSlots == null) throw new IllegalArgumentException("The variable slots must not be null.");
+
+        int[] instructions = new int[reversePolishNotation.size()];
+        List<Double> numberConstants = new ArrayList<>();
+        List<String> textConstants = new ArrayList<>();
+        List<Function> functions = new ArrayList<>();
+
+        //Track the stack size to detect malformed expressions and to determine the required capacity
+        int stackSize = 0;
+        int maxStackSize = 0;
+
+        for (int i = 0; i < instructions.length; i++) {
+            FormulaElement element = reversePolishNotation.get(i);
+
+            if (element instanceof Literal) {
+                Literal literal = (Literal) element;
+                if (literal.isNumber()) {
+                    instructions[i] = Opcodes.encode(Opcodes.PUSH_NUMBER, numberConstants.size());
+                    numberConstants.add(literal.getNumber());
+                } else {
+                    instructions[i] = Opcodes.encode(Opcodes.PUSH_TEXT, textConstants.size());
+                    textConstants.add(literal.getString());
+                }
+                stackSize++;
+            } else if (element instanceof Variable) {
+                Integer slot = variableSlots.get(((Variable) element).getName());
+                if (slot == null)
+                    throw new IllegalArgumentException(String.format("No slot is assigned to variable \"%s\".", element));
+                instructions[i] = Opcodes.encode(Opcodes.LOAD_VARIABLE, slot);
+                stackSize++;
+            } else if (element instanceof Function) {
+                Function function = (Function) element;
+                int arguments = function.getNumberOfArguments();
+                if (stackSize < arguments)
+                    throw new IllegalFormulaSyntaxException(String.format("Missing arguments for \"%s\".", function.getName()));
+
+                //Arithmetic operators are executed inline, all other functions are invoked
+                int opcode = function.getOpcode();
+                if (Opcodes.isInline(opcode)) {
+                    instructions[i] = Opcodes.encode(opcode, 0);
+                } else {
+                    instructions[i] = Opcodes.encode(Opcodes.CALL, functions.size());
+                    functions.add(function);
+                }
+                stackSize = stackSize - arguments + 1;
+            } else {
+                throw new IllegalFormulaSyntaxException(String.format("Unexpected element \"%s\".", element));
+            }
+
+            maxStackSize = Math.max(maxStackSize, stackSize);
+        }
+
+        //A well-formed expression results in exactly one value
+        if (stackSize != 1) throw new IllegalFormulaSyntaxException("The expression contains too many operands.");
+
+        return new FormulaProgram(instructions,
+                numberConstants.stream().mapToDouble(Double::doubleValue).toArray(),
+                textConstants.toArray(new String[0]),
+                functions.toArray(new Function[0]),
+                maxStackSize);
+    }
+
+    /**
+     * Executes the program on a given {@link OperandStack}, using given variable values. After the execution,
+     * the result is the only operand on the stack. Variables with a non-null entry in the text values are treated
+     * as texts, all others as numbers.
+     *
+     * @param stack          The {@link OperandStack} to use
+     * @param variableNumbers The numeric values of the variables, indexed by their slots
+     * @param variableTexts   The text values of the variables, indexed by their slots (may be null)
+     */
+    public void execute(OperandStack stack, double[] variableNumbers, String[] variableTexts) {
+        stack.clear();
+        stack.ensureCapacity(maxStackSize);
+
+        for (int instruction : instructions) {
+            int operand = Opcodes.operand(instruction);
+            switch (Opcodes.opcode(instruction)) {
+                case Opcodes.PUSH_NUMBER:
+                    stack.pushNumber(numberConstants[operand]);
+                    break;
+                case Opcodes.PUSH_TEXT:
+                    stack.pushText(textConstants[operand]);
+                    break;
+                case Opcodes.LOAD_VARIABLE:
+                    if ((variableTexts != null) && (variableTexts[operand] != null)) {
+                        stack.pushText(variableTexts[operand]);
+                    } else {
+                        stack.pushNumber(variableNumbers[operand]);
+                    }
+                    break;
+                case Opcodes.ADD: {
+                    double right = stack.popNumber();
+                    stack.pushNumber(stack.popNumber() + right);
+                    break;
+                }
+                case Opcodes.SUBTRACT: {
+                    double right = stack.popNumber();
+                    stack.pushNumber(stack.popNumber() - right);
+                    break;
+                }
+                case Opcodes.MULTIPLY: {
+                    double right = stack.popNumber();
+                    stack.pushNumber(stack.popNumber() * right);
+                    break;
+                }
+                case Opcodes.DIVIDE: {
+                    double right = stack.popNumber();
+                    stack.pushNumber(stack.popNumber() / right);
+                    break;
+                }
+                default:
+                    functions[operand].evaluate(stack);
+            }
+        }
+    }
+
+    /**
+     * Executes the program for a batch of rows with given columns of variable values and writes the numeric result
+     * of each row to a given result column. The rows are processed in blocks of {@link ColumnStack#BLOCK_SIZE},
+     * and each instruction is applied to a whole block at once, so that the arithmetic runs in tight loops over
+     * primitive arrays. Functions are invoked row by row. Variables without a column use the same value for all
+     * rows, which is taken from the given numeric or text values.
+     *
+     * @param stack           The {@link ColumnStack} to use
+     * @param variableColumns The columns of variable values, indexed by slot (entries may be null)
+     * @param variableNumbers The numeric values of the variables without column, indexed by slot
+     * @param variableTexts   The text values of the variables without column, indexed by slot (may be null)
+     * @param rows            The number of rows
+     * @param result          The column to write the results to
+     * @throws LiteralNotNumericException In case the result of a row is not numeric
+     */
+    public void executeBatch(ColumnStack stack, double[][] variableColumns, double[] variableNumbers, String[] variableTexts, int rows, double[] result) {
+        //Sanity check
+        if (result.length < rows) throw new IllegalArgumentException("The result column is too short.");
+
+        stack.ensureCapacity(maxStackSize);
+        for (int offset = 0; offset < rows; offset += ColumnStack.BLOCK_SIZE) {
+            int blockRows = Math.min(ColumnStack.BLOCK_SIZE, rows - offset);
+            executeBlock(stack, variableColumns, variableNumbers, variableTexts, offset, blockRows);
+            System.arraycopy(stack.numbers(0, blockRows), 0, result, offset, blockRows);
+        }
+    }
+
+    private void executeBlock(ColumnStack stack, double[][] variableColumns, double[] variableNumbers, String[] variableTexts, int offset, int rows) {
+        int size = 0;
+        for (int instruction : instructions) {
+            int operand = Opcodes.operand(instruction);
+            switch (Opcodes.opcode(instruction)) {
+                case Opcodes.PUSH_NUMBER:
+                    Arrays.fill(stack.numbersForWriting(size++), 0, rows, numberConstants[operand]);
+                    break;
+                case Opcodes.PUSH_TEXT:
+                    Arrays.fill(stack.textsForWriting(size++, rows), 0, rows, textConstants[operand]);
+                    break;
+                case Opcodes.LOAD_VARIABLE:
+                    if ((variableColumns != null) && (variableColumns[operand] != null)) {
+                        System.arraycopy(variableColumns[operand], offset, stack.numbersForWriting(size++), 0, rows);
+                    } else if ((variableTexts != null) && (variableTexts[operand] != null)) {
+                        Arrays.fill(stack.textsForWriting(size++, rows), 0, rows, variableTexts[operand]);
+                    } else {
+                        Arrays.fill(stack.numbersForWriting(size++), 0, rows, variableNumbers[operand]);
+                    }
+                    break;
+                case Opcodes.ADD: {
+                    double[] right = stack.numbers(--size, rows);
+                    double[] left = stack.numbers(size - 1, rows);
+                    for (int row = 0; row < rows; row++) left[row] += right[row];
+                    break;
+                }
+                case Opcodes.SUBTRACT: {
+                    double[] right = stack.numbers(--size, rows);
+                    double[] left = stack.numbers(size - 1, rows);
+                    for (int row = 0; row < rows; row++) left[row] -= right[row];
+                    break;
+                }
+                case Opcodes.MULTIPLY: {
+                    double[] right = stack.numbers(--size, rows);
+                    double[] left = stack.numbers(size - 1, rows);
+                    for (int row = 0; row < rows; row++) left[row] *= right[row];
+                    break;
+                }
+                case Opcodes.DIVIDE: {
+                    double[] right = stack.numbers(--size, rows);
+                    double[] left = stack.numbers(size - 1, rows);
+                    for (int row = 0; row < rows; row++) left[row] /= right[row];
+                    break;
+                }
+                default:
+                    size = callBlock(stack, functions[operand], size, rows);
+            }
+        }
+    }
+
+    /**
+     * Invokes a function row by row on the topmost columns of a given {@link ColumnStack} and returns the new
+     * stack size.
+     */
+    private static int callBlock(ColumnStack stack, Function function, int size, int rows) {
+        OperandStack operandStack = stack.getOperandStack();
+        int base = size - function.getNumberOfArguments();
+
+        //Results are collected in temporary columns, as the arguments are read from the same entries
+        double[] resultNumbers = new double[rows];
+        String[] resultTexts = null;
+        for (int row = 0; row < rows; row++) {
+            operandStack.clear();
+            for (int index = base; index < size; index++) {
+                String[] texts = stack.texts(index);
+                if ((texts != null) && (texts[row] != null)) operandStack.pushText(texts[row]);
+                else operandStack.pushNumber(stack.rawNumbers(index)[row]);
+            }
+
+            function.evaluate(operandStack);
+            if (operandStack.isText()) {
+                if (resultTexts == null) resultTexts = new String[rows];
+                resultTexts[row] = operandStack.popText();
+            } else {
+                resultNumbers[row] = operandStack.popNumber();
+            }
+        }
+
+        System.arraycopy(resultNumbers, 0, stack.numbersForWriting(base), 0, rows);
+        if (resultTexts != null) System.arraycopy(resultTexts, 0, stack.textsForWriting(base, rows), 0, rows);
+        return base + 1;
+    }
+
+    /**
+     * Executes the program for given numeric variable values and returns the numeric result.
+     *
+     * @param stack           The {@link OperandStack} to use
+     * @param variableNumbers The numeric values of the variables, indexed by their slots
+     * @return The numeric result
+     */
+    public double evaluateNumber(OperandStack stack, double[] variableNumbers) {
+        execute(stack, variableNumbers, null);
+        return stack.popNumber();
+    }
+
+    /**
+     * Returns the maximum number of operands that are on the stack at the same time during execution.
+     *
+     * @return The maximum stack size
+     */
+    public int getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    /**
+     * Returns the number of instructions of the program.
+     *
+     * @return The number of instructions
+     */
+    public int size() {
+        return instructions.length;
+    }
+}
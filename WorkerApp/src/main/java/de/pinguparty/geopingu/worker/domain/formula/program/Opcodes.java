@@ -0,0 +1,61 @@
+package de.pinguparty.geopingu.worker.domain.formula.program;
+
+import de.pinguparty.geopingu.worker.domain.formula.functions.Function;
+
+/**
+ * Opcodes of the instructions of a {@link FormulaProgram}. Each instruction is encoded as a single int, with the
+ * opcode in the lowest {@link #OPCODE_BITS} bits and the operand (e.g. a constant or variable slot index) in
+ * the remaining bits.
+ */
+public final class Opcodes {
+    public static final int OPCODE_BITS = 8;
+    public static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    //Pushes a numeric constant (operand: index of the constant)
+    public static final int PUSH_NUMBER = 0;
+    //Pushes a text constant (operand: index of the constant)
+    public static final int PUSH_TEXT = 1;
+    //Pushes the value of a variable (operand: slot of the variable)
+    public static final int LOAD_VARIABLE = 2;
+    //Invokes a generic function (operand: index of the function)
+    public static final int CALL = 3;
+
+    //Arithmetic operators that are executed inline
+    public static final int ADD = 4;
+    public static final int SUBTRACT = 5;
+    public static final int MULTIPLY = 6;
+    public static final int DIVIDE = 7;
+
+    private Opcodes() {
+
+    }
+
+    /**
+     * Encodes an instruction from a given opcode and operand.
+     *
+     * @param opcode  The opcode
+     * @param operand The operand
+     * @return The encoded instruction
+     */
+    public static int encode(int opcode, int operand) {
+        return opcode | (operand << OPCODE_BITS);
+    }
+
+    public static int opcode(int instruction) {
+        return instruction & OPCODE_MASK;
+    }
+
+    public static int operand(int instruction) {
+        return instruction >>> OPCODE_BITS;
+    }
+
+    /**
+     * Returns whether a given opcode is executed inline instead of invoking the {@link Function} itself.
+     *
+     * @param opcode The opcode to check
+     * @return True, if the opcode is executed inline; false otherwise
+     */
+    public static boolean isInline(int opcode) {
+        return (opcode >= ADD) && (opcode <= DIVIDE);
+    }
+}
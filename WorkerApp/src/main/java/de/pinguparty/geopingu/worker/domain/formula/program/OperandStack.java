@@ -0,0 +1,145 @@
+package de.pinguparty.geopingu.worker.domain.formula.program;
+
+import de.pinguparty.geopingu.worker.domain.formula.LiteralNotNumericException;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.utils.Utils;
+
+/**
+ * Reusable operand stack for the execution of {@link FormulaProgram}s. Numeric operands are stored as primitive
+ * doubles, so that numeric programs can be executed without allocating any objects. Text operands are stored
+ * by reference in a parallel array.
+ */
+public class OperandStack {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] numbers;
+    private String[] texts;
+    private int size = 0;
+
+    /**
+     * Creates a new, empty {@link OperandStack} with a default capacity.
+     */
+    public OperandStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new, empty {@link OperandStack} with a given initial capacity.
+     *
+     * @param capacity The initial capacity
+     */
+    public OperandStack(int capacity) {
+        numbers = new double[Math.max(1, capacity)];
+        texts = new String[numbers.length];
+    }
+
+    /**
+     * Removes all operands from the stack.
+     */
+    public void clear() {
+        //Release text references
+        for (int i = 0; i < size; i++) texts[i] = null;
+        size = 0;
+    }
+
+    /**
+     * Ensures that the stack can hold at least a given number of operands without growing.
+     *
+     * @param capacity The required capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= numbers.length) return;
+
+        double[] newNumbers = new double[capacity];
+        String[] newTexts = new String[capacity];
+        System.arraycopy(numbers, 0, newNumbers, 0, size);
+        System.arraycopy(texts, 0, newTexts, 0, size);
+        numbers = newNumbers;
+        texts = newTexts;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void pushNumber(double number) {
+        if (size == numbers.length) ensureCapacity(size * 2);
+        numbers[size] = number;
+        texts[size++] = null;
+    }
+
+    public void pushText(String text) {
+        //Sanity check
+        if (text == null) throw new IllegalArgumentException("The text must not be null.");
+
+        if (size == numbers.length) ensureCapacity(size * 2);
+        texts[size++] = text;
+    }
+
+    public void pushLiteral(Literal literal) {
+        //Sanity check
+        if (literal == null) throw new IllegalArgumentException("The literal must not be null.");
+
+        if (literal.isNumber()) pushNumber(literal.getNumber());
+        else pushText(literal.getString());
+    }
+
+    /**
+     * Returns whether the topmost operand of the stack is a text.
+     *
+     * @return True, if the topmost operand is a text; false otherwise
+     */
+    public boolean isText() {
+        checkNotEmpty();
+        return texts[size - 1] != null;
+    }
+
+    public double popNumber() {
+        checkNotEmpty();
+        String text = texts[--size];
+
+        //Numeric operands can be returned right away
+        if (text == null) return numbers[size];
+
+        //Try to interpret the text operand as number
+        texts[size] = null;
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new LiteralNotNumericException(String.format("The value \"%s\" is not numeric.", text));
+        }
+    }
+
+    public String popText() {
+        checkNotEmpty();
+        String text = texts[--size];
+
+        //Numeric operands need to be formatted
+        if (text == null) return Utils.formatNumber(numbers[size]);
+
+        texts[size] = null;
+        return text;
+    }
+
+    /**
+     * Pops the topmost operand and appends it to a given {@link StringBuilder}.
+     *
+     * @param builder The {@link StringBuilder} to append to
+     */
+    public void popInto(StringBuilder builder) {
+        if (isText()) builder.append(popText());
+        else Utils.appendNumber(builder, popNumber());
+    }
+
+    public Literal popLiteral() {
+        return isText() ? new Literal(popText()) : new Literal(popNumber());
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0) throw new IllegalStateException("The operand stack is empty.");
+    }
+}
@@ -0,0 +1,80 @@
+package de.pinguparty.geopingu.worker.domain.formula.solver;
+
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.Coordinates;
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.GreatCircle;
+
+/**
+ * {@link SolutionConstraint} that accepts coordinates within a rectangular area, given by its bounds
+ * in decimal degrees. Prefixes are rejected as soon as their latitude or longitude is known to be outside the area,
+ * which may already be the case while the decimal places of a coordinate are only partially resolved.
+ */
+public class BoundingBox implements SolutionConstraint {
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+
+    /**
+     * Creates a new {@link BoundingBox} from given bounds in decimal degrees.
+     *
+     * @param south The southern bound
+     * @param west  The western bound
+     * @param north The northern bound
+     * @param east  The eastern bound
+     */
+    public BoundingBox(double south, double west, double north, double east) {
+        //Sanity checks
+        if (south > north) throw new IllegalArgumentException("The southern bound must not be north of the northern bound.");
+        if (west > east) throw new IllegalArgumentException("The western bound must not be east of the eastern bound.");
+
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+    }
+
+    /**
+     * Creates a {@link BoundingBox} around a given center with a given radius in meters.
+     *
+     * @param latitude  The latitude of the center in decimal degrees
+     * @param longitude The longitude of the center in decimal degrees
+     * @param radius    The radius in meters
+     * @return The resulting {@link BoundingBox}
+     */
+    public static BoundingBox around(double latitude, double longitude, double radius) {
+        double latitudeDelta = Math.toDegrees(radius / GreatCircle.EARTH_RADIUS);
+        double longitudeDelta = latitudeDelta / Math.cos(Math.toRadians(latitude));
+        return new BoundingBox(latitude - latitudeDelta, longitude - longitudeDelta, latitude + latitudeDelta, longitude + longitudeDelta);
+    }
+
+    @Override
+    public Decision test(CharSequence text, boolean complete) {
+        double latitude = Coordinates.parseLatitude(text);
+
+        //Check the bounds of a latitude that is only known partially
+        if (Double.isNaN(latitude)) {
+            if (complete) return Decision.REJECT;
+            return excludes(Coordinates.boundLatitude(text, false), Coordinates.boundLatitude(text, true), south, north)
+                    ? Decision.REJECT : Decision.UNDECIDED;
+        }
+
+        //Check the latitude as soon as it is known
+        if ((latitude < south) || (latitude > north)) return Decision.REJECT;
+
+        if (!complete) {
+            return excludes(Coordinates.boundLongitude(text, false), Coordinates.boundLongitude(text, true), west, east)
+                    ? Decision.REJECT : Decision.UNDECIDED;
+        }
+
+        double longitude = Coordinates.parseLongitude(text);
+        return (longitude >= west) && (longitude <= east) ? Decision.ACCEPT : Decision.REJECT;
+    }
+
+    /**
+     * Returns whether a range of values, given by its bounds, lies completely outside a given interval.
+     */
+    private static boolean excludes(double lower, double upper, double min, double max) {
+        if (Double.isNaN(lower) || Double.isNaN(upper)) return false;
+        return (upper < min) || (lower > max);
+    }
+}
@@ -0,0 +1,380 @@
+package de.pinguparty.geopingu.worker.domain.formula.solver;
+
+import de.pinguparty.geopingu.worker.domain.formula.Expression;
+import de.pinguparty.geopingu.worker.domain.formula.Formula;
+import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.FormulaProgram;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import de.pinguparty.geopingu.worker.domain.formula.variables.Variable;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Brute-force solver that finds values for the unknown variables of a {@link Formula}, such that the evaluated
+ * formula satisfies a given {@link SolutionConstraint}. The cartesian product of the {@link VariableRange}s is
+ * enumerated depth-first in parallel on a {@link ForkJoinPool}. Variables are assigned in the order of their first
+ * occurrence within the formula, and each expression is evaluated as soon as all of its variables are assigned.
+ * Whenever this extends the resolved prefix of the text, the constraint is consulted, so that whole subtrees of
+ * assignments can be pruned early. The compiled programs of the expressions are executed on primitive values,
+ * so that no objects are allocated per assignment apart from the found solutions.
+ */
+public class FormulaSolver {
+    //Maximum number of assignments that are enumerated by a single task without splitting it further
+    private static final long SPLIT_THRESHOLD = 1 << 14;
+
+    //Number of checked assignments after which the progress is reported
+    private static final long PROGRESS_INTERVAL = 1 << 16;
+
+    private final Formula formula;
+    private final Map<String, VariableRange> ranges = new HashMap<>();
+    private SolutionConstraint constraint = null;
+    private ProgressListener progressListener = null;
+    private long maxSolutions = Long.MAX_VALUE;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Creates a new {@link FormulaSolver} for a given {@link Formula}. The formula must not be modified
+     * while it is being solved.
+     *
+     * @param formula The {@link Formula} to solve
+     */
+    public FormulaSolver(Formula formula) {
+        //Sanity check
+        if (formula == null) throw new IllegalArgumentException("The formula must not be null.");
+
+        this.formula = formula;
+    }
+
+    /**
+     * Sets the {@link VariableRange} of values that are tried for a given variable. Variables that already have
+     * a value are only enumerated if a range is set for them.
+     *
+     * @param name  The name of the variable
+     * @param range The {@link VariableRange} to try
+     * @return The {@link FormulaSolver} instance
+     */
+    public FormulaSolver setRange(String name, VariableRange range) {
+        //Sanity check
+        if (range == null) throw new IllegalArgumentException("The range must not be null.");
+
+        //Make sure that the variable exists
+        formula.getVariable(name);
+
+        ranges.put(name, range);
+        return this;
+    }
+
+    /**
+     * Sets the {@link SolutionConstraint} that solutions need to satisfy. If no constraint is set,
+     * every assignment is a solution.
+     *
+     * @param constraint The {@link SolutionConstraint} to set
+     * @return The {@link FormulaSolver} instance
+     */
+    public FormulaSolver setConstraint(SolutionConstraint constraint) {
+        this.constraint = constraint;
+        return this;
+    }
+
+    /**
+     * Sets the {@link ProgressListener} that is notified about the progress.
+     *
+     * @param progressListener The {@link ProgressListener} to set
+     * @return The {@link FormulaSolver} instance
+     */
+    public FormulaSolver setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of solutions after which the search is stopped.
+     *
+     * @param maxSolutions The maximum number of solutions
+     * @return The {@link FormulaSolver} instance
+     */
+    public FormulaSolver setMaxSolutions(long maxSolutions) {
+        //Sanity check
+        if (maxSolutions < 1) throw new IllegalArgumentException("The maximum number of solutions must be positive.");
+
+        this.maxSolutions = maxSolutions;
+        return this;
+    }
+
+    /**
+     * Sets the {@link ForkJoinPool} on which the search is executed. By default, the common pool is used.
+     *
+     * @param pool The {@link ForkJoinPool} to use
+     * @return The {@link FormulaSolver} instance
+     */
+    public FormulaSolver setPool(ForkJoinPool pool) {
+        //Sanity check
+        if (pool == null) throw new IllegalArgumentException("The pool must not be null.");
+
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Enumerates all assignments of the unknown variables and passes the found solutions to a given consumer
+     * as soon as they are found. The consumer is never called concurrently, but possibly from different threads.
+     * Assignments for which the evaluation of the formula fails are not considered as solutions.
+     *
+     * @param consumer The consumer to pass the solutions to
+     * @return The number of found solutions
+     */
+    public long solve(Consumer<Solution> consumer) {
+        //Sanity check
+        if (consumer == null) throw new IllegalArgumentException("The consumer must not be null.");
+
+        Search search = new Search(consumer);
+        pool.invoke(new SearchTask(search, new int[0]));
+        search.reportProgress(0);
+        return Math.min(search.solutions.get(), maxSolutions);
+    }
+
+    /**
+     * Immutable description of a single search that is shared between all tasks.
+     */
+    private class Search {
+        private final Consumer<Solution> consumer;
+        private final SolutionConstraint constraint;
+
+        //Unknown variables in the order of their assignment
+        private final String[] names;
+        private final int[] slots;
+        private final int[] from;
+        private final int[] to;
+
+        //Number of assignments within the subtree below each depth
+        private final long[] subtreeSizes;
+
+        //Values of the fixed variables, indexed by slot
+        private final double[] numbers;
+        private final String[] texts;
+
+        //Expressions, the surrounding text and the depth from which on each expression can be evaluated
+        private final FormulaProgram[] programs;
+        private final String[] textSegments;
+        private final int[] readyDepths;
+        private final int maxStackSize;
+
+        private final AtomicLong checked = new AtomicLong();
+        private final AtomicLong solutions = new AtomicLong();
+        private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+        private Search(Consumer<Solution> consumer) {
+            this.consumer = consumer;
+            this.constraint = FormulaSolver.this.constraint;
+
+            //Determine the unknown variables and snapshot the values of the fixed ones
+            List<Variable> variables = formula.getVariables();
+            List<String> unknowns = new ArrayList<>();
+            numbers = new double[variables.size()];
+            texts = new String[variables.size()];
+            for (Variable variable : variables) {
+                if (ranges.containsKey(variable.getName())) {
+                    unknowns.add(variable.getName());
+                    continue;
+                }
+
+                Literal value = variable.getValue();
+                if (value == null)
+                    throw new IllegalStateException(String.format("No range has been set for the unknown variable \"%s\".", variable.getName()));
+
+                int slot = formula.getVariableSlot(variable.getName());
+                if (value.isNumber()) numbers[slot] = value.getNumber();
+                else texts[slot] = value.getString();
+            }
+
+            names = unknowns.toArray(new String[0]);
+            slots = new int[names.length];
+            from = new int[names.length];
+            to = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                VariableRange range = ranges.get(names[i]);
+                slots[i] = formula.getVariableSlot(names[i]);
+                from[i] = range.getFrom();
+                to[i] = range.getTo();
+            }
+
+            //Count the assignments, guarding against overflows
+            subtreeSizes = new long[names.length + 1];
+            subtreeSizes[names.length] = 1;
+            try {
+                for (int i = names.length - 1; i >= 0; i--) {
+                    subtreeSizes[i] = Math.multiplyExact(subtreeSizes[i + 1], (long) (to[i] - from[i] + 1));
+                }
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("The ranges result in too many assignments.");
+            }
+
+            //Determine the depth from which on each expression can be evaluated
+            List<Expression> expressions = formula.getExpressions();
+            programs = new FormulaProgram[expressions.size()];
+            readyDepths = new int[expressions.size()];
+            int stackSize = 1;
+            for (int i = 0; i < programs.length; i++) {
+                programs[i] = expressions.get(i).getProgram();
+                stackSize = Math.max(stackSize, programs[i].getMaxStackSize());
+                for (int depth = 0; depth < names.length; depth++) {
+                    if (expressions.get(i).getVariableNames().contains(names[depth])) readyDepths[i] = depth + 1;
+                }
+            }
+            maxStackSize = stackSize;
+            textSegments = formula.getTextSegments().toArray(new String[0]);
+        }
+
+        private void reportProgress(long count) {
+            long total = checked.addAndGet(count);
+            if (progressListener != null) progressListener.onProgress(total, subtreeSizes[0]);
+        }
+
+        private void emit(int[] values, CharSequence text) {
+            //Stop as soon as the maximum number of solutions is exceeded
+            if (solutions.incrementAndGet() > maxSolutions) {
+                stopped.set(true);
+                return;
+            }
+
+            Map<String, Integer> assignment = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++) assignment.put(names[i], values[i]);
+            synchronized (this) {
+                consumer.accept(new Solution(assignment, text.toString()));
+            }
+            if (solutions.get() >= maxSolutions) stopped.set(true);
+        }
+    }
+
+    /**
+     * Task that enumerates the subtree of assignments below a given prefix of values. Large subtrees are split
+     * into one subtask per value of the next variable.
+     */
+    private static class SearchTask extends RecursiveAction {
+        private final Search search;
+        private final int[] prefix;
+
+        //State of the depth-first enumeration, which is only created for tasks that are not split
+        private OperandStack stack;
+        private StringBuilder builder;
+        private double[] numbers;
+        private String[] texts;
+        private int[] values;
+        private int[] lengthAtDepth;
+        private int[] renderedAtDepth;
+        private long pending = 0;
+
+        private SearchTask(Search search, int[] prefix) {
+            this.search = search;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.stopped.get()) return;
+
+            //Split large subtrees
+            int depth = prefix.length;
+            if ((depth < search.names.length) && (search.subtreeSizes[depth] > SPLIT_THRESHOLD)) {
+                List<SearchTask> subtasks = new ArrayList<>();
+                for (int value = search.from[depth]; value <= search.to[depth]; value++) {
+                    int[] subPrefix = Arrays.copyOf(prefix, depth + 1);
+                    subPrefix[depth] = value;
+                    subtasks.add(new SearchTask(search, subPrefix));
+                }
+                invokeAll(subtasks);
+                return;
+            }
+
+            //Initialize the state and render the text up to the prefix
+            stack = new OperandStack(search.maxStackSize);
+            numbers = search.numbers.clone();
+            texts = search.texts.clone();
+            values = new int[search.names.length];
+            lengthAtDepth = new int[search.names.length + 1];
+            renderedAtDepth = new int[search.names.length + 1];
+            builder = new StringBuilder(search.textSegments[0]);
+            for (int i = 0; i <= depth; i++) {
+                if (i > 0) assign(i - 1, prefix[i - 1]);
+                if (!advance(i)) {
+                    pending += search.subtreeSizes[depth];
+                    search.reportProgress(pending);
+                    return;
+                }
+            }
+
+            enumerate(depth);
+            search.reportProgress(pending);
+        }
+
+        /**
+         * Enumerates all assignments below a given depth.
+         */
+        private void enumerate(int depth) {
+            //Check complete assignments
+            if (depth == search.names.length) {
+                if ((search.constraint == null) || (search.constraint.test(builder, true) == SolutionConstraint.Decision.ACCEPT)) {
+                    search.emit(values, builder);
+                }
+                countChecked(1);
+                return;
+            }
+
+            for (int value = search.from[depth]; value <= search.to[depth]; value++) {
+                if (search.stopped.get()) return;
+
+                assign(depth, value);
+                if (advance(depth + 1)) enumerate(depth + 1);
+                else countChecked(search.subtreeSizes[depth + 1]);
+            }
+        }
+
+        private void assign(int depth, int value) {
+            values[depth] = value;
+            numbers[search.slots[depth]] = value;
+            texts[search.slots[depth]] = null;
+        }
+
+        /**
+         * Evaluates the expressions that become ready at a given depth and consults the constraint if the resolved
+         * prefix of the text has been extended. Returns false if the subtree below the depth can be pruned.
+         */
+        private boolean advance(int depth) {
+            int rendered = (depth == 0) ? 0 : renderedAtDepth[depth - 1];
+            if (depth > 0) builder.setLength(lengthAtDepth[depth - 1]);
+
+            boolean extended = false;
+            try {
+                while ((rendered < search.programs.length) && (search.readyDepths[rendered] <= depth)) {
+                    search.programs[rendered].execute(stack, numbers, texts);
+                    stack.popInto(builder);
+                    builder.append(search.textSegments[++rendered]);
+                    extended = true;
+                }
+            } catch (RuntimeException e) {
+                //Assignments that cannot be evaluated are no solutions
+                return false;
+            }
+
+            renderedAtDepth[depth] = rendered;
+            lengthAtDepth[depth] = builder.length();
+
+            //Consult the constraint for the extended prefix
+            return !extended || (search.constraint == null)
+                    || (search.constraint.test(builder, false) != SolutionConstraint.Decision.REJECT);
+        }
+
+        private void countChecked(long count) {
+            pending += count;
+            if (pending >= PROGRESS_INTERVAL) {
+                search.reportProgress(pending);
+                pending = 0;
+            }
+        }
+    }
+}
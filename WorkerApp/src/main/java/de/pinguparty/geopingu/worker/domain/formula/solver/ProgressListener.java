@@ -0,0 +1,17 @@
+package de.pinguparty.geopingu.worker.domain.formula.solver;
+
+/**
+ * Listener that is notified about the progress of a {@link FormulaSolver}. It may be called concurrently
+ * from multiple threads.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called whenever a chunk of assignments has been checked or pruned.
+     *
+     * @param checked The number of assignments that have been checked or pruned so far
+     * @param total   The total number of assignments
+     */
+    void onProgress(long checked, long total);
+}
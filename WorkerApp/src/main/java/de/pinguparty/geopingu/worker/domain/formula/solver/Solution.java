@@ -0,0 +1,41 @@
+package de.pinguparty.geopingu.worker.domain.formula.solver;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Solution that was found by a {@link FormulaSolver}, consisting of the assigned variable values and
+ * the resulting text of the formula.
+ */
+public class Solution {
+    private final Map<String, Integer> assignment;
+    private final String text;
+
+    public Solution(Map<String, Integer> assignment, String text) {
+        this.assignment = Collections.unmodifiableMap(assignment);
+        this.text = text;
+    }
+
+    /**
+     * Returns the values that were assigned to the variables, mapped by the variable names.
+     *
+     * @return The assignment
+     */
+    public Map<String, Integer> getAssignment() {
+        return assignment;
+    }
+
+    /**
+     * Returns the evaluated text of the formula.
+     *
+     * @return The text
+     */
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", text, assignment);
+    }
+}
@@ -0,0 +1,32 @@
+package de.pinguparty.geopingu.worker.domain.formula.solver;
+
+/**
+ * Constraint that decides whether the evaluated text of a formula constitutes a solution. The constraint is also
+ * consulted for partial assignments of the variables, in which case only a prefix of the evaluated text is
+ * available. Implementations must be thread-safe and should not allocate, as they are called for every
+ * assignment that is tried by the {@link FormulaSolver}.
+ */
+@FunctionalInterface
+public interface SolutionConstraint {
+
+    /**
+     * Possible decisions of a {@link SolutionConstraint}.
+     */
+    enum Decision {
+        //The text is a solution
+        ACCEPT,
+        //The text is not a solution, and neither is any text that starts with the given prefix
+        REJECT,
+        //No decision is possible yet, because the prefix is not long enough
+        UNDECIDED
+    }
+
+    /**
+     * Decides about a given text or prefix of the evaluated formula.
+     *
+     * @param text     The evaluated text or a prefix of it
+     * @param complete True, if the text is complete; false, if it is only a prefix
+     * @return The {@link Decision}; for complete texts, {@link Decision#UNDECIDED} is treated as rejection
+     */
+    Decision test(CharSequence text, boolean complete);
+}
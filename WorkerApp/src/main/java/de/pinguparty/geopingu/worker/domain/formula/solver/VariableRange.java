@@ -0,0 +1,49 @@
+package de.pinguparty.geopingu.worker.domain.formula.solver;
+
+/**
+ * Inclusive range of integer values that are tried for a variable by the {@link FormulaSolver}.
+ */
+public class VariableRange {
+    private final int from;
+    private final int to;
+
+    /**
+     * Creates a new {@link VariableRange} from a given lower and upper bound.
+     *
+     * @param from The lower bound (inclusive)
+     * @param to   The upper bound (inclusive)
+     */
+    public VariableRange(int from, int to) {
+        //Sanity check
+        if (from > to) throw new IllegalArgumentException("The lower bound must not be greater than the upper bound.");
+
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Creates a {@link VariableRange} for a single digit, i.e. 0 to 9.
+     *
+     * @return The resulting {@link VariableRange}
+     */
+    public static VariableRange digit() {
+        return new VariableRange(0, 9);
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public int size() {
+        return to - from + 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d-%d", from, to);
+    }
+}
@@ -1,6 +1,11 @@
 package de.pinguparty.geopingu.worker.domain.formula.utils;
 
+import java.math.BigDecimal;
+
 public class Utils {
+    //Largest magnitude up to which whole numbers are rendered without decimal places
+    private static final double MAX_WHOLE_NUMBER = 1e15;
+
     public static <T> T instantiateClass(Class<T> clazz) {
         try {
             return clazz.getDeclaredConstructor().newInstance();
@@ -8,4 +13,39 @@ public class Utils {
             return null;
         }
     }
+
+    /**
+     * Formats a given number for the output of a formula. Whole numbers are rendered without decimal places
+     * and all other numbers without exponent and trailing zeros.
+     *
+     * @param number The number to format
+     * @return The formatted number
+     */
+    public static String formatNumber(double number) {
+        //Special values cannot be formatted in a nicer way
+        if (Double.isNaN(number) || Double.isInfinite(number)) return Double.toString(number);
+
+        //Check for whole numbers
+        if ((number == Math.rint(number)) && (Math.abs(number) < MAX_WHOLE_NUMBER)) {
+            return Long.toString((long) number);
+        }
+
+        return BigDecimal.valueOf(number).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Appends a given number to a {@link StringBuilder} in the same format as {@link #formatNumber(double)}.
+     * Whole numbers are appended without creating intermediate strings.
+     *
+     * @param builder The {@link StringBuilder} to append to
+     * @param number  The number to append
+     */
+    public static void appendNumber(StringBuilder builder, double number) {
+        if ((number == Math.rint(number)) && (Math.abs(number) < MAX_WHOLE_NUMBER)) {
+            builder.append((long) number);
+            return;
+        }
+
+        builder.append(formatNumber(number));
+    }
 }
@@ -4,4 +4,8 @@ public class InternalErrorException extends UserErrorException {
     public InternalErrorException(long chatId, String message) {
         super(chatId, String.format("An internal error occurred: %s", message));
     }
+
+    public InternalErrorException(long chatId, String message, Throwable cause) {
+        super(chatId, String.format("An internal error occurred: %s", message), cause);
+    }
 }
@@ -15,6 +15,12 @@ public abstract class UserErrorException extends Exception {
         setTimestamp(Instant.now());
     }
 
+    public UserErrorException(long chatId, String message, Throwable cause) {
+        super(message, cause);
+        setChatId(chatId);
+        setTimestamp(Instant.now());
+    }
+
     public ErrorMessageAction toAction() {
         return (ErrorMessageAction) new ErrorMessageAction().setText(this.getMessage()).setChatID(chatId);
     }
@@ -123,9 +123,7 @@ public class AddGeocacheInteraction implements Interaction {
             try {
                 geocache = geocacheManager.getDetailsFetcher().fetchById(geocacheId);
             } catch (Exception e) {
-                System.out.println(e.getClass().getSimpleName() + ": " + e.getMessage());
-                e.printStackTrace();
-                throw new InternalErrorException(chatId, "Failed to retrieve geocache details.");
+                throw new InternalErrorException(chatId, "Failed to retrieve geocache details.", e);
             }
 
             //Update stored geocache data if necessary
@@ -136,7 +134,6 @@ public class AddGeocacheInteraction implements Interaction {
         geocacheManager.updateGeocacheUserNote(new GeocacheUserNote(chatId, geocache));
 
         //Send geocache details overview as bot reply
-        System.out.println(geocache.toString());
         botCommander.executeBotAction(new TextMessageAction(chatId, geocache.toString()));
         botCommander.executeBotAction(new TextMessageAction(chatId, "The geocache was added to your collection."));
     }
@@ -6,9 +6,10 @@ import org.springframework.stereotype.Repository;
 
 /**
  * Repository for {@link InteractionRegistration}s, using their contained IDs of the affected chats
- * as unique identifiers.
+ * as unique identifiers. Additionally offers fenced writes via {@link InteractionRegistrationRepositoryCustom}.
  */
 @Repository
-public interface InteractionRegistrationRepository extends MongoRepository<InteractionRegistration, Long> {
+public interface InteractionRegistrationRepository extends MongoRepository<InteractionRegistration, Long>,
+        InteractionRegistrationRepositoryCustom {
 
 }
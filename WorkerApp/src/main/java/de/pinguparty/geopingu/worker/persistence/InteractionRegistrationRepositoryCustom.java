@@ -0,0 +1,45 @@
+package de.pinguparty.geopingu.worker.persistence;
+
+import de.pinguparty.geopingu.worker.services.registry.InteractionRegistration;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Custom operations of the {@link InteractionRegistrationRepository}, which set up the expiry of registrations and
+ * fence the writes of instances that owned a shard of chats against the writes of later owners of the same shard.
+ */
+public interface InteractionRegistrationRepositoryCustom {
+    /**
+     * Ensures the TTL index on the last touched timestamps of the registrations, which removes registrations once
+     * they were not touched for a given time to live, and sets the timestamp of registrations that were stored
+     * without it, since they would never be removed otherwise.
+     *
+     * @param ttl The time to live of the registrations
+     * @return The number of registrations whose timestamp was set
+     */
+    long ensureExpiry(Duration ttl);
+
+    /**
+     * Increments and returns the epoch of a given shard, which serves as fencing token of the instance that acquires
+     * the ownership of the shard. Epochs increase monotonically across all instances.
+     *
+     * @param shard The number of the shard
+     * @return The new epoch of the shard
+     */
+    long acquireEpoch(int shard);
+
+    /**
+     * Writes given {@link InteractionRegistration}s in a single bulk operation, fenced by a given epoch: each
+     * registration replaces the stored registration of its chat only if the stored one was written with the same or
+     * an earlier epoch, so that late writes of a previous owner cannot overwrite the writes of a later one.
+     * Registrations without {@link de.pinguparty.geopingu.worker.interactions.Interaction} are written as tombstones,
+     * which are removed by the TTL index like expired registrations.
+     *
+     * @param registrations The {@link InteractionRegistration}s to write
+     * @param epoch         The epoch of the writing instance
+     * @return The IDs of the chats whose registrations were rejected due to a later epoch
+     */
+    Set<Long> writeAll(Collection<InteractionRegistration> registrations, long epoch);
+}
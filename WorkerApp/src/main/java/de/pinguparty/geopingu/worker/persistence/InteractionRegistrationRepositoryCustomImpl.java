@@ -0,0 +1,125 @@
+package de.pinguparty.geopingu.worker.persistence;
+
+import com.mongodb.bulk.BulkWriteError;
+import de.pinguparty.geopingu.worker.services.registry.InteractionRegistration;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Implementation of the {@link InteractionRegistrationRepositoryCustom} operations based on {@link MongoOperations}.
+ * The epochs of the shards are kept as counters in a separate collection. Fenced writes are upserts that only match
+ * registrations of the same or an earlier epoch; if a registration of a later epoch exists, the upsert attempts to
+ * insert a second registration with the same ID, which the database rejects as duplicate key.
+ */
+public class InteractionRegistrationRepositoryCustomImpl implements InteractionRegistrationRepositoryCustom {
+    private static final String COLLECTION_SHARD_EPOCHS = "interactionShardEpochs";
+    private static final String FIELD_ID = "_id";
+    private static final String FIELD_SHARD_EPOCH = "epoch";
+    private static final int ERROR_DUPLICATE_KEY = 11000;
+
+    private final MongoOperations mongoOperations;
+
+    /**
+     * Creates a new {@link InteractionRegistrationRepositoryCustomImpl} that works on given {@link MongoOperations}.
+     *
+     * @param mongoOperations The {@link MongoOperations} to use
+     */
+    public InteractionRegistrationRepositoryCustomImpl(MongoOperations mongoOperations) {
+        //Sanity check
+        if (mongoOperations == null) throw new IllegalArgumentException("The mongo operations must not be null.");
+
+        this.mongoOperations = mongoOperations;
+    }
+
+    /**
+     * Ensures the TTL index on the last touched timestamps of the registrations, which removes registrations once
+     * they were not touched for a given time to live, and sets the timestamp of registrations that were stored
+     * without it, since they would never be removed otherwise.
+     *
+     * @param ttl The time to live of the registrations
+     * @return The number of registrations whose timestamp was set
+     */
+    @Override
+    public long ensureExpiry(Duration ttl) {
+        mongoOperations.indexOps(InteractionRegistration.class).ensureIndex(new Index()
+                .on(InteractionRegistration.FIELD_LAST_TOUCHED, Sort.Direction.ASC)
+                .expire(ttl));
+        return mongoOperations.updateMulti(query(where(InteractionRegistration.FIELD_LAST_TOUCHED).exists(false)),
+                Update.update(InteractionRegistration.FIELD_LAST_TOUCHED, Instant.now()), InteractionRegistration.class)
+                .getModifiedCount();
+    }
+
+    /**
+     * Increments and returns the epoch of a given shard, which serves as fencing token of the instance that acquires
+     * the ownership of the shard. Epochs increase monotonically across all instances.
+     *
+     * @param shard The number of the shard
+     * @return The new epoch of the shard
+     */
+    @Override
+    public long acquireEpoch(int shard) {
+        Document counter = mongoOperations.findAndModify(query(where(FIELD_ID).is(shard)),
+                new Update().inc(FIELD_SHARD_EPOCH, 1L), FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Document.class, COLLECTION_SHARD_EPOCHS);
+        return ((Number) counter.get(FIELD_SHARD_EPOCH)).longValue();
+    }
+
+    /**
+     * Writes given {@link InteractionRegistration}s in a single bulk operation, fenced by a given epoch: each
+     * registration replaces the stored registration of its chat only if the stored one was written with the same or
+     * an earlier epoch, so that late writes of a previous owner cannot overwrite the writes of a later one.
+     * Registrations without {@link de.pinguparty.geopingu.worker.interactions.Interaction} are written as tombstones,
+     * which are removed by the TTL index like expired registrations.
+     *
+     * @param registrations The {@link InteractionRegistration}s to write
+     * @param epoch         The epoch of the writing instance
+     * @return The IDs of the chats whose registrations were rejected due to a later epoch
+     */
+    @Override
+    public Set<Long> writeAll(Collection<InteractionRegistration> registrations, long epoch) {
+        Set<Long> rejected = new HashSet<>();
+
+        //Sanity check
+        if (registrations.isEmpty()) return rejected;
+
+        //Each chat occurs at most once, so the order of the operations does not matter
+        List<InteractionRegistration> writes = new ArrayList<>(registrations);
+        BulkOperations bulkOperations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, InteractionRegistration.class);
+        for (InteractionRegistration registration : writes) {
+            registration.setEpoch(epoch);
+            bulkOperations.replaceOne(query(where(FIELD_ID).is(registration.getChatId()).orOperator(
+                            where(InteractionRegistration.FIELD_EPOCH).exists(false),
+                            where(InteractionRegistration.FIELD_EPOCH).lte(epoch))),
+                    registration, FindAndReplaceOptions.options().upsert());
+        }
+
+        try {
+            bulkOperations.execute();
+        } catch (BulkOperationException e) {
+            //Only duplicate keys are caused by later epochs, other errors fail the whole write
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != ERROR_DUPLICATE_KEY) throw e;
+                rejected.add(writes.get(error.getIndex()).getChatId());
+            }
+        }
+        return rejected;
+    }
+}
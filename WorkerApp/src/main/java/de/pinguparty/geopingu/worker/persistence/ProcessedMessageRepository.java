@@ -0,0 +1,13 @@
+package de.pinguparty.geopingu.worker.persistence;
+
+import de.pinguparty.geopingu.worker.services.dispatcher.ProcessedMessage;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository for {@link ProcessedMessage}s, using the stable IDs of the messages as unique identifiers.
+ */
+@Repository
+public interface ProcessedMessageRepository extends MongoRepository<ProcessedMessage, String> {
+
+}
@@ -0,0 +1,255 @@
+package de.pinguparty.geopingu.worker.services.commander;
+
+import de.pinguparty.geopingu.bot.tracing.MessageTrace;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes batches of encoded messages of chats asynchronously to given queues. The messages are sent by a
+ * dedicated publisher thread, and each message is correlated with its publisher confirm. The messages of a chat are
+ * published strictly in the order of their submission: each message of a chat is only sent once the previous message
+ * of the chat for the same queue was confirmed or finally dropped, while the messages of different chats are in
+ * flight concurrently. Messages that are not confirmed by the broker are published again after a delay, up to a
+ * maximum number of attempts, and the later messages of their chat are held back until then, so that users never
+ * receive replies out of order. The number of messages that are submitted, but not yet confirmed, is limited;
+ * further submissions block up to a timeout while the limit is reached, which exerts backpressure on the submitting
+ * threads instead of retrying inline.
+ */
+public class BotActionPublisher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BotActionPublisher.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final int maxUnconfirmed;
+    private final Semaphore unconfirmed;
+    private final long backpressureTimeout;
+    private final int maxAttempts;
+    private final long retryDelay;
+
+    //Thread that publishes the messages, handles their confirms and schedules the retries
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "bot-action-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Messages of each chat that are in flight or held back, by queue name and chat ID, in the order of their
+    //submission; the first message of each chat is the one in flight. Only accessed by the publisher thread.
+    private final Map<String, Map<Long, Deque<Publication>>> sequences = new HashMap<>();
+
+    private final Counter retriesCounter;
+    private final Counter failuresCounter;
+
+    /**
+     * Creates a new {@link BotActionPublisher} from given parameters.
+     *
+     * @param rabbitTemplate      The {@link RabbitTemplate} to publish with, which must use correlated publisher
+     *                            confirms
+     * @param maxUnconfirmed      The maximum number of published, but not yet confirmed messages
+     * @param backpressureTimeout The maximum time in milliseconds that submissions block while the maximum number
+     *                            of unconfirmed messages is reached
+     * @param maxAttempts         The maximum number of publishing attempts per message
+     * @param retryDelay          The delay in milliseconds before messages are published again
+     * @param meterRegistry       The {@link MeterRegistry} to record the metrics of the publisher to
+     */
+    public BotActionPublisher(RabbitTemplate rabbitTemplate, int maxUnconfirmed, long backpressureTimeout, int maxAttempts,
+                              long retryDelay, MeterRegistry meterRegistry) {
+        //Sanity checks
+        if (rabbitTemplate == null) throw new IllegalArgumentException("The rabbit template must not be null.");
+        if (maxUnconfirmed < 1)
+            throw new IllegalArgumentException("The maximum number of unconfirmed messages must be positive.");
+        if (backpressureTimeout < 0) throw new IllegalArgumentException("The backpressure timeout must not be negative.");
+        if (maxAttempts < 1) throw new IllegalArgumentException("The maximum number of attempts must be positive.");
+        if (retryDelay < 0) throw new IllegalArgumentException("The retry delay must not be negative.");
+        if (meterRegistry == null) throw new IllegalArgumentException("The meter registry must not be null.");
+
+        this.rabbitTemplate = rabbitTemplate;
+        this.maxUnconfirmed = maxUnconfirmed;
+        this.unconfirmed = new Semaphore(maxUnconfirmed);
+        this.backpressureTimeout = backpressureTimeout;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+
+        this.retriesCounter = meterRegistry.counter("geopingu.publisher.retries");
+        this.failuresCounter = meterRegistry.counter("geopingu.publisher.failures");
+        meterRegistry.gauge("geopingu.publisher.unconfirmed", unconfirmed, s -> maxUnconfirmed - s.availablePermits());
+    }
+
+    /**
+     * Submits a given batch of messages of a certain chat, given by its chat ID, for asynchronous publishing to the
+     * queue with a given name. The messages are published after all previously submitted messages of the chat for
+     * this queue and in the given order. Blocks while the maximum number of unconfirmed messages is reached, up to
+     * the backpressure timeout.
+     *
+     * @param queueName The name of the target queue, which is used as routing key on the default exchange
+     * @param chatID    The ID of the chat to which the messages belong
+     * @param messages  The messages to publish
+     * @throws InterruptedException       In case the thread is interrupted while waiting
+     * @throws AmqpTimeoutException       In case the messages could not be submitted within the backpressure timeout
+     * @throws RejectedExecutionException In case the publisher is shut down
+     */
+    public void publish(String queueName, long chatID, List<Message> messages) throws InterruptedException {
+        //Sanity checks
+        if ((queueName == null) || queueName.isEmpty()) throw new IllegalArgumentException("The queue name must not be empty.");
+        if ((messages == null) || messages.isEmpty()) return;
+
+        //Wait for confirms of previous messages if necessary, batches beyond the limit acquire all permits
+        int permits = Math.min(messages.size(), maxUnconfirmed);
+        if (!unconfirmed.tryAcquire(permits, backpressureTimeout, TimeUnit.MILLISECONDS))
+            throw new AmqpTimeoutException("Too many bot actions are waiting for publisher confirms.");
+
+        //Each message holds one of the acquired permits until it is confirmed or finally dropped
+        List<Publication> publications = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) publications.add(new Publication(messages.get(i), i < permits));
+
+        try {
+            publisher.execute(() -> enqueue(queueName, chatID, publications));
+        } catch (RejectedExecutionException e) {
+            unconfirmed.release(permits);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops accepting further messages and waits up to a given timeout for the confirms of all published messages.
+     *
+     * @param timeout The timeout in milliseconds
+     * @throws InterruptedException In case the thread is interrupted while waiting
+     */
+    public void shutdown(long timeout) throws InterruptedException {
+        if (!unconfirmed.tryAcquire(maxUnconfirmed, timeout, TimeUnit.MILLISECONDS))
+            LOGGER.warn("Shutting down with {} unconfirmed bot actions.", maxUnconfirmed - unconfirmed.availablePermits());
+        publisher.shutdownNow();
+    }
+
+    /**
+     * Appends given {@link Publication}s to the sequence of a given chat for the queue with a given name and sends
+     * the first of them, unless an earlier message of the chat is still in flight. Runs on the publisher thread.
+     */
+    private void enqueue(String queueName, long chatID, List<Publication> publications) {
+        Deque<Publication> sequence = sequences.computeIfAbsent(queueName, q -> new HashMap<>())
+                .computeIfAbsent(chatID, c -> new ArrayDeque<>());
+        boolean idle = sequence.isEmpty();
+        sequence.addAll(publications);
+        if (idle) send(queueName, chatID, sequence.peekFirst());
+    }
+
+    /**
+     * Sends a given {@link Publication} of a given chat with a correlated publisher confirm. The outcome of the
+     * attempt is handled on the publisher thread. Runs on the publisher thread.
+     */
+    private void send(String queueName, long chatID, Publication publication) {
+        Message message = publication.message;
+        publication.attempt++;
+
+        //Refresh the publication timestamp, so that the queue wait is measured from the actual publication
+        message.getMessageProperties().setHeader(MessageTrace.HEADER_PUBLISHED_TIMESTAMP, System.currentTimeMillis());
+
+        //Settle each attempt only once, even if the send fails and the confirm is completed as well
+        AtomicBoolean settled = new AtomicBoolean();
+        CorrelationData correlationData = new CorrelationData();
+        correlationData.getFuture().addCallback(confirm -> {
+            if (!settled.compareAndSet(false, true)) return;
+            boolean ack = (confirm != null) && confirm.isAck();
+            String reason = (confirm == null) ? null : confirm.getReason();
+            settle(() -> {
+                if (ack) complete(queueName, chatID, publication);
+                else retry(queueName, chatID, publication, reason);
+            });
+        }, e -> {
+            if (settled.compareAndSet(false, true)) settle(() -> retry(queueName, chatID, publication, e.getMessage()));
+        });
+
+        try {
+            rabbitTemplate.send("", queueName, message, correlationData);
+        } catch (AmqpException e) {
+            if (settled.compareAndSet(false, true)) retry(queueName, chatID, publication, e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a given handler of the outcome of a publishing attempt on the publisher thread. Outcomes that arrive after
+     * the publisher was shut down are ignored.
+     */
+    private void settle(Runnable handler) {
+        try {
+            publisher.execute(handler);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Ignoring the outcome of a publishing attempt after the shutdown of the publisher.");
+        }
+    }
+
+    /**
+     * Schedules another attempt for publishing a given {@link Publication} of a given chat that was not confirmed,
+     * while the later messages of the chat are held back, or drops it if the maximum number of attempts is reached.
+     * Runs on the publisher thread.
+     */
+    private void retry(String queueName, long chatID, Publication publication, String reason) {
+        if ((publication.attempt >= maxAttempts) || publisher.isShutdown()) {
+            failuresCounter.increment();
+            LOGGER.error("Dropping bot action {} after {} attempts: {}", publication.message.getMessageProperties().getCorrelationId(),
+                    publication.attempt, reason);
+            complete(queueName, chatID, publication);
+            return;
+        }
+
+        retriesCounter.increment();
+        try {
+            publisher.schedule(() -> send(queueName, chatID, publication), retryDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Not retrying a bot action after the shutdown of the publisher.");
+        }
+    }
+
+    /**
+     * Completes a given {@link Publication} of a given chat, which was either confirmed or finally dropped, by
+     * releasing its permit and sending the next message of the chat, if available. Runs on the publisher thread.
+     */
+    private void complete(String queueName, long chatID, Publication publication) {
+        if (publication.holdsPermit) unconfirmed.release();
+
+        Map<Long, Deque<Publication>> chats = sequences.get(queueName);
+        Deque<Publication> sequence = chats.get(chatID);
+        sequence.pollFirst();
+
+        //Send the next message of the chat or forget the chat
+        if (sequence.isEmpty()) {
+            chats.remove(chatID);
+            if (chats.isEmpty()) sequences.remove(queueName);
+        } else send(queueName, chatID, sequence.peekFirst());
+    }
+
+    /**
+     * Message that is submitted for publishing, together with the number of attempts made so far and whether it
+     * holds one of the permits for unconfirmed messages.
+     */
+    private static class Publication {
+        private final Message message;
+        private final boolean holdsPermit;
+        private int attempt = 0;
+
+        private Publication(Message message, boolean holdsPermit) {
+            this.message = message;
+            this.holdsPermit = holdsPermit;
+        }
+    }
+}
@@ -1,30 +1,217 @@
 package de.pinguparty.geopingu.worker.services.commander;
 
+import de.pinguparty.geopingu.bot.actions.ActionLane;
 import de.pinguparty.geopingu.bot.actions.BotAction;
-import de.pinguparty.geopingu.bot.util.JSONConverter;
-import org.json.JSONObject;
+import de.pinguparty.geopingu.bot.actions.text.TextMessageAction;
+import de.pinguparty.geopingu.bot.tracing.MessageTrace;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Component for issuing {@link BotAction}s that are supposed to be executed by the bot. The actions are published
+ * asynchronously by a {@link BotActionPublisher}, which keeps the actions of each chat in order. While a task is run
+ * via {@link #runBatched(Supplier)}, all actions that it issues are buffered and published as one batch once the task
+ * completes. Within a batch, adjacent {@link TextMessageAction}s for the same chat are coalesced into a single action
+ * where possible, which saves queue messages and calls of the Telegram API. Actions of the bulk {@link ActionLane}
+ * bypass the batch and are published to their own queue, so that the bot can execute interactive actions ahead of
+ * them.
+ */
 @Component
 public class BotCommander {
 
+    //Buffer of the batch that is currently collected by the thread
+    private static final ThreadLocal<List<BotAction>> BATCH = new ThreadLocal<>();
+
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
     @Autowired
     private Queue botActionsQueue;
 
+    @Autowired
+    private Queue botActionsBulkQueue;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${worker.publisher.max-unconfirmed}")
+    private int maxUnconfirmed;
+
+    @Value("${worker.publisher.backpressure-timeout}")
+    private long backpressureTimeout;
+
+    @Value("${worker.publisher.max-attempts}")
+    private int maxAttempts;
+
+    @Value("${worker.publisher.retry-delay}")
+    private long retryDelay;
+
+    @Value("${worker.publisher.shutdown-timeout}")
+    private long shutdownTimeout;
+
+    private BotActionPublisher botActionPublisher;
+
+    /**
+     * Initializes the commander by creating the {@link BotActionPublisher}.
+     */
+    @PostConstruct
+    public void initialize() {
+        botActionPublisher = new BotActionPublisher(rabbitTemplate, maxUnconfirmed, backpressureTimeout, maxAttempts,
+                retryDelay, meterRegistry);
+    }
+
+    /**
+     * Waits for the publisher confirms of all published actions before the application shuts down.
+     *
+     * @throws InterruptedException In case the thread is interrupted while waiting
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        botActionPublisher.shutdown(shutdownTimeout);
+    }
+
+    /**
+     * Issues a given {@link BotAction} in the interactive {@link ActionLane}. The action is added to the batch of the
+     * calling thread, if one is collected, and published asynchronously otherwise.
+     *
+     * @param botAction The {@link BotAction} to issue
+     */
     public void executeBotAction(BotAction botAction) {
-        //Sanity check
+        executeBotAction(botAction, ActionLane.INTERACTIVE);
+    }
+
+    /**
+     * Issues a given {@link BotAction} in a given {@link ActionLane}. Interactive actions are added to the batch of
+     * the calling thread, if one is collected, and published asynchronously otherwise. Bulk actions are always
+     * published asynchronously on their own.
+     *
+     * @param botAction The {@link BotAction} to issue
+     * @param lane      The {@link ActionLane} in which the action is executed
+     */
+    public void executeBotAction(BotAction botAction, ActionLane lane) {
+        //Sanity checks
         if (botAction == null) throw new IllegalArgumentException("Bot action must not be null!");
+        if (lane == null) throw new IllegalArgumentException("The lane must not be null.");
+
+        if (lane == ActionLane.BULK) {
+            publish(botActionsBulkQueue.getName(), Collections.singletonList(botAction));
+            return;
+        }
+
+        //Add the action to the current batch or publish it on its own
+        List<BotAction> batch = BATCH.get();
+        if (batch != null) addToBatch(batch, botAction);
+        else publish(botActionsQueue.getName(), Collections.singletonList(botAction));
+    }
+
+    /**
+     * Runs a given task and collects all {@link BotAction}s that are issued by it on the calling thread, in order to
+     * submit them as one batch for publishing once the task completed successfully. If the task fails, the collected
+     * actions are discarded and the exception is rethrown. Since the batch is submitted before this method returns,
+     * callers can rely on the actions being submitted once it returns normally. Nested calls contribute to the batch
+     * of the outermost call.
+     *
+     * @param task The task to run
+     * @param <T>  The type of the result of the task
+     * @return The result of the task
+     * @throws AmqpTimeoutException       In case the batch could not be submitted within the backpressure timeout
+     * @throws RejectedExecutionException In case the publisher is shut down
+     */
+    public <T> T runBatched(Supplier<T> task) {
+        //Sanity check
+        if (task == null) throw new IllegalArgumentException("The task must not be null.");
+
+        //Check whether a batch is already collected
+        if (BATCH.get() != null) return task.get();
+
+        List<BotAction> batch = new ArrayList<>();
+        BATCH.set(batch);
+        T result;
+        try {
+            result = task.get();
+        } finally {
+            BATCH.remove();
+        }
+
+        //Submit the batch only after the task succeeded, so that submission failures do not hide its exceptions
+        publish(botActionsQueue.getName(), batch);
+        return result;
+    }
+
+    /**
+     * Discards all {@link BotAction}s that were collected in the batch of the calling thread so far, e.g. because
+     * the task that issued them is going to be retried.
+     */
+    public void discardBatch() {
+        List<BotAction> batch = BATCH.get();
+        if (batch != null) batch.clear();
+    }
+
+    /**
+     * Adds a given {@link BotAction} to a given batch. If both the action and the last action of the batch are
+     * {@link TextMessageAction}s that can be merged, the last action is replaced by the merged action.
+     */
+    private void addToBatch(List<BotAction> batch, BotAction botAction) {
+        if (!batch.isEmpty() && (botAction instanceof TextMessageAction) && (batch.get(batch.size() - 1) instanceof TextMessageAction)) {
+            TextMessageAction last = (TextMessageAction) batch.get(batch.size() - 1);
+            if (last.canMergeWith((TextMessageAction) botAction)) {
+                batch.set(batch.size() - 1, last.mergeWith((TextMessageAction) botAction));
+                meterRegistry.counter("geopingu.commander.coalesced").increment();
+                return;
+            }
+        }
+
+        batch.add(botAction);
+    }
+
+    /**
+     * Encodes a given {@link BotAction} to a {@link Message} with the message converter of the template and
+     * propagates the trace of the user message that is currently handled, or starts a new one.
+     */
+    private Message toMessage(BotAction botAction) {
+        Message message = rabbitTemplate.getMessageConverter().toMessage(botAction, new MessageProperties());
+
+        MessageTrace trace = MessageTrace.current();
+        return ((trace == null) ? MessageTrace.start() : trace).postProcessMessage(message);
+    }
 
-        //Transform action to JSON
-        JSONObject actionJSON = JSONConverter.toJSON(botAction);
+    /**
+     * Encodes a given batch of {@link BotAction}s and submits the actions of each chat to the {@link BotActionPublisher}
+     * for the queue with a given name, which blocks while too many messages are unconfirmed. The encoding time is
+     * recorded by action type.
+     */
+    private void publish(String queueName, List<BotAction> batch) {
+        //Group the encoded actions by chat, keeping their order within each chat
+        Map<Long, List<Message>> messagesByChat = new LinkedHashMap<>();
+        for (BotAction botAction : batch) {
+            Message message = meterRegistry.timer("geopingu.commander.actions", "type", botAction.getTypeName()).record(() -> toMessage(botAction));
+            messagesByChat.computeIfAbsent(botAction.getChatID(), c -> new ArrayList<>()).add(message);
+        }
 
-        //Insert action into queue
-        rabbitTemplate.convertAndSend(botActionsQueue.getName(), actionJSON.toString());
+        try {
+            for (Map.Entry<Long, List<Message>> chatMessages : messagesByChat.entrySet()) {
+                botActionPublisher.publish(queueName, chatMessages.getKey(), chatMessages.getValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the publishing of other bot actions.", e);
+        }
     }
 }
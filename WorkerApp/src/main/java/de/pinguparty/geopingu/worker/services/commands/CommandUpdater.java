@@ -1,5 +1,6 @@
 package de.pinguparty.geopingu.worker.services.commands;
 
+import de.pinguparty.geopingu.bot.actions.ActionLane;
 import de.pinguparty.geopingu.bot.actions.commands.UpdateCommandsDescription;
 import de.pinguparty.geopingu.worker.interactions.Interaction;
 import de.pinguparty.geopingu.worker.services.commander.BotCommander;
@@ -39,7 +40,7 @@ public class CommandUpdater implements SmartLifecycle {
                 .map(Interaction::instantiateInteraction).filter(Objects::nonNull)
                 .filter(Interaction::addToCommandsList)
                 .collect(Collectors.toMap(i -> commandPrefix + i.getStartCommand(), Interaction::getDescription));
-        botCommander.executeBotAction(new UpdateCommandsDescription().setCommandsDescriptions(commandDescriptions));
+        botCommander.executeBotAction(new UpdateCommandsDescription().setCommandsDescriptions(commandDescriptions), ActionLane.BULK);
         this.running = true;
     }
 
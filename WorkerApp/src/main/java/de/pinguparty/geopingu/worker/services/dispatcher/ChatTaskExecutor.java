@@ -0,0 +1,126 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Executes tasks that belong to chats, such that the tasks of the same chat are executed strictly in the order of
+ * their submission, while the tasks of different chats are executed concurrently. Each task runs on its own virtual
+ * thread, so that tasks that block on I/O do not occupy platform threads. The number of
+ * tasks that are submitted, but not yet completed, is limited; further submissions block until tasks complete,
+ * which exerts backpressure on the submitting message listeners. Failures of tasks are logged and reported by the
+ * futures that are returned on submission.
+ */
+public class ChatTaskExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatTaskExecutor.class);
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    //Last submitted task of each chat with uncompleted tasks, which the next task of the chat is chained to
+    private final Map<Long, CompletableFuture<Void>> chatTails = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link ChatTaskExecutor} with a given maximum number of tasks in flight.
+     *
+     * @param maxInFlight The maximum number of submitted, but not yet completed tasks
+     */
+    public ChatTaskExecutor(int maxInFlight) {
+        //Sanity check
+        if (maxInFlight < 1) throw new IllegalArgumentException("The maximum number of tasks in flight must be positive.");
+
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Submits a task of a certain chat, given by its chat ID, for execution after all previously submitted tasks
+     * of the same chat. Blocks while the maximum number of tasks is in flight.
+     *
+     * @param chatID The ID of the chat to which the task belongs
+     * @param task   The task to execute
+     * @return A {@link CompletableFuture} that completes once the task completed, exceptionally if it failed
+     * @throws InterruptedException       In case the thread is interrupted while waiting for a free slot
+     * @throws RejectedExecutionException In case the executor is already shut down
+     */
+    public CompletableFuture<Void> execute(long chatID, Runnable task) throws InterruptedException {
+        //Sanity check
+        if (task == null) throw new IllegalArgumentException("The task must not be null.");
+
+        inFlight.acquire();
+
+        //Chain the task to the previous task of the chat, regardless of whether it failed
+        CompletableFuture<Void> next;
+        try {
+            next = chatTails.compute(chatID, (id, tail) ->
+                    (tail == null) ? CompletableFuture.runAsync(task, executor) : tail.exceptionally(e -> null).thenRunAsync(task, executor));
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+
+        //Release the slot and forget the chat once its last task completed
+        next.whenComplete((result, exception) -> {
+            chatTails.remove(chatID, next);
+            inFlight.release();
+            if (exception != null) LOGGER.error("A task of chat {} failed.", chatID, unwrap(exception));
+        });
+        return next;
+    }
+
+    /**
+     * Returns the number of submitted, but not yet completed tasks.
+     *
+     * @return The number of tasks in flight
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Waits for the completion of all tasks in flight up to a given timeout and stops the executor afterwards.
+     * Since the tasks of a chat are only handed over to the executor once their predecessors completed, the tasks
+     * of all chats are drained before the executor stops accepting tasks, so that no submitted task is rejected.
+     *
+     * @param timeout The timeout in milliseconds
+     * @throws InterruptedException In case the thread is interrupted while waiting
+     */
+    public void shutdown(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        //Wait for the last tasks of all chats, which complete after all of their predecessors
+        while (true) {
+            CompletableFuture<?>[] tails = chatTails.values().stream().filter(f -> !f.isDone()).toArray(CompletableFuture[]::new);
+            long remaining = deadline - System.currentTimeMillis();
+            if ((tails.length == 0) || (remaining <= 0)) break;
+
+            try {
+                CompletableFuture.allOf(tails).get(remaining, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                //Failures of tasks are already logged
+            } catch (TimeoutException e) {
+                break;
+            }
+        }
+
+        long pendingChats = chatTails.values().stream().filter(f -> !f.isDone()).count();
+        if (pendingChats > 0) LOGGER.warn("Shutting down with tasks of {} chats in flight.", pendingChats);
+        executor.shutdown();
+        executor.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the cause of a given exception of a {@link CompletableFuture}, which wraps failures of its stages.
+     *
+     * @param exception The exception to unwrap
+     * @return The cause of the exception or the exception itself, if it is not wrapped
+     */
+    static Throwable unwrap(Throwable exception) {
+        return ((exception instanceof CompletionException) && (exception.getCause() != null)) ? exception.getCause() : exception;
+    }
+}
@@ -0,0 +1,123 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Case-insensitive trie for resolving commands, such as "/add" or "/Add@GeoPinguBot GC12345", from message texts
+ * without allocating any objects. All commands share a common prefix, so that texts that are no commands are
+ * usually rejected after looking at their first non-whitespace character. A command is only recognized if it is
+ * followed by the end of the text, a whitespace or the mention of a bot name.
+ *
+ * @param <V> The type of the values that are associated with the commands
+ */
+public class CommandTrie<V> {
+    private static final char MENTION = '@';
+
+    private final String prefix;
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Creates a new {@link CommandTrie} for commands with a given prefix.
+     *
+     * @param prefix The prefix of all commands
+     */
+    public CommandTrie(String prefix) {
+        //Sanity check
+        if ((prefix == null) || prefix.isEmpty()) throw new IllegalArgumentException("The prefix must not be empty.");
+
+        this.prefix = prefix;
+    }
+
+    /**
+     * Adds a command without prefix and its associated value to the trie.
+     *
+     * @param command The command to add
+     * @param value   The value to associate with the command
+     * @return The {@link CommandTrie}
+     */
+    public CommandTrie<V> put(String command, V value) {
+        //Sanity checks
+        if ((command == null) || command.isEmpty()) throw new IllegalArgumentException("The command must not be empty.");
+        if (value == null) throw new IllegalArgumentException("The value must not be null.");
+
+        Node<V> node = root;
+        for (char c : (prefix + command).toLowerCase(Locale.ROOT).toCharArray()) node = node.getOrCreateChild(c);
+        node.value = value;
+        return this;
+    }
+
+    /**
+     * Resolves the command at the beginning of a given text, ignoring leading whitespaces, and returns its
+     * associated value. If the text does not start with a known command, null is returned.
+     *
+     * @param text The text to resolve the command from
+     * @return The value of the command or null
+     */
+    public V match(CharSequence text) {
+        //Sanity check
+        if (text == null) return null;
+
+        //Skip leading whitespaces
+        int length = text.length();
+        int position = 0;
+        while ((position < length) && Character.isWhitespace(text.charAt(position))) position++;
+
+        //Follow the characters of the text through the trie
+        Node<V> node = root;
+        while ((position < length) && !isCommandEnd(text.charAt(position))) {
+            node = node.getChild(Character.toLowerCase(text.charAt(position++)));
+            if (node == null) return null;
+        }
+
+        //Skip the mention of a bot name
+        if ((position < length) && (text.charAt(position) == MENTION)) {
+            position++;
+            while ((position < length) && isNameCharacter(text.charAt(position))) position++;
+            if ((position < length) && !Character.isWhitespace(text.charAt(position))) return null;
+        }
+
+        return node.value;
+    }
+
+    private static boolean isCommandEnd(char c) {
+        return (c == MENTION) || Character.isWhitespace(c);
+    }
+
+    private static boolean isNameCharacter(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '_');
+    }
+
+    /**
+     * Node of the trie, which stores its children in parallel arrays of labels and nodes.
+     */
+    private static class Node<V> {
+        private char[] labels = new char[0];
+        private Node<V>[] children = newArray(0);
+        private V value;
+
+        private Node<V> getChild(char label) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == label) return children[i];
+            }
+            return null;
+        }
+
+        private Node<V> getOrCreateChild(char label) {
+            Node<V> child = getChild(label);
+            if (child != null) return child;
+
+            child = new Node<>();
+            labels = Arrays.copyOf(labels, labels.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            labels[labels.length - 1] = label;
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Node<V>[] newArray(int length) {
+            return (Node<V>[]) new Node[length];
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe, in-memory window of the IDs of recently processed messages for the {@link MessageDeduplicator}. The
+ * IDs are kept in the order of their processing, so that entries that are older than the window or exceed the
+ * maximum number of entries can be evicted from the head in constant time per entry. The window is guarded by an
+ * explicit lock rather than a monitor, so that dispatchers on virtual threads do not pin their carrier threads while
+ * they wait for it.
+ */
+class DeduplicationWindow {
+    private final long windowMillis;
+    private final int maxEntries;
+
+    //IDs of the processed messages, mapped to their processing time in milliseconds, in the order of processing
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Creates a new {@link DeduplicationWindow} from given parameters.
+     *
+     * @param windowMillis The duration of the window in milliseconds
+     * @param maxEntries   The maximum number of IDs to keep
+     */
+    DeduplicationWindow(long windowMillis, int maxEntries) {
+        //Sanity checks
+        if (windowMillis < 1) throw new IllegalArgumentException("The deduplication window must be positive.");
+        if (maxEntries < 1) throw new IllegalArgumentException("The maximum number of entries must be positive.");
+
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns whether a given message ID was added within the window before a given time in milliseconds.
+     *
+     * @param messageID The message ID to check
+     * @param now       The current time in milliseconds
+     * @return True, if the ID is within the window; false otherwise
+     */
+    boolean contains(String messageID, long now) {
+        lock.lock();
+        try {
+            evict(now);
+            return entries.containsKey(messageID);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a given message ID with a given processing time in milliseconds to the window and evicts old entries.
+     *
+     * @param messageID The message ID to add
+     * @param now       The processing time in milliseconds
+     */
+    void add(String messageID, long now) {
+        lock.lock();
+        try {
+            entries.remove(messageID);
+            entries.put(messageID, now);
+            evict(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of IDs within the window.
+     *
+     * @return The number of IDs
+     */
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts all entries that are older than the window, as well as the oldest entries that exceed the maximum
+     * number of entries. Since the entries are ordered by their processing time, only the head needs to be inspected.
+     * Must be called with the lock.
+     */
+    private void evict(long now) {
+        long threshold = now - windowMillis;
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> oldest = iterator.next();
+            if ((oldest.getValue() > threshold) && (entries.size() <= maxEntries)) break;
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import de.pinguparty.geopingu.worker.persistence.ProcessedMessageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.Instant;
+
+import static de.pinguparty.geopingu.worker.utils.MetricUtils.timedRepositoryCall;
+
+/**
+ * Service for recognizing repeated deliveries of {@link UserMessage}s, which occur when the broker redelivers
+ * messages after a consumer failed or when the bot publishes a message twice. The stable IDs of all processed
+ * messages are kept for a configurable deduplication window, both in memory and in a database collection whose
+ * records expire by a TTL index. The in-memory {@link DeduplicationWindow} holds the IDs in the order of their
+ * processing and is bounded in size, so that lookups, insertions and evictions take constant time. The database is
+ * only consulted for messages that are flagged as redelivered by the broker and while the in-memory window is still
+ * incomplete after the start of the application, in order to avoid a round trip for every message.
+ */
+@Service
+public class MessageDeduplicator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageDeduplicator.class);
+
+    @Value("${worker.dedup.window}")
+    private long window;
+
+    @Value("${worker.dedup.max-entries}")
+    private int maxEntries;
+
+    @Autowired
+    private ProcessedMessageRepository processedMessageRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //IDs of the messages that were processed within the deduplication window
+    private DeduplicationWindow processedMessages;
+
+    //Time in milliseconds until which the in-memory window does not cover the full deduplication window yet
+    private long warmUpEnd;
+
+    /**
+     * Initializes the deduplicator by creating the in-memory window and ensuring the TTL index on the processed
+     * messages collection.
+     */
+    @PostConstruct
+    public void initialize() {
+        processedMessages = new DeduplicationWindow(getWindowMillis(), maxEntries);
+        warmUpEnd = System.currentTimeMillis() + getWindowMillis();
+
+        try {
+            mongoTemplate.indexOps(ProcessedMessage.class).ensureIndex(new Index()
+                    .on(ProcessedMessage.FIELD_PROCESSED_AT, Sort.Direction.ASC)
+                    .expire(Duration.ofSeconds(window)));
+        } catch (DataAccessException e) {
+            LOGGER.warn("The TTL index for processed messages could not be created: {}", e.toString());
+        }
+    }
+
+    /**
+     * Checks whether a given {@link UserMessage}, which was decoded from a given AMQP message, was already processed
+     * within the deduplication window. Messages without stable ID are never considered as duplicates.
+     *
+     * @param userMessage The {@link UserMessage} to check
+     * @param message     The AMQP message from which the user message was decoded
+     * @return True, if the message is a duplicate; false otherwise
+     */
+    public boolean isDuplicate(UserMessage userMessage, Message message) {
+        //Sanity check
+        if ((userMessage == null) || (!userMessage.hasMessageID())) return false;
+
+        long now = System.currentTimeMillis();
+        if (processedMessages.contains(userMessage.getMessageID(), now)) return true;
+
+        //Skip the database unless the message may have been processed before the in-memory window was populated
+        boolean redelivered = Boolean.TRUE.equals(message.getMessageProperties().getRedelivered());
+        if ((!redelivered) && (now >= warmUpEnd)) return false;
+
+        boolean processed;
+        try {
+            processed = timedRepositoryCall(meterRegistry, "findProcessedMessage", () -> processedMessageRepository.existsById(userMessage.getMessageID()));
+        } catch (DataAccessException e) {
+            LOGGER.warn("Processed messages could not be looked up: {}", e.toString());
+            return false;
+        }
+
+        //Remember the message, so that further deliveries are recognized in memory
+        if (processed) processedMessages.add(userMessage.getMessageID(), now);
+        return processed;
+    }
+
+    /**
+     * Records a given {@link UserMessage} as processed, so that further deliveries of it within the deduplication
+     * window are recognized as duplicates. Failures of the database are logged, but do not fail the message.
+     *
+     * @param userMessage The processed {@link UserMessage}
+     */
+    public void markProcessed(UserMessage userMessage) {
+        //Sanity check
+        if ((userMessage == null) || (!userMessage.hasMessageID())) return;
+
+        long now = System.currentTimeMillis();
+        processedMessages.add(userMessage.getMessageID(), now);
+
+        try {
+            timedRepositoryCall(meterRegistry, "saveProcessedMessage", () -> processedMessageRepository.save(
+                    new ProcessedMessage(userMessage.getMessageID(), Instant.ofEpochMilli(now))));
+        } catch (DataAccessException e) {
+            LOGGER.warn("The processed message could not be recorded: {}", e.toString());
+        }
+    }
+
+    /**
+     * Returns the deduplication window in milliseconds.
+     */
+    private long getWindowMillis() {
+        return window * 1000;
+    }
+}
@@ -0,0 +1,81 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Represents the record of a {@link UserMessage} that was already processed, which is kept for the duration of the
+ * deduplication window in order to recognize repeated deliveries of the message. Expired records are removed by
+ * the database based on their processing timestamp.
+ */
+@Document
+public class ProcessedMessage {
+    //Name of the field that holds the processing timestamp
+    public static final String FIELD_PROCESSED_AT = "processedAt";
+
+    @Id
+    private String messageID;
+    private Instant processedAt;
+
+    /**
+     * Creates a new, empty {@link ProcessedMessage}.
+     */
+    public ProcessedMessage() {
+
+    }
+
+    /**
+     * Creates a new {@link ProcessedMessage} from the stable ID of the {@link UserMessage} and the timestamp
+     * describing when it was processed.
+     *
+     * @param messageID   The ID of the processed message
+     * @param processedAt The processing timestamp
+     */
+    public ProcessedMessage(String messageID, Instant processedAt) {
+        setMessageID(messageID);
+        setProcessedAt(processedAt);
+    }
+
+    /**
+     * Returns the ID of the processed message.
+     *
+     * @return The message ID
+     */
+    public String getMessageID() {
+        return messageID;
+    }
+
+    /**
+     * Sets the ID of the processed message.
+     *
+     * @param messageID The message ID to set
+     * @return The {@link ProcessedMessage}
+     */
+    public ProcessedMessage setMessageID(String messageID) {
+        this.messageID = messageID;
+        return this;
+    }
+
+    /**
+     * Returns the timestamp describing when the message was processed.
+     *
+     * @return The processing timestamp
+     */
+    public Instant getProcessedAt() {
+        return processedAt;
+    }
+
+    /**
+     * Sets the timestamp describing when the message was processed.
+     *
+     * @param processedAt The processing timestamp to set
+     * @return The {@link ProcessedMessage}
+     */
+    public ProcessedMessage setProcessedAt(Instant processedAt) {
+        this.processedAt = processedAt;
+        return this;
+    }
+}
@@ -1,24 +1,53 @@
 package de.pinguparty.geopingu.worker.services.dispatcher;
 
 import de.pinguparty.geopingu.bot.actions.error.ErrorMessageAction;
+import de.pinguparty.geopingu.bot.codec.NegotiatingMessageConverter;
 import de.pinguparty.geopingu.bot.messages.UserMessage;
-import de.pinguparty.geopingu.bot.util.JSONConverter;
-import de.pinguparty.geopingu.worker.config.MessagingConfig;
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import de.pinguparty.geopingu.bot.tracing.HopRecorder;
+import de.pinguparty.geopingu.bot.tracing.MessageTrace;
 import de.pinguparty.geopingu.worker.exceptions.UserErrorException;
 import de.pinguparty.geopingu.worker.interactions.Interaction;
 import de.pinguparty.geopingu.worker.services.commander.BotCommander;
 import de.pinguparty.geopingu.worker.services.geocache.GeocacheManager;
 import de.pinguparty.geopingu.worker.services.registry.InteractionRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.reflections.Reflections;
 import org.reflections.util.ConfigurationBuilder;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.event.AmqpEvent;
+import org.springframework.amqp.rabbit.listener.AsyncConsumerStoppedEvent;
+import org.springframework.amqp.rabbit.listener.ListenerContainerConsumerFailedEvent;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.support.converter.MessageConversionException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for retrieving incoming {@link UserMessage}s from the corresponding queue and dispatching them to the
@@ -27,10 +56,29 @@ import java.util.*;
  * If this is not the case, the {@link InteractionRegistry} is consulted in order to determine whether an
  * {@link Interaction} is registered as currently active for the chat to which the message was originally sent and thus
  * could handle it. In all other cases, the message is just ignored.
+ * <p>
+ * The messages are consumed from the queues of the {@link UserMessageShards} with one consumer per shard, so that
+ * the messages of a chat are dispatched strictly in order, while the messages of different chats are dispatched
+ * in parallel. If multiple worker instances are running, each instance consumes its preferred shards right away and
+ * all other shards only after a delay, so that the shards are spread across the instances and the remaining
+ * instances serve as standby for each shard. Since only the active consumer of a shard receives its messages, the
+ * shards from which messages are received are marked as owned in the {@link InteractionRegistry} and released again
+ * when their consumers stop.
+ * <p>
+ * Optionally, the messages are dispatched on virtual threads by a {@link ChatTaskExecutor}, which keeps the messages
+ * of a chat in order, but allows up to a configurable number of messages in flight across all chats. In this case,
+ * the listeners acknowledge each message manually once its handling completed.
+ * <p>
+ * Repeated deliveries of already processed messages are dropped by the {@link MessageDeduplicator}, while messages
+ * whose handling failed are retried, deferred or parked by the {@link UserMessageRecovery}.
  */
 @Service
-public class UserMessageDispatcher {
+public class UserMessageDispatcher implements RabbitListenerConfigurer {
     private static final String INTERACTIONS_PACKAGE = "de.pinguparty.geopingu.worker.interactions";
+    private static final String LISTENER_ID_PREFIX = "userMessages-";
+    private static final String METRIC_PREFIX = "geopingu.dispatcher.";
+    static final String METRIC_MESSAGES = METRIC_PREFIX + "messages";
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserMessageDispatcher.class);
     private static final Map<String, Class<? extends Interaction>> COMMANDS_MAP = new HashMap<>();
 
     //Set of all available interaction classes
@@ -55,6 +103,42 @@ public class UserMessageDispatcher {
     @Value("${worker.command.prefix}")
     private String commandPrefix;
 
+    @Value("${worker.instance.index}")
+    private int instanceIndex;
+
+    @Value("${worker.instance.count}")
+    private int instanceCount;
+
+    @Value("${worker.queue.messages.standby-delay}")
+    private int standbyDelay;
+
+    @Value("${worker.dispatcher.virtual-threads}")
+    private boolean virtualThreads;
+
+    @Value("${worker.dispatcher.max-in-flight}")
+    private int maxInFlight;
+
+    @Value("${worker.dispatcher.shutdown-timeout}")
+    private long shutdownTimeout;
+
+    @Autowired
+    private UserMessageShards userMessageShards;
+
+    @Autowired
+    private UserMessageRetries userMessageRetries;
+
+    @Autowired
+    private MessageDeduplicator messageDeduplicator;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private NegotiatingMessageConverter messageConverter;
+
+    @Autowired
+    private RabbitListenerEndpointRegistry listenerEndpointRegistry;
+
     @Autowired
     private BotCommander botCommander;
 
@@ -64,26 +148,295 @@ public class UserMessageDispatcher {
     @Autowired
     private InteractionRegistry interactionRegistry;
 
-    @RabbitListener(queues = {"${worker.queue.messages}"}, concurrency = MessagingConfig.CONSUMER_CONCURRENCY)
-    public void receiveMessage(@Payload String payload) {
-        //Sanity checks
-        if ((payload == null) || payload.isEmpty()) {
-            return;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //Records the timings of the user messages hop
+    private HopRecorder hopRecorder;
+
+    //Trie for resolving the start commands of the interactions
+    private CommandTrie<Class<? extends Interaction>> commandTrie;
+
+    //Executor for dispatching the messages concurrently, or null if they are dispatched on the consumer threads
+    private ChatTaskExecutor chatTaskExecutor;
+
+    //Retries, defers and parks the messages whose handling failed
+    private UserMessageRecovery userMessageRecovery;
+
+    /**
+     * Builds the {@link CommandTrie} from the start commands, creates the {@link UserMessageRecovery} and creates the
+     * {@link ChatTaskExecutor} if the messages are supposed to be dispatched on virtual threads.
+     */
+    @PostConstruct
+    public void initialize() {
+        commandTrie = new CommandTrie<>(commandPrefix);
+        COMMANDS_MAP.forEach(commandTrie::put);
+
+        hopRecorder = new HopRecorder(meterRegistry, "userMessages");
+        userMessageRecovery = new UserMessageRecovery(rabbitTemplate, userMessageShards, userMessageRetries, meterRegistry);
+
+        if (!virtualThreads) return;
+
+        chatTaskExecutor = new ChatTaskExecutor(maxInFlight);
+    }
+
+    /**
+     * Waits for the completion of all messages in flight before the application shuts down.
+     *
+     * @throws InterruptedException In case the thread is interrupted while waiting
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (chatTaskExecutor != null) chatTaskExecutor.shutdown(shutdownTimeout);
+    }
+
+    /**
+     * Registers one listener with a single consumer for the queue of each shard. Only the listeners of
+     * the preferred shards of this instance are started automatically. The listeners are batch listeners, which
+     * receive lists of one message unless consumer batching is enabled. If the messages are dispatched by the
+     * {@link ChatTaskExecutor}, the listeners acknowledge the messages manually after their handling.
+     *
+     * @param registrar The registrar to register the listeners with
+     */
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        for (int shard = 0; shard < userMessageShards.getCount(); shard++) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId(LISTENER_ID_PREFIX + shard);
+            endpoint.setQueueNames(userMessageShards.getQueueName(shard));
+            endpoint.setConcurrency("1");
+            endpoint.setAutoStartup(isPreferredShard(shard));
+            endpoint.setBatchListener(true);
+
+            if (chatTaskExecutor == null) {
+                endpoint.setMessageListener(new BatchMessageListener() {
+                    @Override
+                    public void onMessage(Message message) {
+                        receiveMessages(Collections.singletonList(message), null);
+                    }
+
+                    @Override
+                    public void onMessageBatch(List<Message> messages) {
+                        receiveMessages(messages, null);
+                    }
+                });
+            } else {
+                //The messages are only acknowledged once the executor completed their handling
+                endpoint.setAckMode(AcknowledgeMode.MANUAL);
+                endpoint.setMessageListener(new ChannelAwareBatchMessageListener() {
+                    @Override
+                    public void onMessage(Message message, Channel channel) {
+                        receiveMessages(Collections.singletonList(message), channel);
+                    }
+
+                    @Override
+                    public void onMessageBatch(List<Message> messages, Channel channel) {
+                        receiveMessages(messages, channel);
+                    }
+                });
+            }
+            registrar.registerEndpoint(endpoint);
         }
+    }
 
-        //Create user message from payload
-        UserMessage userMessage = JSONConverter.fromJSON(payload, UserMessage.class);
+    /**
+     * Starts the listeners of all shards that are not preferred by this instance after the standby delay, so that
+     * the instances that prefer them are likely to become their active consumers.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startStandbyListeners() {
+        CompletableFuture.delayedExecutor(standbyDelay, TimeUnit.SECONDS).execute(() -> {
+            for (int shard = 0; shard < userMessageShards.getCount(); shard++) {
+                if (!isPreferredShard(shard)) listenerEndpointRegistry.getListenerContainer(LISTENER_ID_PREFIX + shard).start();
+            }
+        });
+    }
 
+    /**
+     * Releases the ownership of the shard whose consumer stopped or failed, since another instance may become the
+     * active consumer of the shard.
+     *
+     * @param event The event of the listener container
+     */
+    @EventListener({AsyncConsumerStoppedEvent.class, ListenerContainerConsumerFailedEvent.class})
+    public void releaseShard(AmqpEvent event) {
+        for (int shard = 0; shard < userMessageShards.getCount(); shard++) {
+            if (event.getSource() == listenerEndpointRegistry.getListenerContainer(LISTENER_ID_PREFIX + shard)) {
+                interactionRegistry.releaseShard(shard);
+                userMessageRecovery.releaseShard(shard);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Receives a batch of encoded {@link UserMessage}s from the queue of a shard and dispatches them in order.
+     * All messages of the batch are decoded first; undecodable messages are parked for inspection. If a channel
+     * is given, the messages are acknowledged manually on it once their handling completed.
+     *
+     * @param messages The AMQP messages to receive
+     * @param channel  The channel on which the messages were received or null, if they are acknowledged by the container
+     */
+    public void receiveMessages(List<Message> messages, Channel channel) {
         //Sanity check
-        if (userMessage == null) return;
+        if (messages == null) return;
+
+        //Decode all user messages of the batch
+        List<Message> receivedMessages = new ArrayList<>(messages.size());
+        List<UserMessage> userMessages = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            UserMessage userMessage = decodeMessage(message);
+            if (userMessage == null) {
+                //Undecodable messages are already parked
+                acknowledge(channel, message);
+                continue;
+            }
+
+            receivedMessages.add(message);
+            userMessages.add(userMessage);
 
-        //Dispatch the user message
+            //This instance is the active consumer of the shard of the message
+            interactionRegistry.acquireShard(userMessageShards.getShard(userMessage.getChatID()));
+        }
+
+        //Dispatch the user messages in the order of their reception
+        for (int i = 0; i < userMessages.size(); i++) {
+            try {
+                dispatchInOrder(receivedMessages.get(i), userMessages.get(i), channel);
+            } catch (RuntimeException e) {
+                //Return the messages that were not handed over yet to the queue
+                for (Message message : receivedMessages.subList(i, receivedMessages.size())) {
+                    reject(channel, message, true);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Decodes a {@link UserMessage} from a given AMQP message, based on its content type, and records the queue
+     * wait of the message. Messages that cannot be decoded are parked and null is returned.
+     */
+    private UserMessage decodeMessage(Message message) {
+        //Sanity check
+        if (message == null) return null;
+
+        hopRecorder.recordQueueWait(message);
+
+        //Decode user message from the body in a single pass, based on its content type
+        Timer.Sample decoding = Timer.start(meterRegistry);
+        UserMessage userMessage = messageConverter.decode(message, UserMessage.class);
+        decoding.stop(meterRegistry.timer(METRIC_PREFIX + "decode"));
+
+        //Sanity check, undecodable messages are parked for inspection
+        if (userMessage == null) {
+            countMessage("undecodable");
+            userMessageRecovery.park(message, new MessageConversionException("The user message could not be decoded."));
+        }
+        return userMessage;
+    }
+
+    /**
+     * Dispatches a given {@link UserMessage} after all previously received messages of the same chat, either
+     * directly or by handing it over to the executor, which acknowledges the message on a given channel once its
+     * handling completed.
+     */
+    private void dispatchInOrder(Message message, UserMessage userMessage, Channel channel) {
+        MessageTrace trace = MessageTrace.of(message);
+        long startTime = System.nanoTime();
+
+        //Dispatch the user message on the consumer thread, unless messages are dispatched concurrently
+        if (chatTaskExecutor == null) {
+            handleUserMessage(message, userMessage, trace, startTime);
+            return;
+        }
+
+        //Hand the user message over to the executor, which blocks while too many messages are in flight
         try {
-            dispatchUserMessage(userMessage);
-        } catch (Exception exception) {
-            //Handle all occurring exceptions
-            handleException(exception, userMessage);
+            chatTaskExecutor.execute(userMessage.getChatID(), () -> handleUserMessage(message, userMessage, trace, startTime))
+                    .whenComplete((result, exception) -> {
+                        if (exception == null) acknowledge(channel, message);
+                        else reject(channel, message, isSubmissionFailure(exception));
+                    });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the dispatching of other messages.", e);
+        }
+    }
+
+    /**
+     * Acknowledges a given AMQP message on a given channel once its handling completed. Nothing is done if no
+     * channel is given, since the container acknowledges the messages in this case.
+     */
+    private void acknowledge(Channel channel, Message message) {
+        if (channel == null) return;
+
+        try {
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        } catch (IOException | ShutdownSignalException e) {
+            //The broker redelivers the message, which is then dropped as duplicate
+            LOGGER.warn("A message could not be acknowledged and will be redelivered: {}", e.toString());
+        }
+    }
+
+    /**
+     * Rejects a given AMQP message on a given channel, either requeueing it, e.g. because it could not be handed
+     * over to the executor or its bot actions could not be submitted, or letting the broker dead-letter it to the
+     * parked messages, because its handling failed unexpectedly. Nothing is done if no channel is given, since the
+     * container rejects the messages in this case.
+     */
+    private void reject(Channel channel, Message message, boolean requeue) {
+        if (channel == null) return;
+
+        try {
+            channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, requeue);
+        } catch (IOException | ShutdownSignalException e) {
+            LOGGER.warn("A message could not be rejected and will be redelivered: {}", e.toString());
+        }
+    }
+
+    /**
+     * Dispatches a given {@link UserMessage} within its {@link MessageTrace}, so that the trace is propagated to
+     * all resulting bot actions, handles all occurring exceptions and records the processing time. All bot actions
+     * that result from the user message are submitted for publishing as one batch. Duplicates of already processed
+     * messages are dropped, while messages whose handling completed are marked as processed once their bot actions
+     * were submitted. If the submission fails, the exception is thrown, so that the message is not acknowledged and
+     * returns to its queue. Since the messages of a chat are handled one after another, a duplicate is only checked
+     * once the handling of its original completed.
+     *
+     * @param message     The AMQP message from which the user message was decoded
+     * @param userMessage The {@link UserMessage} to handle
+     * @param trace       The {@link MessageTrace} of the user message or null, if not available
+     * @param startTime   The time at which the processing started as given by {@link System#nanoTime()}
+     */
+    private void handleUserMessage(Message message, UserMessage userMessage, MessageTrace trace, long startTime) {
+        //Drop repeated deliveries of already processed messages
+        if (messageDeduplicator.isDuplicate(userMessage, message)) {
+            countMessage("duplicate");
+            return;
         }
+
+        //Defer messages of chats whose earlier message is retried, so that they are handled after it
+        if (userMessageRecovery.defer(message, userMessage)) return;
+
+        //Continue the trace of the user message or start a new one for messages without trace
+        MessageTrace messageTrace = (trace == null) ? MessageTrace.start() : trace;
+
+        //Dispatch the user message and submit the resulting bot actions before marking the message as processed
+        messageTrace.run(() -> {
+            boolean processed = botCommander.runBatched(() -> {
+                try {
+                    dispatchUserMessage(userMessage);
+                    return true;
+                } catch (Exception exception) {
+                    //Handle all occurring exceptions, messages that are retried later are not processed yet
+                    return handleException(exception, userMessage, message);
+                }
+            });
+            if (processed) messageDeduplicator.markProcessed(userMessage);
+        });
+
+        hopRecorder.recordProcessing(trace, startTime);
     }
 
     /**
@@ -97,19 +450,22 @@ public class UserMessageDispatcher {
         //Sanity check
         if ((userMessage == null)) return;
 
-        //Try to extract a command name from the message
-        Optional<String> commandName = extractCommandName(userMessage);
-
         //Check if the message constitutes a known start command
-        if ((commandName.isPresent()) && COMMANDS_MAP.containsKey(commandName.get())) {
+        Timer.Sample resolution = Timer.start(meterRegistry);
+        Class<? extends Interaction> interactionClass = userMessage.hasText() ? commandTrie.match(userMessage.getText()) : null;
+        resolution.stop(meterRegistry.timer(METRIC_PREFIX + "command.resolution"));
+
+        if (interactionClass != null) {
+            countMessage("command");
+
             //Start command, create corresponding interaction to handle the message
-            Interaction interaction = Interaction.instantiateInteraction(COMMANDS_MAP.get(commandName.get()));
+            Interaction interaction = Interaction.instantiateInteraction(interactionClass);
 
             //Reset possibly registered interaction for the affected chat
             interactionRegistry.unregisterInteraction(userMessage.getChatID());
 
             //Let the interaction handle the received message
-            interaction.handleMessage(botCommander, geocacheManager, interactionRegistry, userMessage);
+            handleWithInteraction(interaction, userMessage);
             return;
         }
 
@@ -117,61 +473,102 @@ public class UserMessageDispatcher {
         Message does not represent a known start command, so a registered interaction may want to handle it
         */
         //Look up a possibly registered active interaction for the affected chat
+        Timer.Sample lookup = Timer.start(meterRegistry);
         Optional<Interaction> interactionOptional = interactionRegistry.getActiveInteraction(userMessage.getChatID());
+        lookup.stop(meterRegistry.timer(METRIC_PREFIX + "registry.lookup"));
 
         //CHeck whether such an interaction exists
-        if (interactionOptional.isEmpty()) return;
+        if (interactionOptional.isEmpty()) {
+            countMessage("ignored");
+            return;
+        }
 
         //Let the currently active interaction handle the received user message
-        interactionOptional.get().handleMessage(botCommander, geocacheManager, interactionRegistry, userMessage);
+        countMessage("registered");
+        handleWithInteraction(interactionOptional.get(), userMessage);
     }
 
     /**
-     * Handles a given {@link Exception} that occurred while dispatching a given {@link UserMessage}.
+     * Lets a given {@link Interaction} handle a given {@link UserMessage} and records the handling time, tagged
+     * by the name of the {@link Interaction} and the outcome.
+     *
+     * @param interaction The {@link Interaction} to use
+     * @param userMessage The {@link UserMessage} to handle
+     */
+    private void handleWithInteraction(Interaction interaction, UserMessage userMessage) throws Exception {
+        Timer.Sample handling = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            interaction.handleMessage(botCommander, geocacheManager, interactionRegistry, userMessage);
+            outcome = "success";
+        } catch (UserErrorException e) {
+            outcome = "user_error";
+            throw e;
+        } finally {
+            handling.stop(meterRegistry.timer(METRIC_PREFIX + "interaction", "interaction", interaction.getClass().getSimpleName(), "outcome", outcome));
+        }
+    }
+
+    /**
+     * Counts a dispatched {@link UserMessage}, tagged by the result of the dispatching.
+     */
+    private void countMessage(String result) {
+        meterRegistry.counter(METRIC_MESSAGES, "result", result).increment();
+    }
+
+    /**
+     * Handles a given {@link Exception} that occurred while dispatching a given {@link UserMessage}. Messages that
+     * failed due to transient failures are retried with a delay, as long as the maximum number of retries is not
+     * reached; in this case, all bot actions that were issued for the failed attempt are discarded.
      *
      * @param exception   The {@link Exception} to handle
      * @param userMessage THe {@link UserMessage} that led to the {@link Exception}
+     * @param message     The AMQP message from which the user message was decoded
+     * @return True, if the handling of the message is completed; false, if the message is retried later
      */
-    private void handleException(Exception exception, UserMessage userMessage) {
+    private boolean handleException(Exception exception, UserMessage userMessage, Message message) {
+        //Check whether the message can be retried later
+        if (userMessageRecovery.canRetry(exception, message)) {
+            botCommander.discardBatch();
+            return !userMessageRecovery.retry(message, userMessage, exception);
+        }
+
         //Check whether the exception is relevant to the user
         if (exception instanceof UserErrorException) {
             //Send a corresponding error message to the chat to which the message was sent
             botCommander.executeBotAction(((UserErrorException) exception).toAction());
-            return;
+            return true;
         }
 
         /*
         Exception is not relevant to the user, handle it differently
          */
-        System.err.printf("%s: %s%n", exception.getClass().getName(), exception.getMessage());
-        exception.printStackTrace();
+        meterRegistry.counter(METRIC_PREFIX + "errors", "exception", exception.getClass().getSimpleName()).increment();
+        LOGGER.error("Dispatching a message of chat {} failed.", userMessage.getChatID(), exception);
+        userMessageRecovery.park(message, exception);
         botCommander.executeBotAction(new ErrorMessageAction(userMessage.getChatID(), "An internal error occurred."));
+        return true;
     }
 
     /**
-     * Tries to extract a command name from the text payload of a given {@link UserMessage}. In case the text of
-     * the message constitutes no command, the returned {@link Optional} will be empty.
-     *
-     * @param userMessage The {@link UserMessage} to extract the command from
-     * @return The extracted command as {@link Optional}
+     * Returns whether a given {@link Throwable} is caused by a failure to hand over work, i.e. the message could not
+     * be handed over to the executor or its bot actions could not be submitted for publishing due to backpressure,
+     * shutdown or interruption. Such messages are not handled yet and are therefore returned to their queue.
      */
-    private Optional<String> extractCommandName(UserMessage userMessage) {
-        //Sanity check
-        if (userMessage == null || (!userMessage.hasText())) return Optional.empty();
-
-        //Extract text from message
-        String messageText = userMessage.getText()
-                .trim() //Remove leading and trailing spaces
-                .replaceFirst("@[A-z0-9]+", ""); //Remove mention of the bot name in groups
-
-        //Check whether message constitutes a command
-        if (!messageText.startsWith(this.commandPrefix)) return Optional.empty();
+    private static boolean isSubmissionFailure(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if ((cause instanceof RejectedExecutionException) || (cause instanceof AmqpTimeoutException)
+                    || (cause instanceof InterruptedException))
+                return true;
+        }
+        return false;
+    }
 
-        //Fix the message formatting to extract the command
-        return Optional.of(messageText.replaceAll("\\s+", " ") //Replace multiple spaces
-                .split(" ")[0] //Split at spaces to retrieve the first word
-                .replaceFirst(this.commandPrefix, "") //Replace trailing prefix
-                .toLowerCase(Locale.ROOT)); //Convert to lowercase
+    /**
+     * Returns whether a given shard is preferred by this instance, i.e. consumed right from the start.
+     */
+    private boolean isPreferredShard(int shard) {
+        return (instanceCount <= 1) || ((shard % instanceCount) == instanceIndex);
     }
 
     /**
@@ -0,0 +1,207 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jsoup.HttpStatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovers {@link UserMessage}s whose handling failed. Messages that failed due to transient failures are retried
+ * with exponential backoff as described by the {@link UserMessageRetries}, while undecodable messages and messages
+ * that finally failed are parked for inspection.
+ * While the retry of a message is pending, later messages of the same chat are deferred behind it, so that the
+ * messages of the chat are still handled in order. Since the pending retries are only known to the instance that
+ * scheduled them, they expire after their delay plus a grace period and are forgotten when the ownership of their
+ * shard is released; from then on, later messages may overtake the retried message. Messages without stable ID
+ * cannot be recognized when they return and therefore do not defer later messages either.
+ */
+public class UserMessageRecovery {
+    private static final long PENDING_RETRY_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(1);
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserMessageRecovery.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final UserMessageShards userMessageShards;
+    private final UserMessageRetries userMessageRetries;
+    private final MeterRegistry meterRegistry;
+
+    //Pending retries by the ID of the chat of the retried message, which later messages of the chat are deferred behind
+    private final Map<Long, PendingRetry> pendingRetries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link UserMessageRecovery} from given parameters.
+     *
+     * @param rabbitTemplate     The {@link RabbitTemplate} to publish retried, deferred and parked messages with
+     * @param userMessageShards  The {@link UserMessageShards} from which the messages are received
+     * @param userMessageRetries The {@link UserMessageRetries} that describe the retrying of the messages
+     * @param meterRegistry      The {@link MeterRegistry} to count the recovered messages with
+     */
+    public UserMessageRecovery(RabbitTemplate rabbitTemplate, UserMessageShards userMessageShards,
+                               UserMessageRetries userMessageRetries, MeterRegistry meterRegistry) {
+        //Sanity checks
+        if (rabbitTemplate == null) throw new IllegalArgumentException("The rabbit template must not be null.");
+        if (userMessageShards == null) throw new IllegalArgumentException("The user message shards must not be null.");
+        if (userMessageRetries == null) throw new IllegalArgumentException("The user message retries must not be null.");
+        if (meterRegistry == null) throw new IllegalArgumentException("The meter registry must not be null.");
+
+        this.rabbitTemplate = rabbitTemplate;
+        this.userMessageShards = userMessageShards;
+        this.userMessageRetries = userMessageRetries;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Returns whether a given AMQP message, whose handling failed due to a given {@link Exception}, can be retried,
+     * i.e. whether the failure is transient and the maximum number of retries is not reached yet.
+     *
+     * @param exception The {@link Exception} that occurred
+     * @param message   The AMQP message whose handling failed
+     * @return True, if the message can be retried; false otherwise
+     */
+    public boolean canRetry(Exception exception, Message message) {
+        return isTransient(exception) && userMessageRetries.canRetry(message);
+    }
+
+    /**
+     * Publishes a given AMQP message to the retry exchange, which delays it according to its retry count and then
+     * returns it to the queue of its shard. Later messages of the chat of the message are deferred until it returns.
+     * If the message cannot be published for its retry, it is parked.
+     *
+     * @param message     The AMQP message to retry
+     * @param userMessage The {@link UserMessage} that was decoded from the message
+     * @param exception   The {@link Exception} that caused the retry
+     * @return True, if the message was scheduled for a retry; false, if it was parked instead
+     */
+    public boolean retry(Message message, UserMessage userMessage, Exception exception) {
+        int retry = userMessageRetries.getRetryCount(message);
+        long delay = userMessageRetries.getDelay(retry);
+        LOGGER.warn("Retrying a message in {} ms after a transient failure: {}", delay, exception.toString());
+
+        try {
+            rabbitTemplate.send(userMessageRetries.getExchangeName(), message.getMessageProperties().getReceivedRoutingKey(),
+                    userMessageRetries.prepareRetry(message));
+            countMessage("retried");
+
+            //Only messages with stable ID can be recognized when they return
+            if (userMessage.hasMessageID()) {
+                pendingRetries.put(userMessage.getChatID(), new PendingRetry(userMessage.getMessageID(), retry + 1,
+                        System.currentTimeMillis() + delay + PENDING_RETRY_GRACE_PERIOD));
+            }
+            return true;
+        } catch (AmqpException e) {
+            LOGGER.error("The message could not be scheduled for a retry.", e);
+            park(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Defers a given AMQP message if a retry of an earlier message of the same chat is pending, by publishing it to
+     * the same retry queue as the retried message, so that it returns to the queue of its shard after the retried
+     * message. The retried message itself and messages of chats whose pending retry expired are not deferred and
+     * release the pending retry. If the deferral fails, the message is not deferred either.
+     *
+     * @param message     The AMQP message to defer
+     * @param userMessage The {@link UserMessage} that was decoded from the message
+     * @return True, if the message was deferred; false, if it is supposed to be handled right away
+     */
+    public boolean defer(Message message, UserMessage userMessage) {
+        PendingRetry pendingRetry = pendingRetries.get(userMessage.getChatID());
+        if (pendingRetry == null) return false;
+
+        //Check whether the retried message returned or is overdue
+        if (pendingRetry.messageID.equals(userMessage.getMessageID()) || (System.currentTimeMillis() > pendingRetry.expiresAt)) {
+            pendingRetries.remove(userMessage.getChatID(), pendingRetry);
+            return false;
+        }
+
+        try {
+            rabbitTemplate.send(userMessageRetries.getExchangeName(), message.getMessageProperties().getReceivedRoutingKey(),
+                    userMessageRetries.prepareDeferral(message, pendingRetry.retryCount));
+            countMessage("deferred");
+            return true;
+        } catch (AmqpException e) {
+            LOGGER.error("The message could not be deferred behind a retried message of its chat.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Parks a given AMQP message whose handling finally failed due to a given {@link Exception} in the queue for
+     * parked messages, so that it can be inspected.
+     *
+     * @param message   The AMQP message to park
+     * @param exception The {@link Exception} that caused the failure
+     */
+    public void park(Message message, Exception exception) {
+        countMessage("parked");
+        message.getMessageProperties().setHeader(UserMessageRetries.HEADER_PARKED_REASON, exception.toString());
+        try {
+            rabbitTemplate.send(userMessageShards.getParkedExchangeName(), message.getMessageProperties().getReceivedRoutingKey(), message);
+        } catch (AmqpException e) {
+            LOGGER.error("The message could not be parked.", e);
+        }
+    }
+
+    /**
+     * Forgets the pending retries of all chats of a given shard, since another instance may become the active
+     * consumer of the shard and receive the retried messages.
+     *
+     * @param shard The number of the shard
+     */
+    public void releaseShard(int shard) {
+        pendingRetries.keySet().removeIf(chatID -> userMessageShards.getShard(chatID) == shard);
+    }
+
+    /**
+     * Returns whether a given {@link Throwable} is caused by a transient failure, which is likely to disappear when
+     * retrying later. These are unavailable databases, as well as requests for fetching geocache details that failed
+     * to connect, timed out or were answered with a server error. Other failures of requests, such as a page that
+     * does not exist, fail the same way on every retry and are therefore not considered transient.
+     */
+    static boolean isTransient(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if ((cause instanceof TransientDataAccessException) || (cause instanceof DataAccessResourceFailureException)
+                    || (cause instanceof SocketTimeoutException) || (cause instanceof ConnectException))
+                return true;
+            if (cause instanceof HttpStatusException)
+                return ((HttpStatusException) cause).getStatusCode() >= 500;
+        }
+        return false;
+    }
+
+    /**
+     * Counts a recovered {@link UserMessage}, tagged by the way it was recovered.
+     */
+    private void countMessage(String result) {
+        meterRegistry.counter(UserMessageDispatcher.METRIC_MESSAGES, "result", result).increment();
+    }
+
+    /**
+     * Retry of a message that is pending, given by the stable ID of the message, the retry count with which it was
+     * published and the time in milliseconds after which it is considered overdue.
+     */
+    private static class PendingRetry {
+        private final String messageID;
+        private final int retryCount;
+        private final long expiresAt;
+
+        private PendingRetry(String messageID, int retryCount, long expiresAt) {
+            this.messageID = messageID;
+            this.retryCount = retryCount;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import org.springframework.amqp.core.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the delayed retrying of {@link UserMessage}s whose handling failed due to transient failures. For each
+ * retry attempt, a retry queue exists whose messages expire after a delay that grows exponentially with the
+ * attempt. Expired messages are dead-lettered back to the exchange of the {@link UserMessageShards} with their
+ * original routing key, so that they are delivered to the queue of their shard again. Since the routing key must be
+ * retained, the retry queues are bound to a headers exchange that routes by the retry attempt, which is carried
+ * in a header of the messages together with the number of retries so far.
+ * In order to keep the messages of a chat in order, later messages of a chat whose message is retried are deferred
+ * by routing them to the same retry queue, so that they expire after the retried message. Since the header for the
+ * routing then differs from the number of retries of a deferred message, the latter is retained in a separate header.
+ */
+public class UserMessageRetries {
+    //Names of the headers
+    public static final String HEADER_RETRY_COUNT = "x-retry-count";
+    public static final String HEADER_DEFERRED_RETRY_COUNT = "x-deferred-retry-count";
+    public static final String HEADER_PARKED_REASON = "x-parked-reason";
+
+    private final UserMessageShards userMessageShards;
+    private final int maxRetries;
+    private final long initialDelay;
+    private final double multiplier;
+
+    /**
+     * Creates a new {@link UserMessageRetries} description from given parameters.
+     *
+     * @param userMessageShards The {@link UserMessageShards} to which retried messages are returned
+     * @param maxRetries        The maximum number of retries per message
+     * @param initialDelay      The delay in milliseconds before the first retry
+     * @param multiplier        The factor by which the delay grows with each further retry
+     */
+    public UserMessageRetries(UserMessageShards userMessageShards, int maxRetries, long initialDelay, double multiplier) {
+        //Sanity checks
+        if (userMessageShards == null) throw new IllegalArgumentException("The user message shards must not be null.");
+        if (maxRetries < 0) throw new IllegalArgumentException("The maximum number of retries must not be negative.");
+        if (initialDelay < 1) throw new IllegalArgumentException("The initial delay must be positive.");
+        if (multiplier < 1) throw new IllegalArgumentException("The multiplier must be at least 1.");
+
+        this.userMessageShards = userMessageShards;
+        this.maxRetries = maxRetries;
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Returns the number of retries that a given {@link Message} already went through, as read from its headers.
+     *
+     * @param message The {@link Message} to check
+     * @return The number of retries
+     */
+    public int getRetryCount(Message message) {
+        //Deferred messages retain their own number of retries in a separate header
+        Object value = message.getMessageProperties().getHeader(HEADER_DEFERRED_RETRY_COUNT);
+        if (value == null) value = message.getMessageProperties().getHeader(HEADER_RETRY_COUNT);
+        return (value instanceof Number) ? ((Number) value).intValue() : 0;
+    }
+
+    /**
+     * Returns whether a given {@link Message} can be retried once more.
+     *
+     * @param message The {@link Message} to check
+     * @return True, if the message can be retried; false otherwise
+     */
+    public boolean canRetry(Message message) {
+        return getRetryCount(message) < maxRetries;
+    }
+
+    /**
+     * Returns the delay in milliseconds before the retry with a given number, starting at zero.
+     *
+     * @param retry The number of the retry
+     * @return The delay in milliseconds
+     */
+    public long getDelay(int retry) {
+        return Math.round(initialDelay * Math.pow(multiplier, retry));
+    }
+
+    /**
+     * Prepares a given received {@link Message} for its next retry by incrementing its retry count.
+     *
+     * @param message The {@link Message} to prepare
+     * @return The same {@link Message}
+     */
+    public Message prepareRetry(Message message) {
+        //Sanity check
+        if (!canRetry(message)) throw new IllegalArgumentException("The message cannot be retried anymore.");
+
+        int retryCount = getRetryCount(message);
+        message.getMessageProperties().getHeaders().remove(HEADER_DEFERRED_RETRY_COUNT);
+        message.getMessageProperties().setHeader(HEADER_RETRY_COUNT, retryCount + 1);
+        return message;
+    }
+
+    /**
+     * Prepares a given received {@link Message} for being deferred behind another message whose retry is pending, so
+     * that it is routed to the same retry queue and returns after the other message. The number of retries of the
+     * deferred message itself is retained.
+     *
+     * @param message    The {@link Message} to prepare
+     * @param retryCount The retry count with which the other message was published for its retry
+     * @return The same {@link Message}
+     */
+    public Message prepareDeferral(Message message, int retryCount) {
+        //Sanity check
+        if ((retryCount < 1) || (retryCount > maxRetries)) throw new IllegalArgumentException("The retry does not exist.");
+
+        message.getMessageProperties().setHeader(HEADER_DEFERRED_RETRY_COUNT, getRetryCount(message));
+        message.getMessageProperties().setHeader(HEADER_RETRY_COUNT, retryCount);
+        return message;
+    }
+
+    /**
+     * Returns the name of the headers exchange to which messages are published for being retried.
+     *
+     * @return The name of the exchange
+     */
+    public String getExchangeName() {
+        return userMessageShards.getExchangeName() + ".retry";
+    }
+
+    /**
+     * Returns the name of the queue that delays the retry with a given number, starting at zero.
+     *
+     * @param retry The number of the retry
+     * @return The name of the queue
+     */
+    public String getQueueName(int retry) {
+        //Sanity check
+        if ((retry < 0) || (retry >= maxRetries)) throw new IllegalArgumentException("The retry does not exist.");
+
+        return getExchangeName() + "." + retry;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Creates the {@link Declarables} for the retry exchange, the retry queues and their bindings.
+     *
+     * @return The resulting {@link Declarables}
+     */
+    public Declarables createDeclarables() {
+        HeadersExchange exchange = new HeadersExchange(getExchangeName(), true, false);
+
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(exchange);
+        for (int retry = 0; retry < maxRetries; retry++) {
+            //Messages keep their routing key when dead-lettered, which addresses the queue of their shard
+            Queue queue = QueueBuilder.durable(getQueueName(retry))
+                    .ttl((int) Math.min(getDelay(retry), Integer.MAX_VALUE))
+                    .deadLetterExchange(userMessageShards.getExchangeName())
+                    .build();
+            declarables.add(queue);
+
+            //Messages whose retry count was incremented to retry + 1 are routed to this queue
+            declarables.add(BindingBuilder.bind(queue).to(exchange).where(HEADER_RETRY_COUNT).matches(retry + 1));
+        }
+
+        return new Declarables(declarables);
+    }
+}
@@ -4,9 +4,14 @@ import de.pinguparty.geopingu.worker.domain.geocache.Geocache;
 import de.pinguparty.geopingu.worker.domain.geocache.GeocacheSize;
 import de.pinguparty.geopingu.worker.domain.geocache.GeocacheType;
 import de.pinguparty.geopingu.worker.utils.ValidationUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
@@ -15,15 +20,37 @@ import java.util.regex.Pattern;
 
 @Component
 public class GeocacheDetailsFetcher {
-    //URL of the geocache details page
+    //Default URL of the geocache details page
     private static final String URL_GEOCACHE_DETAILS = "https://www.geocaching.com/geocache/%s";
 
     //Various regex patterns for extracting geocache details
     private static final Pattern PATTERN_GEOCACHE_TYPE = Pattern.compile("/app/ui-icons/sprites/cache-types\\.svg#icon-(\\d+)");
     private static final Pattern PATTERN_GEOCACHE_SIZE = Pattern.compile("/images/icons/container/([A-z]+).gif");
 
+    //URL template of the geocache details page, with a placeholder for the geocache ID
+    private final String detailsUrl;
+
+    //Registry for the fetching metrics, falls back to the global registry if not injected
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
     public GeocacheDetailsFetcher() {
+        this(URL_GEOCACHE_DETAILS);
+    }
 
+    /**
+     * Creates a new {@link GeocacheDetailsFetcher} that retrieves the details pages from a given URL template,
+     * which contains a "%s" placeholder for the geocache ID.
+     *
+     * @param detailsUrl The URL template of the details pages
+     */
+    @Autowired
+    public GeocacheDetailsFetcher(@Value("${worker.fetching.details-url}") String detailsUrl) {
+        //Sanity check
+        if ((detailsUrl == null) || !detailsUrl.contains("%s"))
+            throw new IllegalArgumentException("The details URL must contain a placeholder for the geocache ID.");
+
+        this.detailsUrl = detailsUrl;
     }
 
     public Geocache fetchById(String geocacheId) throws IOException {
@@ -31,8 +58,16 @@ public class GeocacheDetailsFetcher {
         if (!ValidationUtils.isValidGeocacheID(geocacheId))
             throw new IllegalArgumentException("The geocache ID is not valid.");
 
-        //Retrieve the details page of the geocache
-        Document document = Jsoup.connect(String.format(URL_GEOCACHE_DETAILS, geocacheId)).get();
+        //Retrieve the details page of the geocache and record the duration of the request
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        Document document;
+        try {
+            document = Jsoup.connect(String.format(detailsUrl, geocacheId)).get();
+            outcome = "success";
+        } finally {
+            sample.stop(meterRegistry.timer("geopingu.fetcher.fetch", "outcome", outcome));
+        }
 
         //Create new geocache object
         Geocache geocache = new Geocache(geocacheId);
@@ -5,18 +5,20 @@ import de.pinguparty.geopingu.worker.domain.geocache.Geocache;
 import de.pinguparty.geopingu.worker.persistence.GeocacheRepository;
 import de.pinguparty.geopingu.worker.persistence.GeocacheUserNoteRepository;
 import de.pinguparty.geopingu.worker.services.fetching.GeocacheDetailsFetcher;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.Optional;
 import java.util.Set;
 
+import static de.pinguparty.geopingu.worker.utils.MetricUtils.timedRepositoryCall;
+
 /**
  * Component for managing {@link GeocacheUserNote} and the corresponding {@link Geocache}s.
  */
 @Component
 public class GeocacheManager {
-
     @Autowired
     private GeocacheUserNoteRepository geocacheUserNoteRepository;
 
@@ -26,6 +28,9 @@ public class GeocacheManager {
     @Autowired
     private GeocacheDetailsFetcher geocacheDetailsFetcher;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     public GeocacheDetailsFetcher getDetailsFetcher() {
         return geocacheDetailsFetcher;
     }
@@ -35,7 +40,7 @@ public class GeocacheManager {
         if ((geocacheId == null) || geocacheId.isEmpty())
             throw new IllegalArgumentException("The geocache ID must not be null or empty.");
 
-        return geocacheRepository.findById(geocacheId);
+        return timedRepositoryCall(meterRegistry, "findGeocache", () -> geocacheRepository.findById(geocacheId));
     }
 
     public Geocache updateGeocache(Geocache geocache) {
@@ -45,7 +50,7 @@ public class GeocacheManager {
             throw new IllegalArgumentException("The geocache ID must be present.");
 
         //Retrieve possibly already available data of this geocache
-        Optional<Geocache> existingGeocacheData = geocacheRepository.findById(geocache.getId());
+        Optional<Geocache> existingGeocacheData = timedRepositoryCall(meterRegistry, "findGeocache", () -> geocacheRepository.findById(geocache.getId()));
 
         //Check availability and whether this data is considered complete
         if (existingGeocacheData.isPresent() && existingGeocacheData.get().isComplete()) {
@@ -53,22 +58,22 @@ public class GeocacheManager {
         }
 
         //Update geocache data in repository
-        return geocacheRepository.save(geocache);
+        return timedRepositoryCall(meterRegistry, "saveGeocache", () -> geocacheRepository.save(geocache));
     }
 
     public Set<GeocacheUserNote> getGeocacheUserNotes(long chatId) {
-        return geocacheUserNoteRepository.findByChatId(chatId);
+        return timedRepositoryCall(meterRegistry, "findUserNotes", () -> geocacheUserNoteRepository.findByChatId(chatId));
     }
 
     public Optional<GeocacheUserNote> getGeocacheUserNote(long chatId, String geocacheId) {
-        return geocacheUserNoteRepository.findByChatIdAndGeocache_Id(chatId, geocacheId);
+        return timedRepositoryCall(meterRegistry, "findUserNote", () -> geocacheUserNoteRepository.findByChatIdAndGeocache_Id(chatId, geocacheId));
     }
 
     public GeocacheUserNote updateGeocacheUserNote(GeocacheUserNote geocacheUserNote) {
         //Sanity check
         if (geocacheUserNote == null) throw new IllegalArgumentException("The geocache user note must not be null.");
 
-        return geocacheUserNoteRepository.save(geocacheUserNote);
+        return timedRepositoryCall(meterRegistry, "saveUserNote", () -> geocacheUserNoteRepository.save(geocacheUserNote));
     }
 
     public void deleteGeocacheUserNote(long chatId, String geocacheId) {
@@ -80,6 +85,6 @@ public class GeocacheManager {
         if (geocacheUserNote == null) throw new IllegalArgumentException("The geocache user note must not be null.");
 
         //Delete user note from repository
-        geocacheUserNoteRepository.delete(geocacheUserNote);
+        timedRepositoryCall(meterRegistry, "deleteUserNote", () -> geocacheUserNoteRepository.delete(geocacheUserNote));
     }
 }
@@ -4,15 +4,30 @@ import de.pinguparty.geopingu.worker.interactions.Interaction;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+
 /**
  * Represents registrations of interactions that are currently active within a certain
  * chat and thus demand to receive all further non-command messages of the users in this chat.
+ * Registrations carry the timestamp of their last registration, after which they expire once they were not touched
+ * for a certain time, so that abandoned interactions do not remain active forever.
+ * Registrations without {@link Interaction} are tombstones of removed registrations. Registrations that were written
+ * by the owner of the shard of their chat carry the epoch of the ownership, which fences them against late writes of
+ * previous owners.
  */
 @Document
 public class InteractionRegistration {
+    //Name of the field that holds the last touched timestamp
+    public static final String FIELD_LAST_TOUCHED = "lastTouched";
+
+    //Name of the field that holds the epoch of the writing owner
+    public static final String FIELD_EPOCH = "epoch";
+
     @Id
     private long chatId;
     private Interaction interaction;
+    private Instant lastTouched;
+    private Long epoch;
 
     /**
      * Creates a new, empty {@link InteractionRegistration}.
@@ -29,8 +44,21 @@ public class InteractionRegistration {
      * @param interaction The active {@link Interaction}
      */
     public InteractionRegistration(long chatId, Interaction interaction) {
+        this(chatId, interaction, Instant.now());
+    }
+
+    /**
+     * Creates a new {@link InteractionRegistration} from the ID of the affected chat, the active {@link Interaction}
+     * and the timestamp describing when the registration was last touched.
+     *
+     * @param chatId      The ID of the affected chat
+     * @param interaction The active {@link Interaction}
+     * @param lastTouched The last touched timestamp
+     */
+    public InteractionRegistration(long chatId, Interaction interaction, Instant lastTouched) {
         setChatId(chatId);
         setInteraction(interaction);
+        setLastTouched(lastTouched);
     }
 
     /**
@@ -74,4 +102,55 @@ public class InteractionRegistration {
         this.interaction = interaction;
         return this;
     }
+
+    /**
+     * Returns the timestamp describing when the registration was last touched.
+     *
+     * @return The last touched timestamp or null, if not available
+     */
+    public Instant getLastTouched() {
+        return lastTouched;
+    }
+
+    /**
+     * Sets the timestamp describing when the registration was last touched.
+     *
+     * @param lastTouched The last touched timestamp to set
+     * @return The {@link InteractionRegistration}
+     */
+    public InteractionRegistration setLastTouched(Instant lastTouched) {
+        this.lastTouched = lastTouched;
+        return this;
+    }
+
+    /**
+     * Returns the epoch of the shard ownership with which the registration was written.
+     *
+     * @return The epoch or null, if the registration was not written by an owner
+     */
+    public Long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Sets the epoch of the shard ownership with which the registration was written.
+     *
+     * @param epoch The epoch to set
+     * @return The {@link InteractionRegistration}
+     */
+    public InteractionRegistration setEpoch(Long epoch) {
+        this.epoch = epoch;
+        return this;
+    }
+
+    /**
+     * Returns whether the registration was last touched before a given point in time and is thus expired.
+     * Registrations without timestamp never expire.
+     *
+     * @param threshold The point in time before which registrations are expired
+     * @return True, if the registration is expired; false otherwise
+     */
+    public boolean isExpired(Instant threshold) {
+        return (lastTouched != null) && lastTouched.isBefore(threshold);
+    }
 }
@@ -0,0 +1,534 @@
+package de.pinguparty.geopingu.worker.services.registry;
+
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import de.pinguparty.geopingu.worker.interactions.Interaction;
+import de.pinguparty.geopingu.worker.persistence.InteractionRegistrationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static de.pinguparty.geopingu.worker.utils.MetricUtils.timedRepositoryCall;
+
+/**
+ * Near-cache for {@link InteractionRegistration}s in front of the {@link InteractionRegistrationRepository}, which
+ * is partitioned by the shards of the {@link UserMessageShards}. Registrations of a shard are only cached while this
+ * instance owns the shard, i.e. while it is the single active consumer of its queue and thus the only instance that
+ * handles the messages of its chats. For owned shards, lookups are answered from memory after the first load and
+ * changes are written behind: they are collected per chat, so that multiple changes of a chat are coalesced into
+ * the latest one, and flushed periodically in one bulk operation per shard. Removals are written as tombstones and
+ * skipped entirely for chats that are known to have no registration. For all other shards, the repository is
+ * accessed directly.
+ * <p>
+ * Each acquisition of a shard obtains a new epoch of the shard from the repository, which increases across all
+ * instances and fences all writes of the owner: a registration is only replaced by writes of the same or a later
+ * epoch, so that a previous owner whose flush is delayed cannot overwrite the changes of the next owner. When a
+ * shard is released, its pending changes are flushed synchronously before the release completes, so that the next
+ * owner reads the latest state; changes that cannot be flushed then are dropped rather than written late. If a flush
+ * is rejected due to a later epoch, another instance took over the shard and its cache is dropped. Changes that are
+ * pending when the application crashes are lost, which is bounded by the flush interval.
+ * <p>
+ * When a shard is acquired, its cache starts empty, since other instances may have changed its registrations in the
+ * meantime. The cache keeps the registered {@link Interaction} instances, so interactions need to register
+ * themselves again after changing their state, as they would have to without cache.
+ * Cached registrations expire after the same time to live as the stored ones. Since the entries of a shard are kept
+ * in the order in which they were last touched, expired entries and entries that exceed the maximum number of
+ * entries are evicted from the head of the shard, both on insertion and periodically. Evicted entries with pending
+ * changes remain visible until they are flushed.
+ */
+public class InteractionRegistrationCache {
+    private static final String METRIC_PREFIX = "geopingu.registry.cache.";
+    private static final Logger LOGGER = LoggerFactory.getLogger(InteractionRegistrationCache.class);
+
+    private final InteractionRegistrationRepository repository;
+    private final UserMessageShards userMessageShards;
+    private final int maxEntriesPerShard;
+    private final long ttl;
+    private final MeterRegistry meterRegistry;
+    private final Shard[] shards;
+
+    //Single thread that flushes the pending changes and evicts expired entries periodically
+    private final ScheduledExecutorService maintainer;
+
+    /**
+     * Creates a new {@link InteractionRegistrationCache} from given parameters.
+     *
+     * @param repository        The {@link InteractionRegistrationRepository} to cache
+     * @param userMessageShards The {@link UserMessageShards} that define the partitioning of the chats
+     * @param maxEntries        The maximum number of cached chats across all shards
+     * @param ttl               The time in milliseconds after which untouched registrations expire
+     * @param flushInterval     The time in milliseconds between two flushes of the pending changes
+     * @param evictionInterval  The time in milliseconds between two evictions of expired entries
+     * @param meterRegistry     The {@link MeterRegistry} to record metrics with
+     */
+    public InteractionRegistrationCache(InteractionRegistrationRepository repository, UserMessageShards userMessageShards,
+                                        int maxEntries, long ttl, long flushInterval, long evictionInterval,
+                                        MeterRegistry meterRegistry) {
+        //Sanity checks
+        if (repository == null) throw new IllegalArgumentException("The repository must not be null.");
+        if (userMessageShards == null) throw new IllegalArgumentException("The user message shards must not be null.");
+        if (maxEntries < 1) throw new IllegalArgumentException("The maximum number of entries must be positive.");
+        if (ttl < 1) throw new IllegalArgumentException("The time to live must be positive.");
+        if (flushInterval < 1) throw new IllegalArgumentException("The flush interval must be positive.");
+        if (evictionInterval < 1) throw new IllegalArgumentException("The eviction interval must be positive.");
+        if (meterRegistry == null) throw new IllegalArgumentException("The meter registry must not be null.");
+
+        this.repository = repository;
+        this.userMessageShards = userMessageShards;
+        this.maxEntriesPerShard = Math.max(1, maxEntries / userMessageShards.getCount());
+        this.ttl = ttl;
+        this.meterRegistry = meterRegistry;
+
+        this.shards = new Shard[userMessageShards.getCount()];
+        for (int i = 0; i < shards.length; i++) shards[i] = new Shard();
+
+        this.maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "registry-maintainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintainer.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        maintainer.scheduleWithFixedDelay(this::evictExpired, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Acquires the ownership of a given shard by obtaining a new epoch for it, so that the registrations of its chats
+     * are cached from now on. Acquiring an already owned shard has no effect. If no epoch can be obtained, the shard
+     * remains unowned and the acquisition is repeated on the next call.
+     *
+     * @param shard The number of the shard
+     */
+    public void acquire(int shard) {
+        Shard target = shards[shard];
+        target.stateLock.lock();
+        try {
+            if (target.owned) return;
+        } finally {
+            target.stateLock.unlock();
+        }
+
+        target.flushLock.lock();
+        try {
+            target.stateLock.lock();
+            try {
+                if (target.owned) return;
+            } finally {
+                target.stateLock.unlock();
+            }
+
+            long epoch;
+            try {
+                epoch = timedRepositoryCall(meterRegistry, "acquireRegistrationEpoch", () -> repository.acquireEpoch(shard));
+            } catch (DataAccessException e) {
+                LOGGER.warn("The ownership of shard {} could not be acquired: {}", shard, e.toString());
+                return;
+            }
+
+            target.stateLock.lock();
+            try {
+                target.owned = true;
+                target.epoch = epoch;
+                target.generation++;
+                target.entries.clear();
+            } finally {
+                target.stateLock.unlock();
+            }
+        } finally {
+            target.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Releases the ownership of a given shard, so that another instance can take over the shard. The pending changes
+     * of the shard are flushed synchronously before its cache is dropped; if they cannot be flushed, they are dropped
+     * as well, since a later flush could no longer be ordered before the reads of the next owner.
+     *
+     * @param shard The number of the shard
+     */
+    public void release(int shard) {
+        Shard target = shards[shard];
+        target.flushLock.lock();
+        try {
+            Map<Long, Entry> changes;
+            long epoch;
+            target.stateLock.lock();
+            try {
+                if (!target.owned) return;
+                target.owned = false;
+                target.generation++;
+                target.entries.clear();
+                changes = target.pending;
+                target.pending = new LinkedHashMap<>();
+                epoch = target.epoch;
+            } finally {
+                target.stateLock.unlock();
+            }
+
+            try {
+                writeAll(changes, epoch);
+            } catch (DataAccessException e) {
+                LOGGER.error("Dropping {} interaction registrations of released shard {} that could not be flushed: {}",
+                        changes.size(), shard, e.toString());
+                meterRegistry.counter(METRIC_PREFIX + "dropped").increment(changes.size());
+            }
+        } finally {
+            target.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether this instance currently owns a given shard.
+     *
+     * @param shard The number of the shard
+     * @return True, if the shard is owned; false otherwise
+     */
+    public boolean isOwned(int shard) {
+        Shard target = shards[shard];
+        target.stateLock.lock();
+        try {
+            return target.owned;
+        } finally {
+            target.stateLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the {@link Interaction} that is registered for a certain chat, given by its chat ID, either from the
+     * cache or from the repository. Expired registrations are not returned.
+     *
+     * @param chatID The ID of the chat
+     * @return The registered {@link Interaction}, if available
+     */
+    public Optional<Interaction> get(long chatID) {
+        Shard shard = getShard(chatID);
+        long now = System.currentTimeMillis();
+
+        long generation;
+        shard.stateLock.lock();
+        try {
+            if (shard.owned) {
+                //Evicted entries are still pending until they are flushed
+                Entry cached = shard.entries.get(chatID);
+                if (cached == null) cached = shard.pending.get(chatID);
+                if (cached != null) {
+                    meterRegistry.counter(METRIC_PREFIX + "lookups", "result", "hit").increment();
+                    return cached.isExpired(now - ttl) ? Optional.empty() : Optional.ofNullable(cached.interaction);
+                }
+            }
+            generation = shard.generation;
+        } finally {
+            shard.stateLock.unlock();
+        }
+
+        //Load the registration, since it is not cached
+        meterRegistry.counter(METRIC_PREFIX + "lookups", "result", "miss").increment();
+        Entry loaded = load(shard, chatID, now);
+
+        //Cache the result, unless the ownership changed in the meantime
+        shard.stateLock.lock();
+        try {
+            if (shard.owned && (shard.generation == generation) && !shard.entries.containsKey(chatID)) {
+                touch(shard, chatID, loaded);
+            }
+        } finally {
+            shard.stateLock.unlock();
+        }
+        return Optional.ofNullable(loaded.interaction);
+    }
+
+    /**
+     * Registers a given {@link Interaction} for a certain chat, given by its chat ID. For owned shards, the
+     * registration is written behind.
+     *
+     * @param chatID      The ID of the chat
+     * @param interaction The {@link Interaction} to register
+     */
+    public void put(long chatID, Interaction interaction) {
+        write(chatID, new Entry(interaction, System.currentTimeMillis()));
+    }
+
+    /**
+     * Removes the registration of a certain chat, given by its chat ID. For owned shards, the removal is written
+     * behind and skipped entirely if the chat is known to have no registration.
+     *
+     * @param chatID The ID of the chat
+     */
+    public void remove(long chatID) {
+        write(chatID, new Entry(null, System.currentTimeMillis()));
+    }
+
+    /**
+     * Flushes the pending changes of all owned shards to the repository.
+     */
+    public void flush() {
+        for (Shard shard : shards) {
+            flush(shard);
+        }
+    }
+
+    /**
+     * Evicts all expired entries from the cache.
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        for (Shard shard : shards) {
+            shard.stateLock.lock();
+            try {
+                evict(shard, now);
+            } finally {
+                shard.stateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic maintenance and releases all owned shards, which flushes their pending changes.
+     */
+    public void shutdown() {
+        maintainer.shutdown();
+        for (int shard = 0; shard < shards.length; shard++) {
+            release(shard);
+        }
+    }
+
+    /**
+     * Writes a change of the registration of a given chat. For owned shards, the change is cached and kept pending
+     * until the next flush. For other shards, it is written to the repository directly, fenced by the epoch of the
+     * last ownership of the shard, so that the changes of instances that still handle messages of a released shard
+     * cannot overwrite the changes of the next owner.
+     */
+    private void write(long chatID, Entry entry) {
+        Shard shard = getShard(chatID);
+        shard.stateLock.lock();
+        try {
+            if (shard.owned) {
+                stage(shard, chatID, entry);
+                return;
+            }
+        } finally {
+            shard.stateLock.unlock();
+        }
+
+        //Wait for the flush of a release, so that the direct write is not overwritten by it
+        shard.flushLock.lock();
+        try {
+            long epoch;
+            shard.stateLock.lock();
+            try {
+                //The shard may have been acquired in the meantime
+                if (shard.owned) {
+                    stage(shard, chatID, entry);
+                    return;
+                }
+                epoch = shard.epoch;
+            } finally {
+                shard.stateLock.unlock();
+            }
+
+            Map<Long, Entry> change = new LinkedHashMap<>();
+            change.put(chatID, entry);
+            if (!writeAll(change, epoch).isEmpty())
+                LOGGER.warn("A change of an interaction registration was rejected, since another instance owns its shard.");
+        } finally {
+            shard.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Caches a change of the registration of a given chat in a given owned {@link Shard} and keeps it pending,
+     * unless it removes the registration of a chat that is known to have none. Must be called with the state lock of
+     * the shard.
+     */
+    private void stage(Shard shard, long chatID, Entry entry) {
+        Entry previous = touch(shard, chatID, entry);
+        if ((entry.interaction == null) && (previous != null) && (previous.interaction == null)
+                && !shard.pending.containsKey(chatID)) return;
+        shard.pending.put(chatID, entry);
+    }
+
+    /**
+     * Loads the registration of a given chat from the repository. Registrations of unowned shards are loaded after
+     * a running flush of a release, so that the flushed changes are visible. Expired registrations and tombstones
+     * are loaded as entries without {@link Interaction}.
+     */
+    private Entry load(Shard shard, long chatID, long now) {
+        boolean owned;
+        shard.stateLock.lock();
+        try {
+            owned = shard.owned;
+        } finally {
+            shard.stateLock.unlock();
+        }
+
+        if (!owned) shard.flushLock.lock();
+        try {
+            //The database removes expired registrations only periodically
+            Optional<InteractionRegistration> registration = timedRepositoryCall(meterRegistry, "findInteractionRegistration",
+                    () -> repository.findById(chatID)).filter(r -> !r.isExpired(Instant.ofEpochMilli(now - ttl)));
+            return registration.map(r -> new Entry(r.getInteraction(), (r.getLastTouched() == null) ? now : r.getLastTouched().toEpochMilli()))
+                    .orElseGet(() -> new Entry(null, now));
+        } finally {
+            if (!owned) shard.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending changes of a given owned {@link Shard} to the repository in one bulk operation. The changes
+     * remain pending while they are written, so that lookups of evicted entries do not read outdated registrations,
+     * and are kept for the next flush in case of failures. If the write is rejected due to a later epoch, the
+     * ownership of the shard was taken over and its cache is dropped.
+     */
+    private void flush(Shard shard) {
+        shard.flushLock.lock();
+        try {
+            Map<Long, Entry> changes;
+            long epoch;
+            shard.stateLock.lock();
+            try {
+                if ((!shard.owned) || shard.pending.isEmpty()) return;
+                changes = new LinkedHashMap<>(shard.pending);
+                epoch = shard.epoch;
+            } finally {
+                shard.stateLock.unlock();
+            }
+
+            Set<Long> rejected;
+            try {
+                rejected = writeAll(changes, epoch);
+            } catch (DataAccessException e) {
+                LOGGER.warn("Flushing {} interaction registrations failed: {}", changes.size(), e.toString());
+                return;
+            }
+
+            shard.stateLock.lock();
+            try {
+                //Keep the changes that were superseded while flushing
+                changes.forEach(shard.pending::remove);
+
+                if (!rejected.isEmpty()) {
+                    LOGGER.warn("The ownership of a shard was taken over by another instance, dropping its cache.");
+                    shard.owned = false;
+                    shard.generation++;
+                    shard.entries.clear();
+                    shard.pending.clear();
+                }
+            } finally {
+                shard.stateLock.unlock();
+            }
+        } finally {
+            shard.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes given changes of registrations by chat ID to the repository, fenced by a given epoch, and returns the
+     * IDs of the chats whose changes were rejected due to a later epoch.
+     */
+    private Set<Long> writeAll(Map<Long, Entry> changes, long epoch) {
+        List<InteractionRegistration> registrations = new ArrayList<>(changes.size());
+        changes.forEach((chatID, entry) -> registrations.add(
+                new InteractionRegistration(chatID, entry.interaction, Instant.ofEpochMilli(entry.touched))));
+
+        Set<Long> rejected = timedRepositoryCall(meterRegistry, "writeInteractionRegistrations",
+                () -> repository.writeAll(registrations, epoch));
+        meterRegistry.counter(METRIC_PREFIX + "flushed").increment(changes.size() - rejected.size());
+        if (!rejected.isEmpty()) meterRegistry.counter(METRIC_PREFIX + "rejected").increment(rejected.size());
+        return rejected;
+    }
+
+    /**
+     * Inserts a given {@link Entry} for a given chat at the tail of a given {@link Shard}, evicts entries from the
+     * head of the shard if necessary and returns the previous entry of the chat. Must be called with the state lock of
+     * the shard.
+     */
+    private Entry touch(Shard shard, long chatID, Entry entry) {
+        Entry previous = shard.entries.remove(chatID);
+        shard.entries.put(chatID, entry);
+        evict(shard, entry.touched);
+        return previous;
+    }
+
+    /**
+     * Evicts the entries from the head of a given {@link Shard} that are expired or exceed the maximum number of
+     * entries. Must be called with the state lock of the shard.
+     */
+    private void evict(Shard shard, long now) {
+        Iterator<Map.Entry<Long, Entry>> iterator = shard.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Entry> oldest = iterator.next();
+            if ((oldest.getValue().touched > now - ttl) && (shard.entries.size() <= maxEntriesPerShard)) break;
+            iterator.remove();
+            meterRegistry.counter(METRIC_PREFIX + "evictions").increment();
+        }
+    }
+
+    /**
+     * Returns the {@link Shard} to which a given chat is assigned.
+     */
+    private Shard getShard(long chatID) {
+        return shards[userMessageShards.getShard(chatID)];
+    }
+
+    /**
+     * State of a single shard, which is guarded by the state lock of the shard. The state lock is an explicit lock
+     * rather than a monitor, so that contended accesses of message handlers on virtual threads do not pin their
+     * carrier threads.
+     */
+    private static class Shard {
+        //Whether this instance owns the shard
+        private boolean owned = false;
+
+        //Epoch of the last ownership of the shard, which fences the writes; 0 if it was never owned
+        private long epoch = 0;
+
+        //Counter that changes with every change of the ownership
+        private long generation = 0;
+
+        //Cached registrations by chat ID in the order in which they were last touched
+        private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+
+        //Changes that were not written to the repository yet by chat ID, where entries without interaction are removals
+        private Map<Long, Entry> pending = new LinkedHashMap<>();
+
+        //Lock that guards all other fields of the shard and is never held while accessing the repository
+        private final ReentrantLock stateLock = new ReentrantLock();
+
+        //Lock that serializes flushes, acquisitions, releases and the direct accesses while the shard is not owned
+        private final ReentrantLock flushLock = new ReentrantLock();
+    }
+
+    /**
+     * Cached registration of a chat, where a missing {@link Interaction} denotes a chat without registration.
+     */
+    private static class Entry {
+        private final Interaction interaction;
+
+        //Time in milliseconds at which the entry was last touched
+        private final long touched;
+
+        private Entry(Interaction interaction, long touched) {
+            this.interaction = interaction;
+            this.touched = touched;
+        }
+
+        /**
+         * Returns whether the entry holds a registration that was last touched before a given time in milliseconds.
+         */
+        private boolean isExpired(long threshold) {
+            return (interaction != null) && (touched < threshold);
+        }
+    }
+}
@@ -1,10 +1,20 @@
 package de.pinguparty.geopingu.worker.services.registry;
 
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
 import de.pinguparty.geopingu.worker.interactions.Interaction;
 import de.pinguparty.geopingu.worker.persistence.InteractionRegistrationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
 
 /**
@@ -12,13 +22,89 @@ import java.util.Optional;
  * {@link Interaction}s that are currently active within a certain chat and thus demand to receive all further
  * non-command messages of the users in this chat.
  * Only one {@link Interaction} can be active within a chat at the same time.
+ * Optionally, the registrations of the chats whose shards are owned by this instance are kept in an
+ * {@link InteractionRegistrationCache}, which answers lookups from memory and writes changes behind, fenced by the
+ * epochs of the shard ownerships.
+ * Registrations expire once they were not touched by a new registration for a configurable time to live, so that
+ * interactions that were abandoned by the users stop receiving messages. Expired registrations are removed by a TTL
+ * index of the database and are ignored by lookups until then.
  */
 @Component
 public class InteractionRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InteractionRegistry.class);
+
+    @Value("${worker.registry.ttl}")
+    private long ttl;
+
+    @Value("${worker.registry.cache.enabled}")
+    private boolean cacheEnabled;
+
+    @Value("${worker.registry.cache.max-entries}")
+    private int cacheMaxEntries;
+
+    @Value("${worker.registry.cache.flush-interval}")
+    private long cacheFlushInterval;
+
+    @Value("${worker.registry.cache.eviction-interval}")
+    private long cacheEvictionInterval;
 
     @Autowired
     private InteractionRegistrationRepository interactionRegistrationRepository;
 
+    @Autowired
+    private UserMessageShards userMessageShards;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //Near-cache of the registrations or null, if the repository is accessed directly
+    private InteractionRegistrationCache cache;
+
+    /**
+     * Ensures the TTL index on the registrations and creates the {@link InteractionRegistrationCache}, if enabled.
+     */
+    @PostConstruct
+    public void initialize() {
+        //Sanity check
+        if (ttl < 1) throw new IllegalArgumentException("The time to live must be positive.");
+
+        ensureExpiry();
+
+        if (!cacheEnabled) return;
+
+        cache = new InteractionRegistrationCache(interactionRegistrationRepository, userMessageShards, cacheMaxEntries,
+                getTtlMillis(), cacheFlushInterval, cacheEvictionInterval, meterRegistry);
+    }
+
+    /**
+     * Flushes the pending changes of the cache and stops its periodic maintenance before the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (cache != null) cache.shutdown();
+    }
+
+    /**
+     * Marks a given shard of the {@link UserMessageShards} as owned by this instance, because it consumes the
+     * messages of the shard, so that the registrations of its chats can be cached.
+     *
+     * @param shard The number of the shard
+     */
+    public void acquireShard(int shard) {
+        if (cache != null) cache.acquire(shard);
+    }
+
+    /**
+     * Marks a given shard of the {@link UserMessageShards} as no longer owned by this instance, because it stopped
+     * consuming the messages of the shard, so that the pending changes of its chats are flushed and their cached
+     * registrations are dropped.
+     *
+     * @param shard The number of the shard
+     */
+    public void releaseShard(int shard) {
+        if (cache != null) cache.release(shard);
+    }
+
     /**
      * Looks up and returns the {@link Interaction} that has previously been registered as active for a certain chat,
      * given by its chat ID . In case no such {@link Interaction} exists, the returned {@link Optional} will be empty.
@@ -27,11 +113,15 @@ public class InteractionRegistry {
      * @return The currently active {@link Interaction}
      */
     public Optional<Interaction> getActiveInteraction(long chatID) {
+        //Use the cache if available
+        if (cache != null) return cache.get(chatID);
+
         //Try to retrieve a corresponding registration from the repository
         Optional<InteractionRegistration> registrationOptional = interactionRegistrationRepository.findById(chatID);
 
-        //Check whether the registration could be found
-        if (registrationOptional.isEmpty()) return Optional.empty();
+        //Check whether the registration could be found and is not expired
+        if (registrationOptional.isEmpty() || registrationOptional.get().isExpired(Instant.now().minusMillis(getTtlMillis())))
+            return Optional.empty();
 
         //Extract the active interaction from the registration and wrap it
         return Optional.ofNullable(registrationOptional.get().getInteraction());
@@ -48,6 +138,12 @@ public class InteractionRegistry {
         //Sanity check
         if (interaction == null) throw new IllegalArgumentException("The interaction must not be null.");
 
+        //Use the cache if available
+        if (cache != null) {
+            cache.put(chatID, interaction);
+            return;
+        }
+
         //Create corresponding interaction registration
         InteractionRegistration registration = new InteractionRegistration(chatID, interaction);
 
@@ -63,7 +159,33 @@ public class InteractionRegistry {
      * @param chatID The ID of the chat for which the active {@link Interaction} is supposed to be unregistered
      */
     public void unregisterInteraction(long chatID) {
+        //Use the cache if available
+        if (cache != null) {
+            cache.remove(chatID);
+            return;
+        }
+
         //Remove any registration with the given chat ID from the repository
         interactionRegistrationRepository.deleteById(chatID);
     }
+
+    /**
+     * Ensures the TTL index on the last touched timestamps of the registrations and sets the timestamp of
+     * registrations that were stored without it, since the database would never remove them otherwise.
+     */
+    private void ensureExpiry() {
+        try {
+            long backfilled = interactionRegistrationRepository.ensureExpiry(Duration.ofSeconds(ttl));
+            if (backfilled > 0) LOGGER.info("Set the expiry of {} interaction registrations without timestamp.", backfilled);
+        } catch (DataAccessException e) {
+            LOGGER.warn("The expiry of interaction registrations could not be set up: {}", e.toString());
+        }
+    }
+
+    /**
+     * Returns the time to live of the registrations in milliseconds.
+     */
+    private long getTtlMillis() {
+        return ttl * 1000;
+    }
 }
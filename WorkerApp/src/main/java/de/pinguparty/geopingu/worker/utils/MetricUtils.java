@@ -0,0 +1,37 @@
+package de.pinguparty.geopingu.worker.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.function.Supplier;
+
+/**
+ * Collection of utility methods for recording metrics that are shared by several services.
+ */
+public class MetricUtils {
+    //Name of the timer that records the durations of repository calls, tagged by operation
+    public static final String METRIC_REPOSITORY_CALLS = "geopingu.repository.calls";
+
+    /**
+     * Performs a given repository call and records its duration, tagged by the name of the operation.
+     *
+     * @param meterRegistry The {@link MeterRegistry} to record the duration with
+     * @param operation     The name of the operation
+     * @param call          The repository call to perform
+     * @param <T>           The type of the result
+     * @return The result of the repository call
+     */
+    public static <T> T timedRepositoryCall(MeterRegistry meterRegistry, String operation, Supplier<T> call) {
+        return meterRegistry.timer(METRIC_REPOSITORY_CALLS, "operation", operation).record(call);
+    }
+
+    /**
+     * Performs a given repository call without result and records its duration, tagged by the name of the operation.
+     *
+     * @param meterRegistry The {@link MeterRegistry} to record the duration with
+     * @param operation     The name of the operation
+     * @param call          The repository call to perform
+     */
+    public static void timedRepositoryCall(MeterRegistry meterRegistry, String operation, Runnable call) {
+        meterRegistry.timer(METRIC_REPOSITORY_CALLS, "operation", operation).record(call);
+    }
+}
@@ -1,16 +1,31 @@
 package de.pinguparty.geopingu.worker.domain.formula;
 
+import de.pinguparty.geopingu.worker.domain.formula.coordinates.Coordinates;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaLexer;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.FormulaTokens;
+import de.pinguparty.geopingu.worker.domain.formula.lexer.TokenKind;
 import de.pinguparty.geopingu.worker.domain.formula.literals.Literal;
+import de.pinguparty.geopingu.worker.domain.formula.program.FormulaProgram;
+import de.pinguparty.geopingu.worker.domain.formula.program.OperandStack;
+import de.pinguparty.geopingu.worker.domain.formula.solver.BoundingBox;
+import de.pinguparty.geopingu.worker.domain.formula.solver.FormulaSolver;
+import de.pinguparty.geopingu.worker.domain.formula.solver.Solution;
+import de.pinguparty.geopingu.worker.domain.formula.solver.VariableRange;
 import de.pinguparty.geopingu.worker.domain.formula.variables.Variable;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class FormulaTest {
 
+    @Test
     void testParsing1() {
         Formula formula = new Formula("N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E]");
         assertFalse(formula.allVariablesSet());
@@ -37,6 +52,7 @@ class FormulaTest {
         assertEquals("N48 43.249 E8 56.088", formula.evaluate());
     }
 
+    @Test
     void testParsing2() {
         Formula formula = new Formula("N48 43.333 E008 52.[A+145]");
         assertFalse(formula.allVariablesSet());
@@ -51,6 +67,7 @@ class FormulaTest {
         assertEquals("N48 43.333 E008 52.380", formula.evaluate());
     }
 
+    @Test
     void testParsing3() {
         Formula formula = new Formula("N48 43.333 E008 52.[BWW(A#B) + 25]");
         assertFalse(formula.allVariablesSet());
@@ -67,6 +84,7 @@ class FormulaTest {
         assertEquals("N48 43.333 E008 52.139", formula.evaluate());
     }
 
+    @Test
     void testParsing4() {
         Formula formula = new Formula("N48 43.333 E008 52.111");
         assertEquals(0, formula.getVariables().size());
@@ -79,4 +97,267 @@ class FormulaTest {
     void testIllegalSyntax1() {
         assertThrows(IllegalFormulaSyntaxException.class, () -> new Formula("N48 43.333 E008 52.[A+B"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCompiledProgram() {
+        Formula formula = new Formula("N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E] [(A+B)*(C-D)/2]");
+        formula.setVariable("A", new Literal(8));
+        formula.setVariable("B", new Literal(2));
+        formula.setVariable("C", new Literal(3));
+        formula.setVariable("D", new Literal(1));
+        formula.setVariable("E", new Literal(8));
+        formula.setVariable("F", new Literal(6));
+        formula.setVariable("G", new Literal(8));
+
+        assertEquals(formula.evaluateInterpreted(), formula.evaluate());
+        assertEquals("N48 43.249 E8 56.088 10", formula.evaluate());
+
+        //The same program can be executed repeatedly for different variable values
+        FormulaProgram program = formula.getExpressions().get(8).getProgram();
+        OperandStack stack = new OperandStack(program.getMaxStackSize());
+        double[] values = new double[formula.getVariables().size()];
+        for (int a = 0; a < 10; a++) {
+            values[formula.getVariableSlot("A")] = a;
+            values[formula.getVariableSlot("B")] = 2;
+            values[formula.getVariableSlot("C")] = 3;
+            values[formula.getVariableSlot("D")] = 1;
+            assertEquals(a + 2, program.evaluateNumber(stack, values));
+        }
+    }
+
+    @Test
+    void testIllegalSyntax2() {
+        assertThrows(IllegalFormulaSyntaxException.class, () -> new Formula("N48 43.333 E008 52.[A+]"));
+        assertThrows(IllegalFormulaSyntaxException.class, () -> new Formula("N48 43.333 E008 52.[(A+B]"));
+        assertThrows(IllegalFormulaSyntaxException.class, () -> new Formula("N48 43.333 E008 52.[]"));
+        assertThrows(IllegalFormulaSyntaxException.class, () -> new Formula("N48 43.333 E008 52.A+B]"));
+    }
+
+    @Test
+    void testTokenizing() {
+        String formula = "N48 4[bww(\"ab c\") + 12.50]";
+        FormulaTokens tokens = new FormulaTokens();
+        FormulaLexer.tokenize(formula, tokens);
+
+        assertEquals(9, tokens.size());
+        assertEquals(TokenKind.TEXT, tokens.getKind(0));
+        assertEquals("N48 4", formula.substring(tokens.getStart(0), tokens.getEnd(0)));
+        assertEquals(TokenKind.EXPRESSION_START, tokens.getKind(1));
+        assertEquals(TokenKind.IDENTIFIER, tokens.getKind(2));
+        assertEquals(TokenKind.OPENING_BRACKET, tokens.getKind(3));
+        assertEquals(TokenKind.STRING, tokens.getKind(4));
+        assertEquals("\"ab c\"", formula.substring(tokens.getStart(4), tokens.getEnd(4)));
+        assertEquals(TokenKind.CLOSING_BRACKET, tokens.getKind(5));
+        assertEquals(TokenKind.OPERATOR, tokens.getKind(6));
+        assertEquals(TokenKind.NUMBER, tokens.getKind(7));
+        assertEquals(12.5, FormulaLexer.parseNumber(formula, tokens.getStart(7), tokens.getEnd(7)));
+        assertEquals(TokenKind.EXPRESSION_END, tokens.getKind(8));
+
+        assertEquals(0.05, FormulaLexer.parseNumber("0.05", 0, 4));
+        assertEquals(1.0 / 3, FormulaLexer.parseNumber("0.3333333333333333", 0, 18));
+
+        assertThrows(IllegalFormulaSyntaxException.class, () -> FormulaLexer.tokenize("[3A]", tokens));
+        assertThrows(IllegalFormulaSyntaxException.class, () -> FormulaLexer.tokenize("[1.2.3]", tokens));
+        assertThrows(IllegalFormulaSyntaxException.class, () -> FormulaLexer.tokenize("[A.B]", tokens));
+        assertThrows(IllegalFormulaSyntaxException.class, () -> FormulaLexer.tokenize("[\"abc]", tokens));
+        assertThrows(IllegalFormulaSyntaxException.class, () -> FormulaLexer.tokenize("[[A]]", tokens));
+    }
+
+    @Test
+    void testNumberParsing() {
+        //Mantissas above 2^53 are not exactly representable and must not take the fast path
+        assertEquals(Double.parseDouble("107619038315445.038"), FormulaLexer.parseNumber("107619038315445.038", 0, 19));
+        assertEquals(Double.parseDouble("9007199254740993"), FormulaLexer.parseNumber("9007199254740993", 0, 16));
+        assertEquals(Double.parseDouble("0.000000000000000000000001"), FormulaLexer.parseNumber("0.000000000000000000000001", 0, 26));
+
+        //Compare random numbers of up to 20 digits with the JDK
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder number = new StringBuilder();
+            int length = 1 + random.nextInt(20);
+            int separator = random.nextInt(length + 1);
+            for (int j = 0; j < length; j++) {
+                if ((j == separator) && (j > 0)) number.append('.');
+                number.append((char) ('0' + random.nextInt(10)));
+            }
+            String text = number.toString();
+            assertEquals(Double.parseDouble(text), FormulaLexer.parseNumber(text, 0, text.length()), text);
+        }
+    }
+
+    @Test
+    void testSolving() {
+        Formula formula = new Formula("N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E]");
+        formula.setVariable("C", new Literal(3));
+        formula.setVariable("F", new Literal(6));
+        formula.setVariable("G", new Literal(8));
+
+        //Search the remaining variables within a small area around the expected coordinates
+        FormulaSolver solver = new FormulaSolver(formula)
+                .setConstraint(BoundingBox.around(48.72082, 8.93480, 20))
+                .setProgressListener((checked, total) -> assertTrue(checked <= total));
+        for (String name : List.of("A", "B", "D", "E")) solver.setRange(name, VariableRange.digit());
+
+        List<Solution> solutions = new ArrayList<>();
+        assertEquals(1, solver.solve(solutions::add));
+        assertEquals("N48 43.249 E8 56.088", solutions.get(0).getText());
+        assertEquals(8, solutions.get(0).getAssignment().get("A"));
+        assertEquals(2, solutions.get(0).getAssignment().get("B"));
+        assertEquals(1, solutions.get(0).getAssignment().get("D"));
+        assertEquals(8, solutions.get(0).getAssignment().get("E"));
+
+        //Without constraint, every assignment is a solution
+        Formula simple = new Formula("N48 43.333 E008 52.[A+B]");
+        AtomicLong count = new AtomicLong();
+        assertEquals(100, simple.solve(Map.of("A", VariableRange.digit(), "B", VariableRange.digit()), null, s -> count.incrementAndGet()));
+        assertEquals(100, count.get());
+
+        //Partially resolved decimal places already bound the coordinate
+        assertEquals(48 + 43.0 / 60, Coordinates.boundLatitude("N48 43.", false), 1e-9);
+        assertEquals(48 + 43.3 / 60, Coordinates.boundLatitude("N48 43.2", true), 1e-9);
+        assertTrue(Double.isNaN(Coordinates.boundLatitude("N48 4", true)));
+        assertEquals(-(8 + 56.1 / 60), Coordinates.boundLongitude("N48 43.249 W8 56.0", false), 1e-9);
+
+        assertThrows(IllegalStateException.class, () -> new FormulaSolver(new Formula("[A]")).solve(s -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new VariableRange(5, 4));
+    }
+
+    @Test
+    void testTemplateCache() {
+        //Formulas that only differ in whitespace share the same template, but not their variable values
+        Formula first = new Formula("N48 43.333 E008 52.[A+145]");
+        Formula second = new Formula("  N48  43.333\tE008 52.[A +145] ");
+        assertSame(first.getTemplate(), second.getTemplate());
+
+        first.setVariable("A", new Literal(235));
+        second.setVariable("A", new Literal(236));
+        assertEquals("N48 43.333 E008 52.380", first.evaluate());
+        assertEquals("  N48  43.333\tE008 52.381 ", second.evaluate());
+
+        //Each formula keeps its own text, also for expressions that cannot be evaluated yet
+        Formula partial = new Formula(" N48  43.[A + B]\t[C]");
+        Formula normalized = new Formula("N48 43.[A+B] [C]");
+        assertSame(normalized.getTemplate(), partial.getTemplate());
+        partial.setVariable("C", new Literal(7));
+        assertEquals(" N48  43.[A + B]\t7", partial.evaluatePartially());
+        assertEquals("N48 43.[A+B] [C]", normalized.evaluatePartially());
+        assertEquals(List.of(" N48  43.", "\t", ""), partial.getTextSegments());
+
+        //Whitespace within string values is preserved
+        assertEquals("N48 4[bww(\"a  b\")+1]", FormulaTemplate.normalize(" N48   4[bww(\"a  b\")  + 1]"));
+
+        //The capacity of the cache is bounded
+        FormulaTemplateCache cache = new FormulaTemplateCache(2);
+        cache.get("[A]");
+        cache.get("[B]");
+        cache.get("[C]");
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getMisses());
+        assertThrows(IllegalFormulaSyntaxException.class, () -> cache.get("[A+]"));
+    }
+
+    @Test
+    void testPartialEvaluation() {
+        Formula formula = new Formula("N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E]");
+        assertEquals("N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E]", formula.evaluatePartially());
+
+        formula.setVariable("A", new Literal(8));
+        formula.setVariable("B", new Literal(2));
+        assertEquals("N48 4[B+D].[F/C][G/B][D+A] E8 56.[E-8]8[E]", formula.evaluatePartially());
+
+        formula.setVariable("C", new Literal(3));
+        formula.setVariable("D", new Literal(1));
+        formula.setVariable("E", new Literal(8));
+        formula.setVariable("F", new Literal(6));
+        formula.setVariable("G", new Literal(8));
+        assertEquals("N48 43.249 E8 56.088", formula.evaluatePartially());
+        assertEquals("N48 43.249 E8 56.088", formula.evaluate());
+
+        //Only the expressions that depend on the changed variable are affected
+        formula.setVariable("E", new Literal(9));
+        assertEquals("N48 43.249 E8 56.189", formula.evaluate());
+        formula.setVariable("A", new Literal(7));
+        assertEquals("N48 43.248 E8 55.179", formula.evaluate());
+        assertEquals(formula.evaluateInterpreted(), formula.evaluate());
+    }
+
+    @Test
+    void testLiterals() {
+        //Numbers are formatted lazily and without unnecessary decimal places
+        assertEquals("8", new Literal(8).getString());
+        assertEquals("0.5", new Literal(0.5).getString());
+        assertFalse(new Literal(8).isText());
+
+        //Texts are only numeric if they represent a number
+        assertTrue(new Literal(" -1.5e2 ").isNumber());
+        assertEquals(-150, new Literal(" -1.5e2 ").getNumber());
+        assertFalse(new Literal("abc").isNumber());
+        assertTrue(new Literal("1.").isNumber());
+        assertFalse(new Literal(".").isNumber());
+        assertThrows(LiteralNotNumericException.class, () -> new Literal("12a").getNumber());
+
+        assertEquals(new Literal(8), new Literal(8.0));
+        assertNotEquals(new Literal(8), new Literal("8"));
+    }
+
+    @Test
+    void testBatchEvaluation() {
+        Formula formula = new Formula("N48 4[B+D].[F/C][G/B][D+A] E8 5[A-B].[E-8][A][E] [BWW(\"ab\")*A]");
+        formula.setVariable("C", new Literal(3));
+        formula.setVariable("F", new Literal(6));
+        formula.setVariable("G", new Literal(8));
+
+        //Rows beyond the block size are evaluated as well
+        int rows = 3000;
+        double[] a = new double[rows];
+        double[] b = new double[rows];
+        double[] d = new double[rows];
+        double[] e = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            a[row] = row % 10;
+            b[row] = 2;
+            d[row] = 1;
+            e[row] = 8;
+        }
+
+        double[][] results = formula.evaluateBatch(Map.of("A", a, "B", b, "D", d, "E", e));
+        assertEquals(9, results.length);
+        assertEquals(rows, results[0].length);
+        assertEquals("N48 43.249 E8 56.088 24", formula.renderBatchRow(results, 2998));
+        assertEquals(27, results[8][2999]);
+
+        //The results match the row-wise evaluation
+        formula.setVariable("A", new Literal(8));
+        formula.setVariable("B", new Literal(2));
+        formula.setVariable("D", new Literal(1));
+        formula.setVariable("E", new Literal(8));
+        assertEquals(formula.evaluate(), formula.renderBatchRow(results, 2998));
+
+        assertThrows(IllegalStateException.class, () -> new Formula("[A+B]").evaluateBatch(Map.of("A", a)));
+        assertThrows(LiteralNotNumericException.class, () -> new Formula("[A#\"x\"]").evaluateBatch(Map.of("A", a)));
+    }
+
+    @Test
+    void testCoordinateFunctions() {
+        //One arc minute of latitude corresponds to 1853.25 meters on the sphere
+        Formula projection = new Formula("[project(\"N48 43.249 E8 56.088\", 0, 1853.25)]");
+        assertEquals("N48 44.249 E008 56.088", projection.evaluate());
+        assertEquals(projection.evaluate(), projection.evaluateInterpreted());
+
+        Formula distance = new Formula("[distance(\"N48 43.249 E8 56.088\", \"N48 44.249 E8 56.088\")]");
+        assertEquals(1853.25, Double.parseDouble(distance.evaluate()), 0.01);
+
+        //Coordinates may also be composed from variables
+        Formula midpoint = new Formula("[midpoint(\"N48 00.000 E8 00.000\", \"N4\"#A#\" 00.000 E8 00.000\")]");
+        midpoint.setVariable("A", new Literal(9));
+        assertEquals("N48 30.000 E008 00.000", midpoint.evaluate());
+
+        //Conversions between the notations
+        assertEquals("N48° 43' 14.94\" E008° 56' 05.28\"", new Formula("[dms(\"N48 43.249 E8 56.088\")]").evaluate());
+        assertEquals("N48.72082 E8.93480", new Formula("[dec(\"N48 43.249 E8 56.088\")]").evaluate());
+        assertEquals("N48 43.249 E008 56.088", new Formula("[dmm(dec(\"N48 43.249 E8 56.088\"))]").evaluate());
+        assertEquals("S33 51.600 W070 00.000", new Formula("[DMM(\"S33.86 W70\")]").evaluate());
+
+        assertThrows(IllegalCoordinateException.class, () -> new Formula("[dms(\"N48 43.249\")]").evaluate());
+    }
+}
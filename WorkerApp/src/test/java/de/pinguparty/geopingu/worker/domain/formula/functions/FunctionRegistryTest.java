@@ -0,0 +1,43 @@
+package de.pinguparty.geopingu.worker.domain.formula.functions;
+
+import org.junit.jupiter.api.Test;
+import org.reflections.Reflections;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FunctionRegistryTest {
+
+    @Test
+    void testRegisteredFunctions() {
+        //Find all concrete top level functions within the package, as the generator is supposed to
+        Reflections reflections = new Reflections(new ConfigurationBuilder().forPackages(Function.class.getPackageName()));
+        Set<Class<?>> expected = new HashSet<>();
+        for (Class<? extends Function> functionClass : reflections.getSubTypesOf(Function.class)) {
+            if (Modifier.isAbstract(functionClass.getModifiers()) || (functionClass.getEnclosingClass() != null)) continue;
+            expected.add(functionClass);
+        }
+
+        assertFalse(expected.isEmpty());
+
+        //The generated registry contains each of them exactly once
+        Set<Class<?>> registered = Arrays.stream(FunctionRegistry.FUNCTIONS).map(Object::getClass).collect(Collectors.toSet());
+        assertEquals(FunctionRegistry.FUNCTIONS.length, registered.size());
+        assertEquals(expected, registered);
+    }
+
+    @Test
+    void testUniqueNames() {
+        //Functions are looked up by their names and number of arguments, which must therefore not collide
+        Set<String> signatures = new HashSet<>();
+        for (Function function : FunctionRegistry.FUNCTIONS) {
+            assertTrue(signatures.add(function.getName() + "/" + function.getNumberOfArguments()), function.getName());
+        }
+    }
+}
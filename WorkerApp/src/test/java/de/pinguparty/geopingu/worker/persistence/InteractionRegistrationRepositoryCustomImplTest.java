@@ -0,0 +1,180 @@
+package de.pinguparty.geopingu.worker.persistence;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import de.pinguparty.geopingu.worker.interactions.add.AddGeocacheInteraction;
+import de.pinguparty.geopingu.worker.services.registry.InteractionRegistration;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InteractionRegistrationRepositoryCustomImplTest {
+    private final List<InteractionRegistration> registrations = new ArrayList<>();
+    private final List<IndexDefinition> indexes = new ArrayList<>();
+    private final Map<Object, Long> epochs = new HashMap<>();
+    private final List<Query> writeQueries = new ArrayList<>();
+    private final List<InteractionRegistration> writes = new ArrayList<>();
+    private final Set<Long> newerChatIds = new HashSet<>();
+    private int bulkOperations = 0;
+    private boolean failing = false;
+    private final InteractionRegistrationRepositoryCustomImpl repository = new InteractionRegistrationRepositoryCustomImpl(createMongoOperations());
+
+    @Test
+    void testEnsureExpiry() {
+        Instant touched = Instant.now().minusSeconds(60);
+        registrations.add(new InteractionRegistration(1, new AddGeocacheInteraction(), touched));
+        registrations.add(new InteractionRegistration(2, new AddGeocacheInteraction(), null));
+        registrations.add(new InteractionRegistration(3, new AddGeocacheInteraction(), null));
+
+        //The TTL index expires the registrations on their last touched timestamp
+        Instant before = Instant.now();
+        assertEquals(2, repository.ensureExpiry(Duration.ofHours(1)));
+        assertEquals(1, indexes.size());
+        assertEquals(new Document(InteractionRegistration.FIELD_LAST_TOUCHED, 1), indexes.get(0).getIndexKeys());
+        assertEquals(3600L, indexes.get(0).getIndexOptions().get("expireAfterSeconds"));
+
+        //Legacy registrations without timestamp are backfilled with the current time, others are kept
+        assertEquals(touched, registrations.get(0).getLastTouched());
+        assertFalse(registrations.get(1).getLastTouched().isBefore(before));
+        assertFalse(registrations.get(2).getLastTouched().isBefore(before));
+
+        //Once backfilled, nothing is left to update
+        assertEquals(0, repository.ensureExpiry(Duration.ofHours(1)));
+    }
+
+    @Test
+    void testAcquireEpoch() {
+        //Each acquisition increments the epoch of its shard
+        assertEquals(1, repository.acquireEpoch(0));
+        assertEquals(2, repository.acquireEpoch(0));
+        assertEquals(1, repository.acquireEpoch(1));
+        assertEquals(3, repository.acquireEpoch(0));
+    }
+
+    @Test
+    void testFencedWrites() {
+        InteractionRegistration registration = new InteractionRegistration(1, new AddGeocacheInteraction());
+        InteractionRegistration tombstone = new InteractionRegistration(2, null);
+        InteractionRegistration stale = new InteractionRegistration(3, new AddGeocacheInteraction());
+        newerChatIds.add(3L);
+
+        //All registrations are written in one bulk operation with the epoch of the writer
+        assertEquals(Set.of(3L), repository.writeAll(List.of(registration, tombstone, stale), 5));
+        assertEquals(1, bulkOperations);
+        assertEquals(List.of(registration, tombstone, stale), writes);
+        assertEquals(5L, tombstone.getEpoch());
+
+        //Writes only match registrations without epoch or of the same or an earlier epoch
+        Document expected = new Document("_id", 1L).append("$or", List.of(
+                new Document(InteractionRegistration.FIELD_EPOCH, new Document("$exists", false)),
+                new Document(InteractionRegistration.FIELD_EPOCH, new Document("$lte", 5L))));
+        assertEquals(expected, writeQueries.get(0).getQueryObject());
+
+        //Nothing is written without registrations
+        assertEquals(Set.of(), repository.writeAll(List.of(), 5));
+        assertEquals(1, bulkOperations);
+    }
+
+    @Test
+    void testFailedWrite() {
+        //Errors other than rejections due to later epochs fail the write
+        failing = true;
+        assertThrows(BulkOperationException.class, () -> repository.writeAll(
+                List.of(new InteractionRegistration(1, new AddGeocacheInteraction())), 1));
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationRepositoryCustomImpl(null));
+    }
+
+    /**
+     * Creates {@link MongoOperations} that record the ensured indexes, apply updates of the last touched timestamps
+     * to the registrations in memory, count the epochs of the shards and record bulk writes, which fail with
+     * duplicate keys for the chats that have registrations of later epochs.
+     */
+    private MongoOperations createMongoOperations() {
+        BulkOperations bulk = (BulkOperations) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{BulkOperations.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "replaceOne":
+                            writeQueries.add((Query) args[0]);
+                            writes.add((InteractionRegistration) args[1]);
+                            return proxy;
+                        case "execute":
+                            List<BulkWriteError> errors = new ArrayList<>();
+                            for (int i = 0; i < writes.size(); i++) {
+                                if (failing) errors.add(new BulkWriteError(2, "Bad value", new BsonDocument(), i));
+                                else if (newerChatIds.contains(writes.get(i).getChatId()))
+                                    errors.add(new BulkWriteError(11000, "Duplicate key", new BsonDocument(), i));
+                            }
+                            BulkWriteResult result = BulkWriteResult.acknowledged(0, 0, 0, writes.size() - errors.size(), List.of());
+                            if (errors.isEmpty()) return result;
+                            throw new BulkOperationException("Bulk write failed",
+                                    new MongoBulkWriteException(result, errors, null, new ServerAddress()));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        IndexOperations indexOperations = (IndexOperations) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{IndexOperations.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("ensureIndex")) throw new UnsupportedOperationException(method.getName());
+                    indexes.add((IndexDefinition) args[0]);
+                    return "index";
+                });
+
+        return (MongoOperations) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoOperations.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "indexOps":
+                            return indexOperations;
+                        case "bulkOps":
+                            assertEquals(BulkOperations.BulkMode.UNORDERED, args[0]);
+                            bulkOperations++;
+                            return bulk;
+                        case "findAndModify":
+                            Object shard = ((Query) args[0]).getQueryObject().get("_id");
+                            return new Document("_id", shard).append("epoch", epochs.merge(shard, 1L, Long::sum));
+                        case "updateMulti":
+                            //Only updates of registrations without timestamp are supported
+                            Document query = ((Query) args[0]).getQueryObject();
+                            assertEquals(new Document(InteractionRegistration.FIELD_LAST_TOUCHED, new Document("$exists", false)), query);
+                            Document set = (Document) ((UpdateDefinition) args[1]).getUpdateObject().get("$set");
+                            Instant lastTouched = (Instant) set.get(InteractionRegistration.FIELD_LAST_TOUCHED);
+
+                            long modified = 0;
+                            for (InteractionRegistration registration : registrations) {
+                                if (registration.getLastTouched() != null) continue;
+                                registration.setLastTouched(lastTouched);
+                                modified++;
+                            }
+                            return UpdateResult.acknowledged(modified, modified, null);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
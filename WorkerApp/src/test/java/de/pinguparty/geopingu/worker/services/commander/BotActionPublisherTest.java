@@ -0,0 +1,210 @@
+package de.pinguparty.geopingu.worker.services.commander;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BotActionPublisherTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RecordingTemplate rabbitTemplate = new RecordingTemplate();
+    private BotActionPublisher publisher;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (publisher != null) publisher.shutdown(0);
+    }
+
+    @Test
+    void testOrderPerChat() throws Exception {
+        publisher = new BotActionPublisher(rabbitTemplate, 100, 1000, 3, 10, meterRegistry);
+        publisher.publish("botActions", 1, messages("a", "b"));
+        publisher.publish("botActions", 2, messages("c"));
+        publisher.publish("botActions", 1, messages("d"));
+
+        //Only the first message of each chat is in flight
+        List<String> inFlight = Arrays.asList(rabbitTemplate.next().body(), rabbitTemplate.next().body());
+        assertTrue(inFlight.containsAll(Arrays.asList("a", "c")));
+        rabbitTemplate.assertNothingSent();
+
+        //Each further message of a chat is sent once its predecessor is confirmed, also across batches
+        rabbitTemplate.confirm("a", true);
+        Sent b = rabbitTemplate.next();
+        assertEquals("b", b.body());
+        assertEquals("botActions", b.routingKey);
+        rabbitTemplate.assertNothingSent();
+        rabbitTemplate.confirm("b", true);
+        assertEquals("d", rabbitTemplate.next().body());
+    }
+
+    @Test
+    void testRetryKeepsOrder() throws Exception {
+        publisher = new BotActionPublisher(rabbitTemplate, 100, 1000, 3, 10, meterRegistry);
+        publisher.publish("botActions", 1, messages("a", "b"));
+        publisher.publish("botActions", 2, messages("c"));
+        List<String> inFlight = Arrays.asList(rabbitTemplate.next().body(), rabbitTemplate.next().body());
+        assertTrue(inFlight.containsAll(Arrays.asList("a", "c")));
+
+        //A nacked message is published again, while the later messages of its chat are held back
+        rabbitTemplate.confirm("a", false);
+        assertEquals("a", rabbitTemplate.next().body());
+        rabbitTemplate.assertNothingSent();
+        assertEquals(1, meterRegistry.counter("geopingu.publisher.retries").count());
+
+        //Other chats are not affected
+        rabbitTemplate.confirm("c", true);
+        publisher.publish("botActions", 2, messages("e"));
+        assertEquals("e", rabbitTemplate.next().body());
+
+        //The held back messages follow once the retried message is confirmed
+        rabbitTemplate.confirm("a", true);
+        assertEquals("b", rabbitTemplate.next().body());
+    }
+
+    @Test
+    void testFailedSend() throws Exception {
+        publisher = new BotActionPublisher(rabbitTemplate, 100, 1000, 3, 10, meterRegistry);
+
+        //Messages whose sending fails are retried the same way as nacked messages
+        rabbitTemplate.failures.set(1);
+        publisher.publish("botActions", 1, messages("a", "b"));
+        assertEquals("a", rabbitTemplate.next().body());
+        rabbitTemplate.assertNothingSent();
+        assertEquals(1, meterRegistry.counter("geopingu.publisher.retries").count());
+
+        rabbitTemplate.confirm("a", true);
+        assertEquals("b", rabbitTemplate.next().body());
+    }
+
+    @Test
+    void testDropAfterMaxAttempts() throws Exception {
+        publisher = new BotActionPublisher(rabbitTemplate, 2, 100, 2, 10, meterRegistry);
+        publisher.publish("botActions", 1, messages("a", "b"));
+
+        rabbitTemplate.confirm(rabbitTemplate.next(), false);
+        rabbitTemplate.confirm(rabbitTemplate.next(), false);
+
+        //The message is dropped after the last attempt and the next message of the chat follows
+        Sent b = rabbitTemplate.next();
+        assertEquals("b", b.body());
+        assertEquals(1, meterRegistry.counter("geopingu.publisher.failures").count());
+        rabbitTemplate.confirm(b, true);
+
+        //The permits of the dropped and the confirmed message are released again
+        publisher.publish("botActions", 2, messages("c", "d"));
+        assertEquals("c", rabbitTemplate.next().body());
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+        publisher = new BotActionPublisher(rabbitTemplate, 2, 100, 3, 10, meterRegistry);
+        publisher.publish("botActions", 1, messages("a"));
+        publisher.publish("botActions", 2, messages("b"));
+
+        //Submissions time out while the maximum number of unconfirmed messages is reached
+        assertThrows(AmqpTimeoutException.class, () -> publisher.publish("botActions", 3, messages("c")));
+
+        rabbitTemplate.confirm(rabbitTemplate.next(), true);
+        publisher.publish("botActions", 3, messages("c"));
+    }
+
+    @Test
+    void testSanityChecks() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new BotActionPublisher(null, 1, 0, 1, 0, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new BotActionPublisher(rabbitTemplate, 0, 0, 1, 0, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new BotActionPublisher(rabbitTemplate, 1, -1, 1, 0, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new BotActionPublisher(rabbitTemplate, 1, 0, 0, 0, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new BotActionPublisher(rabbitTemplate, 1, 0, 1, -1, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new BotActionPublisher(rabbitTemplate, 1, 0, 1, 0, null));
+
+        publisher = new BotActionPublisher(rabbitTemplate, 1, 0, 1, 0, meterRegistry);
+        assertThrows(IllegalArgumentException.class, () -> publisher.publish("", 1, messages("a")));
+
+        //Empty batches are ignored
+        publisher.publish("botActions", 1, messages());
+        rabbitTemplate.assertNothingSent();
+    }
+
+    private static List<Message> messages(String... bodies) {
+        return Arrays.stream(bodies)
+                .map(b -> new Message(b.getBytes(StandardCharsets.UTF_8), new MessageProperties()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Message that was sent by the publisher, together with its correlation data.
+     */
+    private static class Sent {
+        private final String routingKey;
+        private final Message message;
+        private final CorrelationData correlationData;
+
+        private Sent(String routingKey, Message message, CorrelationData correlationData) {
+            this.routingKey = routingKey;
+            this.message = message;
+            this.correlationData = correlationData;
+        }
+
+        private String body() {
+            return new String(message.getBody(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * {@link RabbitTemplate} that records all sent messages instead of publishing them, so that the tests can
+     * confirm them explicitly, and optionally fails a given number of sends before recording them.
+     */
+    private static class RecordingTemplate extends RabbitTemplate {
+        private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+        private final List<Sent> unconfirmed = new CopyOnWriteArrayList<>();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public void send(String exchange, String routingKey, Message message, CorrelationData correlationData) {
+            if (failures.getAndDecrement() > 0) throw new AmqpConnectException(new ConnectException("Connection refused"));
+
+            Sent entry = new Sent(routingKey, message, correlationData);
+            unconfirmed.add(entry);
+            sent.add(entry);
+        }
+
+        private Sent next() throws InterruptedException {
+            Sent next = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(next, "No message was sent.");
+            return next;
+        }
+
+        private void assertNothingSent() throws InterruptedException {
+            Sent next = sent.poll(100, TimeUnit.MILLISECONDS);
+            assertNull(next, () -> "Unexpectedly sent " + next.body());
+        }
+
+        private void confirm(String body, boolean ack) {
+            Sent entry = unconfirmed.stream().filter(s -> s.body().equals(body)).findFirst().orElseThrow();
+            confirm(entry, ack);
+        }
+
+        private void confirm(Sent entry, boolean ack) {
+            unconfirmed.remove(entry);
+            entry.correlationData.getFuture().set(new CorrelationData.Confirm(ack, ack ? null : "nack"));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatTaskExecutorTest {
+    private ChatTaskExecutor executor;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (executor != null) executor.shutdown(5000);
+    }
+
+    @Test
+    void testOrderPerChat() throws Exception {
+        executor = new ChatTaskExecutor(100);
+
+        //Tasks of the same chat run in the order of their submission, even if earlier tasks take longer
+        List<List<Integer>> results = new ArrayList<>();
+        for (int chat = 0; chat < 4; chat++) results.add(Collections.synchronizedList(new ArrayList<>()));
+
+        Random random = new Random(42);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int chat = i % 4;
+            int index = i;
+            long delay = random.nextInt(3);
+            futures.add(executor.execute(chat, () -> {
+                sleep(delay);
+                results.get(chat).add(index);
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        for (int chat = 0; chat < 4; chat++) {
+            List<Integer> chatResults = results.get(chat);
+            assertEquals(50, chatResults.size());
+            for (int i = 0; i < chatResults.size(); i++) assertEquals(chat + (i * 4), chatResults.get(i));
+        }
+    }
+
+    @Test
+    void testConcurrencyAcrossChats() throws Exception {
+        executor = new ChatTaskExecutor(10);
+
+        //The task of the first chat can only complete if the task of the second chat runs concurrently
+        CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<Void> waiting = executor.execute(1, () -> {
+            try {
+                assertTrue(latch.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        executor.execute(2, latch::countDown);
+
+        waiting.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testVirtualThreads() throws Exception {
+        executor = new ChatTaskExecutor(10);
+
+        //Each task runs on a virtual thread
+        CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+        executor.execute(1, () -> virtual.complete(Thread.currentThread().isVirtual())).get(5, TimeUnit.SECONDS);
+        assertTrue(virtual.get());
+    }
+
+    @Test
+    void testFailures() throws Exception {
+        executor = new ChatTaskExecutor(10);
+
+        //A failed task is reported by its future, but does not stop the further tasks of its chat
+        AtomicInteger completed = new AtomicInteger();
+        CompletableFuture<Void> failed = executor.execute(1, () -> {
+            throw new IllegalStateException("Failure");
+        });
+        CompletableFuture<Void> next = executor.execute(1, completed::incrementAndGet);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        next.get(5, TimeUnit.SECONDS);
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    void testInFlightLimit() throws Exception {
+        executor = new ChatTaskExecutor(2);
+
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute(1, blocking);
+        executor.execute(2, blocking);
+        assertEquals(2, executor.getInFlight());
+
+        //Further submissions block until a task completes
+        CompletableFuture<Void> submission = CompletableFuture.runAsync(() -> {
+            try {
+                executor.execute(3, () -> {
+                });
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> submission.get(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        submission.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testShutdown() throws Exception {
+        executor = new ChatTaskExecutor(10);
+
+        //All queued tasks of a chat are completed before the executor stops
+        AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            executor.execute(1, () -> {
+                sleep(50);
+                completed.incrementAndGet();
+            });
+        }
+        executor.shutdown(5000);
+        assertEquals(3, completed.get());
+        assertEquals(0, executor.getInFlight());
+
+        //No further tasks are accepted
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(2, completed::incrementAndGet));
+        assertEquals(0, executor.getInFlight());
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new ChatTaskExecutor(0));
+
+        executor = new ChatTaskExecutor(1);
+        assertThrows(IllegalArgumentException.class, () -> executor.execute(1, null));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandTrieTest {
+    private CommandTrie<String> commandTrie;
+
+    @BeforeEach
+    void setUp() {
+        commandTrie = new CommandTrie<String>("/")
+                .put("add", "add")
+                .put("addall", "addall")
+                .put("solve", "solve");
+    }
+
+    @Test
+    void testMatching() {
+        assertEquals("add", commandTrie.match("/add"));
+        assertEquals("add", commandTrie.match("/add GC12345"));
+        assertEquals("addall", commandTrie.match("/addall"));
+        assertEquals("solve", commandTrie.match("/solve\tN48 [A]"));
+
+        //Commands are case-insensitive and may be preceded by whitespace
+        assertEquals("add", commandTrie.match("/Add GC1"));
+        assertEquals("add", commandTrie.match("/ADD"));
+        assertEquals("add", commandTrie.match("  /add"));
+        assertEquals("add", commandTrie.match("\n/add"));
+    }
+
+    @Test
+    void testMentions() {
+        assertEquals("add", commandTrie.match("/Add@GeoPinguBot GC1"));
+        assertEquals("add", commandTrie.match("/add@GeoPinguBot"));
+        assertEquals("add", commandTrie.match("/add@"));
+
+        //The mention must be followed by the end of the text or a whitespace
+        assertNull(commandTrie.match("/add@bot!"));
+        assertNull(commandTrie.match("/add@bot/solve"));
+    }
+
+    @Test
+    void testNoCommands() {
+        //Prefixes and extensions of commands are not recognized
+        assertNull(commandTrie.match("/addx"));
+        assertNull(commandTrie.match("/ad"));
+        assertNull(commandTrie.match("/"));
+        assertNull(commandTrie.match("/add!"));
+
+        //Texts that are no commands
+        assertNull(commandTrie.match("add"));
+        assertNull(commandTrie.match("Hello /add"));
+        assertNull(commandTrie.match("N48 43.333 E008 52.123"));
+        assertNull(commandTrie.match(""));
+        assertNull(commandTrie.match("   "));
+        assertNull(commandTrie.match(null));
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new CommandTrie<String>(""));
+        assertThrows(IllegalArgumentException.class, () -> commandTrie.put("", "empty"));
+        assertThrows(IllegalArgumentException.class, () -> commandTrie.put("remove", null));
+    }
+}
@@ -0,0 +1,57 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeduplicationWindowTest {
+
+    @Test
+    void testWindow() {
+        DeduplicationWindow window = new DeduplicationWindow(1000, 100);
+        window.add("1", 0);
+        window.add("2", 500);
+        assertTrue(window.contains("1", 999));
+        assertTrue(window.contains("2", 999));
+        assertFalse(window.contains("3", 999));
+
+        //IDs are evicted once they are older than the window
+        assertFalse(window.contains("1", 1000));
+        assertTrue(window.contains("2", 1000));
+        assertEquals(1, window.size());
+        assertFalse(window.contains("2", 1500));
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    void testRepeatedAdding() {
+        DeduplicationWindow window = new DeduplicationWindow(1000, 100);
+        window.add("1", 0);
+        window.add("2", 100);
+
+        //Adding an ID again renews its processing time and moves it behind all other IDs
+        window.add("1", 800);
+        assertTrue(window.contains("1", 1500));
+        assertFalse(window.contains("2", 1500));
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    void testMaximumEntries() {
+        DeduplicationWindow window = new DeduplicationWindow(1000, 3);
+        for (int i = 0; i < 5; i++) window.add(Integer.toString(i), i);
+
+        //The oldest IDs are evicted once the maximum number of entries is exceeded
+        assertEquals(3, window.size());
+        assertFalse(window.contains("0", 5));
+        assertFalse(window.contains("1", 5));
+        assertTrue(window.contains("2", 5));
+        assertTrue(window.contains("4", 5));
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new DeduplicationWindow(0, 100));
+        assertThrows(IllegalArgumentException.class, () -> new DeduplicationWindow(1000, 0));
+    }
+}
@@ -0,0 +1,192 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import de.pinguparty.geopingu.bot.messages.UserMessage;
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jsoup.HttpStatusException;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserMessageRecoveryTest {
+    private final UserMessageShards shards = new UserMessageShards("userMessages", 4);
+    private final UserMessageRetries retries = new UserMessageRetries(shards, 3, 1000, 4);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RecordingTemplate rabbitTemplate = new RecordingTemplate();
+    private final UserMessageRecovery recovery = new UserMessageRecovery(rabbitTemplate, shards, retries, meterRegistry);
+
+    @Test
+    void testDeferral() {
+        Message failed = message(1, "1");
+        assertTrue(recovery.retry(failed, userMessage(1, "1"), new ConnectException()));
+        Sent retried = rabbitTemplate.sent.get(0);
+        assertEquals(retries.getExchangeName(), retried.exchange);
+        assertEquals(shards.getRoutingKey(1), retried.routingKey);
+        assertEquals(1, retries.getRetryCount(retried.message));
+
+        //Later messages of the chat are routed to the same retry queue, but keep their own number of retries
+        assertTrue(recovery.defer(message(1, "2"), userMessage(1, "2")));
+        Sent deferred = rabbitTemplate.sent.get(1);
+        assertEquals(retries.getExchangeName(), deferred.exchange);
+        assertEquals(shards.getRoutingKey(1), deferred.routingKey);
+        assertEquals(1, (Integer) deferred.message.getMessageProperties().getHeader(UserMessageRetries.HEADER_RETRY_COUNT));
+        assertEquals(0, retries.getRetryCount(deferred.message));
+
+        //Messages of other chats are not deferred
+        assertFalse(recovery.defer(message(2, "3"), userMessage(2, "3")));
+
+        //Once the retried message returns, it releases the later messages of its chat
+        assertFalse(recovery.defer(retried.message, userMessage(1, "1")));
+        assertFalse(recovery.defer(message(1, "4"), userMessage(1, "4")));
+        assertEquals(2, rabbitTemplate.sent.size());
+        assertEquals(1, meterRegistry.counter(UserMessageDispatcher.METRIC_MESSAGES, "result", "retried").count());
+        assertEquals(1, meterRegistry.counter(UserMessageDispatcher.METRIC_MESSAGES, "result", "deferred").count());
+    }
+
+    @Test
+    void testRepeatedRetry() {
+        Message failed = message(1, "1");
+        recovery.retry(failed, userMessage(1, "1"), new ConnectException());
+
+        //The retried message fails again, so later messages are deferred behind its next retry
+        assertFalse(recovery.defer(failed, userMessage(1, "1")));
+        recovery.retry(failed, userMessage(1, "1"), new ConnectException());
+        assertEquals(2, retries.getRetryCount(failed));
+
+        Message later = message(1, "2");
+        assertTrue(recovery.defer(later, userMessage(1, "2")));
+        assertEquals(2, (Integer) later.getMessageProperties().getHeader(UserMessageRetries.HEADER_RETRY_COUNT));
+    }
+
+    @Test
+    void testReleasedShard() {
+        recovery.retry(message(1, "1"), userMessage(1, "1"), new ConnectException());
+
+        //Pending retries are forgotten when the shard of their chat is released, but not for other shards
+        long otherChat = 2;
+        while (shards.getShard(otherChat) == shards.getShard(1)) otherChat++;
+        recovery.releaseShard(shards.getShard(otherChat));
+        assertTrue(recovery.defer(message(1, "2"), userMessage(1, "2")));
+        recovery.releaseShard(shards.getShard(1));
+        assertFalse(recovery.defer(message(1, "3"), userMessage(1, "3")));
+    }
+
+    @Test
+    void testMessagesWithoutID() {
+        //Retried messages without stable ID cannot be recognized when they return and do not defer later messages
+        assertTrue(recovery.retry(message(1, null), userMessage(1, null), new ConnectException()));
+        assertFalse(recovery.defer(message(1, "2"), userMessage(1, "2")));
+    }
+
+    @Test
+    void testFailedPublishing() {
+        rabbitTemplate.failingExchanges.add(retries.getExchangeName());
+
+        //Messages that cannot be scheduled for a retry are parked and do not defer later messages
+        Message failed = message(1, "1");
+        assertFalse(recovery.retry(failed, userMessage(1, "1"), new ConnectException("Connection refused")));
+        assertEquals(1, rabbitTemplate.sent.size());
+        Sent parked = rabbitTemplate.sent.get(0);
+        assertEquals(shards.getParkedExchangeName(), parked.exchange);
+        assertEquals(shards.getRoutingKey(1), parked.routingKey);
+        assertEquals("java.net.ConnectException: Connection refused",
+                parked.message.getMessageProperties().getHeader(UserMessageRetries.HEADER_PARKED_REASON));
+        assertFalse(recovery.defer(message(1, "2"), userMessage(1, "2")));
+
+        //Failures of parking are only logged
+        rabbitTemplate.failingExchanges.add(shards.getParkedExchangeName());
+        recovery.park(message(1, "3"), new IllegalStateException());
+        assertEquals(1, rabbitTemplate.sent.size());
+        assertEquals(2, meterRegistry.counter(UserMessageDispatcher.METRIC_MESSAGES, "result", "parked").count());
+    }
+
+    @Test
+    void testFailedDeferral() {
+        recovery.retry(message(1, "1"), userMessage(1, "1"), new ConnectException());
+
+        //Messages that cannot be deferred are handled right away
+        rabbitTemplate.failingExchanges.add(retries.getExchangeName());
+        assertFalse(recovery.defer(message(1, "2"), userMessage(1, "2")));
+    }
+
+    @Test
+    void testCanRetry() {
+        Message message = message(1, "1");
+
+        //Unavailable databases, connection failures, timeouts and server errors are transient
+        assertTrue(recovery.canRetry(new DataAccessResourceFailureException("Unavailable"), message));
+        assertTrue(recovery.canRetry(new ConnectException(), message));
+        assertTrue(recovery.canRetry(new IllegalStateException(new SocketTimeoutException()), message));
+        assertTrue(recovery.canRetry(new HttpStatusException("Unavailable", 503, "url"), message));
+
+        //Other failures are not
+        assertFalse(recovery.canRetry(new HttpStatusException("Not found", 404, "url"), message));
+        assertFalse(recovery.canRetry(new IllegalStateException(new HttpStatusException("Not found", 404, "url")), message));
+        assertFalse(recovery.canRetry(new IllegalStateException(), message));
+
+        //Messages cannot be retried beyond the maximum number of retries
+        for (int i = 0; i < 3; i++) retries.prepareRetry(message);
+        assertFalse(recovery.canRetry(new ConnectException(), message));
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRecovery(null, shards, retries, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRecovery(rabbitTemplate, null, retries, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRecovery(rabbitTemplate, shards, null, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRecovery(rabbitTemplate, shards, retries, null));
+    }
+
+    private Message message(long chatID, String messageID) {
+        MessageProperties properties = new MessageProperties();
+        properties.setReceivedRoutingKey(shards.getRoutingKey(chatID));
+        properties.setMessageId(messageID);
+        return new Message(new byte[0], properties);
+    }
+
+    private static UserMessage userMessage(long chatID, String messageID) {
+        return new UserMessage().setChatID(chatID).setMessageID(messageID);
+    }
+
+    /**
+     * Message that was published, together with its exchange and routing key.
+     */
+    private static class Sent {
+        private final String exchange;
+        private final String routingKey;
+        private final Message message;
+
+        private Sent(String exchange, String routingKey, Message message) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.message = message;
+        }
+    }
+
+    /**
+     * {@link RabbitTemplate} that records all published messages instead of publishing them and fails for given
+     * exchanges.
+     */
+    private static class RecordingTemplate extends RabbitTemplate {
+        private final List<Sent> sent = new ArrayList<>();
+        private final Set<String> failingExchanges = new HashSet<>();
+
+        @Override
+        public void send(String exchange, String routingKey, Message message) {
+            if (failingExchanges.contains(exchange)) throw new AmqpConnectException(new ConnectException("Connection refused"));
+            sent.add(new Sent(exchange, routingKey, message));
+        }
+    }
+}
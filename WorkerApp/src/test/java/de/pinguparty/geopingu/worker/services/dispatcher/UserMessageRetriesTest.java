@@ -0,0 +1,108 @@
+package de.pinguparty.geopingu.worker.services.dispatcher;
+
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.HeadersExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserMessageRetriesTest {
+    private final UserMessageShards shards = new UserMessageShards("userMessages", 4);
+    private final UserMessageRetries retries = new UserMessageRetries(shards, 3, 1000, 4);
+
+    @Test
+    void testDelays() {
+        assertEquals(1000, retries.getDelay(0));
+        assertEquals(4000, retries.getDelay(1));
+        assertEquals(16000, retries.getDelay(2));
+        assertEquals(1000, new UserMessageRetries(shards, 3, 1000, 1).getDelay(2));
+    }
+
+    @Test
+    void testRetryCount() {
+        Message message = new Message(new byte[0], new MessageProperties());
+        assertEquals(0, retries.getRetryCount(message));
+
+        //Each retry increments the count until the maximum is reached
+        for (int retry = 1; retry <= 3; retry++) {
+            assertTrue(retries.canRetry(message));
+            retries.prepareRetry(message);
+            assertEquals(retry, retries.getRetryCount(message));
+            assertEquals(retry, (Integer) message.getMessageProperties().getHeader(UserMessageRetries.HEADER_RETRY_COUNT));
+        }
+        assertFalse(retries.canRetry(message));
+        assertThrows(IllegalArgumentException.class, () -> retries.prepareRetry(message));
+    }
+
+    @Test
+    void testDeferral() {
+        Message message = new Message(new byte[0], new MessageProperties());
+        retries.prepareRetry(message);
+
+        //A deferred message is routed like the retried message, but keeps its own number of retries
+        retries.prepareDeferral(message, 3);
+        assertEquals(3, (Integer) message.getMessageProperties().getHeader(UserMessageRetries.HEADER_RETRY_COUNT));
+        assertEquals(1, retries.getRetryCount(message));
+        assertTrue(retries.canRetry(message));
+
+        //Deferring again retains the own number of retries
+        retries.prepareDeferral(message, 2);
+        assertEquals(2, (Integer) message.getMessageProperties().getHeader(UserMessageRetries.HEADER_RETRY_COUNT));
+        assertEquals(1, retries.getRetryCount(message));
+
+        //A retry of a deferred message continues with its own number of retries
+        retries.prepareRetry(message);
+        assertEquals(2, (Integer) message.getMessageProperties().getHeader(UserMessageRetries.HEADER_RETRY_COUNT));
+        assertNull(message.getMessageProperties().getHeader(UserMessageRetries.HEADER_DEFERRED_RETRY_COUNT));
+        assertEquals(2, retries.getRetryCount(message));
+
+        assertThrows(IllegalArgumentException.class, () -> retries.prepareDeferral(message, 0));
+        assertThrows(IllegalArgumentException.class, () -> retries.prepareDeferral(message, 4));
+    }
+
+    @Test
+    void testDeclarables() {
+        Declarables declarables = retries.createDeclarables();
+        assertEquals("userMessages.retry", retries.getExchangeName());
+        assertEquals(1, declarables.getDeclarablesByType(HeadersExchange.class).size());
+
+        //Each retry queue delays its messages and dead-letters them back to the exchange of the shards
+        List<Queue> queues = declarables.getDeclarablesByType(Queue.class);
+        assertEquals(3, queues.size());
+        for (int retry = 0; retry < 3; retry++) {
+            String queueName = retries.getQueueName(retry);
+            Queue queue = queues.stream().filter(q -> q.getName().equals(queueName)).findFirst().orElseThrow();
+            assertEquals((int) retries.getDelay(retry), queue.getArguments().get("x-message-ttl"));
+            assertEquals(shards.getExchangeName(), queue.getArguments().get("x-dead-letter-exchange"));
+            assertNull(queue.getArguments().get("x-dead-letter-routing-key"));
+        }
+        assertThrows(IllegalArgumentException.class, () -> retries.getQueueName(3));
+
+        //Messages are routed to the queue of the retry by their incremented retry count
+        List<Binding> bindings = declarables.getDeclarablesByType(Binding.class);
+        assertEquals(3, bindings.size());
+        for (int retry = 0; retry < 3; retry++) {
+            String queueName = retries.getQueueName(retry);
+            Binding binding = bindings.stream().filter(b -> b.getDestination().equals(queueName)).findFirst().orElseThrow();
+            assertEquals(retries.getExchangeName(), binding.getExchange());
+            Map<String, Object> arguments = binding.getArguments();
+            assertEquals(retry + 1, arguments.get(UserMessageRetries.HEADER_RETRY_COUNT));
+        }
+    }
+
+    @Test
+    void testSanityChecks() {
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRetries(null, 3, 1000, 4));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRetries(shards, -1, 1000, 4));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRetries(shards, 3, 0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new UserMessageRetries(shards, 3, 1000, 0.5));
+    }
+}
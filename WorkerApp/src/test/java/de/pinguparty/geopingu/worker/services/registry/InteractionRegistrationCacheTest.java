@@ -0,0 +1,334 @@
+package de.pinguparty.geopingu.worker.services.registry;
+
+import de.pinguparty.geopingu.bot.messages.UserMessageShards;
+import de.pinguparty.geopingu.worker.interactions.Interaction;
+import de.pinguparty.geopingu.worker.interactions.add.AddGeocacheInteraction;
+import de.pinguparty.geopingu.worker.persistence.InteractionRegistrationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InteractionRegistrationCacheTest {
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    private final Map<Long, InteractionRegistration> store = new HashMap<>();
+    private final Map<Integer, Long> epochs = new HashMap<>();
+    private final Map<String, Integer> calls = new HashMap<>();
+    private final Interaction interaction = new AddGeocacheInteraction();
+    private final Interaction otherInteraction = new AddGeocacheInteraction();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private boolean failing = false;
+    private InteractionRegistrationRepository repository;
+    private InteractionRegistrationCache cache;
+
+    @BeforeEach
+    void setUp() {
+        repository = createRepository();
+        cache = createCache();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void testOwnedShard() {
+        store.put(1L, new InteractionRegistration(1, interaction));
+        cache.acquire(0);
+        assertTrue(cache.isOwned(0));
+        assertEquals(1, getCalls("acquireEpoch"));
+
+        //Lookups are loaded once and answered from memory afterwards, also for chats without registration
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(Optional.empty(), cache.get(2));
+        assertEquals(Optional.empty(), cache.get(2));
+        assertEquals(2, getCalls("findById"));
+
+        //Changes are served from memory and written behind
+        cache.put(2, interaction);
+        cache.remove(1);
+        assertEquals(Optional.of(interaction), cache.get(2));
+        assertEquals(Optional.empty(), cache.get(1));
+        assertEquals(0, getCalls("writeAll"));
+        assertEquals(interaction, store.get(1L).getInteraction());
+
+        //Pending changes are flushed in one write, which leaves a tombstone for the removal
+        cache.flush();
+        assertEquals(1, getCalls("writeAll"));
+        assertEquals(interaction, store.get(2L).getInteraction());
+        assertNull(store.get(1L).getInteraction());
+        assertEquals(1L, store.get(2L).getEpoch());
+
+        //Removals of chats that are known to have no registration are skipped and nothing is written twice
+        cache.remove(1);
+        cache.flush();
+        assertEquals(1, getCalls("writeAll"));
+        assertEquals(2, getCalls("findById"));
+    }
+
+    @Test
+    void testCoalescing() {
+        cache.acquire(0);
+
+        //Multiple changes of a chat are coalesced into the latest one
+        cache.put(1, interaction);
+        cache.remove(1);
+        cache.put(1, otherInteraction);
+        cache.put(2, interaction);
+        cache.flush();
+        assertEquals(1, getCalls("writeAll"));
+        assertEquals(2, getCalls("writtenRegistrations"));
+        assertEquals(otherInteraction, store.get(1L).getInteraction());
+        assertEquals(2, meterRegistry.counter("geopingu.registry.cache.flushed").count());
+    }
+
+    @Test
+    void testUnownedShard() {
+        store.put(1L, new InteractionRegistration(1, interaction));
+
+        //All operations go to the repository
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(2, getCalls("findById"));
+
+        cache.remove(1);
+        cache.remove(1);
+        assertEquals(2, getCalls("writeAll"));
+        assertEquals(Optional.empty(), cache.get(1));
+        assertEquals(3, getCalls("findById"));
+        assertEquals(0, getCalls("acquireEpoch"));
+    }
+
+    @Test
+    void testRelease() {
+        cache.acquire(0);
+        cache.put(1, interaction);
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(0, getCalls("findById"));
+
+        //Pending changes are flushed before the release completes
+        cache.release(0);
+        assertFalse(cache.isOwned(0));
+        assertEquals(1, getCalls("writeAll"));
+        assertEquals(interaction, store.get(1L).getInteraction());
+
+        //The cache is dropped on release, so that changes of other instances become visible
+        store.remove(1L);
+        assertEquals(Optional.empty(), cache.get(1));
+        assertEquals(1, getCalls("findById"));
+
+        //The cache starts empty with a new epoch when the shard is acquired again
+        store.put(1L, new InteractionRegistration(1, interaction));
+        cache.acquire(0);
+        assertEquals(2, getCalls("acquireEpoch"));
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(2, getCalls("findById"));
+        cache.put(1, otherInteraction);
+        cache.release(0);
+        assertEquals(2L, store.get(1L).getEpoch());
+    }
+
+    @Test
+    void testFencing() {
+        InteractionRegistrationCache previousOwner = createCache();
+        try {
+            previousOwner.acquire(0);
+            previousOwner.put(1, interaction);
+            previousOwner.put(2, interaction);
+
+            //The next owner writes with a later epoch
+            cache.acquire(0);
+            cache.put(1, otherInteraction);
+            cache.flush();
+            assertEquals(2L, store.get(1L).getEpoch());
+
+            //The late flush of the previous owner is rejected for the chats of the next owner and drops its cache
+            previousOwner.flush();
+            assertEquals(otherInteraction, store.get(1L).getInteraction());
+            assertFalse(previousOwner.isOwned(0));
+            assertEquals(1, meterRegistry.counter("geopingu.registry.cache.rejected").count());
+
+            //Direct writes of the previous owner are fenced by its epoch as well
+            previousOwner.remove(1);
+            assertEquals(otherInteraction, store.get(1L).getInteraction());
+            assertEquals(Optional.of(otherInteraction), cache.get(1));
+        } finally {
+            previousOwner.shutdown();
+        }
+    }
+
+    @Test
+    void testFailedFlush() {
+        cache.acquire(0);
+        cache.put(1, interaction);
+
+        //Changes are kept pending while flushes fail and remain visible
+        failing = true;
+        cache.flush();
+        assertTrue(cache.isOwned(0));
+        assertEquals(Optional.of(interaction), cache.get(1));
+        failing = false;
+        cache.flush();
+        assertEquals(interaction, store.get(1L).getInteraction());
+
+        //Changes that cannot be flushed on release are dropped instead of being written late
+        cache.put(2, interaction);
+        failing = true;
+        cache.release(0);
+        failing = false;
+        assertFalse(cache.isOwned(0));
+        cache.flush();
+        assertFalse(store.containsKey(2L));
+        assertEquals(1, meterRegistry.counter("geopingu.registry.cache.dropped").count());
+    }
+
+    @Test
+    void testFailedWrite() {
+        //Failed direct writes are rethrown
+        failing = true;
+        assertThrows(DataAccessResourceFailureException.class, () -> cache.put(1, interaction));
+        assertFalse(store.containsKey(1L));
+    }
+
+    @Test
+    void testFailedAcquisition() {
+        //The shard remains unowned if no epoch can be obtained and is acquired on the next attempt
+        failing = true;
+        cache.acquire(0);
+        assertFalse(cache.isOwned(0));
+        failing = false;
+        cache.acquire(0);
+        assertTrue(cache.isOwned(0));
+    }
+
+    @Test
+    void testExpiry() {
+        cache.acquire(0);
+
+        //Expired registrations are not returned, even if the database did not remove them yet
+        store.put(1L, new InteractionRegistration(1, interaction, Instant.now().minusMillis(TTL + 1000)));
+        assertEquals(Optional.empty(), cache.get(1));
+        store.put(2L, new InteractionRegistration(2, interaction, Instant.now().minusMillis(TTL - 60000)));
+        assertEquals(Optional.of(interaction), cache.get(2));
+    }
+
+    @Test
+    void testEviction() throws InterruptedException {
+        InteractionRegistrationCache shortLived = new InteractionRegistrationCache(repository, new UserMessageShards("test", 1),
+                2, 200, 60000, 60000, meterRegistry);
+        try {
+            shortLived.acquire(0);
+            shortLived.put(1, interaction);
+            shortLived.flush();
+            assertEquals(Optional.of(interaction), shortLived.get(1));
+
+            //Entries are evicted once they expire and are not returned afterwards
+            Thread.sleep(300);
+            shortLived.evictExpired();
+            assertEquals(1, meterRegistry.counter("geopingu.registry.cache.evictions").count());
+            assertEquals(Optional.empty(), shortLived.get(1));
+            assertEquals(1, getCalls("findById"));
+        } finally {
+            shortLived.shutdown();
+        }
+    }
+
+    @Test
+    void testMaximumEntries() {
+        cache.acquire(0);
+        cache.put(1, interaction);
+        cache.put(2, interaction);
+        cache.put(3, interaction);
+
+        //The least recently touched chat is evicted, but remains visible until its change is flushed
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(0, getCalls("findById"));
+        cache.flush();
+
+        //Afterwards, it is loaded again on the next lookup
+        assertEquals(Optional.of(interaction), cache.get(2));
+        assertEquals(Optional.of(interaction), cache.get(3));
+        assertEquals(Optional.of(interaction), cache.get(1));
+        assertEquals(1, getCalls("findById"));
+        assertTrue(meterRegistry.counter("geopingu.registry.cache.evictions").count() >= 1);
+    }
+
+    @Test
+    void testSanityChecks() {
+        UserMessageShards shards = new UserMessageShards("test", 1);
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationCache(null, shards, 2, TTL, 60000, 60000, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationCache(repository, null, 2, TTL, 60000, 60000, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationCache(repository, shards, 0, TTL, 60000, 60000, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationCache(repository, shards, 2, 0, 60000, 60000, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationCache(repository, shards, 2, TTL, 0, 60000, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationCache(repository, shards, 2, TTL, 60000, 0, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new InteractionRegistrationCache(repository, shards, 2, TTL, 60000, 60000, null));
+    }
+
+    private InteractionRegistrationCache createCache() {
+        return new InteractionRegistrationCache(repository, new UserMessageShards("test", 1), 2, TTL, 60000, 60000, meterRegistry);
+    }
+
+    private int getCalls(String method) {
+        return calls.getOrDefault(method, 0);
+    }
+
+    /**
+     * Creates a repository that keeps the registrations and epochs in memory, fences writes like the database and
+     * counts the calls of its methods.
+     */
+    @SuppressWarnings("unchecked")
+    private InteractionRegistrationRepository createRepository() {
+        return (InteractionRegistrationRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{InteractionRegistrationRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "InMemoryRepository";
+                    }
+
+                    calls.merge(method.getName(), 1, Integer::sum);
+                    if (failing) throw new DataAccessResourceFailureException("Repository unavailable");
+                    switch (method.getName()) {
+                        case "findById":
+                            return Optional.ofNullable(store.get((Long) args[0]));
+                        case "acquireEpoch":
+                            return epochs.merge((Integer) args[0], 1L, Long::sum);
+                        case "writeAll":
+                            long epoch = (Long) args[1];
+                            Set<Long> rejected = new HashSet<>();
+                            for (InteractionRegistration registration : (Collection<InteractionRegistration>) args[0]) {
+                                calls.merge("writtenRegistrations", 1, Integer::sum);
+                                InteractionRegistration stored = store.get(registration.getChatId());
+                                if ((stored != null) && (stored.getEpoch() != null) && (stored.getEpoch() > epoch)) {
+                                    rejected.add(registration.getChatId());
+                                    continue;
+                                }
+                                store.put(registration.getChatId(), registration.setEpoch(epoch));
+                            }
+                            return rejected;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,27 @@
+package de.pinguparty.geopingu.worker.services.registry;
+
+import de.pinguparty.geopingu.worker.interactions.add.AddGeocacheInteraction;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InteractionRegistrationTest {
+
+    @Test
+    void testExpiry() {
+        Instant now = Instant.now();
+
+        //Registrations expire once they were last touched before the threshold
+        assertTrue(new InteractionRegistration(1, new AddGeocacheInteraction(), now.minusSeconds(10)).isExpired(now));
+        assertFalse(new InteractionRegistration(1, new AddGeocacheInteraction(), now).isExpired(now));
+        assertFalse(new InteractionRegistration(1, new AddGeocacheInteraction(), now.plusSeconds(10)).isExpired(now));
+
+        //New registrations are touched on creation
+        assertFalse(new InteractionRegistration(1, new AddGeocacheInteraction()).isExpired(now.minusSeconds(1)));
+
+        //Legacy registrations without timestamp never expire until their timestamp is set
+        assertFalse(new InteractionRegistration(1, new AddGeocacheInteraction(), null).isExpired(now));
+    }
+}